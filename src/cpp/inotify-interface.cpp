@@ -35,7 +35,6 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *j, void *reserved) {
     jvm_ptr = j;
     JNIEnv *e;
     jclass class_inst;
-    jmethodID method_id;
 
     j->GetEnv((void **) &e, JNI_VERSION_1_6);
 
@@ -65,51 +64,28 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *j, void *reserved) {
     inotify_exception = (jclass) (e)->NewGlobalRef(class_inst);
     (e)->DeleteLocalRef(class_inst);
 
-    class_inst = (e)->FindClass("com/den_4/inotify_java/NativeInotify");
+    class_inst = (e)->FindClass("com/den_4/inotify_java/InotifyBackend$EventSink");
     if (!class_inst) goto fail;
-    native_inotify = (jclass) (e)->NewGlobalRef(class_inst);
+    event_sink = (jclass) (e)->NewGlobalRef(class_inst);
     (e)->DeleteLocalRef(class_inst);
 
-    class_inst = (e)->FindClass("com/den_4/inotify_java/InotifyEvent");
+    class_inst = (e)->FindClass("com/den_4/inotify_java/InotifyBackend$ReactorSink");
     if (!class_inst) goto fail;
-    inotify_event = (jclass) (e)->NewGlobalRef(class_inst);
+    reactor_sink = (jclass) (e)->NewGlobalRef(class_inst);
     (e)->DeleteLocalRef(class_inst);
 
     /* Methods */
-    method_id = (e)->GetMethodID(native_inotify, "setPipes", "(II)V");
-    if (!method_id) goto fail;
-    native_inotify_setPipes = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
-
-    method_id = (e)->GetMethodID(native_inotify, "getPipeWrite", "()I");
-    if (!method_id) goto fail;
-    native_inotify_getPipeWrite = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
-
-    method_id = (e)->GetMethodID(native_inotify, "getPipeRead", "()I");
-    if (!method_id) goto fail;
-    native_inotify_getPipeRead = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
-
-    method_id = (e)->GetMethodID(native_inotify, "getFileDescriptor", "()I");
-    if (!method_id) goto fail;
-    native_inotify_getFileDescriptor = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
-
-    method_id = (e)->GetMethodID(native_inotify, "eventHandler", "(Lcom/den_4/inotify_java/InotifyEvent;)V");
-    if (!method_id) goto fail;
-    native_inotify_eventHandler = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
-
-    method_id = (e)->GetMethodID(inotify_event, "<init>", "(III)V");
-    if (!method_id) goto fail;
-    inotify_event_init_III_V = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
-
-    method_id = (e)->GetMethodID(inotify_event, "<init>", "(IIILjava/lang/String;)V");
-    if (!method_id) goto fail;
-    inotify_event_init_III_Ljava_lang_String = (jmethodID) (e)->NewGlobalRef((jobject) method_id);
-    (e)->DeleteLocalRef((jobject) method_id);
+    event_sink_events = (e)->GetMethodID(event_sink, "events", "(Ljava/nio/ByteBuffer;I)V");
+    if (!event_sink_events) goto fail;
+
+    reactor_sink_events = (e)->GetMethodID(reactor_sink, "events", "(ILjava/nio/ByteBuffer;I)V");
+    if (!reactor_sink_events) goto fail;
+
+    reactor_sink_wakeup = (e)->GetMethodID(reactor_sink, "wakeup", "()Z");
+    if (!reactor_sink_wakeup) goto fail;
+
+    reactor_sink_error = (e)->GetMethodID(reactor_sink, "error", "(II)V");
+    if (!reactor_sink_error) goto fail;
 
     // Success
     return JNI_VERSION_1_6;
@@ -135,17 +111,13 @@ JNIEXPORT void JNI_OnUnload(JavaVM *j, void *reserved) {
     (e)->DeleteGlobalRef(system_limit_exception);
     (e)->DeleteGlobalRef(insufficient_kernel_memory_exception);
     (e)->DeleteGlobalRef(inotify_exception);
-    (e)->DeleteGlobalRef(native_inotify);
-    (e)->DeleteGlobalRef(inotify_event);
+    (e)->DeleteGlobalRef(event_sink);
+    (e)->DeleteGlobalRef(reactor_sink);
 
-    /* Methods */
-    (e)->DeleteGlobalRef((jobject) native_inotify_setPipes);
-    (e)->DeleteGlobalRef((jobject) native_inotify_getPipeWrite);
-    (e)->DeleteGlobalRef((jobject) native_inotify_getPipeRead);
-    (e)->DeleteGlobalRef((jobject) native_inotify_getFileDescriptor);
-    (e)->DeleteGlobalRef((jobject) native_inotify_eventHandler);
-    (e)->DeleteGlobalRef((jobject) inotify_event_init_III_V);
-    (e)->DeleteGlobalRef((jobject) inotify_event_init_III_Ljava_lang_String);
+    /*
+     * Method IDs remain valid for as long as the class is loaded and are not
+     * references; nothing needs to be released for them.
+     */
 }
 
 /*
@@ -154,16 +126,21 @@ JNIEXPORT void JNI_OnUnload(JavaVM *j, void *reserved) {
  *     Creates a new Inotify object, returning its file descriptor or -1 on
  *     error.
  *
+ * Parameters:
+ *     pipe - receives the read and write ends of the IPC pipe used to stop a
+ *            dedicated reader, or NULL; instances serviced by a reactor do
+ *            not need one
+ *
  * Returns:
  *     Inotify object file descriptor or -1 on error
  */
-JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init(JNIEnv *e, jobject j) {
+JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init(JNIEnv *e, jclass c, jintArray pipe) {
     /* On success, a new file descriptor is returned. */
-    int fd = inotify_init();
+    int fd = inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
     /* On error, -1 is returned, and errno is set. */
 
     if (fd < 0) {
-        debug("inotify_init() failed (" << errno << "): " << strerror(errno));
+        debug("inotify_init1() failed (" << errno << "): " << strerror(errno));
         switch (errno) {
         case EMFILE:
             (e)->ThrowNew(user_instance_limit_exception, strerror(errno));
@@ -182,10 +159,11 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init(JNIEnv *
     }
 
     debug("inotify fd: " << fd);
+    if (!pipe) return fd;
 
     int pipe_fds[2];
-    if ((pipe(pipe_fds)) < 0) {
-        debug("pipe() failed (" << errno << "): " << strerror(errno));
+    if ((pipe2(pipe_fds, O_CLOEXEC)) < 0) {
+        debug("pipe2() failed (" << errno << "): " << strerror(errno));
         (e)->ThrowNew(inotify_exception, strerror(errno));
         return -1;
     }
@@ -193,7 +171,8 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init(JNIEnv *
     debug("pipe read/write fds: " << pipe_fds[0] << '/' << pipe_fds[1]);
 
     // pipe_fds[0] is the read end, pipe_fds[1], the write end
-    (e)->CallVoidMethod(j, native_inotify_setPipes, pipe_fds[0], pipe_fds[1]);
+    jint pipe_ends[2] = { pipe_fds[0], pipe_fds[1] };
+    (e)->SetIntArrayRegion(pipe, 0, 2, pipe_ends);
 
     return fd;
 }
@@ -201,10 +180,13 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init(JNIEnv *
 /*
  * Function: Java_com_den_14_inotify_1java_NativeInotify_close
  *
- *     Closes the inotify instance.
+ *     Closes the inotify instance by closing the write end of its IPC pipe;
+ *     the reader closes the remaining descriptors.
+ *
+ * Parameters:
+ *     pw - write end of the IPC pipe
  */
-JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close(JNIEnv *e, jobject j, jint fd) {
-    jint pw = (e)->CallIntMethod(j, native_inotify_getPipeWrite);
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close(JNIEnv *e, jclass c, jint pw) {
     /* Close the write end of the pipe. */
     int ret = close(pw);
     if (ret < 0) {
@@ -216,6 +198,23 @@ JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close(JNIEnv
     debug("closed pipe write end");
 }
 
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_close_1descriptors
+ *
+ *     Closes the inotify file descriptor and the read end of the IPC pipe of
+ *     an instance whose queue was never read, without reading it.
+ *
+ * Parameters:
+ *     fd - inotify object file descriptor
+ *     pipe_fd - read end of the IPC pipe
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close_1descriptors(
+        JNIEnv * /* e */, jclass /* c */, jint fd, jint pipe_fd) {
+    close(pipe_fd);
+    close(fd);
+    debug("closed descriptors of unread instance");
+}
+
 /*
  * Function: Java_com_den_14_inotify_1java_NativeInotify_add_1watch
  *
@@ -231,7 +230,7 @@ JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close(JNIEnv
  *     The watch descriptor or -1 on error
  */
 JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watch(
-        JNIEnv *e, jobject j, jint fd, jstring path, jint mask) {
+        JNIEnv *e, jclass c, jint fd, jstring path, jint mask) {
     const char *path_chars = (e)->GetStringUTFChars(path, NULL);
     int ret = inotify_add_watch(fd, path_chars, mask);
     (e)->ReleaseStringUTFChars(path, path_chars);
@@ -251,6 +250,339 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watch(
     return ret;
 }
 
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_add_1watches
+ *
+ *     Adds the specified mask to the Inotify object associated with the
+ *     specified file descriptor for each path in the array. Paths are copied
+ *     into a stack buffer, so no allocation is made per path. Once the user
+ *     watch limit is reached (ENOSPC) the remaining paths are not attempted
+ *     and report ENOSPC.
+ *
+ * Parameters:
+ *     fd  - Inotify object file descriptor
+ *     paths - paths to watch
+ *     mask - bitmask controlling what to watch
+ *
+ * Returns:
+ *     An array holding, for each path, the watch descriptor or the negated
+ *     errno on error, or NULL if the array could not be allocated
+ */
+JNIEXPORT jintArray JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watches(
+        JNIEnv *e, jclass c, jint fd, jobjectArray paths, jint mask) {
+    jsize count = (e)->GetArrayLength(paths);
+    jintArray ret = (e)->NewIntArray(count);
+    if (!ret) return NULL;
+
+    jint *wds = (e)->GetIntArrayElements(ret, NULL);
+    if (!wds) return NULL;
+
+    char path_chars[PATH_MAX];
+    jsize i = 0;
+    for (; i < count; i++) {
+        jstring path = (jstring) (e)->GetObjectArrayElement(paths, i);
+        if (!path) {
+            wds[i] = -EINVAL;
+            continue;
+        }
+
+        jsize utf_len = (e)->GetStringUTFLength(path);
+        if (utf_len >= PATH_MAX) {
+            (e)->DeleteLocalRef(path);
+            wds[i] = -ENAMETOOLONG;
+            continue;
+        }
+        (e)->GetStringUTFRegion(path, 0, (e)->GetStringLength(path), path_chars);
+        path_chars[utf_len] = '\0';
+        (e)->DeleteLocalRef(path);
+
+        int wd = inotify_add_watch(fd, path_chars, mask);
+        if (wd >= 0) {
+            wds[i] = wd;
+            continue;
+        }
+
+        debug("inotify_add_watch() failed (" << errno << "): " << strerror(errno));
+        wds[i] = -errno;
+        if (errno == ENOSPC) break;
+    }
+    for (i++; i < count; i++) {
+        wds[i] = -ENOSPC;
+    }
+
+    (e)->ReleaseIntArrayElements(ret, wds, 0);
+    return ret;
+}
+
+/*
+ * Function: append
+ *     Appends bytes to a growable byte array.
+ *
+ * Parameters:
+ *     a - byte array
+ *     data - bytes to append
+ *     n - number of bytes to append
+ *
+ * Returns:
+ *     true on success, false if allocation failed
+ */
+static bool append(BYTE_ARRAY *a, const void *data, size_t n) {
+    if (a->len + n > a->size) {
+        size_t size = max(max(a->size * 2, a->len + n), (size_t) 4096);
+        char *buf = (char *) realloc(a->buf, size);
+        if (!buf) return false;
+        a->buf = buf;
+        a->size = size;
+    }
+    memcpy(a->buf + a->len, data, n);
+    a->len += n;
+    return true;
+}
+
+/*
+ * Function: excluded
+ *     Tests the entry in the walker's path buffer against the exclude
+ *     patterns. Patterns containing a slash are matched against the full
+ *     path, others against the name alone.
+ *
+ * Parameters:
+ *     w - walker
+ *     name - name of the entry
+ *
+ * Returns:
+ *     true if the entry is excluded
+ */
+static bool excluded(WALKER *w, const char *name) {
+    for (int i = 0; i < w->exclude_count; i++) {
+        const char *pattern = w->excludes[i];
+        if (strchr(pattern, '/')) {
+            if (fnmatch(pattern, w->path, FNM_PATHNAME) == 0) return true;
+        } else if (fnmatch(pattern, name, 0) == 0) {
+            return true;
+        }
+    }
+    return false;
+}
+
+/*
+ * Function: walk_dir
+ *     Lists the directory whose path is in the walker's path buffer, adding
+ *     a watch and a walk record for each subdirectory. Subdirectories are
+ *     found from d_type, falling back to fstatat only for file systems that
+ *     report DT_UNKNOWN. Symbolic links are not followed. Subdirectories
+ *     that vanish before they are watched are skipped; other failures are
+ *     recorded with the negated errno in place of the watch descriptor.
+ *
+ * Parameters:
+ *     w - walker
+ *     f - frame of the directory, receives its watched subdirectories
+ *
+ * Returns:
+ *     0, or the negated errno if the walk must stop (ENOSPC, ENOMEM)
+ */
+static int walk_dir(WALKER *w, WALK_FRAME *f) {
+    w->path[f->path_len] = '\0';
+    int dfd = open(w->path, O_RDONLY | O_DIRECTORY | O_NOFOLLOW | O_CLOEXEC);
+    if (dfd < 0) {
+        debug("open() failed (" << errno << "): " << strerror(errno));
+        return 0;
+    }
+
+    size_t base = f->path_len;
+    if (base == 0 || w->path[base - 1] != '/') w->path[base++] = '/';
+
+    int ret = 0;
+    for (;;) {
+        long n = syscall(SYS_getdents64, dfd, w->dents, WALK_DENTS_BUFFER);
+        if (n < 0 && errno == EINTR) continue;
+        if (n <= 0) break;
+
+        for (long off = 0; off < n;) {
+            LINUX_DIRENT64 *d = (LINUX_DIRENT64 *) (w->dents + off);
+            off += d->d_reclen;
+
+            const char *name = d->d_name;
+            if (name[0] == '.' && (name[1] == '\0' || (name[1] == '.' && name[2] == '\0')))
+                continue;
+
+            if (d->d_type == DT_UNKNOWN) {
+                struct stat st;
+                if (fstatat(dfd, name, &st, AT_SYMLINK_NOFOLLOW) != 0 || !S_ISDIR(st.st_mode))
+                    continue;
+            } else if (d->d_type != DT_DIR) {
+                continue;
+            }
+
+            size_t name_len = strlen(name);
+            jint wd;
+            if (base + name_len >= PATH_MAX) {
+                wd = -ENAMETOOLONG;
+            } else {
+                memcpy(w->path + base, name, name_len + 1);
+                if (excluded(w, name)) continue;
+
+                wd = inotify_add_watch(w->fd, w->path, w->mask);
+                if (wd < 0) {
+                    if (errno == ENOENT || errno == ENOTDIR) continue;
+                    debug("inotify_add_watch() failed (" << errno << "): " << strerror(errno));
+                    wd = -errno;
+                }
+            }
+
+            jint index = w->count++;
+            uint16_t len = (uint16_t) name_len;
+            if (!append(&w->table, &f->index, sizeof(jint)) ||
+                    !append(&w->table, &wd, sizeof(jint)) ||
+                    !append(&w->table, &len, sizeof(len)) ||
+                    !append(&w->table, name, name_len)) {
+                ret = -ENOMEM;
+                break;
+            }
+            if (wd == -ENOSPC) {
+                ret = -ENOSPC;
+                break;
+            }
+            if (wd < 0) continue;
+
+            if (!append(&f->children, &index, sizeof(index)) ||
+                    !append(&f->children, name, name_len + 1)) {
+                ret = -ENOMEM;
+                break;
+            }
+        }
+        if (ret != 0) break;
+    }
+
+    close(dfd);
+    return ret;
+}
+
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_walk_1watches
+ *
+ *     Walks the directory tree below the specified root depth-first, adding
+ *     the specified mask to the Inotify object for every subdirectory. The
+ *     root itself is not watched. Each directory is listed and closed before
+ *     its subdirectories are descended, so the walk holds at most one
+ *     directory open.
+ *
+ *     The returned table holds one record per subdirectory, in native byte
+ *     order: the table index of the parent directory (-1 for the root), the
+ *     watch descriptor or negated errno, the length of the name, and the
+ *     name's bytes. Parents precede their subdirectories. Once the user
+ *     watch limit is reached the walk stops; the last record reports ENOSPC.
+ *
+ * Parameters:
+ *     fd  - Inotify object file descriptor
+ *     root - directory to walk
+ *     mask - bitmask controlling what to watch
+ *     excludes - exclude patterns (see fnmatch(3)), may be NULL
+ *
+ * Returns:
+ *     The walk records, or NULL on error
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_den_14_inotify_1java_NativeInotify_walk_1watches(
+        JNIEnv *e, jclass c, jint fd, jstring root, jint mask, jobjectArray excludes) {
+    WALKER w;
+    WALK_FRAME *frames = NULL;
+    size_t depth = 0, frames_size = 0;
+    jbyteArray ret = NULL;
+    int status = 0;
+
+    memset(&w, 0, sizeof(w));
+    w.fd = fd;
+    w.mask = mask;
+
+    jsize utf_len = (e)->GetStringUTFLength(root);
+    if (utf_len >= PATH_MAX) {
+        (e)->ThrowNew(inotify_exception, strerror(ENAMETOOLONG));
+        return NULL;
+    }
+    (e)->GetStringUTFRegion(root, 0, (e)->GetStringLength(root), w.path);
+    w.path[utf_len] = '\0';
+
+    if (excludes) {
+        jsize count = (e)->GetArrayLength(excludes);
+        w.excludes = (char **) calloc(count > 0 ? count : 1, sizeof(char *));
+        if (!w.excludes) goto END_WALK;
+        for (jsize i = 0; i < count; i++) {
+            jstring pattern = (jstring) (e)->GetObjectArrayElement(excludes, i);
+            if (!pattern) continue;
+            const char *pattern_chars = (e)->GetStringUTFChars(pattern, NULL);
+            if (!pattern_chars) goto END_WALK;
+            w.excludes[w.exclude_count] = strdup(pattern_chars);
+            (e)->ReleaseStringUTFChars(pattern, pattern_chars);
+            (e)->DeleteLocalRef(pattern);
+            if (!w.excludes[w.exclude_count]) goto END_WALK;
+            w.exclude_count++;
+        }
+    }
+
+    w.dents = (char *) malloc(WALK_DENTS_BUFFER);
+    frames_size = 64;
+    frames = (WALK_FRAME *) malloc(frames_size * sizeof(WALK_FRAME));
+    if (!w.dents || !frames) goto END_WALK;
+
+    memset(&frames[0], 0, sizeof(WALK_FRAME));
+    frames[0].index = -1;
+    frames[0].path_len = utf_len;
+    depth = 1;
+    status = walk_dir(&w, &frames[0]);
+
+    while (status == 0 && depth > 0) {
+        WALK_FRAME *top = &frames[depth - 1];
+        if (top->next >= top->children.len) {
+            free(top->children.buf);
+            depth--;
+            continue;
+        }
+
+        jint index;
+        memcpy(&index, top->children.buf + top->next, sizeof(index));
+        const char *name = top->children.buf + top->next + sizeof(index);
+        size_t name_len = strlen(name);
+        top->next += sizeof(index) + name_len + 1;
+
+        size_t base = top->path_len;
+        if (base == 0 || w.path[base - 1] != '/') w.path[base++] = '/';
+        memcpy(w.path + base, name, name_len);
+
+        if (depth == frames_size) {
+            WALK_FRAME *grown = (WALK_FRAME *) realloc(frames, 2 * frames_size * sizeof(WALK_FRAME));
+            if (!grown) {
+                status = -ENOMEM;
+                break;
+            }
+            frames = grown;
+            frames_size *= 2;
+        }
+        memset(&frames[depth], 0, sizeof(WALK_FRAME));
+        frames[depth].index = index;
+        frames[depth].path_len = base + name_len;
+        status = walk_dir(&w, &frames[depth++]);
+    }
+
+    if (status != -ENOMEM) {
+        ret = (e)->NewByteArray(w.table.len);
+        if (ret) (e)->SetByteArrayRegion(ret, 0, w.table.len, (jbyte *) w.table.buf);
+    }
+
+END_WALK:
+    if (!ret && !(e)->ExceptionCheck())
+        (e)->ThrowNew(inotify_exception, strerror(ENOMEM));
+    for (size_t i = 0; i < depth; i++) {
+        free(frames[i].children.buf);
+    }
+    free(frames);
+    free(w.dents);
+    free(w.table.buf);
+    for (int i = 0; i < w.exclude_count; i++) {
+        free(w.excludes[i]);
+    }
+    free(w.excludes);
+    return ret;
+}
+
 /*
  * Function: Java_com_den_14_inotify_1java_NativeInotify_rm_1watch
  *     Removes the watch associated with the specified watch descriptor.
@@ -263,7 +595,7 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watch(
  *     Returns 0 or -1 on error
  */
 JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_rm_1watch(
-        JNIEnv *e, jobject j, jint fd, jint wd) {
+        JNIEnv *e, jclass c, jint fd, jint wd) {
     int ret = inotify_rm_watch(fd, wd);
     if (ret < 0) {
         debug("inotify_rm_watch() failed (" << errno << "): " << strerror(errno));
@@ -273,159 +605,398 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_rm_1watch(
     return ret;
 }
 
+/*
+ * Function: grow_buffer
+ *     Replaces the read buffer with a page-aligned buffer of the requested
+ *     size, wrapping the new memory in a direct byte buffer for the Java
+ *     object.
+ *
+ * Parameters:
+ *     rb - read buffer, replaced on success
+ *     size - size of the new buffer, a multiple of the page size
+ *
+ * Returns:
+ *     true on success, false if allocation failed (a pending exception may
+ *     be set)
+ */
+static bool grow_buffer(JNIEnv *e, READ_BUFFER *rb, size_t size) {
+    void *mem;
+    if (posix_memalign(&mem, sysconf(_SC_PAGESIZE), size) != 0) {
+        fprintf(stderr, "buffer allocation (%lu bytes) failed", (unsigned long) size);
+        return false;
+    }
+
+    jobject wrapped = (e)->NewDirectByteBuffer(mem, size);
+    if (!wrapped) {
+        free(mem);
+        return false;
+    }
+
+    if (rb->batch) (e)->DeleteLocalRef(rb->batch);
+    if (rb->buf) free(rb->buf);
+    rb->buf = (char *) mem;
+    rb->batch = wrapped;
+    rb->size = size;
+    return true;
+}
+
+/*
+ * Function: init_buffer
+ *     Allocates the initial read buffer, rounding the requested size up to a
+ *     multiple of the page size and to at least MIN_READ_BUFFER.
+ *
+ * Returns:
+ *     true on success, false if allocation failed
+ */
+static bool init_buffer(JNIEnv *e, READ_BUFFER *rb, jint buffer_size) {
+    size_t page = sysconf(_SC_PAGESIZE);
+    size_t size = max((size_t) buffer_size, MIN_READ_BUFFER);
+    size = (size + page - 1) & ~(page - 1);
+    rb->buf = NULL;
+    rb->batch = NULL;
+    rb->size = 0;
+    return grow_buffer(e, rb, size);
+}
+
+/*
+ * Function: free_buffer
+ *     Releases the read buffer and its direct byte buffer.
+ */
+static void free_buffer(JNIEnv *e, READ_BUFFER *rb) {
+    if (rb->batch) (e)->DeleteLocalRef(rb->batch);
+    if (rb->buf) free(rb->buf);
+    rb->batch = NULL;
+    rb->buf = NULL;
+}
+
+/*
+ * Function: drain
+ *     Reads the inotify queue of fd into the read buffer, handing each read to
+ *     the Java object in a single up-call. A short read means the queue is
+ *     empty (or nearly so, in which case epoll will report it again), so only
+ *     a read that leaves no room for another maximum-sized event warrants
+ *     another read. Such a read also doubles the buffer, up to
+ *     MAX_READ_BUFFER, so later wakeups drain the queue in fewer reads.
+ *
+ * Parameters:
+ *     fd - inotify object file descriptor (non-blocking)
+ *     rb - read buffer
+ *     target - object receiving the up-call
+ *     handler - method receiving (ByteBuffer, int), or (int, ByteBuffer, int)
+ *               when pass_fd is true
+ *     pass_fd - whether fd is passed as the first argument of the up-call
+ *
+ * Returns:
+ *     0 on success, -1 if read failed (errno is set), or -2 if the up-call
+ *     left an exception pending
+ */
+static int drain(JNIEnv *e, int fd, READ_BUFFER *rb, jobject target,
+        jmethodID handler, bool pass_fd) {
+    bool full = false;
+    do {
+        ssize_t rval = read(fd, rb->buf, rb->size);
+        if (rval < 0) {
+            if (errno == EAGAIN || errno == EINTR) break;
+            return -1;
+        }
+
+        full = (rb->size - rval) < MIN_READ_BUFFER;
+
+        if (pass_fd)
+            (e)->CallVoidMethod(target, handler, fd, rb->batch, (jint) rval);
+        else
+            (e)->CallVoidMethod(target, handler, rb->batch, (jint) rval);
+        if ((e)->ExceptionCheck()) return -2;
+
+        if (full && rb->size < MAX_READ_BUFFER) {
+            debug("growing read buffer to " << rb->size * 2 << " bytes");
+            if (!grow_buffer(e, rb, rb->size * 2) && (e)->ExceptionCheck())
+                (e)->ExceptionClear();
+        }
+    } while (full);
+    return 0;
+}
+
 /*
  * Function: Java_com_den_14_inotify_1java_NativeInotify_read
  *      Services the queue, returning only on errors or instructed by the Java
- *      object.
+ *      object. Each read of the queue is delivered to the event sink as one
+ *      direct byte buffer of raw inotify_event records. A single page-aligned
+ *      buffer is used for the lifetime of the loop; see <drain>.
  *
  * Parameters:
- *     fd - inotify object file descriptor
+ *     fd - inotify object file descriptor (non-blocking)
+ *     pipe_fd - read end of the IPC pipe used to signal close
+ *     buffer_size - initial size of the read buffer in bytes
+ *     sink - com.den_4.inotify_java.InotifyBackend.EventSink receiving reads
  */
 JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_read(
-        JNIEnv *e, jobject j, jint fd) {
-    jint in_fd = (e)->CallIntMethod(j, native_inotify_getFileDescriptor);
-    jint pip_fd = (e)->CallIntMethod(j, native_inotify_getPipeRead);
-    jthrowable thrwbl;
-    char *buf = NULL;
+        JNIEnv *e, jclass c, jint fd, jint pipe_fd, jint buffer_size, jobject sink) {
+    jthrowable thrwbl = NULL;
+    READ_BUFFER rb = { NULL, NULL, 0 };
+    struct epoll_event epev_in, epev_pip;
+    struct epoll_event epev;
     int nfds;
 
-    // XXX any argument > 0 to epoll_create
-    int epfd = epoll_create(1);
+    int epfd = epoll_create1(EPOLL_CLOEXEC);
 
     if (epfd == -1) {
-        debug("epoll_create() failed (" << errno << "): " << strerror(errno));
+        debug("epoll_create1() failed (" << errno << "): " << strerror(errno));
         (e)->ThrowNew(inotify_exception, strerror(errno));
         goto END_READ;
     }
 
-    struct epoll_event epev_in, epev_pip;
-    struct epoll_event epev;
-
     epev_in.events = EPOLLIN;
-    epev_in.data.fd = in_fd;
-    if (epoll_ctl(epfd, EPOLL_CTL_ADD, in_fd, &epev_in) == -1) {
+    epev_in.data.fd = fd;
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, fd, &epev_in) == -1) {
         debug("epoll_ctl() failed (" << errno << "): " << strerror(errno));
         (e)->ThrowNew(inotify_exception, strerror(errno));
         goto END_READ;
     }
 
     epev_pip.events = EPOLLIN;
-    epev_pip.data.fd = pip_fd;
-    if (epoll_ctl(epfd, EPOLL_CTL_ADD, pip_fd, &epev_pip) == -1) {
+    epev_pip.data.fd = pipe_fd;
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, pipe_fd, &epev_pip) == -1) {
         debug("epoll_ctl() failed (" << errno << "): " << strerror(errno));
         (e)->ThrowNew(inotify_exception, strerror(errno));
         goto END_READ;
     }
 
+    if (!init_buffer(e, &rb, buffer_size)) {
+        thrwbl = (e)->ExceptionOccurred();
+        debug("read buffer allocation failed, returning from read");
+        goto EXCEPTION_OCCURRED;
+    }
+
     while (true) {
         // Wait indefinitely for an event
         nfds = epoll_wait(epfd, &epev, 1, -1);
 
         if (nfds == -1) {
+            if (errno == EINTR) continue;
             debug("epoll_wait() failed (" << errno << "): " << strerror(errno));
             (e)->ThrowNew(inotify_exception, strerror(errno));
             goto END_READ;
         }
 
-        if (epev.data.fd == pip_fd) {
+        if (epev.data.fd == pipe_fd) {
             debug("close invoked, returning from read");
             goto END_READ;
         }
 
-        int nbytes;
-        int ctlval = ioctl(in_fd, FIONREAD, &nbytes);
-        if (ctlval < 0) {
-            debug("ioctl() failed (" << errno << "): " << strerror(errno));
+        switch (drain(e, fd, &rb, sink, event_sink_events, false)) {
+        case -1:
+            debug("read() failed (" << errno << "): " << strerror(errno));
             (e)->ThrowNew(inotify_exception, strerror(errno));
             goto END_READ;
+        case -2:
+            debug("exception in event sink, returning from read");
+            thrwbl = (e)->ExceptionOccurred();
+            goto EXCEPTION_OCCURRED;
         }
+    }
 
-        buf = (char *) malloc(nbytes);
-        if (!buf) {
-            fprintf(stderr, "buffer allocation (%d bytes) failed", nbytes);
-            fprintf(stderr, "(returning from read due to allocation failure)");
-            goto END_READ;
-        }
+EXCEPTION_OCCURRED:
+    debug(__func__ << ": exception occurred" << endl);
+    if (thrwbl) {
+        (e)->ExceptionDescribe();
+        (e)->ExceptionClear();
+        (e)->DeleteLocalRef(thrwbl);
+    }
 
-        memset(buf, 0, nbytes);
+END_READ:
+    free_buffer(e, &rb);
+    if (epfd != -1) close(epfd);
+    close(pipe_fd);
+    close(fd);
+    return;
+}
 
-        int rval = read(in_fd, buf, nbytes);
-        if (rval < 0) {
-            debug("read() failed (" << errno << "): " << strerror(errno));
-            (e)->ThrowNew(inotify_exception, strerror(errno));
-            goto END_READ;
-        }
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_reactor_1init
+ *     Creates the epoll set and wakeup pipe of a shared reactor.
+ *
+ * Parameters:
+ *     fds - receives the epoll file descriptor, the pipe read end, and the
+ *           pipe write end, in that order
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1init(
+        JNIEnv *e, jclass /* c */, jintArray fds) {
+    int epfd = epoll_create1(EPOLL_CLOEXEC);
+    if (epfd == -1) {
+        debug("epoll_create1() failed (" << errno << "): " << strerror(errno));
+        (e)->ThrowNew(inotify_exception, strerror(errno));
+        return;
+    }
 
-        int offset = 0;
-        while (rval != 0) {
-            /* Take an event out of the buffer. */
-            INOTIFY_EVENT *ev = (INOTIFY_EVENT *) &buf[offset];
-            jobject inotifyEvent;
-            int evSize, sSize = sizeof(INOTIFY_EVENT);
-
-            /* How big was the event? */
-            evSize = sSize;
-
-            if (ev->len != 0) {
-                jstring fname = (e)->NewStringUTF(ev->name);
-                if (!fname) {
-                    thrwbl = (e)->ExceptionOccurred();
-                    debug("NewStringUTF failed, returning from read");
-                    goto EXCEPTION_OCCURRED;
-                }
+    int pipe_fds[2];
+    if (pipe2(pipe_fds, O_CLOEXEC | O_NONBLOCK) < 0) {
+        debug("pipe2() failed (" << errno << "): " << strerror(errno));
+        (e)->ThrowNew(inotify_exception, strerror(errno));
+        close(epfd);
+        return;
+    }
 
-                inotifyEvent = (e)->NewObject(inotify_event,
-                               inotify_event_init_III_Ljava_lang_String,
-                               ev->wd, ev->mask, ev->cookie, fname);
-                (e)->DeleteLocalRef(fname);
-                evSize += ev->len;
-            } else {
-                inotifyEvent = (e)->NewObject(inotify_event,
-                               inotify_event_init_III_V,
-                               ev->wd, ev->mask, ev->cookie);
-            }
+    struct epoll_event epev;
+    epev.events = EPOLLIN;
+    epev.data.fd = pipe_fds[0];
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, pipe_fds[0], &epev) == -1) {
+        debug("epoll_ctl() failed (" << errno << "): " << strerror(errno));
+        (e)->ThrowNew(inotify_exception, strerror(errno));
+        close(pipe_fds[0]);
+        close(pipe_fds[1]);
+        close(epfd);
+        return;
+    }
 
-            if (!inotifyEvent) {
-                thrwbl = (e)->ExceptionOccurred();
-                debug("NewObject failed, returning from read");
-                goto EXCEPTION_OCCURRED;
-            }
+    jint out[3] = { epfd, pipe_fds[0], pipe_fds[1] };
+    (e)->SetIntArrayRegion(fds, 0, 3, out);
+}
 
-            /* Decrement the number of available bytes. */
-            rval -= evSize;
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_reactor_1add
+ *     Adds an inotify file descriptor to a reactor's epoll set.
+ *
+ * Parameters:
+ *     epfd - reactor epoll file descriptor
+ *     fd - inotify object file descriptor
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1add(
+        JNIEnv *e, jclass /* c */, jint epfd, jint fd) {
+    struct epoll_event epev;
+    epev.events = EPOLLIN;
+    epev.data.fd = fd;
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, fd, &epev) == -1) {
+        debug("epoll_ctl() failed (" << errno << "): " << strerror(errno));
+        (e)->ThrowNew(inotify_exception, strerror(errno));
+    }
+}
 
-            /* Send the event off to the Java listener. */
-            (e)->CallVoidMethod(j, native_inotify_eventHandler, inotifyEvent);
-            if ((e)->ExceptionCheck()) {
-                debug("exception in eventHandler, returning from read");
-                thrwbl = (e)->ExceptionOccurred();
-                goto EXCEPTION_OCCURRED;
-            }
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_reactor_1remove
+ *     Removes an inotify file descriptor from a reactor's epoll set and
+ *     closes it. Must only be called from the reactor thread, so that the
+ *     descriptor cannot be reused while a wakeup for it is being dispatched.
+ *
+ * Parameters:
+ *     epfd - reactor epoll file descriptor
+ *     fd - inotify object file descriptor
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1remove(
+        JNIEnv * /* e */, jclass /* c */, jint epfd, jint fd) {
+    epoll_ctl(epfd, EPOLL_CTL_DEL, fd, NULL);
+    close(fd);
+}
 
-            /*
-             * Delete remaining local references so the native code doesn't hang
-             * on to objects.
-             */
-            (e)->DeleteLocalRef(inotifyEvent);
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_reactor_1wakeup
+ *     Wakes the reactor thread by writing to its pipe.
+ *
+ * Parameters:
+ *     pipe_fd - write end of the reactor wakeup pipe
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1wakeup(
+        JNIEnv *e, jclass /* c */, jint pipe_fd) {
+    char b = 0;
+    if (write(pipe_fd, &b, 1) < 0 && errno != EAGAIN) {
+        debug("write() failed (" << errno << "): " << strerror(errno));
+        (e)->ThrowNew(inotify_exception, strerror(errno));
+    }
+}
 
-            /* Calculate the location of the next event. */
-            offset += evSize;
-        }
-        free(buf);
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_reactor_1close
+ *     Closes a reactor's epoll set and wakeup pipe.
+ *
+ * Parameters:
+ *     epfd - reactor epoll file descriptor
+ *     pipe_read - read end of the reactor wakeup pipe
+ *     pipe_write - write end of the reactor wakeup pipe
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1close(
+        JNIEnv * /* e */, jclass /* c */, jint epfd, jint pipe_read, jint pipe_write) {
+    close(pipe_write);
+    close(pipe_read);
+    close(epfd);
+}
+
+/*
+ * Function: Java_com_den_14_inotify_1java_NativeInotify_reactor_1run
+ *     Services every inotify file descriptor registered with the reactor,
+ *     returning when the sink's wakeup method returns false. Ready
+ *     descriptors are drained into one shared buffer and dispatched to the
+ *     sink, which routes each read to the owning instance. A descriptor
+ *     that fails to read is removed from the set and reported to the sink.
+ *
+ * Parameters:
+ *     sink - com.den_4.inotify_java.InotifyBackend.ReactorSink receiving
+ *            up-calls
+ *     epfd - reactor epoll file descriptor
+ *     pipe_fd - read end of the reactor wakeup pipe
+ *     max_events - maximum number of ready descriptors per epoll_wait
+ *     buffer_size - initial size of the shared read buffer in bytes
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1run(
+        JNIEnv *e, jclass /* c */, jobject sink, jint epfd, jint pipe_fd,
+        jint max_events, jint buffer_size) {
+    READ_BUFFER rb = { NULL, NULL, 0 };
+    struct epoll_event *events = NULL;
+    char scratch[64];
+    bool running = true;
+
+    events = (struct epoll_event *) malloc(max_events * sizeof(struct epoll_event));
+    if (!events || !init_buffer(e, &rb, buffer_size)) {
+        if (!(e)->ExceptionCheck())
+            (e)->ThrowNew(inotify_exception, "reactor buffer allocation failed");
+        goto END_RUN;
     }
 
-EXCEPTION_OCCURRED:
-    debug(__func__ << ": exception occurred" << endl);
-    if (thrwbl) {
-        (e)->ExceptionDescribe();
-        (e)->ExceptionClear();
-        (e)->DeleteLocalRef(thrwbl);
+    while (running) {
+        int nfds = epoll_wait(epfd, events, max_events, -1);
+        if (nfds == -1) {
+            if (errno == EINTR) continue;
+            debug("epoll_wait() failed (" << errno << "): " << strerror(errno));
+            (e)->ThrowNew(inotify_exception, strerror(errno));
+            goto END_RUN;
+        }
+
+        bool wakeup = false;
+        for (int i = 0; i < nfds; i++) {
+            int fd = events[i].data.fd;
+            if (fd == pipe_fd) {
+                while (read(pipe_fd, scratch, sizeof(scratch)) == sizeof(scratch));
+                wakeup = true;
+                continue;
+            }
+
+            switch (drain(e, fd, &rb, sink, reactor_sink_events, true)) {
+            case -1: {
+                /*
+                 * Read errors belong to the instance, not the reactor. The fd
+                 * leaves the set so that it stops waking the reactor, and its
+                 * owner is told, which closes it when destroyed.
+                 */
+                int err = errno;
+                debug("read() failed (" << err << "): " << strerror(err));
+                epoll_ctl(epfd, EPOLL_CTL_DEL, fd, NULL);
+                (e)->CallVoidMethod(sink, reactor_sink_error, fd, (jint) err);
+                if ((e)->ExceptionCheck()) goto END_RUN;
+                break;
+            }
+            case -2:
+                goto END_RUN;
+            }
+        }
+
+        /* Detach and close requests are handled between rounds of dispatch. */
+        if (wakeup) {
+            running = (e)->CallBooleanMethod(sink, reactor_sink_wakeup);
+            if ((e)->ExceptionCheck()) goto END_RUN;
+        }
     }
 
-END_READ:
-    if (buf) free(buf);
-    close(pip_fd);
-    close(in_fd);
+END_RUN:
+    free_buffer(e, &rb);
+    if (events) free(events);
     return;
 }
-
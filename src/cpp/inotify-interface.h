@@ -32,6 +32,12 @@
 #include <sys/inotify.h>
 #include <sys/ioctl.h>
 #include <sys/errno.h>
+#include <dirent.h>
+#include <fcntl.h>
+#include <fnmatch.h>
+#include <limits.h>
+#include <sys/stat.h>
+#include <sys/syscall.h>
 
 #include "jni-header.h"
 #include "typedefs.h"
@@ -46,6 +52,32 @@ using std::endl;
 
 /* Macro definitions */
 #define max(x,y) ((x) > (y) ? (x) : (y))
+
+/*
+ * Constant: MIN_READ_BUFFER
+ *     Smallest read buffer guaranteed to hold one event: the fixed event
+ *     header plus a NAME_MAX name and its terminating null.
+ */
+#define MIN_READ_BUFFER (sizeof(INOTIFY_EVENT) + NAME_MAX + 1)
+
+/*
+ * Constant: MAX_READ_BUFFER
+ *     Upper bound for automatic growth of the read buffer.
+ */
+#define MAX_READ_BUFFER ((size_t) 4 * 1024 * 1024)
+
+/*
+ * Constant: WALK_DENTS_BUFFER
+ *     Size of the buffer handed to getdents64 by the recursive walker.
+ */
+#define WALK_DENTS_BUFFER (64 * 1024)
+
+/*
+ * Constant: WALK_RECORD_HEADER
+ *     Size of the fixed portion of a walk record: parent index (int32), watch
+ *     descriptor (int32), and name length (uint16).
+ */
+#define WALK_RECORD_HEADER (4 + 4 + 2)
 #ifdef ENABLE_DEBUGGING
 #define DEBUG(x) cout << __FILE__ << ':' << __LINE__ << ": " << x << endl;
 #endif
@@ -92,58 +124,40 @@ jclass insufficient_kernel_memory_exception;
 jclass inotify_exception;
 
 /*
- * Variable: native_inotify
- *     Global reference to com.den_4.inotify_java.NativeInotify
- */
-jclass native_inotify;
-
-/*
- * Variable: inotify_event
- *     Global reference to com.den_4.inotify_java.InotifyEvent
- */
-jclass inotify_event;
-
-/*
- * Variable: native_inotify_setPipes
- *     Global reference to com.den_4.inotify_java.NativeInotify.setPipes
- */
-jmethodID native_inotify_setPipes;
-
-/*
- * Variable: native_inotify_getPipeWrite
- *     Global reference to com.den_4.inotify_java.NativeInotify.getPipeWrite
+ * Variable: event_sink
+ *     Global reference to com.den_4.inotify_java.InotifyBackend.EventSink
  */
-jmethodID native_inotify_getPipeWrite;
+jclass event_sink;
 
 /*
- * Variable: native_inotify_getPipeRead
- *     Global reference to com.den_4.inotify_java.NativeInotify.getPipeRead
+ * Variable: reactor_sink
+ *     Global reference to com.den_4.inotify_java.InotifyBackend.ReactorSink
  */
-jmethodID native_inotify_getPipeRead;
+jclass reactor_sink;
 
 /*
- * Variable: native_inotify_getFileDescriptor
- *     Global reference to com.den_4.inotify_java.NativeInotify.getFileDescriptor
+ * Variable: event_sink_events
+ *     Method ID of com.den_4.inotify_java.InotifyBackend.EventSink.events
  */
-jmethodID native_inotify_getFileDescriptor;
+jmethodID event_sink_events;
 
 /*
- * Variable: native_inotify_eventHandler
- *     Global reference to com.den_4.inotify_java.NativeInotify.eventHandler
+ * Variable: reactor_sink_events
+ *     Method ID of com.den_4.inotify_java.InotifyBackend.ReactorSink.events
  */
-jmethodID native_inotify_eventHandler;
+jmethodID reactor_sink_events;
 
 /*
- * Variable: inotify_event_init_III_V
- *     Global reference to com.den_4.inotify_java.InotifyEvent.<init>(III)
+ * Variable: reactor_sink_wakeup
+ *     Method ID of com.den_4.inotify_java.InotifyBackend.ReactorSink.wakeup
  */
-jmethodID inotify_event_init_III_V;
+jmethodID reactor_sink_wakeup;
 
 /*
- * Variable: inotify_event_init_III_Ljava_lang_String
- *     Global reference to com.den_4.inotify_java.InotifyEvent.<init>(IIILjava.lang.String)
+ * Variable: reactor_sink_error
+ *     Method ID of com.den_4.inotify_java.InotifyBackend.ReactorSink.error
  */
-jmethodID inotify_event_init_III_Ljava_lang_String;
+jmethodID reactor_sink_error;
 
 /*
  * Function: JNI_OnLoad
@@ -10,10 +10,10 @@ extern "C" {
 /*
  * Class:     com_den_4_inotify_java_NativeInotify
  * Method:    init
- * Signature: ()I
+ * Signature: ([I)I
  */
 JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init
-  (JNIEnv *, jobject);
+  (JNIEnv *, jclass, jintArray);
 
 /*
  * Class:     com_den_4_inotify_java_NativeInotify
@@ -21,7 +21,15 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_init
  * Signature: (I)V
  */
 JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    close_descriptors
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close_1descriptors
+  (JNIEnv *, jclass, jint, jint);
 
 /*
  * Class:     com_den_4_inotify_java_NativeInotify
@@ -29,7 +37,23 @@ JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_close
  * Signature: (ILjava/lang/String;I)I
  */
 JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watch
-  (JNIEnv *, jobject, jint, jstring, jint);
+  (JNIEnv *, jclass, jint, jstring, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    add_watches
+ * Signature: (I[Ljava/lang/String;I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watches
+  (JNIEnv *, jclass, jint, jobjectArray, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    walk_watches
+ * Signature: (ILjava/lang/String;I[Ljava/lang/String;)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_den_14_inotify_1java_NativeInotify_walk_1watches
+  (JNIEnv *, jclass, jint, jstring, jint, jobjectArray);
 
 /*
  * Class:     com_den_4_inotify_java_NativeInotify
@@ -37,15 +61,63 @@ JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_add_1watch
  * Signature: (II)I
  */
 JNIEXPORT jint JNICALL Java_com_den_14_inotify_1java_NativeInotify_rm_1watch
-  (JNIEnv *, jobject, jint, jint);
+  (JNIEnv *, jclass, jint, jint);
 
 /*
  * Class:     com_den_4_inotify_java_NativeInotify
  * Method:    read
- * Signature: (I)V
+ * Signature: (IIILcom/den_4/inotify_java/InotifyBackend/EventSink;)V
  */
 JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_read
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jclass, jint, jint, jint, jobject);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    reactor_init
+ * Signature: ([I)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1init
+  (JNIEnv *, jclass, jintArray);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    reactor_add
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1add
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    reactor_remove
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1remove
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    reactor_wakeup
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1wakeup
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    reactor_run
+ * Signature: (Lcom/den_4/inotify_java/InotifyBackend/ReactorSink;IIII)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1run
+  (JNIEnv *, jclass, jobject, jint, jint, jint, jint);
+
+/*
+ * Class:     com_den_4_inotify_java_NativeInotify
+ * Method:    reactor_close
+ * Signature: (III)V
+ */
+JNIEXPORT void JNICALL Java_com_den_14_inotify_1java_NativeInotify_reactor_1close
+  (JNIEnv *, jclass, jint, jint, jint);
 
 #ifdef __cplusplus
 }
@@ -22,7 +22,11 @@
 #ifndef TYPEDEFS_H
 #define TYPEDEFS_H
 
+#include <limits.h>
+#include <stddef.h>
+#include <stdint.h>
 #include <sys/inotify.h>
+#include <jni.h>
 
 /*
  * Typedef: MASK
@@ -42,4 +46,85 @@ typedef uint32_t WATCH_DESCRIPTOR;
  */
 typedef struct inotify_event INOTIFY_EVENT;
 
+/*
+ * Typedef: READ_BUFFER
+ *     Page-aligned native read buffer and the direct byte buffer wrapping it.
+ *
+ *     buf - native memory
+ *     batch - java.nio.ByteBuffer over buf, a local reference
+ *     size - size of buf in bytes
+ */
+typedef struct {
+    char *buf;
+    jobject batch;
+    size_t size;
+} READ_BUFFER;
+
+/*
+ * Typedef: BYTE_ARRAY
+ *     Growable native byte array.
+ *
+ *     buf - native memory
+ *     len - number of bytes in use
+ *     size - size of buf in bytes
+ */
+typedef struct {
+    char *buf;
+    size_t len;
+    size_t size;
+} BYTE_ARRAY;
+
+/*
+ * Typedef: WALK_FRAME
+ *     Directory being descended by the recursive walker.
+ *
+ *     index - table index of the directory, -1 for the walk root
+ *     path_len - length of the directory's path in the walker's path buffer
+ *     children - watched subdirectories: table index (jint) followed by the
+ *                null-terminated name, for each
+ *     next - offset in children of the next subdirectory to descend
+ */
+typedef struct {
+    jint index;
+    size_t path_len;
+    BYTE_ARRAY children;
+    size_t next;
+} WALK_FRAME;
+
+/*
+ * Typedef: WALKER
+ *     State of the recursive walker.
+ *
+ *     fd - inotify object file descriptor
+ *     mask - watch mask applied to each subdirectory
+ *     excludes - exclude patterns, see fnmatch(3)
+ *     exclude_count - number of exclude patterns
+ *     path - path of the current entry
+ *     table - walk records returned to Java
+ *     count - number of walk records
+ *     dents - getdents64 buffer
+ */
+typedef struct {
+    int fd;
+    MASK mask;
+    char **excludes;
+    int exclude_count;
+    char path[PATH_MAX];
+    BYTE_ARRAY table;
+    jint count;
+    char *dents;
+} WALKER;
+
+/*
+ * Typedef: LINUX_DIRENT64
+ *     Directory entry returned by getdents64.
+ */
+typedef struct {
+    uint64_t d_ino;
+    int64_t d_off;
+    unsigned short d_reclen;
+    unsigned char d_type;
+    char d_name[];
+} LINUX_DIRENT64;
+
 #endif
@@ -0,0 +1,113 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: AsyncInotifyEventListener.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+/**
+ * Listener delivering events to another listener through a
+ * {@link SequentialExecutor}, keyed by watch descriptor, so that a listener
+ * blocking on I/O does not stall the thread reading events.
+ * <p>
+ * Events of one watch are delivered in order; events of different watches may
+ * be delivered concurrently. Queue full notifications are delivered in order
+ * with one another.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class AsyncInotifyEventListener implements InotifyEventListener {
+
+    /** Key of queue full notifications, which no watch descriptor takes. */
+    private static final int QUEUE_FULL_KEY = -1;
+
+    /** Listener notified. */
+    private final InotifyEventListener listener;
+
+    /** Executor notifying the listener. */
+    private final SequentialExecutor executor;
+
+    /**
+     * Creates a listener notifying another through an executor.
+     *
+     * @param listener Listener notified, non-null
+     * @param executor Executor notifying the listener, non-null
+     */
+    public AsyncInotifyEventListener(final InotifyEventListener listener,
+            final SequentialExecutor executor) {
+        if (listener == null)
+            throw new IllegalArgumentException("null listener");
+        if (executor == null)
+            throw new IllegalArgumentException("null executor");
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the listener notified.
+     *
+     * @return Listener
+     */
+    public InotifyEventListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Submits the event for delivery to the listener.
+     *
+     * @param e InotifyEvent
+     */
+    @Override
+    public void filesystemEventOccurred(final InotifyEvent e) {
+        executor.execute(e.getSource(), new Runnable() {
+            @Override
+            public void run() {
+                listener.filesystemEventOccurred(e);
+            }
+        });
+    }
+
+    /**
+     * Submits the notification for delivery to the listener.
+     *
+     * @param e EventQueueFull
+     */
+    @Override
+    public void queueFull(final EventQueueFull e) {
+        executor.execute(QUEUE_FULL_KEY, new Runnable() {
+            @Override
+            public void run() {
+                listener.queueFull(e);
+            }
+        });
+    }
+
+    /**
+     * Returns a string representation of the listener.
+     *
+     * @return a string representation of the listener
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [listener=" + listener + "]";
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: Backlog.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Events held by a {@link MonitorService} for one consumer while its queue is
+ * full, and the overflow notices pending for it.
+ * <p>
+ * Only the reading thread adds to a backlog. While a backlog holds events,
+ * the reading thread adds every event for the consumer to it rather than to
+ * the queue, and the consumer only takes the held events once it has drained
+ * the queue, so events are delivered in the order read. Events held in memory
+ * are followed by any events spilled to disk.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+final class Backlog {
+
+    /** Added. */
+    static final int ADDED = 0;
+
+    /** Replaced a held event with the same watch descriptor and name. */
+    static final int COALESCED = 1;
+
+    /** Rejected, as the backlog is full. */
+    static final int REJECTED = -1;
+
+    /** Maximum number of events held, not counting forced events. */
+    private final int capacity;
+
+    /** Held events, by the first event held in their place. */
+    private final LinkedHashMap<Object, InotifyEvent> events = new LinkedHashMap<Object, InotifyEvent>();
+
+    /**
+     * Places of held events that later events with the same watch descriptor
+     * and name may replace, by coalescing key.
+     */
+    private final HashMap<Key, Object> open = new HashMap<Key, Object>();
+
+    /** Events spilled to disk, or {@code null}. */
+    private SpillQueue spill;
+
+    /** Pending overflow notices, by watch descriptor. */
+    private final LinkedHashMap<Integer, InotifyEvent> notices = new LinkedHashMap<Integer, InotifyEvent>();
+
+    /** Number of held events and notices. */
+    private volatile int size;
+
+    /** Number of held events. */
+    private volatile int held;
+
+    /**
+     * Creates a backlog.
+     *
+     * @param capacity Maximum number of events held
+     */
+    Backlog(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of held events and pending notices.
+     *
+     * @return Size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether any events are held.
+     *
+     * @return {@code true} if events are held
+     */
+    boolean holdsEvents() {
+        return held != 0;
+    }
+
+    /**
+     * Holds an event, dropping the oldest held event if the backlog is full.
+     * Forced events are never dropped and do not count towards the capacity.
+     *
+     * @param e Event
+     * @param force Whether the event must not be dropped
+     * @return Dropped event, or {@code null}
+     */
+    synchronized InotifyEvent add(InotifyEvent e, boolean force) {
+        if (spilling() && append(e)) return null;
+        open.remove(new Key(e.getSource(), e.getName()));
+        events.put(e, e);
+        InotifyEvent dropped = null;
+        if (!force && events.size() > capacity) {
+            Iterator<InotifyEvent> it = events.values().iterator();
+            while (it.hasNext()) {
+                InotifyEvent held = it.next();
+                if (!held.isIgnored()) {
+                    it.remove();
+                    dropped = held;
+                    break;
+                }
+            }
+        }
+        updateSize();
+        return dropped;
+    }
+
+    /**
+     * Holds an event, replacing the held event with the same watch descriptor
+     * and name in its place. Only events about the contents or attributes of
+     * a file are coalesced, and only until an event that is not, such as a
+     * create, delete or move, is held for the same name; these are always
+     * held in order.
+     *
+     * @param e Event
+     * @return {@link #ADDED}, {@link #COALESCED}, or {@link #REJECTED}
+     */
+    synchronized int coalesce(InotifyEvent e) {
+        if (spilling()) return append(e) ? ADDED : REJECTED;
+        Key k = new Key(e.getSource(), e.getName());
+        boolean coalescable = isCoalescable(e);
+        if (coalescable) {
+            Object place = open.get(k);
+            if (place != null && events.containsKey(place)) {
+                events.put(place, e);
+                return COALESCED;
+            }
+        } else {
+            open.remove(k);
+        }
+        if (events.size() >= capacity) return REJECTED;
+        events.put(e, e);
+        if (coalescable) open.put(k, e);
+        updateSize();
+        return ADDED;
+    }
+
+    /*
+     * Returns whether an event may replace, or be replaced by, another event
+     * with the same watch descriptor and name: only events that do not
+     * create, remove or move a file, or end a watch.
+     */
+    private static boolean isCoalescable(InotifyEvent e) {
+        return !(e.isCreate() || e.isDelete() || e.isDeleteSelf()
+                || e.isMoved() || e.isMoveSelf() || e.isIgnored()
+                || e.isUnmounted() || e.isOverflowed());
+    }
+
+    /**
+     * Spills an event to disk, creating segment files in the provided
+     * directory as needed.
+     *
+     * @param e Event
+     * @param directory Directory of segment files
+     * @return {@code true} if the event was spilled, {@code false} if it could
+     * not be written
+     */
+    synchronized boolean spill(InotifyEvent e, File directory) {
+        if (spill == null)
+            spill = new SpillQueue(directory, SpillQueue.DEFAULT_SEGMENT_SIZE);
+        return append(e);
+    }
+
+    /**
+     * Returns the number of events spilled to disk and not yet taken.
+     *
+     * @return Number of spilled events
+     */
+    synchronized long spilled() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    /**
+     * Drops every held event and notice, and releases spilled events.
+     */
+    synchronized void clear() {
+        events.clear();
+        open.clear();
+        notices.clear();
+        if (spill != null) spill.clear();
+        updateSize();
+    }
+
+    /*
+     * Returns whether spilled events are held, which any further event must
+     * follow.
+     */
+    private boolean spilling() {
+        return spill != null && !spill.isEmpty();
+    }
+
+    /*
+     * Appends an event to the spill queue.
+     */
+    private boolean append(InotifyEvent e) {
+        try {
+            spill.append(e);
+        } catch (IOException ex) {
+            return false;
+        }
+        updateSize();
+        return true;
+    }
+
+    /**
+     * Adds an overflow notice, unless one is already pending for its watch.
+     *
+     * @param notice Overflow event
+     */
+    synchronized void notice(InotifyEvent notice) {
+        Integer wd = Integer.valueOf(notice.getSource());
+        if (!notices.containsKey(wd)) notices.put(wd, notice);
+        updateSize();
+    }
+
+    /**
+     * Moves pending notices, followed by held events if the consumer has
+     * drained its queue, to the provided list. Spilled events are read back
+     * once no events are held in memory, up to the capacity at a time.
+     *
+     * @param out List receiving notices and events
+     * @param queue Queue of the consumer
+     * @param next Sequence of the next element the consumer will take
+     */
+    synchronized void drainTo(List<InotifyEvent> out,
+            RingBuffer<InotifyEvent> queue, long next) {
+        out.addAll(notices.values());
+        notices.clear();
+        if (queue.published() == next) {
+            if (!events.isEmpty()) {
+                out.addAll(events.values());
+                events.clear();
+                open.clear();
+            } else if (spilling()) {
+                spill.drainTo(out, capacity);
+            }
+        }
+        updateSize();
+    }
+
+    /*
+     * Publishes the number of held events and notices.
+     */
+    private void updateSize() {
+        long n = events.size() + notices.size();
+        if (spill != null) n += spill.size();
+        held = (int) Math.min(n - notices.size(), Integer.MAX_VALUE);
+        size = (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a string representation of the backlog.
+     *
+     * @return a string representation of the backlog
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [size=" + size + ", capacity="
+                + capacity + "]";
+    }
+
+    /**
+     * Coalescing key of an event: its watch descriptor and name.
+     */
+    private static final class Key {
+
+        private final int wd;
+        private final String name;
+
+        Key(int wd, String name) {
+            this.wd = wd;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * wd + (name == null ? 0 : name.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key k = (Key) obj;
+            return wd == k.wd
+                    && (name == null ? k.name == null : name.equals(k.name));
+        }
+    }
+}
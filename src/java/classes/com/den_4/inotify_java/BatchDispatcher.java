@@ -0,0 +1,241 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BatchDispatcher.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects events into {@link EventBatch batches} for
+ * {@link BatchInotifyEventListener batch listeners}.
+ * <p>
+ * Events are added as they are handled, and the batch is delivered when it
+ * reaches the maximum batch size or, at the end of each read or drain, once
+ * the oldest event has lingered for the maximum linger time. A batch still
+ * lingering is delivered by a shared timer thread when its time is up, so
+ * listeners may be called from that thread as well; calls are never
+ * concurrent.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+final class BatchDispatcher {
+
+    /** Default maximum number of events in a batch. */
+    static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    /** Timer delivering lingering batches, shared by all dispatchers. */
+    private static ScheduledExecutorService timer;
+
+    /** Thread of {@link #timer}, once started. */
+    private static volatile Thread timerThread;
+
+    /** Listeners, shared with the owner. */
+    private final Set<BatchInotifyEventListener> listeners;
+
+    /** Batch being collected. */
+    private final EventBatch batch = new EventBatch();
+
+    /** Maximum number of events in a batch. */
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /** Maximum nanoseconds an event lingers before delivery. */
+    private long maxLinger;
+
+    /** {@link System#nanoTime()} of the oldest event in the batch. */
+    private long oldest;
+
+    /** Pending timed delivery, or {@code null}. */
+    private ScheduledFuture<?> flushTask;
+
+    /** Number of the last timed delivery scheduled. */
+    private long flushCount;
+
+    /**
+     * Delivers the batch when run by the timer, unless its delivery was
+     * cancelled or superseded while it waited for the dispatcher.
+     */
+    private final class Flusher implements Runnable {
+
+        /** Number of this delivery. */
+        private final long count;
+
+        Flusher(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            synchronized (BatchDispatcher.this) {
+                if (flushTask == null || count != flushCount) return;
+                flushTask = null;
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param listeners Listeners, thread-safe for iteration
+     */
+    BatchDispatcher(Set<BatchInotifyEventListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Sets the maximum number of events in a batch and the maximum time an
+     * event lingers before delivery.
+     *
+     * @param maxBatchSize Maximum batch size, greater than zero
+     * @param maxLingerNanos Maximum linger in nanoseconds, not negative
+     */
+    synchronized void configure(int maxBatchSize, long maxLingerNanos) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxLinger = maxLingerNanos;
+        if (batch.size() >= maxBatchSize) flush();
+    }
+
+    /**
+     * Adds an event to the batch, delivering the batch if it is full.
+     *
+     * @param e InotifyEvent
+     */
+    synchronized void add(InotifyEvent e) {
+        if (listeners.isEmpty()) return;
+        if (batch.isEmpty()) oldest = System.nanoTime();
+        batch.add(e);
+        if (batch.size() >= maxBatchSize) flush();
+    }
+
+    /**
+     * Adds an event straight from the native read buffer, delivering the batch
+     * if it is full.
+     *
+     * @param v View of the event
+     */
+    synchronized void add(InotifyEventView v) {
+        if (listeners.isEmpty()) return;
+        if (batch.isEmpty()) oldest = System.nanoTime();
+        batch.add(v);
+        if (batch.size() >= maxBatchSize) flush();
+    }
+
+    /**
+     * Marks the end of a read or drain: delivers the batch if it has lingered
+     * long enough, or schedules its delivery.
+     */
+    synchronized void endOfBatch() {
+        if (batch.isEmpty()) return;
+        long lingered = System.nanoTime() - oldest;
+        if (lingered >= maxLinger) {
+            flush();
+        } else if (flushTask == null) {
+            flushTask = timer().schedule(new Flusher(++flushCount),
+                    maxLinger - lingered, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Delivers the collected batch now, however long it has lingered.
+     */
+    synchronized void drain() {
+        flush();
+    }
+
+    /**
+     * Drops any collected events and pending delivery.
+     */
+    synchronized void clear() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        batch.clear();
+    }
+
+    /*
+     * Delivers the batch to every listener.
+     */
+    private void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (batch.isEmpty()) return;
+        try {
+            for (BatchInotifyEventListener l : listeners)
+                l.filesystemEventsOccurred(batch);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the current thread is the shared timer, which
+     * delivers the lingering batches of every dispatcher.
+     *
+     * @return {@code true} on the timer thread
+     */
+    static boolean isTimerThread() {
+        return Thread.currentThread() == timerThread;
+    }
+
+    /*
+     * Returns the shared timer, starting it on first use.
+     */
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "BatchDispatcher timer");
+                            t.setDaemon(true);
+                            timerThread = t;
+                            return t;
+                        }
+                    });
+            t.setRemoveOnCancelPolicy(true);
+            timer = t;
+        }
+        return timer;
+    }
+
+    /**
+     * Returns a string representation of the dispatcher.
+     *
+     * @return a string representation of the dispatcher
+     */
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + " [size=" + batch.size()
+                + ", maxBatchSize=" + maxBatchSize + ", maxLinger="
+                + maxLinger + "]";
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BatchEventPublisher.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch listener publishing the {@link EventBatch batches} it receives to
+ * {@link Flow.Subscriber subscribers}, each at the pace of its own requested
+ * demand. A request for {@code n} is a request for {@code n} batches.
+ * <p>
+ * A publisher is registered like any other batch listener, with
+ * {@link Inotify#addBatchListener(BatchInotifyEventListener)} or
+ * {@link MonitorService#addBatchListener(BatchInotifyEventListener)}, whose
+ * maximum batch size and linger shape the batches published. Each subscriber
+ * receives its own copy of every batch, which is not reused. When a
+ * subscriber's buffer of batches is full, the publisher's
+ * {@link OverflowPolicy} applies as it does for an {@link EventPublisher},
+ * counting batches: a dropped batch drops all of its events. Besides the
+ * thread of an {@link InotifyReactor}, {@link OverflowPolicy#BLOCK} never
+ * blocks the shared timer thread delivering lingering batches.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class BatchEventPublisher implements Flow.Publisher<EventBatch>,
+        BatchInotifyEventListener {
+
+    /** Default number of batches buffered per subscriber. */
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    /** Batches buffered per subscriber. */
+    private final int bufferSize;
+
+    /** What is done with batches when a buffer is full. */
+    private final OverflowPolicy policy;
+
+    /** Active subscriptions. */
+    private final CopyOnWriteArraySet<BufferedSubscription<EventBatch>> subscriptions = new CopyOnWriteArraySet<BufferedSubscription<EventBatch>>();
+
+    /** Batches dropped across subscribers. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Set once the publisher is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a publisher buffering {@value #DEFAULT_BUFFER_SIZE} batches per
+     * subscriber and dropping the incoming batch when a buffer is full.
+     */
+    public BatchEventPublisher() {
+        this(DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Creates a publisher.
+     *
+     * @param bufferSize Batches buffered per subscriber, greater than zero
+     * @param policy {@link OverflowPolicy#BLOCK},
+     * {@link OverflowPolicy#DROP_NEWEST}, or {@link OverflowPolicy#DROP_OLDEST}
+     */
+    public BatchEventPublisher(final int bufferSize,
+            final OverflowPolicy policy) {
+        BufferedSubscription.check(bufferSize, policy);
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a subscriber. A subscriber added after the publisher is closed is
+     * completed at once.
+     *
+     * @param subscriber Subscriber
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super EventBatch> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("null subscriber");
+        BufferedSubscription<EventBatch> s = new BufferedSubscription<EventBatch>(
+                subscriber, bufferSize, policy, subscriptions, dropped);
+        subscriber.onSubscribe(s);
+        subscriptions.add(s);
+        if (closed) s.complete();
+    }
+
+    /**
+     * Buffers a copy of the batch for every subscriber, and sends it to those
+     * with demand.
+     *
+     * @param batch Events
+     */
+    @Override
+    public void filesystemEventsOccurred(final EventBatch batch) {
+        for (BufferedSubscription<EventBatch> s : subscriptions)
+            s.offer(batch.copy());
+    }
+
+    /**
+     * Completes every subscriber once it has taken its buffered batches, and
+     * stops accepting batches.
+     */
+    public void close() {
+        closed = true;
+        for (BufferedSubscription<EventBatch> s : subscriptions)
+            s.complete();
+    }
+
+    /**
+     * Returns the number of subscribers.
+     *
+     * @return Subscriber count
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns the count of batches dropped across subscribers because their
+     * buffers were full.
+     *
+     * @return Dropped batches
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns a string representation of the publisher.
+     *
+     * @return a string representation of the publisher
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [subscribers="
+                + subscriptions.size() + ", bufferSize=" + bufferSize
+                + ", policy=" + policy + ", closed=" + closed + "]";
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BatchInotifyEventListener.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+
+package com.den_4.inotify_java;
+
+/**
+ * Interface specifying implementors that receive
+ * {@link com.den_4.inotify_java.InotifyEvent inotify events} in
+ * {@link EventBatch batches}, amortizing per-call costs such as database
+ * round trips.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public interface BatchInotifyEventListener {
+
+    /**
+     * Invoked with a batch of events that occurred on watched files or
+     * directories, in the order they occurred. The batch is only valid for
+     * the duration of this call.
+     *
+     * @param batch Events
+     */
+    public abstract void filesystemEventsOccurred(EventBatch batch);
+
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: Bootstrap.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.den_4.inotify_java.exceptions.InotifyException;
+
+/**
+ * Adds the watches below a new {@link RecursiveWatcher recursive} root in
+ * parallel, on a {@link ForkJoinPool}.
+ * <p>
+ * Each folder is a task listing its entries with a {@link DirectoryStream}
+ * and watching them with a single call into the native interface; the
+ * kernel rejects the entries that are not folders. The sub-folders watched
+ * are added to the watcher's tree, where their events are delivered at
+ * once, and a task is forked for each of them. Folders that disappear are
+ * skipped, as by the native walk; once the user watch limit is reached no
+ * further folders are listed.
+ * </p>
+ * <p>
+ * Progress is reported to a {@link BootstrapListener} at most once per
+ * second while watches are added, and once the bootstrap completes.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+final class Bootstrap {
+
+    /** Nanoseconds between progress reports. */
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /** Watcher adding the watches. */
+    private final RecursiveWatcher watcher;
+
+    /** Watch descriptor of the root. */
+    private final int root;
+
+    /** Path of the root. */
+    private final String path;
+
+    /** Watch modifier and event mask of the sub-folders. */
+    private final int mask;
+
+    /** Listener receiving progress reports, or {@code null}. */
+    private final BootstrapListener listener;
+
+    /** Start of the bootstrap, in {@link System#nanoTime()} units. */
+    private final long start = System.nanoTime();
+
+    /** Folders watched, including the root. */
+    private final AtomicLong watched = new AtomicLong(1);
+
+    /** Folders watched but not yet listed. */
+    private final AtomicLong pending = new AtomicLong(1);
+
+    /** Folders that could not be watched. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** Nanoseconds until the first event was delivered, or -1. */
+    private final AtomicLong firstEvent = new AtomicLong(-1);
+
+    /** Time of the last progress report. */
+    private final AtomicLong lastReport = new AtomicLong(start);
+
+    /** Total nanoseconds once completed, -1 while running. */
+    private volatile long total = -1;
+
+    /** Set once the user watch limit is reached. */
+    private volatile boolean stopped;
+
+    /** Errno of the first folder that could not be watched, or 0. */
+    private int error;
+
+    /** First folder that could not be watched, or {@code null}. */
+    private String errorFolder;
+
+    /**
+     * Creates a bootstrap of the given root.
+     *
+     * @param watcher Watcher adding the watches
+     * @param root Watch descriptor of the root, already in the tree
+     * @param path Path of the root
+     * @param mask Watch modifier and event mask of the sub-folders
+     * @param listener Listener receiving progress reports, or {@code null}
+     */
+    Bootstrap(RecursiveWatcher watcher, int root, String path, int mask,
+            BootstrapListener listener) {
+        this.watcher = watcher;
+        this.root = root;
+        this.path = path;
+        this.mask = mask;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds the watches below the root on a pool of the given parallelism,
+     * returning once every folder has been listed.
+     *
+     * @param parallelism Number of threads, greater than zero
+     * @throws InotifyException if the user watch limit was reached, or a
+     * folder could not be watched
+     */
+    void run(int parallelism) throws InotifyException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Folder(root, path));
+        } finally {
+            pool.shutdown();
+            total = System.nanoTime() - start;
+            if (listener != null)
+                listener.bootstrapProgress(getProgress());
+        }
+
+        synchronized (this) {
+            if (error == NativeInotify.ENOSPC)
+                throw new InotifyException("user limit reached");
+            else if (error != 0)
+                throw new InotifyException("Cannot watch sub-folder "
+                        + errorFolder + " (errno " + error + ")");
+        }
+    }
+
+    /**
+     * Records the delivery of an event to the recursive listeners of the
+     * root.
+     */
+    void eventDelivered() {
+        if (firstEvent.get() < 0)
+            firstEvent.compareAndSet(-1, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns a snapshot of the progress of this bootstrap.
+     *
+     * @return Progress
+     */
+    BootstrapProgress getProgress() {
+        long t = total;
+        boolean done = t >= 0;
+        long elapsed = done ? t : System.nanoTime() - start;
+        return new BootstrapProgress(root, path, watched.get(), pending.get(),
+                failed.get(), elapsed, firstEvent.get(), done);
+    }
+
+    /**
+     * Reports progress to the listener if the report interval has passed,
+     * from at most one thread.
+     */
+    private void report() {
+        if (listener == null)
+            return;
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (now - last < REPORT_INTERVAL
+                || !lastReport.compareAndSet(last, now))
+            return;
+        listener.bootstrapProgress(getProgress());
+    }
+
+    /**
+     * Records a folder that could not be watched.
+     *
+     * @param errno Error number
+     * @param folder Folder
+     */
+    private synchronized void failed(int errno, String folder) {
+        if (error == 0) {
+            error = errno;
+            errorFolder = folder;
+        }
+    }
+
+    /**
+     * Watches the sub-folders of a folder and returns the tasks listing
+     * them, or {@code null} if the folder disappeared or left the tree.
+     *
+     * @param wd Watch descriptor of the folder
+     * @param folder Path of the folder when its task was forked
+     * @return Tasks of the sub-folders added to the tree, or {@code null}
+     */
+    private List<Folder> watch(int wd, String folder) {
+        for (;;) {
+            List<String> names = new ArrayList<String>();
+            try (DirectoryStream<Path> entries =
+                    Files.newDirectoryStream(Paths.get(folder))) {
+                for (Path entry : entries)
+                    names.add(entry.getFileName().toString());
+            } catch (IOException | DirectoryIteratorException e) {
+                // gone or unreadable
+                return null;
+            }
+
+            String prefix = folder.endsWith("/") ? folder : folder + "/";
+            List<String> kept = new ArrayList<String>(names.size());
+            for (String name : names) {
+                if (!watcher.isExcluded(prefix + name))
+                    kept.add(name);
+            }
+
+            String[] children = kept.toArray(new String[kept.size()]);
+            String[] paths = new String[children.length];
+            for (int i = 0; i < children.length; i++)
+                paths[i] = prefix + children[i];
+
+            // raw native call: sub-folders are only tracked by the tree
+            int[] wds = watcher.bootstrapWatches(paths, mask);
+            for (int i = 0; i < wds.length; i++) {
+                int errno = -wds[i];
+                if (errno <= 0 || errno == NativeInotify.ENOENT
+                        || errno == NativeInotify.ENOTDIR)
+                    continue;
+                if (errno == NativeInotify.ENOSPC)
+                    stopped = true;
+                else
+                    failed.incrementAndGet();
+                failed(errno, paths[i]);
+            }
+
+            if (!watcher.bootstrapped(wd, folder, children, wds)) {
+                // moved or removed while listed; list it again where it is
+                folder = watcher.path(wd);
+                if (folder == null)
+                    return null;
+                continue;
+            }
+
+            List<Folder> tasks = new ArrayList<Folder>();
+            for (int i = 0; i < wds.length; i++) {
+                if (wds[i] >= 0)
+                    tasks.add(new Folder(wds[i], paths[i]));
+            }
+            watched.addAndGet(tasks.size());
+            pending.addAndGet(tasks.size());
+            return tasks;
+        }
+    }
+
+    /**
+     * Task watching the sub-folders of one folder.
+     */
+    private final class Folder extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Watch descriptor of the folder. */
+        private final int wd;
+
+        /** Path of the folder. */
+        private final String folder;
+
+        /**
+         * Creates a task.
+         *
+         * @param wd Watch descriptor of the folder
+         * @param folder Path of the folder
+         */
+        Folder(int wd, String folder) {
+            this.wd = wd;
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            List<Folder> tasks = null;
+            try {
+                if (!stopped)
+                    tasks = watch(wd, folder);
+            } catch (UnsupportedOperationException e) {
+                // watcher destroyed
+                stopped = true;
+            } finally {
+                pending.decrementAndGet();
+            }
+            report();
+            if (tasks != null && !tasks.isEmpty())
+                invokeAll(tasks);
+        }
+    }
+}
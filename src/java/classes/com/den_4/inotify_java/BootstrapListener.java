@@ -0,0 +1,43 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BootstrapListener.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+/**
+ * Interface specifying implementors that receive the
+ * {@link BootstrapProgress progress} of adding the watches below a new
+ * {@link RecursiveWatcher recursive} root.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public interface BootstrapListener {
+
+    /**
+     * Invoked about once a second while watches are being added, and once
+     * when the bootstrap completes. Invoked from the threads adding the
+     * watches; implementations should return quickly.
+     *
+     * @param progress Progress of the bootstrap
+     */
+    public abstract void bootstrapProgress(BootstrapProgress progress);
+
+}
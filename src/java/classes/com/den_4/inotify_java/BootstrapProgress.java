@@ -0,0 +1,220 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BootstrapProgress.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the progress of adding the watches below a new
+ * {@link RecursiveWatcher recursive} root: the folders watched so far, the
+ * rate at which they are added, an estimate of the time remaining, and the
+ * time until the first event was delivered.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class BootstrapProgress {
+
+    /** Watch descriptor of the root. */
+    private final int root;
+
+    /** Path of the root. */
+    private final String path;
+
+    /** Folders watched, including the root. */
+    private final long watched;
+
+    /** Folders watched but not yet listed. */
+    private final long pending;
+
+    /** Folders that could not be watched. */
+    private final long failed;
+
+    /** Nanoseconds since the bootstrap started. */
+    private final long elapsed;
+
+    /** Nanoseconds until the first event was delivered, or -1. */
+    private final long firstEvent;
+
+    /** Whether the bootstrap completed. */
+    private final boolean done;
+
+    /**
+     * Creates a progress snapshot.
+     *
+     * @param root Watch descriptor of the root
+     * @param path Path of the root
+     * @param watched Folders watched
+     * @param pending Folders not yet listed
+     * @param failed Folders that could not be watched
+     * @param elapsed Nanoseconds since the start
+     * @param firstEvent Nanoseconds until the first event, or -1
+     * @param done Whether the bootstrap completed
+     */
+    BootstrapProgress(int root, String path, long watched, long pending,
+            long failed, long elapsed, long firstEvent, boolean done) {
+        this.root = root;
+        this.path = path;
+        this.watched = watched;
+        this.pending = pending;
+        this.failed = failed;
+        this.elapsed = elapsed;
+        this.firstEvent = firstEvent;
+        this.done = done;
+    }
+
+    /**
+     * Returns the watch descriptor of the root.
+     *
+     * @return Watch descriptor
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the path of the root.
+     *
+     * @return Path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of folders watched, including the root.
+     *
+     * @return Folders watched
+     */
+    public long getWatched() {
+        return watched;
+    }
+
+    /**
+     * Returns the number of folders watched whose sub-folders have not been
+     * listed yet.
+     *
+     * @return Folders pending
+     */
+    public long getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of folders that could not be watched, other than
+     * those that disappeared.
+     *
+     * @return Folders failed
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns whether the bootstrap completed.
+     *
+     * @return boolean
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns the time since the bootstrap started, or its total time once
+     * it completed.
+     *
+     * @param unit Time unit
+     * @return Elapsed time
+     */
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of folders watched per second.
+     *
+     * @return Rate
+     */
+    public double getRate() {
+        if (elapsed <= 0)
+            return 0;
+        return watched * 1e9 / elapsed;
+    }
+
+    /**
+     * Returns an estimate of the time remaining. Folders not yet listed may
+     * hold any number of sub-folders, so the estimate only covers listing
+     * the folders pending at the current rate and grows as they are found.
+     *
+     * @param unit Time unit
+     * @return Estimated time remaining, or -1 if unknown
+     */
+    public long getEstimatedRemaining(TimeUnit unit) {
+        if (done)
+            return 0;
+        long listed = watched - pending;
+        if (listed <= 0)
+            return -1;
+        return unit.convert(elapsed / listed * pending, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time from the start of the bootstrap until the first event
+     * was delivered to the recursive listeners of the root.
+     *
+     * @param unit Time unit
+     * @return Time to the first event, or -1 if none was delivered
+     */
+    public long getTimeToFirstEvent(TimeUnit unit) {
+        if (firstEvent < 0)
+            return -1;
+        return unit.convert(firstEvent, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a string representation of the progress.
+     *
+     * @return a string representation of the progress
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(getClass().getSimpleName());
+        s.append(" [path=");
+        s.append(path);
+        s.append(", watched=");
+        s.append(watched);
+        s.append(", pending=");
+        s.append(pending);
+        s.append(", failed=");
+        s.append(failed);
+        s.append(", elapsed=");
+        s.append(getElapsed(TimeUnit.MILLISECONDS));
+        s.append("ms, rate=");
+        s.append((long) getRate());
+        s.append("/s, done=");
+        s.append(done);
+        s.append("]");
+        return s.toString();
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BufferedSubscription.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One subscriber's buffer and demand, for {@link EventPublisher} and
+ * {@link BatchEventPublisher}.
+ * <p>
+ * Items are sent to the subscriber by the thread offering them or by the
+ * thread requesting more, never concurrently. Under
+ * {@link OverflowPolicy#BLOCK}, a thread that other instances depend on, an
+ * {@link InotifyReactor} thread or the batch timer, is never blocked: when
+ * the buffer is full, the item it offers is dropped instead.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+final class BufferedSubscription<T> implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+
+    /** Items buffered at most. */
+    private final int bufferSize;
+
+    /** What is done with items when the buffer is full. */
+    private final OverflowPolicy policy;
+
+    /** Subscriptions of the publisher, left when done. */
+    private final Set<BufferedSubscription<T>> subscriptions;
+
+    /** Items dropped by the publisher. */
+    private final AtomicLong dropped;
+
+    /* Guards the buffer. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<T> buffer = new ArrayDeque<T>();
+
+    /** Outstanding demand. */
+    private final AtomicLong requested = new AtomicLong();
+
+    /** Pending drains; the thread raising it from zero drains. */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /** Failure to signal, if any. */
+    private volatile Throwable error;
+
+    /* Set once completed or cancelled. */
+    private volatile boolean done;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a subscription.
+     *
+     * @param subscriber Subscriber
+     * @param bufferSize Items buffered at most
+     * @param policy Overflow policy
+     * @param subscriptions Subscriptions of the publisher
+     * @param dropped Items dropped by the publisher
+     */
+    BufferedSubscription(Flow.Subscriber<? super T> subscriber,
+            int bufferSize, OverflowPolicy policy,
+            Set<BufferedSubscription<T>> subscriptions, AtomicLong dropped) {
+        this.subscriber = subscriber;
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.subscriptions = subscriptions;
+        this.dropped = dropped;
+    }
+
+    /**
+     * Checks the arguments of a publisher.
+     *
+     * @param bufferSize Items buffered per subscriber
+     * @param policy Overflow policy
+     */
+    static void check(int bufferSize, OverflowPolicy policy) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize <= 0");
+        if (policy != OverflowPolicy.BLOCK
+                && policy != OverflowPolicy.DROP_NEWEST
+                && policy != OverflowPolicy.DROP_OLDEST)
+            throw new IllegalArgumentException("unsupported policy: " + policy);
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            error = new IllegalArgumentException("non-positive request: " + n);
+            done = true;
+        } else {
+            long r, u;
+            do {
+                r = requested.get();
+                u = r + n;
+                if (u < 0) u = Long.MAX_VALUE;
+            } while (!requested.compareAndSet(r, u));
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        subscriptions.remove(this);
+        lock.lock();
+        try {
+            buffer.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Buffers an item, applying the overflow policy.
+     *
+     * @param item Item
+     */
+    void offer(T item) {
+        if (cancelled || done) return;
+        lock.lock();
+        try {
+            if (buffer.size() >= bufferSize) {
+                if (policy == OverflowPolicy.BLOCK && !mustNotBlock()) {
+                    // let demand drain the buffer meanwhile
+                    while (buffer.size() >= bufferSize && !cancelled && !done) {
+                        lock.unlock();
+                        try {
+                            drain();
+                        } finally {
+                            lock.lock();
+                        }
+                        if (buffer.size() >= bufferSize && !cancelled && !done)
+                            notFull.awaitUninterruptibly();
+                    }
+                    if (cancelled || done) return;
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    buffer.pollFirst();
+                    dropped.incrementAndGet();
+                } else {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+            buffer.addLast(item);
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Completes the subscriber once its buffer is drained.
+     */
+    void complete() {
+        done = true;
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /*
+     * Returns whether the current thread serves other instances and must not
+     * be blocked by one slow subscriber.
+     */
+    private static boolean mustNotBlock() {
+        return InotifyReactor.isReactorThread()
+                || BatchDispatcher.isTimerThread();
+    }
+
+    /*
+     * Sends buffered items within demand, then any terminal signal.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+        int missed = 1;
+        for (;;) {
+            if (cancelled) return;
+            if (error != null) {
+                cancelled = true;
+                subscriptions.remove(this);
+                subscriber.onError(error);
+                return;
+            }
+            while (requested.get() > 0 && !cancelled) {
+                T item;
+                lock.lock();
+                try {
+                    item = buffer.pollFirst();
+                    if (item != null) notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                if (item == null) break;
+                if (requested.get() != Long.MAX_VALUE)
+                    requested.decrementAndGet();
+                try {
+                    subscriber.onNext(item);
+                } catch (RuntimeException ex) {
+                    cancel();
+                    subscriber.onError(ex);
+                    return;
+                }
+            }
+            if (done && !cancelled) {
+                boolean empty;
+                lock.lock();
+                try {
+                    empty = buffer.isEmpty();
+                } finally {
+                    lock.unlock();
+                }
+                if (empty) {
+                    cancelled = true;
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) return;
+        }
+    }
+}
@@ -47,6 +47,39 @@ public abstract class ConcurrentReader extends NativeInotify implements Uncaught
      */
     public ConcurrentReader() throws InotifyException {
         super();
+        startReader();
+    }
+
+    /**
+     * Constructs a concurrent reader whose queue is serviced by the provided
+     * {@link InotifyReactor reactor} rather than a dedicated thread. A {@code
+     * null} reactor is equivalent to {@link #ConcurrentReader()}.
+     *
+     * @param reactor Reactor servicing the queue, or {@code null}
+     * @throws InotifyException Thrown when the watcher could not be created or
+     *         attached to the reactor; a cause will be provided to the thrown
+     *         object.
+     * @since Version 2.2
+     */
+    public ConcurrentReader(final InotifyReactor reactor)
+            throws InotifyException {
+        super(reactor);
+        if (reactor == null) {
+            startReader();
+            return;
+        }
+        try {
+            reactor.attach(this);
+        } catch (InotifyException e) {
+            destroy();
+            throw e;
+        }
+    }
+
+    /*
+     * Starts the daemon thread servicing the queue.
+     */
+    private void startReader() {
         final Thread reader = new Thread(new Runnable() {
 
             @Override
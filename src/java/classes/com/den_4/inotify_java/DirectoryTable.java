@@ -0,0 +1,128 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: DirectoryTable.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Subdirectories found and watched by a native recursive walk. Row {@code i}
+ * holds the index of the parent row ({@code -1} for the walk root), the watch
+ * descriptor or negated errno value, and the directory name. Parents precede
+ * their subdirectories.
+ *
+ * @author Nick Bargnesi
+ * @see NativeInotify#walkWatches(String, int, String[])
+ * @since Version 2.2
+ */
+final class DirectoryTable {
+
+    /** Size in bytes of the fixed portion of a native walk record. */
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 2;
+
+    /** Charset used to decode directory names. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of rows. */
+    final int size;
+
+    /** Parent row of each row, {@code -1} for the walk root. */
+    final int[] parents;
+
+    /** Watch descriptor of each row, or negated errno value. */
+    final int[] wds;
+
+    /** Walk records, holding the UTF-8 encoded directory names. */
+    final byte[] records;
+
+    /** Offset of each row's directory name in {@link #records}. */
+    final int[] nameOffsets;
+
+    /** Length of each row's directory name. */
+    final int[] nameLengths;
+
+    /**
+     * Decodes the records returned by the native walk.
+     *
+     * @param records Walk records, in native byte order
+     */
+    DirectoryTable(byte[] records) {
+        ByteBuffer buffer = ByteBuffer.wrap(records).order(ByteOrder.nativeOrder());
+
+        int n = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            buffer.position(buffer.position() + RECORD_HEADER_SIZE - 2);
+            int len = buffer.getShort() & 0xffff;
+            buffer.position(buffer.position() + len);
+            n++;
+        }
+
+        size = n;
+        parents = new int[n];
+        wds = new int[n];
+        nameOffsets = new int[n];
+        nameLengths = new int[n];
+        this.records = records;
+
+        buffer.rewind();
+        for (int i = 0; i < n; i++) {
+            parents[i] = buffer.getInt();
+            wds[i] = buffer.getInt();
+            int len = buffer.getShort() & 0xffff;
+            nameOffsets[i] = buffer.position();
+            nameLengths[i] = len;
+            buffer.position(buffer.position() + len);
+        }
+    }
+
+    /**
+     * Returns the directory name of a row.
+     *
+     * @param i Row
+     * @return Directory name
+     */
+    String name(int i) {
+        return new String(records, nameOffsets[i], nameLengths[i], UTF_8);
+    }
+
+    /**
+     * Returns the path of each row below the provided walk root.
+     *
+     * @param root Walk root
+     * @return Path of each row
+     */
+    String[] paths(String root) {
+        if (root.length() > 1 && root.charAt(root.length() - 1) == '/')
+            root = root.substring(0, root.length() - 1);
+
+        String[] paths = new String[size];
+        for (int i = 0; i < size; i++) {
+            String parent = parents[i] < 0 ? root : paths[parents[i]];
+            if (parent.equals("/"))
+                paths[i] = parent + name(i);
+            else
+                paths[i] = parent + '/' + name(i);
+        }
+        return paths;
+    }
+}
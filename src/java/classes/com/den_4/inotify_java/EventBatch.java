@@ -0,0 +1,508 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: EventBatch.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An ordered batch of inotify events, delivered to
+ * {@link BatchInotifyEventListener batch listeners}. Events are accessed by
+ * position, from {@code 0} to {@link #size()} exclusive, or with a
+ * {@link #cursor() cursor}.
+ * <p>
+ * A batch is stored as parallel arrays: watch descriptors, masks, and cookies
+ * as {@code int} arrays, and names as UTF-8 bytes in one shared arena, so a
+ * batch of any size is a handful of objects that are reused from batch to
+ * batch. Scanning masks touches only the mask array. Names are decoded to
+ * strings on request, and {@link #materialize(int)} builds a classic
+ * {@link InotifyEvent} where one is needed.
+ * </p>
+ * <p>
+ * Batches are reused; one is only valid for the duration of the listener call
+ * it was passed to. Batches published by a {@link BatchEventPublisher} are
+ * copies and remain valid.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@NonThreadSafe
+public final class EventBatch {
+
+    /** Initial capacity of a batch, in events. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Initial capacity of the name arena, in bytes. */
+    private static final int INITIAL_ARENA = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* Columns. */
+    private int[] wds;
+    private int[] masks;
+    private int[] cookies;
+
+    /** Offset of each name in the arena. */
+    private int[] nameOffsets;
+
+    /** Length of each name in bytes, or {@code -1} for no name. */
+    private int[] nameLengths;
+
+    /** Watched directory of each event, shared between events. */
+    private String[] directories;
+
+    /** Names already decoded, or known from the source event. */
+    private String[] names;
+
+    /** UTF-8 names, back to back. */
+    private byte[] arena;
+
+    /** Bytes used in the arena. */
+    private int arenaLength;
+
+    /** Number of events. */
+    private int size;
+
+    /** Cursor returned by {@link #cursor()}. */
+    private final Cursor cursor = new Cursor();
+
+    /**
+     * Creates an empty batch.
+     */
+    EventBatch() {
+        this(INITIAL_CAPACITY, INITIAL_ARENA);
+    }
+
+    /*
+     * Creates an empty batch of the provided capacities.
+     */
+    private EventBatch(int capacity, int arenaCapacity) {
+        wds = new int[capacity];
+        masks = new int[capacity];
+        cookies = new int[capacity];
+        nameOffsets = new int[capacity];
+        nameLengths = new int[capacity];
+        directories = new String[capacity];
+        names = new String[capacity];
+        arena = new byte[arenaCapacity];
+    }
+
+    /**
+     * Appends an event.
+     *
+     * @param e InotifyEvent
+     */
+    void add(InotifyEvent e) {
+        int i = append(e.getSource(), e.getMask(), e.getCookie(),
+                e.getDirectory());
+        String name = e.getName();
+        if (name != null) {
+            names[i] = name;
+            encode(i, name);
+        }
+    }
+
+    /**
+     * Appends an event straight from the native read buffer.
+     *
+     * @param v View of the event
+     */
+    void add(InotifyEventView v) {
+        int i = append(v.wd(), v.mask(), v.cookie(), v.directory());
+        if (v.hasName()) {
+            int n = v.nameLength();
+            reserve(n);
+            nameOffsets[i] = arenaLength;
+            nameLengths[i] = v.getNameBytes(arena, arenaLength);
+            arenaLength += n;
+        }
+    }
+
+    /**
+     * Returns a copy of the batch sized to its events, which is not reused.
+     *
+     * @return EventBatch
+     */
+    EventBatch copy() {
+        EventBatch c = new EventBatch(Math.max(size, 1),
+                Math.max(arenaLength, 1));
+        System.arraycopy(wds, 0, c.wds, 0, size);
+        System.arraycopy(masks, 0, c.masks, 0, size);
+        System.arraycopy(cookies, 0, c.cookies, 0, size);
+        System.arraycopy(nameOffsets, 0, c.nameOffsets, 0, size);
+        System.arraycopy(nameLengths, 0, c.nameLengths, 0, size);
+        System.arraycopy(directories, 0, c.directories, 0, size);
+        System.arraycopy(names, 0, c.names, 0, size);
+        System.arraycopy(arena, 0, c.arena, 0, arenaLength);
+        c.size = size;
+        c.arenaLength = arenaLength;
+        return c;
+    }
+
+    /**
+     * Empties the batch, keeping its storage.
+     */
+    void clear() {
+        Arrays.fill(directories, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+        arenaLength = 0;
+    }
+
+    /*
+     * Appends the fixed columns of an event, returning its position.
+     */
+    private int append(int wd, int mask, int cookie, String directory) {
+        if (size == wds.length) grow();
+        int i = size++;
+        wds[i] = wd;
+        masks[i] = mask;
+        cookies[i] = cookie;
+        directories[i] = directory;
+        nameLengths[i] = -1;
+        return i;
+    }
+
+    /*
+     * Encodes a name into the arena, copying ASCII names directly.
+     */
+    private void encode(int i, String name) {
+        int n = name.length();
+        reserve(n);
+        int p = arenaLength;
+        for (int c = 0; c < n; c++) {
+            char ch = name.charAt(c);
+            if (ch >= 0x80) {
+                byte[] b = name.getBytes(UTF8);
+                reserve(b.length);
+                System.arraycopy(b, 0, arena, arenaLength, b.length);
+                nameOffsets[i] = arenaLength;
+                nameLengths[i] = b.length;
+                arenaLength += b.length;
+                return;
+            }
+            arena[p + c] = (byte) ch;
+        }
+        nameOffsets[i] = arenaLength;
+        nameLengths[i] = n;
+        arenaLength += n;
+    }
+
+    /*
+     * Ensures room for the provided number of bytes in the arena.
+     */
+    private void reserve(int n) {
+        if (arenaLength + n > arena.length)
+            arena = Arrays.copyOf(arena, Math.max(arena.length << 1,
+                    arenaLength + n));
+    }
+
+    /*
+     * Doubles the capacity of the columns.
+     */
+    private void grow() {
+        int c = wds.length << 1;
+        wds = Arrays.copyOf(wds, c);
+        masks = Arrays.copyOf(masks, c);
+        cookies = Arrays.copyOf(cookies, c);
+        nameOffsets = Arrays.copyOf(nameOffsets, c);
+        nameLengths = Arrays.copyOf(nameLengths, c);
+        directories = Arrays.copyOf(directories, c);
+        names = Arrays.copyOf(names, c);
+    }
+
+    /**
+     * Returns the number of events.
+     *
+     * @return Size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the batch holds no events.
+     *
+     * @return {@code true} if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the watch descriptor of an event.
+     *
+     * @param i Position
+     * @return Watch descriptor
+     */
+    public int wd(int i) {
+        check(i);
+        return wds[i];
+    }
+
+    /**
+     * Returns the mask of an event.
+     *
+     * @param i Position
+     * @return Mask
+     */
+    public int mask(int i) {
+        check(i);
+        return masks[i];
+    }
+
+    /**
+     * Returns the synchronization cookie of an event.
+     *
+     * @param i Position
+     * @return Cookie
+     */
+    public int cookie(int i) {
+        check(i);
+        return cookies[i];
+    }
+
+    /**
+     * Returns the path of the watched directory of an event.
+     *
+     * @param i Position
+     * @return Directory, or {@code null} if unknown
+     */
+    public String directory(int i) {
+        check(i);
+        return directories[i];
+    }
+
+    /**
+     * Returns whether an event carries a name.
+     *
+     * @param i Position
+     * @return {@code true} if the event has a name
+     */
+    public boolean hasName(int i) {
+        check(i);
+        return nameLengths[i] >= 0;
+    }
+
+    /**
+     * Returns the length in bytes of the UTF-8 name of an event.
+     *
+     * @param i Position
+     * @return Name length, {@code 0} for events without a name
+     */
+    public int nameLength(int i) {
+        check(i);
+        return Math.max(nameLengths[i], 0);
+    }
+
+    /**
+     * Copies the UTF-8 name of an event without decoding it.
+     *
+     * @param i Position
+     * @param dst Destination array
+     * @param offset Offset in the destination array
+     * @return Number of bytes copied
+     */
+    public int getNameBytes(int i, byte[] dst, int offset) {
+        int n = nameLength(i);
+        System.arraycopy(arena, nameOffsets[i], dst, offset, n);
+        return n;
+    }
+
+    /**
+     * Returns the name of an event, decoding it on first request.
+     *
+     * @param i Position
+     * @return Name, or {@code null} for events about the watched path itself
+     */
+    public String name(int i) {
+        check(i);
+        String name = names[i];
+        if (name == null && nameLengths[i] >= 0) {
+            name = new String(arena, nameOffsets[i], nameLengths[i], UTF8);
+            names[i] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Returns the contextual name of an event: its name prefixed with the
+     * watched directory.
+     *
+     * @param i Position
+     * @return Contextual name, or {@code null} if the event has no name or
+     * its directory is unknown
+     */
+    public String contextualName(int i) {
+        String name = name(i);
+        String dir = directories[i];
+        if (name == null || dir == null) return null;
+        if (dir.charAt(dir.length() - 1) == '/') return dir.concat(name);
+        return dir.concat("/").concat(name);
+    }
+
+    /**
+     * Builds an {@link InotifyEvent} of an event, which remains valid after
+     * the batch is reused.
+     *
+     * @param i Position
+     * @return InotifyEvent
+     */
+    public InotifyEvent materialize(int i) {
+        String name = name(i);
+        InotifyEvent e;
+        if (name != null)
+            e = new InotifyEvent(wds[i], masks[i], cookies[i], name);
+        else
+            e = new InotifyEvent(wds[i], masks[i], cookies[i]);
+        if (directories[i] != null) e.setDirectory(directories[i]);
+        return e;
+    }
+
+    /**
+     * Returns the batch's cursor, positioned before the first event. The
+     * cursor is reused by every call.
+     *
+     * @return Cursor
+     */
+    public Cursor cursor() {
+        cursor.i = -1;
+        return cursor;
+    }
+
+    /*
+     * Checks a position.
+     */
+    private void check(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index: " + i + ", size: "
+                    + size);
+    }
+
+    /**
+     * Returns a string representation of the batch.
+     *
+     * @return a string representation of the batch
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [size=" + size + ", arena="
+                + arenaLength + "]";
+    }
+
+    /**
+     * Forward cursor over the events of a batch.
+     * <pre>
+     * EventBatch.Cursor c = batch.cursor();
+     * while (c.next()) {
+     *     if ((c.mask() &amp; mask) != 0) index(c.contextualName());
+     * }
+     * </pre>
+     */
+    public final class Cursor {
+
+        /** Current position. */
+        private int i = -1;
+
+        Cursor() {
+            // created by the batch
+        }
+
+        /**
+         * Moves to the next event.
+         *
+         * @return {@code true} if there is a next event
+         */
+        public boolean next() {
+            if (i + 1 >= size) {
+                i = size;
+                return false;
+            }
+            i++;
+            return true;
+        }
+
+        /**
+         * Returns the position of the current event.
+         *
+         * @return Position
+         */
+        public int position() {
+            return i;
+        }
+
+        /**
+         * Returns the watch descriptor of the current event.
+         *
+         * @return Watch descriptor
+         */
+        public int wd() {
+            return EventBatch.this.wd(i);
+        }
+
+        /**
+         * Returns the mask of the current event.
+         *
+         * @return Mask
+         */
+        public int mask() {
+            return EventBatch.this.mask(i);
+        }
+
+        /**
+         * Returns the cookie of the current event.
+         *
+         * @return Cookie
+         */
+        public int cookie() {
+            return EventBatch.this.cookie(i);
+        }
+
+        /**
+         * Returns the name of the current event.
+         *
+         * @return Name, or {@code null}
+         */
+        public String name() {
+            return EventBatch.this.name(i);
+        }
+
+        /**
+         * Returns the contextual name of the current event.
+         *
+         * @return Contextual name
+         */
+        public String contextualName() {
+            return EventBatch.this.contextualName(i);
+        }
+
+        /**
+         * Builds an {@link InotifyEvent} of the current event.
+         *
+         * @return InotifyEvent
+         */
+        public InotifyEvent materialize() {
+            return EventBatch.this.materialize(i);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: EventPublisher.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Listener publishing the events it receives to {@link Flow.Subscriber
+ * subscribers}, each at the pace of its own requested demand.
+ * <p>
+ * A publisher is registered like any other listener, with
+ * {@link Inotify#addListener(int, InotifyEventListener)},
+ * {@link MonitorService#addListener(int, InotifyEventListener)}, or
+ * {@link RecursiveWatcher#addRecursiveListener(int, InotifyEventListener)}.
+ * Each subscriber has a buffer of events received but not yet requested. When
+ * a buffer is full, the publisher's {@link OverflowPolicy} applies:
+ * </p>
+ * <ul>
+ * <li>{@link OverflowPolicy#DROP_NEWEST}, the default, drops the incoming
+ * event.</li>
+ * <li>{@link OverflowPolicy#DROP_OLDEST} drops the oldest buffered event.</li>
+ * <li>{@link OverflowPolicy#BLOCK} blocks the thread notifying the publisher
+ * until the subscriber requests more or cancels. Under a
+ * {@link MonitorService}, this backs events up into the service's queue,
+ * where the service's own overflow policy applies, including spilling to
+ * disk. The thread of an {@link InotifyReactor} notifies the listeners of
+ * every instance it services, and is never blocked: on it, a full buffer
+ * drops the incoming event as {@code DROP_NEWEST} does.</li>
+ * </ul>
+ * <p>
+ * Events are sent to a subscriber by the thread notifying the publisher or by
+ * the thread requesting more, never concurrently. {@link BatchEventPublisher}
+ * publishes batches instead.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class EventPublisher implements Flow.Publisher<InotifyEvent>,
+        InotifyEventListener {
+
+    /** Default number of events buffered per subscriber. */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /** Events buffered per subscriber. */
+    private final int bufferSize;
+
+    /** What is done with events when a buffer is full. */
+    private final OverflowPolicy policy;
+
+    /** Active subscriptions. */
+    private final CopyOnWriteArraySet<BufferedSubscription<InotifyEvent>> subscriptions = new CopyOnWriteArraySet<BufferedSubscription<InotifyEvent>>();
+
+    /** Events dropped across subscribers. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Set once the publisher is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a publisher buffering {@value #DEFAULT_BUFFER_SIZE} events per
+     * subscriber and dropping the incoming event when a buffer is full.
+     */
+    public EventPublisher() {
+        this(DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Creates a publisher.
+     *
+     * @param bufferSize Events buffered per subscriber, greater than zero
+     * @param policy {@link OverflowPolicy#BLOCK},
+     * {@link OverflowPolicy#DROP_NEWEST}, or {@link OverflowPolicy#DROP_OLDEST}
+     */
+    public EventPublisher(final int bufferSize, final OverflowPolicy policy) {
+        BufferedSubscription.check(bufferSize, policy);
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a subscriber. A subscriber added after the publisher is closed is
+     * completed at once.
+     *
+     * @param subscriber Subscriber
+     */
+    @Override
+    public void subscribe(
+            final Flow.Subscriber<? super InotifyEvent> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("null subscriber");
+        BufferedSubscription<InotifyEvent> s = new BufferedSubscription<InotifyEvent>(
+                subscriber, bufferSize, policy, subscriptions, dropped);
+        subscriber.onSubscribe(s);
+        subscriptions.add(s);
+        if (closed) s.complete();
+    }
+
+    /**
+     * Buffers the event for every subscriber, and sends it to those with
+     * demand.
+     *
+     * @param e InotifyEvent
+     */
+    @Override
+    public void filesystemEventOccurred(final InotifyEvent e) {
+        for (BufferedSubscription<InotifyEvent> s : subscriptions)
+            s.offer(e);
+    }
+
+    /**
+     * Does nothing; overflow is reported to subscribers as
+     * {@link com.den_4.inotify_java.enums.EventModifier#Event_Queue_Overflow
+     * overflow} events.
+     *
+     * @param e EventQueueFull
+     */
+    @Override
+    public void queueFull(final EventQueueFull e) {
+        // nothing to do
+    }
+
+    /**
+     * Completes every subscriber once it has taken its buffered events, and
+     * stops accepting events.
+     */
+    public void close() {
+        closed = true;
+        for (BufferedSubscription<InotifyEvent> s : subscriptions)
+            s.complete();
+    }
+
+    /**
+     * Returns the number of subscribers.
+     *
+     * @return Subscriber count
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns the count of events dropped across subscribers because their
+     * buffers were full.
+     *
+     * @return Dropped events
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns a string representation of the publisher.
+     *
+     * @return a string representation of the publisher
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [subscribers="
+                + subscriptions.size() + ", bufferSize=" + bufferSize
+                + ", policy=" + policy + ", closed=" + closed + "]";
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: Flow.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+/**
+ * Interfaces of demand-driven publishers and subscribers, mirroring
+ * {@code java.util.concurrent.Flow} of later Java releases, so that
+ * subscribers written against either can be adapted to the other one method
+ * at a time.
+ * <p>
+ * A {@link Publisher} signals a {@link Subscriber} through
+ * {@link Subscriber#onSubscribe(Subscription) onSubscribe}, then any number of
+ * {@link Subscriber#onNext(Object) onNext} calls not exceeding the demand
+ * requested through the {@link Subscription}, followed by at most one of
+ * {@link Subscriber#onError(Throwable) onError} or
+ * {@link Subscriber#onComplete() onComplete}. Signals to one subscriber are
+ * never concurrent.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public final class Flow {
+
+    private Flow() {
+        // not instantiable
+    }
+
+    /**
+     * Producer of items received by subscribers.
+     *
+     * @param <T> Item type
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Adds a subscriber, which is then sent
+         * {@link Subscriber#onSubscribe(Subscription) onSubscribe}.
+         *
+         * @param subscriber Subscriber, non-null
+         */
+        public abstract void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of items from a publisher.
+     *
+     * @param <T> Item type
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Invoked before any other signal of a subscription.
+         *
+         * @param subscription Subscription
+         */
+        public abstract void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked with the next item, within requested demand.
+         *
+         * @param item Item
+         */
+        public abstract void onNext(T item);
+
+        /**
+         * Invoked when the subscription failed; no other signal follows.
+         *
+         * @param throwable Failure
+         */
+        public abstract void onError(Throwable throwable);
+
+        /**
+         * Invoked when no more items will be sent; no other signal follows.
+         */
+        public abstract void onComplete();
+    }
+
+    /**
+     * Link between a publisher and one subscriber.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds to the number of items the subscriber can take. A
+         * non-positive count fails the subscription.
+         *
+         * @param n Number of items, greater than zero
+         */
+        public abstract void request(long n);
+
+        /**
+         * Stops sending items to the subscriber, eventually.
+         */
+        public abstract void cancel();
+    }
+
+    /**
+     * Both a subscriber and a publisher.
+     *
+     * @param <T> Item type received
+     * @param <R> Item type published
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+        // Empty interface
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: IgnoredBarrier.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Countdown of the consumer threads of a {@link MonitorService} yet to reach
+ * an {@code IN_IGNORED} event broadcast to all of them.
+ * <p>
+ * Each consumer thread reaches the event after every event queued to it
+ * before. The last thread to arrive therefore finds every earlier event of
+ * the watch delivered, whichever thread it was assigned to, and it alone
+ * delivers the event and forgets the watch.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+final class IgnoredBarrier {
+
+    /** Consumer threads yet to reach the event. */
+    private final AtomicInteger remaining;
+
+    /**
+     * Creates a barrier.
+     *
+     * @param lanes Number of consumer threads, greater than zero
+     */
+    IgnoredBarrier(int lanes) {
+        this.remaining = new AtomicInteger(lanes);
+    }
+
+    /**
+     * Records that a consumer thread reached the event.
+     *
+     * @return {@code true} for the last thread to arrive
+     */
+    boolean arrive() {
+        return remaining.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns a string representation of the barrier.
+     *
+     * @return a string representation of the barrier
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [remaining=" + remaining.get()
+                + "]";
+    }
+}
@@ -21,10 +21,12 @@
  */
 package com.den_4.inotify_java;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 import com.den_4.inotify_java.enums.Event;
 import com.den_4.inotify_java.enums.WatchModifier;
@@ -45,6 +47,24 @@ import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
  * associated with this event will be {@code /path/x/y}.</li>
  * </ol>
  * <p>
+ * Listeners that must not allocate per event may instead be registered with
+ * {@link #addViewListener(int, InotifyEventViewListener)}; they receive a
+ * reused {@link InotifyEventView view} of each event. No {@link InotifyEvent}
+ * is created for events on watches without {@link InotifyEventListener
+ * listeners}.
+ * </p>
+ * <p>
+ * {@link BatchInotifyEventListener Batch listeners} receive the events of
+ * every watch in {@link EventBatch batches}, collected from each read up to
+ * a {@link #setMaxBatchSize(int) maximum size} and optionally held for a
+ * {@link #setMaxBatchLinger(long, TimeUnit) linger time} to gather more.
+ * </p>
+ * <p>
+ * Listeners are notified on the thread reading events unless a
+ * {@link #setListenerExecutor(SequentialExecutor) listener executor} is set,
+ * in which case they are notified by the executor, in order for each watch.
+ * </p>
+ * <p>
  * This class is not thread-safe. For a thread-safe implementation, consider the
  * {@link MonitorService}.
  * </p>
@@ -55,19 +75,27 @@ import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
 public class Inotify extends ConcurrentReader {
 
     /**
-     * Map of watch descriptors to paths.
+     * Table of watch descriptors to paths and event listeners.
      */
-    protected Map<Integer, String> watchPathMap;
+    protected WatchTable watches;
 
     /**
      * Map of paths to watch descriptors.
      */
     protected Map<String, Integer> pathWatchMap;
 
-    /**
-     * Map of watch descriptors to event listeners.
-     */
-    protected Map<Integer, Set<InotifyEventListener>> watchListenerMap;
+    /** Executor notifying listeners, or {@code null} to notify inline. */
+    private SequentialExecutor listenerExecutor;
+
+    /** Batch listeners. */
+    private final Set<BatchInotifyEventListener> batchListeners = new CopyOnWriteArraySet<BatchInotifyEventListener>();
+
+    /** Collects events for batch listeners. */
+    BatchDispatcher batches;
+
+    /* Batch options. */
+    private int maxBatchSize = BatchDispatcher.DEFAULT_MAX_BATCH_SIZE;
+    private long maxBatchLinger;
 
     /**
      * Creates a new inotify instance, throwing an {@link InotifyException} on
@@ -78,9 +106,202 @@ public class Inotify extends ConcurrentReader {
      */
     public Inotify() throws InotifyException {
         super();
-        watchPathMap = new TreeMap<Integer, String>();
+        mapInit();
+    }
+
+    /**
+     * Creates a new inotify instance serviced by the provided
+     * {@link InotifyReactor reactor}, throwing an {@link InotifyException} on
+     * errors. A {@code null} reactor is equivalent to {@link #Inotify()}.
+     * 
+     * @param reactor Reactor servicing the instance, or {@code null}
+     * @throws InotifyException Thrown when an instance could not be created; a
+     * cause will be provided to the thrown object.
+     * @since Version 2.2
+     */
+    public Inotify(InotifyReactor reactor) throws InotifyException {
+        super(reactor);
+        mapInit();
+    }
+
+    /*
+     * Creates the maps maintained by the class.
+     */
+    private void mapInit() {
+        watches = new WatchTable();
         pathWatchMap = new TreeMap<String, Integer>();
-        watchListenerMap = new TreeMap<Integer, Set<InotifyEventListener>>();
+        batches = new BatchDispatcher(batchListeners);
+    }
+
+    /**
+     * Adds a listener receiving the events of every watch in batches.
+     * 
+     * @param listener Batch listener
+     * @since Version 2.2
+     */
+    public void addBatchListener(final BatchInotifyEventListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener may not be null");
+        batchListeners.add(listener);
+    }
+
+    /**
+     * Removes a batch listener.
+     * 
+     * @param listener Batch listener
+     * @return {@code true} if the listener was removed
+     * @since Version 2.2
+     */
+    public boolean removeBatchListener(
+            final BatchInotifyEventListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener may not be null");
+        return batchListeners.remove(listener);
+    }
+
+    /**
+     * Returns the maximum number of events in a batch.
+     * 
+     * @return Maximum batch size
+     * @since Version 2.2
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of events in a batch, defaulting to
+     * {@value BatchDispatcher#DEFAULT_MAX_BATCH_SIZE}. Events of one read
+     * exceeding it are delivered in several batches.
+     * 
+     * @param size Maximum batch size, greater than zero
+     * @since Version 2.2
+     */
+    public void setMaxBatchSize(final int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size <= 0");
+        maxBatchSize = size;
+        batches.configure(maxBatchSize, maxBatchLinger);
+    }
+
+    /**
+     * Returns the maximum time events are held to gather a larger batch.
+     * 
+     * @param unit Unit of the returned time
+     * @return Maximum linger
+     * @since Version 2.2
+     */
+    public long getMaxBatchLinger(final TimeUnit unit) {
+        return unit.convert(maxBatchLinger, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the maximum time events are held to gather a larger batch,
+     * defaulting to zero: each read is delivered as it completes. A lingering
+     * batch is delivered by a timer thread if no further read completes it.
+     * 
+     * @param linger Maximum linger, not negative
+     * @param unit Unit of the linger
+     * @since Version 2.2
+     */
+    public void setMaxBatchLinger(final long linger, final TimeUnit unit) {
+        if (linger < 0)
+            throw new IllegalArgumentException("linger < 0");
+        maxBatchLinger = unit.toNanos(linger);
+        batches.configure(maxBatchSize, maxBatchLinger);
+    }
+
+    /**
+     * Returns the executor notifying listeners.
+     * 
+     * @return Listener executor, or {@code null} if listeners are notified by
+     * the thread reading events
+     * @since Version 2.2
+     */
+    public SequentialExecutor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Sets the executor notifying {@link InotifyEventListener listeners},
+     * keyed by watch descriptor. View listeners are always notified by the
+     * thread reading events, as views are only valid during the read.
+     * 
+     * @param executor Listener executor, or {@code null} to notify listeners
+     * on the thread reading events
+     * @since Version 2.2
+     */
+    public void setListenerExecutor(final SequentialExecutor executor) {
+        listenerExecutor = executor;
+    }
+
+    /**
+     * Notifies any view listeners of an event, consuming the event unless an
+     * {@link InotifyEventListener} also needs it or the watch was removed.
+     * 
+     * @param v View of the event
+     * @return {@code true} if the event needs no further handling
+     */
+    @Override
+    boolean viewHandler(InotifyEventView v) {
+        WatchRecord r = watches.get(v.wd());
+        if (r == null) return false;
+
+        Set<InotifyEventListener> queue = r.listeners;
+        Set<InotifyEventViewListener> views = r.viewListeners;
+        v.setDirectoryResolver(this);
+        if (views != null) {
+            for (InotifyEventViewListener l : views) {
+                l.filesystemEventOccurred(v);
+            }
+        }
+        batchView(v);
+        return queue == null && !v.isIgnored();
+    }
+
+    /**
+     * Handles a batch of events, then delivers or schedules the collected
+     * batch to batch listeners.
+     * 
+     * @param buffer Direct buffer over the native read buffer
+     * @param length Number of valid bytes in {@code buffer}
+     */
+    @Override
+    void batchHandler(ByteBuffer buffer, int length) {
+        super.batchHandler(buffer, length);
+        endOfRead();
+        batches.endOfBatch();
+    }
+
+    /**
+     * Invoked on the reader thread once the events of one read have been
+     * handled, before the batch is delivered to batch listeners. Does
+     * nothing by default.
+     */
+    void endOfRead() {
+    }
+
+    /**
+     * Adds an event read by this instance to the batch collected for batch
+     * listeners, copying its fields straight from the native read buffer.
+     * 
+     * @param v View of the event
+     */
+    void batchView(InotifyEventView v) {
+        batches.add(v);
+    }
+
+    /**
+     * Delivers the batch still lingering for batch listeners; every other
+     * event was delivered as it was read.
+     * 
+     * @param deadline {@link System#nanoTime()} by which to give up
+     * @return {@code true}
+     */
+    @Override
+    boolean drain(long deadline) {
+        batches.drain();
+        return true;
     }
 
     /**
@@ -90,29 +311,33 @@ public class Inotify extends ConcurrentReader {
      * @param e InotifyEvent
      */
     @Override
-    void eventHandler(InotifyEvent e) {
-        String path = null;
-        if (e.getName() != null) {
-            path = watchPathMap.get(e.getSource());
-            if (path.charAt(path.length() - 1) == '/')
-                e.setContextualName(path + e.getName());
-            else
-                e.setContextualName(path + '/' + e.getName());
-        }
-
+    void eventHandler(final InotifyEvent e) {
         int wd = e.getSource();
-        Set<InotifyEventListener> queue = watchListenerMap.get(wd);
+        WatchRecord r = watches.get(wd);
+        if (r == null) return;
+        if (e.getName() != null && !e.hasDirectory()) e.setDirectory(r.path);
+
+        final Set<InotifyEventListener> queue = r.listeners;
         if (queue != null) {
-            for (InotifyEventListener l : queue) {
-                l.filesystemEventOccurred(e);
+            if (listenerExecutor == null) {
+                for (InotifyEventListener l : queue) {
+                    l.filesystemEventOccurred(e);
+                }
+            } else {
+                listenerExecutor.execute(wd, new Runnable() {
+                    @Override
+                    public void run() {
+                        for (InotifyEventListener l : queue) {
+                            l.filesystemEventOccurred(e);
+                        }
+                    }
+                });
             }
         }
 
         if (e.isIgnored()) {
-            if (path == null) path = watchPathMap.get(wd);
-            watchPathMap.remove(wd);
-            if(path != null) pathWatchMap.remove(path);
-            watchListenerMap.remove(wd);
+            watches.remove(wd);
+            forget(r);
         }
     }
 
@@ -124,7 +349,19 @@ public class Inotify extends ConcurrentReader {
      * watch descriptor is not valid
      */
     public String getPath(int watchDescriptor) {
-        return watchPathMap.get(watchDescriptor);
+        return path(watchDescriptor);
+    }
+
+    /**
+     * Returns the path being watched for the provided watch descriptor, as
+     * set as the directory of its events.
+     * 
+     * @param wd Watch descriptor
+     * @return Path, or {@code null} if the watch descriptor is not valid
+     */
+    String path(int wd) {
+        WatchRecord r = watches.get(wd);
+        return r == null ? null : r.path;
     }
 
     /**
@@ -136,9 +373,27 @@ public class Inotify extends ConcurrentReader {
      */
     public int getWatchDescriptor(String path) {
         if (path == null) return -1;
+        return find(path);
+    }
+
+    /**
+     * Returns the watch descriptor identifying the provided path.
+     * 
+     * @param path Watched path
+     * @return Watch descriptor, or {@code -1} if the path is not being watched
+     */
+    int find(String path) {
         Integer wd = pathWatchMap.get(path);
-        if (wd == null) return -1;
-        return wd;
+        return wd == null ? -1 : wd;
+    }
+
+    /**
+     * Removes the path of a record from {@link #pathWatchMap}.
+     * 
+     * @param r Record
+     */
+    void forget(WatchRecord r) {
+        pathWatchMap.remove(r.path);
     }
 
     /**
@@ -157,13 +412,14 @@ public class Inotify extends ConcurrentReader {
             final InotifyEventListener listener) {
         if (listener == null)
             throw new NullPointerException("listener may not be null");
-        if (!watchPathMap.containsKey(watchDescriptor))
+        WatchRecord r = watches.get(watchDescriptor);
+        if (r == null)
             throw new IllegalArgumentException("invalid watch descriptor");
 
-        Set<InotifyEventListener> val = watchListenerMap.get(watchDescriptor);
+        Set<InotifyEventListener> val = r.listeners;
         if (val == null) {
             val = new CopyOnWriteArraySet<InotifyEventListener>();
-            watchListenerMap.put(watchDescriptor, val);
+            r.listeners = val;
         }
         val.add(listener);
     }
@@ -186,15 +442,75 @@ public class Inotify extends ConcurrentReader {
             final InotifyEventListener listener) {
         if (listener == null)
             throw new NullPointerException("listener may not be null");
-        if (!watchListenerMap.containsKey(watchDescriptor))
+        WatchRecord r = watches.get(watchDescriptor);
+        if (r == null || r.listeners == null)
             throw new IllegalArgumentException("invalid watch descriptor");
 
-        Set<InotifyEventListener> val = watchListenerMap.get(watchDescriptor);
-        if (val == null) return false;
+        Set<InotifyEventListener> val = r.listeners;
+        boolean ret = val.remove(listener);
+        if (val.size() == 0) {
+            r.listeners = null;
+        }
+        return ret;
+    }
 
+    /**
+     * Adds the provided view listener as a receiver of {@link InotifyEventView
+     * event views} for the specified watch descriptor. View listeners are
+     * notified on the reading thread, before any {@link InotifyEventListener
+     * listeners}, with a view that is only valid for the duration of the call.
+     * 
+     * @param watchDescriptor Watch descriptor identifying path listener is
+     * interested in
+     * @param listener Listener to be notified of events occurred for the watch
+     * descriptor provided
+     * @throws IllegalArgumentException Thrown if the provided watch descriptor
+     * is invalid
+     * @since Version 2.2
+     */
+    @NonThreadSafe
+    public void addViewListener(final int watchDescriptor,
+            final InotifyEventViewListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener may not be null");
+        WatchRecord r = watches.get(watchDescriptor);
+        if (r == null)
+            throw new IllegalArgumentException("invalid watch descriptor");
+
+        Set<InotifyEventViewListener> val = r.viewListeners;
+        if (val == null) {
+            val = new CopyOnWriteArraySet<InotifyEventViewListener>();
+            r.viewListeners = val;
+        }
+        val.add(listener);
+    }
+
+    /**
+     * Removes the provided view listener from receiving
+     * {@link InotifyEventView event views} for the specified watch descriptor.
+     * 
+     * @param watchDescriptor Watch descriptor identifying path listener was
+     * interested in
+     * @param listener Listener to be removed
+     * @return {@code true} if this set contained the listener
+     * @throws NullPointerException Thrown if the provided listener is null
+     * @throws IllegalArgumentException Thrown if the provided watch descriptor
+     * is invalid
+     * @since Version 2.2
+     */
+    @NonThreadSafe
+    public boolean removeViewListener(final int watchDescriptor,
+            final InotifyEventViewListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener may not be null");
+        WatchRecord r = watches.get(watchDescriptor);
+        if (r == null || r.viewListeners == null)
+            throw new IllegalArgumentException("invalid watch descriptor");
+
+        Set<InotifyEventViewListener> val = r.viewListeners;
         boolean ret = val.remove(listener);
         if (val.size() == 0) {
-            watchListenerMap.remove(watchDescriptor);
+            r.viewListeners = null;
         }
         return ret;
     }
@@ -216,7 +532,7 @@ public class Inotify extends ConcurrentReader {
 
         int wm_mask = 0;
         int ev_mask = Event.eventsToMask(events);
-        if (pathWatchMap.containsKey(path)) {
+        if (find(path) >= 0) {
             wm_mask |= WatchModifier.Add.value();
         }
 
@@ -267,6 +583,90 @@ public class Inotify extends ConcurrentReader {
         return add_watch(path, watchModifiersMask, eventMask);
     }
 
+    /**
+     * Adds watches for the specified paths for the provided events, using a
+     * single call into the native interface. Element {@code i} of the result
+     * holds the watch descriptor for {@code paths[i]}, or the negated errno
+     * value (e.g., {@code -}{@link NativeInotify#ENOENT}) if that path could
+     * not be watched.
+     * 
+     * @param paths Paths to be watched
+     * @param events Events to watch for
+     * @return Watch descriptors or negated errno values, one per path
+     * @since Version 2.2
+     */
+    @NonThreadSafe
+    public int[] addWatches(final String[] paths, final Event... events) {
+        return addWatches(paths, 0, Event.eventsToMask(events));
+    }
+
+    /**
+     * Adds watches for the specified paths using the provided watch modifier
+     * and event masks, using a single call into the native interface for new
+     * paths. Paths already watched have their masks extended, as by
+     * {@link #addWatch(String, Event...)}.
+     * 
+     * @param paths Paths to be watched
+     * @param watchModifiersMask Watch modifier mask to augment addition of
+     * watches
+     * @param eventMask Events to watch for
+     * @return Watch descriptors or negated errno values, one per path
+     * @since Version 2.2
+     */
+    @NonThreadSafe
+    int[] addWatches(final String[] paths, final int watchModifiersMask,
+            final int eventMask) {
+        if (paths == null)
+            throw new NullPointerException("paths may not be null");
+
+        boolean[] isExtended = new boolean[paths.length];
+        int watched = 0;
+        for (int i = 0; i < paths.length; i++) {
+            isExtended[i] = paths[i] != null && find(paths[i]) >= 0;
+            if (isExtended[i])
+                watched++;
+        }
+        if (watched == 0)
+            return add_watches(paths, watchModifiersMask | eventMask);
+
+        String[] added = new String[paths.length - watched];
+        String[] extended = new String[watched];
+        for (int i = 0, a = 0, x = 0; i < paths.length; i++) {
+            if (isExtended[i])
+                extended[x++] = paths[i];
+            else
+                added[a++] = paths[i];
+        }
+        int[] addedWds = add_watches(added, watchModifiersMask | eventMask);
+        int[] extendedWds = add_watches(extended, watchModifiersMask
+                | WatchModifier.Add.value() | eventMask);
+
+        int[] wds = new int[paths.length];
+        for (int i = 0, a = 0, x = 0; i < paths.length; i++) {
+            if (isExtended[i])
+                wds[i] = extendedWds[x++];
+            else
+                wds[i] = addedWds[a++];
+        }
+        return wds;
+    }
+
+    /**
+     * Private delegate method for adding watches in bulk.
+     * 
+     * @param paths Paths to watch
+     * @param mask Watch modifier and event mask
+     * @return watch descriptors or negated errno values
+     */
+    private int[] add_watches(final String[] paths, final int mask) {
+        int[] wds = super.addWatches(paths, mask);
+        for (int i = 0; i < paths.length; i++) {
+            if (wds[i] < 0) continue;
+            watched(paths[i], wds[i]);
+        }
+        return wds;
+    }
+
     /**
      * Private delegate method for adding watches.
      * 
@@ -280,11 +680,21 @@ public class Inotify extends ConcurrentReader {
     private int add_watch(final String path, final int wm_mask,
             final int ev_mask) throws InotifyException {
         int wd = super.addWatch(path, wm_mask | ev_mask);
-        pathWatchMap.put(path, wd);
-        watchPathMap.put(wd, path);
+        watched(path, wd);
         return wd;
     }
 
+    /**
+     * Records a path the kernel has watched.
+     * 
+     * @param path Watched path
+     * @param wd Watch descriptor
+     */
+    private void watched(final String path, final int wd) {
+        pathWatchMap.put(path, wd);
+        watches.add(wd, path);
+    }
+
     /**
      * Removes the watch associated with the provided watch descriptor.
      * 
@@ -310,10 +720,8 @@ public class Inotify extends ConcurrentReader {
      */
     private boolean remove_watch(final int wd)
             throws InvalidWatchDescriptorException {
-        String path = watchPathMap.get(wd);
-        watchPathMap.remove(wd);
-        if(path != null) pathWatchMap.remove(path);
-        watchListenerMap.remove(wd);
+        WatchRecord r = watches.remove(wd);
+        if (r != null) forget(r);
         return super.removeWatch(wd);
     }
 
@@ -330,12 +738,10 @@ public class Inotify extends ConcurrentReader {
         s.append(" [fd=");
         s.append(fileDescriptor);
 
-        s.append(", watchPathMap=");
-        s.append(watchPathMap);
+        s.append(", watches=");
+        s.append(watches);
         s.append(", pathWatchMap=");
         s.append(pathWatchMap);
-        s.append(", watchListenerMap=");
-        s.append(watchListenerMap);
 
         s.append("]");
 
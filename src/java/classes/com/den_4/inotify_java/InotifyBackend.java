@@ -0,0 +1,261 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: InotifyBackend.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.nio.ByteBuffer;
+
+import com.den_4.inotify_java.exceptions.InotifyException;
+import com.den_4.inotify_java.exceptions.InsufficientKernelMemoryException;
+import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
+import com.den_4.inotify_java.exceptions.SystemLimitException;
+import com.den_4.inotify_java.exceptions.UserInstanceLimitException;
+import com.den_4.inotify_java.exceptions.UserWatchLimitException;
+
+/**
+ * Service provider interface for the system calls underlying
+ * {@link NativeInotify} and {@link InotifyReactor}.
+ * <p>
+ * The default backend binds to the {@code inotify-java} JNI library. Another
+ * backend, for instance one calling the C library directly through a foreign
+ * function interface, can be selected by naming its class in the
+ * {@value NativeInotify#BACKEND_PROPERTY} system property or by passing an
+ * instance to {@link NativeInotify#setDefaultBackend(InotifyBackend)}. A
+ * backend class must provide a public no-argument constructor.
+ * </p>
+ * <p>
+ * Reads are delivered as buffers of consecutive {@code struct inotify_event}
+ * records, in native byte order, that are only valid for the duration of the
+ * call receiving them. Implementations must be thread-safe.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public interface InotifyBackend {
+
+    /**
+     * Receives reads of an inotify queue.
+     */
+    interface EventSink {
+
+        /**
+         * Receives one read of an inotify queue.
+         *
+         * @param buffer Buffer holding the events read, positioned at zero
+         * @param length Number of valid bytes in {@code buffer}
+         */
+        void events(ByteBuffer buffer, int length);
+    }
+
+    /**
+     * Receives the reads and wakeups of a reactor.
+     */
+    interface ReactorSink {
+
+        /**
+         * Receives one read of an inotify queue in the reactor's set.
+         *
+         * @param fd Inotify file descriptor that was read
+         * @param buffer Buffer holding the events read, positioned at zero
+         * @param length Number of valid bytes in {@code buffer}
+         */
+        void events(int fd, ByteBuffer buffer, int length);
+
+        /**
+         * Receives a failed read of an inotify queue. The file descriptor has
+         * already been removed from the reactor's set, but not closed.
+         *
+         * @param fd Inotify file descriptor that failed to read
+         * @param errno Error number of the failed read
+         */
+        void error(int fd, int errno);
+
+        /**
+         * Invoked after the reactor's wakeup pipe is signalled.
+         *
+         * @return {@code true} to keep servicing, {@code false} to stop
+         */
+        boolean wakeup();
+    }
+
+    /**
+     * Returns a short name identifying this backend.
+     *
+     * @return Backend name
+     */
+    String getName();
+
+    /**
+     * Creates a non-blocking inotify instance.
+     *
+     * @param pipe Receives the read and write ends of a pipe used to stop
+     * {@link #read(int, int, int, EventSink)}, or {@code null} if no pipe is
+     * needed
+     * @return Inotify file descriptor
+     * @throws InsufficientKernelMemoryException Thrown to indicate an
+     * insufficient amount of kernel memory is available.
+     * @throws SystemLimitException Thrown to indicate the system limit of
+     * total file descriptors has been reached.
+     * @throws UserInstanceLimitException Thrown to indicate the maximum number
+     * of inotify instances has been reached.
+     */
+    int init(int[] pipe) throws InsufficientKernelMemoryException,
+            SystemLimitException, UserInstanceLimitException;
+
+    /**
+     * Stops {@link #read(int, int, int, EventSink)} by closing the write end
+     * of its pipe. The reader closes the inotify file descriptor and the pipe
+     * read end before returning.
+     *
+     * @param pipeWrite Write end of the pipe
+     */
+    void close(int pipeWrite);
+
+    /**
+     * Closes the inotify file descriptor and the pipe read end of an instance
+     * whose queue was never passed to {@link #read(int, int, int, EventSink)},
+     * leaving any queued events unread.
+     *
+     * @param fd Inotify file descriptor
+     * @param pipeRead Read end of the pipe
+     */
+    void closeDescriptors(int fd, int pipeRead);
+
+    /**
+     * Adds to or modifies the watch for a path.
+     *
+     * @param fd Inotify file descriptor
+     * @param path Path to watch
+     * @param mask Watch modifier and event mask
+     * @return Watch descriptor
+     * @throws UserWatchLimitException Thrown to indicate the maximum number of
+     * inotify watches has been reached.
+     * @throws InotifyException Thrown if the watch could not be added
+     */
+    int addWatch(int fd, String path, int mask) throws InotifyException;
+
+    /**
+     * Adds to or modifies the watches for many paths.
+     *
+     * @param fd Inotify file descriptor
+     * @param paths Paths to watch
+     * @param mask Watch modifier and event mask
+     * @return Watch descriptor or negated errno value, one per path
+     * @see NativeInotify#addWatches(String[], int)
+     */
+    int[] addWatches(int fd, String[] paths, int mask);
+
+    /**
+     * Watches every subdirectory below a root.
+     *
+     * @param fd Inotify file descriptor
+     * @param root Directory to walk
+     * @param mask Watch modifier and event mask
+     * @param excludes Exclude patterns, or {@code null}
+     * @return Walk records, in native byte order: parent index (int), watch
+     * descriptor or negated errno (int), name length (unsigned short), and
+     * name bytes
+     * @throws InotifyException Thrown if the walk could not be performed
+     * @see NativeInotify#walkWatches(String, int, String[])
+     */
+    byte[] walkWatches(int fd, String root, int mask, String[] excludes)
+            throws InotifyException;
+
+    /**
+     * Removes a watch.
+     *
+     * @param fd Inotify file descriptor
+     * @param wd Watch descriptor
+     * @return Zero on success
+     * @throws InvalidWatchDescriptorException Thrown if the watch descriptor
+     * is not valid
+     */
+    int removeWatch(int fd, int wd) throws InvalidWatchDescriptorException;
+
+    /**
+     * Services an inotify queue until the pipe's write end is closed.
+     *
+     * @param fd Inotify file descriptor
+     * @param pipeRead Read end of the pipe
+     * @param bufferSize Initial size of the read buffer
+     * @param sink Receives each read
+     */
+    void read(int fd, int pipeRead, int bufferSize, EventSink sink);
+
+    /**
+     * Creates the epoll set and wakeup pipe of a reactor.
+     *
+     * @param fds Receives the epoll file descriptor, the pipe read end, and the
+     * pipe write end, in that order
+     * @throws InotifyException Thrown if the descriptors could not be created
+     */
+    void reactorInit(int[] fds) throws InotifyException;
+
+    /**
+     * Adds an inotify file descriptor to a reactor's epoll set.
+     *
+     * @param epfd Reactor epoll file descriptor
+     * @param fd Inotify file descriptor
+     * @throws InotifyException Thrown if the descriptor could not be added
+     */
+    void reactorAdd(int epfd, int fd) throws InotifyException;
+
+    /**
+     * Removes an inotify file descriptor from a reactor's epoll set and
+     * closes it.
+     *
+     * @param epfd Reactor epoll file descriptor
+     * @param fd Inotify file descriptor
+     */
+    void reactorRemove(int epfd, int fd);
+
+    /**
+     * Wakes a reactor blocked waiting for events.
+     *
+     * @param pipeWrite Write end of the reactor wakeup pipe
+     * @throws InotifyException Thrown if the pipe could not be written
+     */
+    void reactorWakeup(int pipeWrite) throws InotifyException;
+
+    /**
+     * Services every inotify file descriptor in a reactor's epoll set until
+     * {@link ReactorSink#wakeup()} returns {@code false}.
+     *
+     * @param sink Receives reads and wakeups
+     * @param epfd Reactor epoll file descriptor
+     * @param pipeRead Read end of the reactor wakeup pipe
+     * @param maxEvents Maximum number of ready descriptors per wait
+     * @param bufferSize Initial size of the shared read buffer
+     */
+    void reactorRun(ReactorSink sink, int epfd, int pipeRead, int maxEvents,
+            int bufferSize);
+
+    /**
+     * Closes a reactor's epoll set and wakeup pipe.
+     *
+     * @param epfd Reactor epoll file descriptor
+     * @param pipeRead Read end of the reactor wakeup pipe
+     * @param pipeWrite Write end of the reactor wakeup pipe
+     */
+    void reactorClose(int epfd, int pipeRead, int pipeWrite);
+}
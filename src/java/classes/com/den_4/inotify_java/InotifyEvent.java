@@ -23,6 +23,7 @@
 package com.den_4.inotify_java;
 
 import java.util.EventObject;
+import java.util.List;
 
 import com.den_4.inotify_java.enums.Event;
 import com.den_4.inotify_java.enums.EventModifier;
@@ -36,6 +37,28 @@ import com.den_4.inotify_java.enums.EventModifier;
  */
 public class InotifyEvent extends EventObject {
 
+    /* Event and event modifier bits tested by the predicates. */
+    private static final int ACCESS = Event.Access.value();
+    private static final int CLOSE_NO_WRITE = Event.Close_No_Write.value();
+    private static final int CLOSE_WRITE = Event.Close_Write.value();
+    private static final int CLOSE = Event.Close.value();
+    private static final int CREATE = Event.Create.value();
+    private static final int DELETE = Event.Delete.value();
+    private static final int DELETE_SELF = Event.Delete_Self.value();
+    private static final int METADATA = Event.Metadata.value();
+    private static final int MODIFY = Event.Modify.value();
+    private static final int MOVE_SELF = Event.Move_Self.value();
+    private static final int MOVED_FROM = Event.Moved_From.value();
+    private static final int MOVED_TO = Event.Moved_To.value();
+    private static final int MOVED = Event.Moved.value();
+    private static final int OPEN = Event.Open.value();
+    private static final int IS_DIRECTORY = EventModifier.Is_Directory
+            .value();
+    private static final int IGNORED = EventModifier.Ignored.value();
+    private static final int UNMOUNT = EventModifier.Unmount.value();
+    private static final int EVENT_QUEUE_OVERFLOW = EventModifier.Event_Queue_Overflow
+            .value();
+
     /** Contains the mask information associated with this event. */
     private int mask;
 
@@ -51,6 +74,31 @@ public class InotifyEvent extends EventObject {
      */
     private String contextualName;
 
+    /**
+     * Path of the watched directory, from which the contextual name is built
+     * on first request.
+     */
+    private String directory;
+
+    /**
+     * Instance whose {@link Inotify#path(int) path} of the source watch is
+     * the directory, resolved on first request; {@code null} once resolved.
+     */
+    private transient Inotify directoryResolver;
+
+    /**
+     * {@link System#nanoTime()} when the event was queued by a
+     * {@link MonitorService}.
+     */
+    transient long queuedNanos;
+
+    /**
+     * {@link WatchRecord#getGeneration() Generation} of the event's watch when
+     * the event was queued by a {@link MonitorService}, or {@code 0} if the
+     * watch was not known.
+     */
+    transient int generation;
+
     /**
      * Creates a new InotifyEvent from the specific watch descriptor, mask,
      * cookie, and name value.
@@ -141,11 +189,28 @@ public class InotifyEvent extends EventObject {
 
     /**
      * Gets the contextual name field of this event, or null if none is set.
+     * <p>
+     * When the {@link #setDirectory(String) directory} of a named event is
+     * known, the contextual name is built from it and the name on the first
+     * call and cached; events whose contextual name is never requested never
+     * build it, nor resolve a {@link #setDirectoryResolver(Inotify) deferred}
+     * directory.
+     * </p>
      * 
      * @return String
      */
     public final String getContextualName() {
-        return contextualName;
+        String cn = contextualName;
+        if (cn == null && name != null) {
+            String d = getDirectory();
+            if (d == null) return null;
+            if (d.charAt(d.length() - 1) == '/')
+                cn = d.concat(name);
+            else
+                cn = d.concat("/").concat(name);
+            contextualName = cn;
+        }
+        return cn;
     }
 
     /**
@@ -158,6 +223,60 @@ public class InotifyEvent extends EventObject {
         this.contextualName = contextualName;
     }
 
+    /**
+     * Sets the path of the watched directory the contextual name is built
+     * from, on request, for named events.
+     * 
+     * @param directory Path of the watched directory
+     * @since Version 2.2
+     */
+    final void setDirectory(String directory) {
+        this.directory = directory;
+        this.directoryResolver = null;
+    }
+
+    /**
+     * Defers the directory to the path of the source watch in the provided
+     * instance, resolved when the directory or contextual name is first
+     * requested. Paths derived on request, such as those of recursively
+     * watched folders, are then never built for events nobody asks about.
+     * 
+     * @param resolver Instance resolving the path of the source watch
+     * @since Version 2.2
+     */
+    final void setDirectoryResolver(Inotify resolver) {
+        this.directory = null;
+        this.directoryResolver = resolver;
+    }
+
+    /**
+     * Returns {@code true} if the directory is set or deferred.
+     * 
+     * @return {@code true} if the directory is known
+     * @since Version 2.2
+     */
+    final boolean hasDirectory() {
+        return directory != null || directoryResolver != null;
+    }
+
+    /**
+     * Returns the path of the watched directory, if set, resolving a deferred
+     * directory on the first call.
+     * 
+     * @return Path of the watched directory, or {@code null}
+     * @since Version 2.2
+     */
+    final String getDirectory() {
+        String d = directory;
+        Inotify resolver = directoryResolver;
+        if (d == null && resolver != null) {
+            d = resolver.path(getSource());
+            directory = d;
+            directoryResolver = null;
+        }
+        return d;
+    }
+
     /**
      * Returns {@code true} if {@link com.den_4.inotify_java.enums.Event#Access}
      * is set.
@@ -166,7 +285,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isAccess() {
-        return (Event.isSet(Event.Access, mask));
+        return (mask & ACCESS) != 0;
     }
 
     /**
@@ -178,7 +297,7 @@ public class InotifyEvent extends EventObject {
      * false} otherwise
      */
     public boolean isCloseNoWrite() {
-        return (Event.isSet(Event.Close_No_Write, mask));
+        return (mask & CLOSE_NO_WRITE) != 0;
     }
 
     /**
@@ -190,7 +309,7 @@ public class InotifyEvent extends EventObject {
      * false} otherwise
      */
     public boolean isCloseWrite() {
-        return (Event.isSet(Event.Close_Write, mask));
+        return (mask & CLOSE_WRITE) != 0;
     }
 
     /**
@@ -201,7 +320,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isClose() {
-        return (Event.isSet(Event.Close, mask));
+        return (mask & CLOSE) != 0;
     }
 
     /**
@@ -212,7 +331,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isCreate() {
-        return (Event.isSet(Event.Create, mask));
+        return (mask & CREATE) != 0;
     }
 
     /**
@@ -223,7 +342,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isDelete() {
-        return (Event.isSet(Event.Delete, mask));
+        return (mask & DELETE) != 0;
     }
 
     /**
@@ -235,7 +354,7 @@ public class InotifyEvent extends EventObject {
      * false} otherwise
      */
     public boolean isDeleteSelf() {
-        return (Event.isSet(Event.Delete_Self, mask));
+        return (mask & DELETE_SELF) != 0;
     }
 
     /**
@@ -247,7 +366,7 @@ public class InotifyEvent extends EventObject {
      * otherwise
      */
     public boolean isMetadata() {
-        return (Event.isSet(Event.Metadata, mask));
+        return (mask & METADATA) != 0;
     }
 
     /**
@@ -258,7 +377,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isModify() {
-        return (Event.isSet(Event.Modify, mask));
+        return (mask & MODIFY) != 0;
     }
 
     /**
@@ -270,7 +389,7 @@ public class InotifyEvent extends EventObject {
      * false} otherwise
      */
     public boolean isMoveSelf() {
-        return (Event.isSet(Event.Move_Self, mask));
+        return (mask & MOVE_SELF) != 0;
     }
 
     /**
@@ -282,7 +401,7 @@ public class InotifyEvent extends EventObject {
      * false} otherwise
      */
     public boolean isMovedFrom() {
-        return (Event.isSet(Event.Moved_From, mask));
+        return (mask & MOVED_FROM) != 0;
     }
 
     /**
@@ -294,7 +413,7 @@ public class InotifyEvent extends EventObject {
      * otherwise
      */
     public boolean isMovedTo() {
-        return (Event.isSet(Event.Moved_To, mask));
+        return (mask & MOVED_TO) != 0;
     }
 
     /**
@@ -305,7 +424,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isMoved() {
-        return (Event.isSet(Event.Moved, mask));
+        return (mask & MOVED) != 0;
     }
 
     /**
@@ -316,7 +435,7 @@ public class InotifyEvent extends EventObject {
      * is set, {@code false} otherwise
      */
     public boolean isOpen() {
-        return (Event.isSet(Event.Open, mask));
+        return (mask & OPEN) != 0;
     }
 
     /**
@@ -339,9 +458,7 @@ public class InotifyEvent extends EventObject {
      * @see com.den_4.inotify_java.enums.EventModifier#Is_Directory
      */
     public boolean aboutDirectory() {
-        if (EventModifier.isSet(EventModifier.Is_Directory, mask))
-            return true;
-        return false;
+        return (mask & IS_DIRECTORY) != 0;
     }
 
     /**
@@ -352,9 +469,7 @@ public class InotifyEvent extends EventObject {
      * @see com.den_4.inotify_java.enums.EventModifier#Ignored
      */
     public boolean isIgnored() {
-        if (EventModifier.isSet(EventModifier.Ignored, mask))
-            return true;
-        return false;
+        return (mask & IGNORED) != 0;
     }
 
     /**
@@ -366,9 +481,7 @@ public class InotifyEvent extends EventObject {
      * @see com.den_4.inotify_java.enums.EventModifier#Unmount
      */
     public boolean isUnmounted() {
-        if (EventModifier.isSet(EventModifier.Unmount, mask))
-            return true;
-        return false;
+        return (mask & UNMOUNT) != 0;
     }
 
     /**
@@ -380,9 +493,7 @@ public class InotifyEvent extends EventObject {
      * @see com.den_4.inotify_java.enums.EventModifier#Event_Queue_Overflow
      */
     public boolean isOverflowed() {
-        if (EventModifier.isSet(EventModifier.Event_Queue_Overflow, mask))
-            return true;
-        return false;
+        return (mask & EVENT_QUEUE_OVERFLOW) != 0;
     }
 
     /**
@@ -399,33 +510,30 @@ public class InotifyEvent extends EventObject {
         s.append(", mask=");
         s.append(mask);
 
-        Event[] evs = Event.maskToEvents(mask);
-        if (evs.length != 0)
+        List<Event> evs = Event.maskToEventList(mask);
+        if (evs.size() != 0)
             s.append(", events [");
 
-        for (int i = 0; i < evs.length; i++) {
+        for (int i = 0; i < evs.size(); i++) {
             if (i != 0)
-                s.append(", " + evs[i]);
-            else
-                s.append(evs[i]);
+                s.append(", ");
+            s.append(evs.get(i));
         }
 
-        if (evs.length != 0)
+        if (evs.size() != 0)
             s.append("]");
 
-        EventModifier[] mods = EventModifier.maskToEventModifiers(mask);
-        if (mods.length != 0)
+        List<EventModifier> mods = EventModifier.maskToEventModifierList(mask);
+        if (mods.size() != 0)
             s.append(", mods [");
 
-        for (int i = 0; i < mods.length; i++) {
-            if (i != 0) {
+        for (int i = 0; i < mods.size(); i++) {
+            if (i != 0)
                 s.append(", ");
-                s.append(mods[i]);
-            } else
-                s.append(mods[i]);
+            s.append(mods.get(i));
         }
 
-        if (mods.length != 0)
+        if (mods.size() != 0)
             s.append("]");
 
         s.append(", cookie=");
@@ -436,9 +544,10 @@ public class InotifyEvent extends EventObject {
             s.append(name);
         }
 
-        if (contextualName != null) {
+        String cn = getContextualName();
+        if (cn != null) {
             s.append(", contextualName=");
-            s.append(contextualName);
+            s.append(cn);
         }
 
         s.append("]");
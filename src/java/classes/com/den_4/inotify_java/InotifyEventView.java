@@ -0,0 +1,354 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: InotifyEventView.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import com.den_4.inotify_java.enums.Event;
+import com.den_4.inotify_java.enums.EventModifier;
+
+/**
+ * Reusable, mutable view of one event record in a native read buffer.
+ * <p>
+ * Views are delivered to {@link InotifyEventViewListener view listeners}
+ * without allocating: one view per inotify instance is repositioned over each
+ * record read. A view, and any {@link CharSequence} returned by
+ * {@link #name()}, is only valid for the duration of the callback receiving
+ * it. Listeners that retain an event must {@link #copy() copy} it.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@NonThreadSafe
+public final class InotifyEventView {
+
+    /** Charset used to decode event names. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Buffer holding the current record. */
+    private ByteBuffer buffer;
+
+    /** Offset of the name field of the current record. */
+    private int nameOffset;
+
+    /** Length of the name field, including padding. */
+    private int nameField;
+
+    /** Length of the name, or {@code -1} if not yet measured. */
+    private int nameLength;
+
+    /** Watch descriptor of the current record. */
+    private int wd;
+
+    /** Mask of the current record. */
+    private int mask;
+
+    /** Cookie of the current record. */
+    private int cookie;
+
+    /** Path of the watched directory, or {@code null}. */
+    private String directory;
+
+    /** Instance resolving the directory on request, or {@code null}. */
+    private Inotify directoryResolver;
+
+    /** Decoded name of the current record, or {@code null}. */
+    private CharBuffer name;
+
+    /** Reused storage for decoded names. */
+    private CharBuffer chars;
+
+    /** Reused decoder for names that are not ASCII. */
+    private CharsetDecoder decoder;
+
+    /**
+     * Creates a view; views are created by {@link NativeInotify}.
+     */
+    InotifyEventView() {
+    }
+
+    /**
+     * Positions this view over a record.
+     *
+     * @param buffer Buffer holding the record
+     * @param wd Watch descriptor
+     * @param mask Mask
+     * @param cookie Cookie
+     * @param nameOffset Offset of the name field
+     * @param nameField Length of the name field, including padding
+     */
+    void set(ByteBuffer buffer, int wd, int mask, int cookie, int nameOffset,
+            int nameField) {
+        this.buffer = buffer;
+        this.wd = wd;
+        this.mask = mask;
+        this.cookie = cookie;
+        this.nameOffset = nameOffset;
+        this.nameField = nameField;
+        this.nameLength = nameField == 0 ? 0 : -1;
+        this.directory = null;
+        this.directoryResolver = null;
+        this.name = null;
+    }
+
+    /**
+     * Sets the path of the watched directory.
+     *
+     * @param directory Path of the watched directory
+     */
+    void setDirectory(String directory) {
+        this.directory = directory;
+        this.directoryResolver = null;
+    }
+
+    /**
+     * Defers the directory to the path of the watch in the provided instance,
+     * resolved when first requested.
+     *
+     * @param resolver Instance resolving the path of the watch
+     */
+    void setDirectoryResolver(Inotify resolver) {
+        this.directory = null;
+        this.directoryResolver = resolver;
+    }
+
+    /**
+     * Returns the watch descriptor associated to the path on which this event
+     * occurred.
+     *
+     * @return Watch descriptor
+     */
+    public int wd() {
+        return wd;
+    }
+
+    /**
+     * Returns the mask of this event.
+     *
+     * @return Mask
+     */
+    public int mask() {
+        return mask;
+    }
+
+    /**
+     * Returns the synchronization cookie of this event.
+     *
+     * @return Cookie
+     */
+    public int cookie() {
+        return cookie;
+    }
+
+    /**
+     * Returns the path of the watched directory, or {@code null} if it is not
+     * known. The contextual name of a named event is this path joined with the
+     * {@link #name() name}. Paths derived by the watcher, such as those of
+     * recursively watched folders, are only derived by this call.
+     *
+     * @return Path of the watched directory
+     */
+    public String directory() {
+        String d = directory;
+        Inotify resolver = directoryResolver;
+        if (d == null && resolver != null) {
+            d = resolver.path(wd);
+            directory = d;
+            directoryResolver = null;
+        }
+        return d;
+    }
+
+    /**
+     * Returns {@code true} if this is a named event.
+     *
+     * @return {@code true} if a name is present
+     */
+    public boolean hasName() {
+        return nameLength() != 0;
+    }
+
+    /**
+     * Returns the length in bytes of the name of this event.
+     *
+     * @return Length of the name, in bytes, or {@code 0} if there is no name
+     */
+    public int nameLength() {
+        int n = nameLength;
+        if (n < 0) {
+            n = 0;
+            while (n < nameField && buffer.get(nameOffset + n) != 0)
+                n++;
+            nameLength = n;
+        }
+        return n;
+    }
+
+    /**
+     * Copies the UTF-8 bytes of the name of this event into the provided
+     * array.
+     *
+     * @param dst Destination array
+     * @param offset Offset in {@code dst}
+     * @return Number of bytes copied
+     * @throws IndexOutOfBoundsException Thrown if {@code dst} is too small
+     */
+    public int getNameBytes(byte[] dst, int offset) {
+        int n = nameLength();
+        if (offset < 0 || offset + n > dst.length)
+            throw new IndexOutOfBoundsException();
+        for (int i = 0; i < n; i++)
+            dst[offset + i] = buffer.get(nameOffset + i);
+        return n;
+    }
+
+    /**
+     * Returns the name of this event, decoded into storage owned by this view,
+     * or {@code null} if there is no name. The sequence is only valid for the
+     * duration of the callback.
+     *
+     * @return Name
+     */
+    public CharSequence name() {
+        if (name != null) return name;
+        int n = nameLength();
+        if (n == 0) return null;
+
+        if (chars == null || chars.capacity() < n)
+            chars = CharBuffer.allocate(Math.max(n, 256));
+        chars.clear();
+
+        int i = 0;
+        for (; i < n; i++) {
+            byte b = buffer.get(nameOffset + i);
+            if (b < 0) break;
+            chars.put((char) b);
+        }
+        if (i < n) decode(i, n);
+
+        chars.flip();
+        name = chars;
+        return name;
+    }
+
+    /*
+     * Decodes the non-ASCII remainder of the name, starting at byte i.
+     */
+    private void decode(int i, int n) {
+        if (decoder == null)
+            decoder = UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = buffer.duplicate();
+        in.limit(nameOffset + n);
+        in.position(nameOffset + i);
+        decoder.reset();
+        decoder.decode(in, chars, true);
+        decoder.flush(chars);
+    }
+
+    /**
+     * Returns {@code true} if the provided event is set in the mask.
+     *
+     * @param e Event
+     * @return {@code true} if {@code e} is set
+     */
+    public boolean is(Event e) {
+        return Event.isSet(e, mask);
+    }
+
+    /**
+     * Returns {@code true} if the event is about a directory.
+     *
+     * @return {@code true} if the event concerns a directory
+     * @see com.den_4.inotify_java.enums.EventModifier#Is_Directory
+     */
+    public boolean aboutDirectory() {
+        return EventModifier.isSet(EventModifier.Is_Directory, mask);
+    }
+
+    /**
+     * Returns {@code true} if the watch was removed.
+     *
+     * @return {@code true} if the watch was removed
+     * @see com.den_4.inotify_java.enums.EventModifier#Ignored
+     */
+    public boolean isIgnored() {
+        return EventModifier.isSet(EventModifier.Ignored, mask);
+    }
+
+    /**
+     * Returns {@code true} if the event queue overflowed.
+     *
+     * @return {@code true} if the event queue overflowed
+     * @see com.den_4.inotify_java.enums.EventModifier#Event_Queue_Overflow
+     */
+    public boolean isOverflowed() {
+        return EventModifier.isSet(EventModifier.Event_Queue_Overflow, mask);
+    }
+
+    /**
+     * Returns a new {@link InotifyEvent} holding this event, which remains
+     * valid after the callback returns. The directory of a named event is
+     * resolved by the copy, while the watch is still known.
+     *
+     * @return Copy of this event
+     */
+    public InotifyEvent copy() {
+        InotifyEvent e;
+        if (hasName()) {
+            e = new InotifyEvent(wd, mask, cookie, name().toString());
+            e.setDirectory(directory());
+        } else {
+            e = new InotifyEvent(wd, mask, cookie);
+        }
+        return e;
+    }
+
+    /**
+     * Returns a String representation of this view.
+     *
+     * @return String representation of this view
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(getClass().getSimpleName());
+        s.append(" [wd=");
+        s.append(wd);
+        s.append(", mask=");
+        s.append(mask);
+        s.append(", cookie=");
+        s.append(cookie);
+        if (hasName()) {
+            s.append(", name=");
+            s.append(name());
+        }
+        s.append("]");
+        return s.toString();
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: InotifyEventViewListener.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+
+package com.den_4.inotify_java;
+
+/**
+ * Interface specifying implementors that can receive
+ * {@link com.den_4.inotify_java.InotifyEventView event views} from
+ * {@link com.den_4.inotify_java.Inotify inotify} classes, without an event
+ * object being allocated per event.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public interface InotifyEventViewListener {
+
+    /**
+     * Invoked when an event occurred on a watched file or directory. The view
+     * is only valid for the duration of this call; use
+     * {@link InotifyEventView#copy()} to retain the event.
+     *
+     * @param e Event view
+     */
+    public abstract void filesystemEventOccurred(InotifyEventView e);
+
+}
@@ -0,0 +1,436 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: InotifyReactor.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import com.den_4.inotify_java.exceptions.InotifyException;
+
+/**
+ * Services the native queues of any number of inotify instances from a single
+ * thread.
+ * <p>
+ * Every {@link ConcurrentReader} normally owns a thread blocked on its own
+ * queue. Instances constructed with a reactor instead register their inotify
+ * file descriptor with the reactor's epoll set, and the reactor thread reads
+ * whichever queues become ready and dispatches each read to the owning
+ * instance. Listeners of every attached instance are therefore invoked on the
+ * reactor thread, one at a time.
+ * </p>
+ * <p>
+ * The created daemon thread will be named {@code InotifyReactor:[epollFd]}
+ * unless a thread factory is provided.
+ * </p>
+ * <p>
+ * This class is {@link com.den_4.inotify_java.ThreadSafe thread-safe}.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class InotifyReactor {
+
+    /**
+     * Default maximum number of ready inotify instances handled per wakeup.
+     */
+    public static final int DEFAULT_MAX_EVENTS = 64;
+
+    /** Set on reactor threads while they service their instances. */
+    private static final ThreadLocal<Boolean> SERVICING = new ThreadLocal<Boolean>();
+
+    /* Epoll set and wakeup pipe. */
+    private final int epollFd;
+    private final int pipeRead;
+    private final int pipeWrite;
+
+    /** Maximum number of ready instances handled per wakeup. */
+    private final int maxEvents;
+
+    /** Attached instances, by inotify file descriptor. */
+    private final Map<Integer, NativeInotify> instances;
+
+    /** File descriptors awaiting removal by the reactor thread. */
+    private final Queue<Detached> detached;
+
+    /** Cleared by {@link #destroy()} to stop the reactor thread. */
+    private volatile boolean active = true;
+
+    /** Set once the reactor thread has stopped; guarded by {@code this}. */
+    private boolean closed;
+
+    /** Reactor thread. */
+    private final Thread thread;
+
+    /** Backend performing the reactor's system calls. */
+    private final InotifyBackend backend;
+
+    /**
+     * Creates a reactor handling up to {@value #DEFAULT_MAX_EVENTS} ready
+     * instances per wakeup.
+     *
+     * @throws InotifyException Thrown if the reactor could not be created; a
+     * cause will be provided to the thrown object.
+     */
+    public InotifyReactor() throws InotifyException {
+        this(DEFAULT_MAX_EVENTS, null);
+    }
+
+    /**
+     * Creates a reactor handling up to {@code maxEvents} ready instances per
+     * wakeup.
+     *
+     * @param maxEvents Maximum ready instances per wakeup, greater than zero
+     * @throws InotifyException Thrown if the reactor could not be created; a
+     * cause will be provided to the thrown object.
+     */
+    public InotifyReactor(final int maxEvents) throws InotifyException {
+        this(maxEvents, null);
+    }
+
+    /**
+     * Creates a reactor handling up to {@code maxEvents} ready instances per
+     * wakeup. The thread factory provided will be used to create the reactor
+     * thread. The reactor uses the {@link NativeInotify#getDefaultBackend()
+     * default backend}, as do the instances constructed with it.
+     *
+     * @param maxEvents Maximum ready instances per wakeup, greater than zero
+     * @param factory Thread factory for the reactor thread, or {@code null}
+     * for a default daemon thread
+     * @throws InotifyException Thrown if the reactor could not be created; a
+     * cause will be provided to the thrown object.
+     */
+    public InotifyReactor(final int maxEvents, final ThreadFactory factory)
+            throws InotifyException {
+        if (maxEvents <= 0)
+            throw new IllegalArgumentException("maxEvents <= 0");
+        this.maxEvents = maxEvents;
+        this.instances = new ConcurrentHashMap<Integer, NativeInotify>();
+        this.detached = new ConcurrentLinkedQueue<Detached>();
+
+        int[] fds = new int[3];
+        try {
+            backend = NativeInotify.getDefaultBackend();
+            backend.reactorInit(fds);
+        } catch (UnsatisfiedLinkError e) {
+            InotifyException ie = new InotifyException("unsatisfied link", e);
+            throw ie;
+        }
+        epollFd = fds[0];
+        pipeRead = fds[1];
+        pipeWrite = fds[2];
+
+        Runnable r = new Runnable() {
+
+            @Override
+            public void run() {
+                InotifyBackend.ReactorSink sink = new InotifyBackend.ReactorSink() {
+
+                    @Override
+                    public void events(int fd, ByteBuffer buffer, int length) {
+                        dispatch(fd, buffer, length);
+                    }
+
+                    @Override
+                    public void error(int fd, int errno) {
+                        InotifyReactor.this.error(fd, errno);
+                    }
+
+                    @Override
+                    public boolean wakeup() {
+                        return InotifyReactor.this.wakeup();
+                    }
+
+                };
+                SERVICING.set(Boolean.TRUE);
+                try {
+                    backend.reactorRun(sink, epollFd, pipeRead,
+                            InotifyReactor.this.maxEvents,
+                            NativeInotify.getDefaultReadBufferSize());
+                } finally {
+                    SERVICING.remove();
+                    shutdown();
+                }
+            }
+
+        };
+
+        if (factory == null) {
+            thread = new Thread(r, "InotifyReactor:" + epollFd); //$NON-NLS-1$
+            // Thread lives only to serve user threads; thread can be daemonized.
+            thread.setDaemon(true);
+        } else {
+            thread = factory.newThread(r);
+        }
+        thread.start();
+    }
+
+    /**
+     * Returns {@code true} if the current thread is the thread of a reactor,
+     * which notifies the listeners of every instance it services.
+     *
+     * @return {@code true} on a reactor thread
+     */
+    static boolean isReactorThread() {
+        return SERVICING.get() != null;
+    }
+
+    /**
+     * Returns {@code true} if this reactor is servicing instances, {@code
+     * false} once it has been destroyed.
+     *
+     * @return {@code true} if this reactor is active
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns the number of inotify instances attached to this reactor.
+     *
+     * @return Number of attached instances
+     */
+    public int getInstanceCount() {
+        return instances.size();
+    }
+
+    /**
+     * Returns the {@link InotifyBackend backend} performing this reactor's
+     * system calls.
+     *
+     * @return Backend
+     */
+    public InotifyBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Stops the reactor thread and destroys every attached instance. This
+     * method is a no-op if the reactor has already been destroyed.
+     */
+    public synchronized void destroy() {
+        if (!active) return;
+        active = false;
+        // the wakeup pipe is closed once the reactor thread has stopped
+        if (!closed)
+            wake();
+    }
+
+    /**
+     * Attaches an instance, servicing its queue from the reactor thread.
+     *
+     * @param n Instance constructed with this reactor
+     * @throws InotifyException Thrown if the instance could not be attached
+     */
+    synchronized void attach(final NativeInotify n) throws InotifyException {
+        if (closed)
+            throw new InotifyException("reactor destroyed");
+        int fd = n.getFileDescriptor();
+        instances.put(fd, n);
+        try {
+            backend.reactorAdd(epollFd, fd);
+        } catch (InotifyException e) {
+            instances.remove(fd);
+            throw e;
+        }
+    }
+
+    /**
+     * Detaches an instance and closes its inotify file descriptor. The
+     * descriptor is closed by the reactor thread between rounds of dispatch,
+     * so it cannot be reused by another instance while a read of it is being
+     * dispatched; {@code stopped} is counted down once it is closed.
+     *
+     * @param fd Inotify file descriptor of the attached instance
+     * @param stopped Counted down once no read of the instance is dispatched
+     */
+    synchronized void detach(final int fd, final CountDownLatch stopped) {
+        if (instances.remove(fd) == null) {
+            stopped.countDown();
+            return;
+        }
+        if (closed) {
+            backend.reactorRemove(epollFd, fd);
+            stopped.countDown();
+            return;
+        }
+        detached.add(new Detached(fd, stopped));
+        wake();
+    }
+
+    /**
+     * Receives one read of an attached instance's queue from the backend.
+     * Anything thrown while handling the read, errors included, is handled as
+     * the instance's own reader thread would handle it, leaving the reactor
+     * and other instances unaffected.
+     *
+     * @param fd Inotify file descriptor that was read
+     * @param buffer Direct buffer over the native read buffer
+     * @param length Number of valid bytes in {@code buffer}
+     */
+    void dispatch(int fd, ByteBuffer buffer, int length) {
+        NativeInotify n = instances.get(fd);
+        if (n == null) return;
+        try {
+            n.batchHandler(buffer, length);
+        } catch (Throwable e) {
+            failed(n, e);
+        }
+    }
+
+    /**
+     * Receives a failed read of an attached instance's queue from the
+     * backend, which already removed the descriptor from the epoll set. The
+     * instance is destroyed as its own reader thread would be by the same
+     * failure, closing the descriptor.
+     *
+     * @param fd Inotify file descriptor that failed to read
+     * @param errno Error number of the failed read
+     */
+    void error(int fd, int errno) {
+        NativeInotify n = instances.get(fd);
+        if (n == null) return;
+        failed(n, new InotifyException("read failed (errno " + errno + ")"));
+    }
+
+    /*
+     * Hands a failure of an instance to its uncaught exception handler, or
+     * destroys it. Nothing thrown here may reach the native loop, which would
+     * stop the reactor for every instance.
+     */
+    private void failed(NativeInotify n, Throwable e) {
+        if (n instanceof UncaughtExceptionHandler) {
+            try {
+                ((UncaughtExceptionHandler) n).uncaughtException(thread, e);
+                return;
+            } catch (Throwable t) {
+                e = t;
+            }
+        }
+        e.printStackTrace();
+        n.destroy();
+    }
+
+    /**
+     * Invoked on the reactor thread after the wakeup pipe is signalled, see
+     * {@link InotifyBackend.ReactorSink#wakeup()}.
+     * Closes detached descriptors.
+     *
+     * @return {@code true} to keep servicing, {@code false} to stop
+     */
+    boolean wakeup() {
+        Detached d;
+        while ((d = detached.poll()) != null) {
+            backend.reactorRemove(epollFd, d.fd);
+            d.stopped.countDown();
+        }
+        return active;
+    }
+
+    /*
+     * Signals the reactor thread; callers hold the lock and checked that the
+     * reactor is not closed.
+     */
+    private void wake() {
+        try {
+            backend.reactorWakeup(pipeWrite);
+        } catch (InotifyException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Destroys remaining instances and releases the epoll set once the
+     * reactor thread has stopped.
+     */
+    private void shutdown() {
+        active = false;
+        List<NativeInotify> remaining;
+        synchronized (this) {
+            closed = true;
+            remaining = new ArrayList<NativeInotify>(instances.values());
+        }
+
+        // Destroy outside the lock; subclasses may do more work in destroy().
+        for (NativeInotify n : remaining) {
+            n.destroy();
+        }
+
+        synchronized (this) {
+            wakeup();
+            backend.reactorClose(epollFd, pipeRead, pipeWrite);
+        }
+    }
+
+    /**
+     * Returns a string representation of the reactor.
+     *
+     * @return a string representation of the reactor
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(getClass().getSimpleName());
+
+        s.append(" [epollFd=");
+        s.append(epollFd);
+
+        s.append(", backend=");
+        s.append(backend.getName());
+
+        s.append(", instances=");
+        s.append(instances.size());
+
+        s.append(", active=");
+        s.append(active);
+
+        s.append("]");
+
+        return s.toString();
+    }
+
+    /**
+     * A detached file descriptor awaiting removal.
+     */
+    private static final class Detached {
+
+        /** Inotify file descriptor. */
+        final int fd;
+
+        /** Counted down once the descriptor is removed. */
+        final CountDownLatch stopped;
+
+        Detached(int fd, CountDownLatch stopped) {
+            this.fd = fd;
+            this.stopped = stopped;
+        }
+    }
+}
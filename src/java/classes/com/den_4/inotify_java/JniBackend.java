@@ -0,0 +1,143 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: JniBackend.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import com.den_4.inotify_java.exceptions.InotifyException;
+import com.den_4.inotify_java.exceptions.InsufficientKernelMemoryException;
+import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
+import com.den_4.inotify_java.exceptions.SystemLimitException;
+import com.den_4.inotify_java.exceptions.UserInstanceLimitException;
+
+/**
+ * Default {@link InotifyBackend backend}, binding to the {@code inotify-java}
+ * JNI library through the native methods of {@link NativeInotify}.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+final class JniBackend implements InotifyBackend {
+
+    /** Name of this backend. */
+    static final String NAME = "jni"; //$NON-NLS-1$
+
+    /**
+     * Creates the JNI backend, loading the native library using the library
+     * paths provided to the virtual machine if it has not been loaded.
+     *
+     * @throws UnsatisfiedLinkError Thrown if the library does not exist
+     */
+    JniBackend() {
+        if (!NativeInotify.isLibraryLoaded())
+            NativeInotify.loadLibrary(null);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int init(int[] pipe) throws InsufficientKernelMemoryException,
+            SystemLimitException, UserInstanceLimitException {
+        return NativeInotify.init(pipe);
+    }
+
+    @Override
+    public void close(int pipeWrite) {
+        NativeInotify.close(pipeWrite);
+    }
+
+    @Override
+    public void closeDescriptors(int fd, int pipeRead) {
+        NativeInotify.close_descriptors(fd, pipeRead);
+    }
+
+    @Override
+    public int addWatch(int fd, String path, int mask)
+            throws InotifyException {
+        return NativeInotify.add_watch(fd, path, mask);
+    }
+
+    @Override
+    public int[] addWatches(int fd, String[] paths, int mask) {
+        return NativeInotify.add_watches(fd, paths, mask);
+    }
+
+    @Override
+    public byte[] walkWatches(int fd, String root, int mask, String[] excludes)
+            throws InotifyException {
+        return NativeInotify.walk_watches(fd, root, mask, excludes);
+    }
+
+    @Override
+    public int removeWatch(int fd, int wd)
+            throws InvalidWatchDescriptorException {
+        return NativeInotify.rm_watch(fd, wd);
+    }
+
+    @Override
+    public void read(int fd, int pipeRead, int bufferSize, EventSink sink) {
+        NativeInotify.read(fd, pipeRead, bufferSize, sink);
+    }
+
+    @Override
+    public void reactorInit(int[] fds) throws InotifyException {
+        NativeInotify.reactor_init(fds);
+    }
+
+    @Override
+    public void reactorAdd(int epfd, int fd) throws InotifyException {
+        NativeInotify.reactor_add(epfd, fd);
+    }
+
+    @Override
+    public void reactorRemove(int epfd, int fd) {
+        NativeInotify.reactor_remove(epfd, fd);
+    }
+
+    @Override
+    public void reactorWakeup(int pipeWrite) throws InotifyException {
+        NativeInotify.reactor_wakeup(pipeWrite);
+    }
+
+    @Override
+    public void reactorRun(ReactorSink sink, int epfd, int pipeRead,
+            int maxEvents, int bufferSize) {
+        NativeInotify.reactor_run(sink, epfd, pipeRead, maxEvents, bufferSize);
+    }
+
+    @Override
+    public void reactorClose(int epfd, int pipeRead, int pipeWrite) {
+        NativeInotify.reactor_close(epfd, pipeRead, pipeWrite);
+    }
+
+    /**
+     * Returns a string representation of the backend.
+     *
+     * @return a string representation of the backend
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [name=" + NAME + "]";
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: LatencyHistogram.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, log-linear histogram of durations in nanoseconds.
+ * <p>
+ * Values below {@code 64} are counted exactly; above that, each power of two
+ * is split into {@code 32} equal buckets, so any recorded value is reported
+ * within about 3% of its true value. Every non-negative {@code long} can be
+ * recorded into a fixed set of buckets, with no allocation or locking.
+ * </p>
+ * <p>
+ * {@link #intervalSnapshot()} returns the values recorded since the previous
+ * interval and resets the histogram in one step: each recorded value is
+ * counted in exactly one interval, even while other threads are recording.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+
+    /** Bits of precision within each power of two. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Number of buckets, enough for {@link Long#MAX_VALUE}. */
+    private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+    /** Counts being recorded into. */
+    private volatile Counts active;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        active = new Counts();
+    }
+
+    /*
+     * Creates a histogram of detached counts.
+     */
+    private LatencyHistogram(Counts counts) {
+        active = counts;
+    }
+
+    /**
+     * Records a duration. Negative durations, as may be measured across a
+     * clock adjustment, are recorded as zero.
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        for (;;) {
+            Counts c = active;
+            c.writers.incrementAndGet();
+            try {
+                // the counts may have been swapped out before we registered
+                if (c == active) {
+                    c.record(nanos);
+                    return;
+                }
+            } finally {
+                c.writers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the values recorded so far.
+     *
+     * @return Histogram snapshot
+     */
+    public LatencyHistogram snapshot() {
+        Counts copy = new Counts();
+        copy.add(active);
+        return new LatencyHistogram(copy);
+    }
+
+    /**
+     * Returns the values recorded since the histogram was created or last
+     * returned by this method, and resets it.
+     *
+     * @return Histogram of the interval
+     */
+    public synchronized LatencyHistogram intervalSnapshot() {
+        Counts interval = active;
+        active = new Counts();
+        while (interval.writers.get() != 0) {
+            Thread.yield();
+        }
+        return new LatencyHistogram(interval);
+    }
+
+    /**
+     * Adds the values recorded in another histogram to this one.
+     *
+     * @param other Histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        if (other == null) throw new NullPointerException("null histogram");
+        for (;;) {
+            Counts c = active;
+            c.writers.incrementAndGet();
+            try {
+                if (c == active) {
+                    c.add(other.active);
+                    return;
+                }
+            } finally {
+                c.writers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return Count
+     */
+    public long getCount() {
+        return active.count();
+    }
+
+    /**
+     * Returns the smallest recorded value.
+     *
+     * @return Minimum in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getMin() {
+        long min = active.min.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return Maximum in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getMax() {
+        return active.max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return Mean in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public double getMean() {
+        Counts c = active;
+        long count = c.count();
+        return count == 0 ? 0d : (double) c.sum.get() / count;
+    }
+
+    /**
+     * Returns the value below which the provided percentage of recorded values
+     * fall, to within the precision of the histogram.
+     *
+     * @param percentile Percentile, from {@code 0} to {@code 100}
+     * @return Value in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0d || percentile > 100d)
+            throw new IllegalArgumentException("percentile not in [0, 100]");
+        Counts c = active;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = c.counts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(percentile / 100d * total);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns a string representation of the histogram.
+     *
+     * @return a string representation of the histogram
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [count=" + getCount()
+                + ", min=" + getMin() + ", p50=" + getValueAtPercentile(50)
+                + ", p99=" + getValueAtPercentile(99) + ", p999="
+                + getValueAtPercentile(99.9) + ", max=" + getMax() + "]";
+    }
+
+    /*
+     * Returns the bucket of a non-negative value.
+     */
+    private static int bucket(long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift <= 0) return (int) value;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /*
+     * Returns the highest value counted by a bucket.
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long sub = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * One set of bucket counts, with the number of threads recording into it.
+     */
+    private static final class Counts {
+
+        /** Bucket counts. */
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        /** Sum of the recorded values. */
+        final AtomicLong sum = new AtomicLong();
+
+        /** Smallest recorded value. */
+        final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+        /** Largest recorded value. */
+        final AtomicLong max = new AtomicLong();
+
+        /** Threads recording into these counts. */
+        final AtomicInteger writers = new AtomicInteger();
+
+        void record(long value) {
+            counts.incrementAndGet(bucket(value));
+            sum.addAndGet(value);
+            lowerMin(value);
+            raiseMax(value);
+        }
+
+        void add(Counts other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = other.counts.get(i);
+                if (n != 0) counts.addAndGet(i, n);
+            }
+            sum.addAndGet(other.sum.get());
+            lowerMin(other.min.get());
+            raiseMax(other.max.get());
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                count += counts.get(i);
+            return count;
+        }
+
+        private void lowerMin(long value) {
+            long m;
+            while (value < (m = min.get()) && !min.compareAndSet(m, value)) {
+                // retry
+            }
+        }
+
+        private void raiseMax(long value) {
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+                // retry
+            }
+        }
+    }
+}
@@ -22,19 +22,27 @@
 package com.den_4.inotify_java;
 
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.io.File;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.den_4.inotify_java.enums.Event;
 import com.den_4.inotify_java.enums.EventModifier;
@@ -55,16 +63,49 @@ import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
  * Java stack. The remaining events will be queued in the native stack.
  * </p>
  * <p>
+ * Events are handed from the reading thread to the listener thread through a
+ * pre-sized, lock-free ring buffer. How the listener thread waits for events is
+ * chosen by a {@link WaitStrategy}, defaulting to
+ * {@link WaitStrategy#BLOCKING}.
+ * </p>
+ * <p>
+ * {@link BatchInotifyEventListener Batch listeners} receive the events of
+ * every watch in {@link EventBatch batches}, collected from each drain of a
+ * consumer's queue up to a {@link #setMaxBatchSize(int) maximum size} and
+ * optionally held for a {@link #setMaxBatchLinger(long, TimeUnit) linger
+ * time} to gather more. Each consumer thread collects its own batches.
+ * </p>
+ * <p>
+ * Listeners are notified on the consumer threads unless a
+ * {@link #setListenerExecutor(SequentialExecutor) listener executor} is set,
+ * in which case they are notified by the executor, in order for each watch.
+ * </p>
+ * <p>
+ * When a queue is full, events are blocked, dropped, or held in a backlog as
+ * chosen by an {@link OverflowPolicy}, defaulting to
+ * {@link OverflowPolicy#DROP_NEWEST}.
+ * </p>
+ * <p>
+ * Events may be delivered to listeners by more than one thread, each with its
+ * own ring buffer. Events are assigned to a thread by watch descriptor or by
+ * path, as chosen by a {@link Partitioning}, preserving their order per watch
+ * or per path respectively. When partitioning by path, the removal of a watch
+ * is deferred until every thread has delivered the events queued before it.
+ * </p>
+ * <p>
  * The service collects a number of statistics useful for tuning queue sizes as
  * needed.
  * <ul>
  * <li>{@link #getLargestQueueSize() largest queue size}
+ * <li>{@link #getServicedCount() serviced} and
+ * {@link #getOverflowCount() overflowed} event counts
  * <li>{@link #getLastArrivalTime() last arrival time}
- * <li>{@link #getMinInterarrivalTime() minimum interarrival time}
- * <li>{@link #getMaxInterarrivalTime() maximum interarrival time}
- * <li>{@link #getMinServiceTime() minimum service time}
- * <li>{@link #getMaxServiceTime() maximum interarrival time}
+ * <li>{@link #getInterarrivalTimes() interarrival times}
+ * <li>{@link #getQueueWaitTimes() queue wait times}
+ * <li>{@link #getServiceTimes() service times}
  * </ul>
+ * Times are recorded in nanoseconds into {@link LatencyHistogram histograms},
+ * which support percentile queries and interval snapshots.
  * </p>
  * 
  * @author Nick Bargnesi
@@ -78,6 +119,55 @@ public final class MonitorService extends NativeInotify {
      */
     public static final int DEFAULT_MAX_QUEUED_EVENTS = 16384;
 
+    /**
+     * Default wait strategy of the listener thread.
+     * 
+     * @since Version 2.2
+     */
+    public static final WaitStrategy DEFAULT_WAIT_STRATEGY = WaitStrategy.BLOCKING;
+
+    /* Backoff of the reading thread waiting for room in a queue. */
+    private static final int OFFER_YIELDS = 100;
+    private static final long OFFER_PARK_NANOS = 50000L;
+
+    /**
+     * Default overflow policy.
+     * 
+     * @since Version 2.2
+     */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
+
+    /**
+     * Default minimum time, in milliseconds, between overflow notices for
+     * one watch.
+     * 
+     * @since Version 2.2
+     */
+    public static final long DEFAULT_OVERFLOW_NOTICE_INTERVAL = 1000L;
+
+    /**
+     * How events are assigned to the consumer threads of a service.
+     * 
+     * @since Version 2.2
+     */
+    public enum Partitioning {
+
+        /**
+         * Events are assigned by watch descriptor; events for one watch are
+         * delivered in order.
+         */
+        WATCH_DESCRIPTOR,
+
+        /**
+         * Events are assigned by a hash of their contextual name; events for
+         * one path are delivered in order, while events for different files in
+         * one watched directory may be delivered concurrently. A watch's
+         * {@code IN_IGNORED} event is delivered after all of its other
+         * events.
+         */
+        PATH;
+    }
+
     /**
      * Map of watch descriptors to paths.
      */
@@ -94,30 +184,112 @@ public final class MonitorService extends NativeInotify {
     Map<Integer, Set<InotifyEventListener>> watchListenerMap;
 
     /**
-     * The queue used for direct handoff by the servicing thread.
+     * Watches by descriptor, tagging each with the generation events are
+     * stamped with as they are queued, so that an event queued before its
+     * descriptor was reused by a new watch is not delivered to that watch.
+     * Guarded by itself, along with the maps above when a watch is added or
+     * removed.
+     */
+    private final WatchTable watches = new WatchTable();
+
+    /**
+     * The ring buffers used for direct handoff by the servicing thread, one
+     * per consumer thread.
+     */
+    RingBuffer<InotifyEvent>[] queues;
+
+    /** Events held while a queue is full, one per consumer thread. */
+    private Backlog[] backlogs;
+
+    /** What is done with events when a queue is full. */
+    private volatile OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+
+    /** Minimum nanoseconds between overflow notices for one watch. */
+    private volatile long overflowNoticeInterval = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_OVERFLOW_NOTICE_INTERVAL);
+
+    /** Directory of spill segment files. */
+    private volatile File spillDirectory = new File(
+            System.getProperty("java.io.tmpdir"));
+
+    /** Executor notifying listeners, or {@code null} to notify inline. */
+    private volatile SequentialExecutor listenerExecutor;
+
+    /** Batch listeners. */
+    private final Set<BatchInotifyEventListener> batchListeners = new CopyOnWriteArraySet<BatchInotifyEventListener>();
+
+    /** Collects events for batch listeners, one per consumer thread. */
+    private BatchDispatcher[] batches;
+
+    /* Batch options. */
+    private int maxBatchSize = BatchDispatcher.DEFAULT_MAX_BATCH_SIZE;
+    private long maxBatchLinger;
+
+    /** Time of the last overflow notice by watch, producer only. */
+    private final Map<Integer, Long> lastOverflowNotice = new HashMap<Integer, Long>();
+
+    /**
+     * Barriers of {@code IN_IGNORED} events broadcast to every consumer
+     * thread, by watch descriptor. Keyed by value rather than by event, as
+     * spilled events are read back as copies.
      */
-    LinkedBlockingQueue<InotifyEvent> queue;
+    private final Map<Integer, IgnoredBarrier> ignoredBarriers = new ConcurrentHashMap<Integer, IgnoredBarrier>();
+
+    /**
+     * Counted down by each consumer thread reaching the end of the events
+     * read before the service began closing, or {@code null}.
+     */
+    private volatile CountDownLatch drained;
+
+    /* Event counts, written by the producer thread only. */
+    private final AtomicLong serviced = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    /* Wall clock and nanosecond time at construction, relating the two. */
+    private final long baseMillis = currentTimeMillis();
+    private final long baseNanos = nanoTime();
+
+    /** {@link System#nanoTime()} of the last arrival, producer only. */
+    private long lastArrivalNanos;
+
+    /** Wall clock time of the last arrival, or {@code 0}. */
+    private volatile long lastArrivalTime;
 
-    /* Service statistics. */
-    private int largestQueueSize;
-    private long serviced;
-    private double maxInterarrivalTime;
-    private long lastArrivalTime;
-    private double minInterarrivalTime;
+    /** Time between incoming events. */
+    private final LatencyHistogram interarrivalTimes = new LatencyHistogram();
 
-    /** Maximum time spent servicing an inotify event. */
-    double maxServiceTime;
+    /** Time events spend queued before their listeners are notified. */
+    private final LatencyHistogram queueWaitTimes = new LatencyHistogram();
 
-    /** Minimum time spent servicing an inotify event. */
-    double minServiceTime;
+    /** Time taken by each listener notified of an event. */
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
 
     /**
      * Queue capacity, defaulting to {@value #DEFAULT_MAX_QUEUED_EVENTS}.
      */
     private final int queueCapacity;
 
+    /**
+     * Wait strategy of the listener thread, defaulting to
+     * {@link #DEFAULT_WAIT_STRATEGY}.
+     */
+    private final WaitStrategy waitStrategy;
+
+    /** How events are assigned to consumer threads. */
+    private final Partitioning partitioning;
+
+    /**
+     * Whether {@code IN_IGNORED} events are broadcast to every consumer
+     * thread, as events for one watch may be spread across them.
+     */
+    private final boolean broadcastIgnored;
+
     /* Servicing threads. */
-    private Thread consumer;
+    private Thread[] consumers;
     private Thread producer;
 
     /**
@@ -128,14 +300,8 @@ public final class MonitorService extends NativeInotify {
      * constructed. The cause of the exception will be provided.
      */
     public MonitorService(final int maxQueued) throws InotifyException {
-        super();
-        if (maxQueued <= 0)
-            throw new IllegalArgumentException("capacity <= 0");
-        queueCapacity = maxQueued;
-
-        sharedInit();
-        threadInit();
-        serviceInit();
+        this(maxQueued, null, null, DEFAULT_WAIT_STRATEGY, 1,
+                Partitioning.WATCH_DESCRIPTOR);
     }
 
     /**
@@ -146,12 +312,8 @@ public final class MonitorService extends NativeInotify {
      * constructed. The cause of the exception will be provided.
      */
     public MonitorService() throws InotifyException {
-        super();
-        queueCapacity = DEFAULT_MAX_QUEUED_EVENTS;
-
-        sharedInit();
-        threadInit();
-        serviceInit();
+        this(DEFAULT_MAX_QUEUED_EVENTS, null, null, DEFAULT_WAIT_STRATEGY, 1,
+                Partitioning.WATCH_DESCRIPTOR);
     }
 
     /**
@@ -166,15 +328,8 @@ public final class MonitorService extends NativeInotify {
     public MonitorService(final int maxQueued,
             final UncaughtExceptionHandler exceptionHandler)
             throws InotifyException {
-        super();
-        if (maxQueued <= 0)
-            throw new IllegalArgumentException("capacity <= 0");
-        queueCapacity = maxQueued;
-
-        sharedInit();
-        threadInit();
-        initHandler(exceptionHandler);
-        serviceInit();
+        this(maxQueued, null, exceptionHandler, DEFAULT_WAIT_STRATEGY, 1,
+                Partitioning.WATCH_DESCRIPTOR);
     }
 
     /**
@@ -190,16 +345,8 @@ public final class MonitorService extends NativeInotify {
      */
     public MonitorService(final int maxQueued, final ThreadFactory factory)
             throws InotifyException {
-        super();
-        if (maxQueued <= 0)
-            throw new IllegalArgumentException("capacity <= 0");
-        if (factory == null)
-            throw new IllegalArgumentException("null factory");
-        queueCapacity = maxQueued;
-
-        sharedInit();
-        threadInit(factory);
-        serviceInit();
+        this(maxQueued, checkFactory(factory), null, DEFAULT_WAIT_STRATEGY, 1,
+                Partitioning.WATCH_DESCRIPTOR);
     }
 
     /**
@@ -217,39 +364,164 @@ public final class MonitorService extends NativeInotify {
     public MonitorService(final int maxQueued, final ThreadFactory factory,
             final UncaughtExceptionHandler exceptionHandler)
             throws InotifyException {
+        this(maxQueued, checkFactory(factory), exceptionHandler,
+                DEFAULT_WAIT_STRATEGY, 1, Partitioning.WATCH_DESCRIPTOR);
+    }
+
+    /**
+     * Creates a monitor service with the supplied queue capacity and wait
+     * strategy.
+     * 
+     * @param maxQueued Maximum queue size, greater than zero
+     * @param waitStrategy How the listener thread waits for events, non-null
+     * @throws InotifyException Thrown if the native inotify object could not be
+     * constructed. The cause of the exception will be provided.
+     * @since Version 2.2
+     */
+    public MonitorService(final int maxQueued, final WaitStrategy waitStrategy)
+            throws InotifyException {
+        this(maxQueued, null, null, waitStrategy, 1,
+                Partitioning.WATCH_DESCRIPTOR);
+    }
+
+    /**
+     * Creates a monitor service with the supplied queue capacity and wait
+     * strategy. The thread factory provided will be used to create two
+     * threads for servicing inotify events.
+     * 
+     * @param maxQueued Maximum queue size, greater than zero
+     * @param factory Thread factory for producer/consumer servicing threads,
+     * non-null
+     * @param waitStrategy How the listener thread waits for events, non-null
+     * @throws InotifyException Thrown if the native inotify object could not be
+     * constructed. The cause of the exception will be provided.
+     * @since Version 2.2
+     */
+    public MonitorService(final int maxQueued, final ThreadFactory factory,
+            final WaitStrategy waitStrategy) throws InotifyException {
+        this(maxQueued, checkFactory(factory), null, waitStrategy, 1,
+                Partitioning.WATCH_DESCRIPTOR);
+    }
+
+    /**
+     * Creates a monitor service delivering events to listeners from
+     * {@code consumers} threads. Events are assigned to consumer threads by
+     * the provided partitioning, so events for one watch (or one path) are
+     * delivered in order by one thread. Each consumer thread has its own queue
+     * of {@code maxQueued} events.
+     * 
+     * @param maxQueued Maximum queue size of each consumer, greater than zero
+     * @param waitStrategy How the listener threads wait for events, non-null
+     * @param consumers Number of listener threads, greater than zero
+     * @param partitioning How events are assigned to listener threads,
+     * non-null
+     * @throws InotifyException Thrown if the native inotify object could not be
+     * constructed. The cause of the exception will be provided.
+     * @since Version 2.2
+     */
+    public MonitorService(final int maxQueued, final WaitStrategy waitStrategy,
+            final int consumers, final Partitioning partitioning)
+            throws InotifyException {
+        this(maxQueued, null, null, waitStrategy, consumers, partitioning);
+    }
+
+    /**
+     * Creates a monitor service delivering events to listeners from
+     * {@code consumers} threads, as by
+     * {@link #MonitorService(int, WaitStrategy, int, Partitioning)}. The
+     * thread factory provided will be used to create the threads servicing
+     * inotify events.
+     * 
+     * @param maxQueued Maximum queue size of each consumer, greater than zero
+     * @param factory Thread factory for producer/consumer servicing threads,
+     * non-null
+     * @param waitStrategy How the listener threads wait for events, non-null
+     * @param consumers Number of listener threads, greater than zero
+     * @param partitioning How events are assigned to listener threads,
+     * non-null
+     * @throws InotifyException Thrown if the native inotify object could not be
+     * constructed. The cause of the exception will be provided.
+     * @since Version 2.2
+     */
+    public MonitorService(final int maxQueued, final ThreadFactory factory,
+            final WaitStrategy waitStrategy, final int consumers,
+            final Partitioning partitioning) throws InotifyException {
+        this(maxQueued, checkFactory(factory), null, waitStrategy, consumers,
+                partitioning);
+    }
+
+    /*
+     * Creates a monitor service; a null factory yields default threads and a
+     * null handler leaves the threads' handlers unset.
+     */
+    private MonitorService(final int maxQueued, final ThreadFactory factory,
+            final UncaughtExceptionHandler exceptionHandler,
+            final WaitStrategy waitStrategy, final int consumers,
+            final Partitioning partitioning) throws InotifyException {
         super();
         if (maxQueued <= 0)
             throw new IllegalArgumentException("capacity <= 0");
-        if (factory == null)
-            throw new IllegalArgumentException("null factory");
+        if (waitStrategy == null)
+            throw new IllegalArgumentException("null wait strategy");
+        if (consumers <= 0)
+            throw new IllegalArgumentException("consumers <= 0");
+        if (partitioning == null)
+            throw new IllegalArgumentException("null partitioning");
         queueCapacity = maxQueued;
+        this.waitStrategy = waitStrategy;
+        this.partitioning = partitioning;
+        broadcastIgnored = consumers > 1 && partitioning == Partitioning.PATH;
 
-        sharedInit();
-        threadInit(factory);
-        initHandler(exceptionHandler);
+        sharedInit(consumers);
+        if (factory == null)
+            threadInit();
+        else
+            threadInit(factory);
+        if (exceptionHandler != null)
+            initHandler(exceptionHandler);
         serviceInit();
     }
 
+    /*
+     * Rejects a null thread factory.
+     */
+    private static ThreadFactory checkFactory(final ThreadFactory factory) {
+        if (factory == null)
+            throw new IllegalArgumentException("null factory");
+        return factory;
+    }
+
     /**
      * Shared init routines.
      */
-    private void sharedInit() {
-        initQueue();
+    private void sharedInit(final int consumers) {
+        initQueue(consumers);
         mapInit();
     }
 
     /*
-     * Creates the backing queue.
+     * Creates the backing queues.
      */
-    private void initQueue() {
-        queue = new LinkedBlockingQueue<InotifyEvent>(queueCapacity);
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void initQueue(final int consumers) {
+        queues = new RingBuffer[consumers];
+        backlogs = new Backlog[consumers];
+        batches = new BatchDispatcher[consumers];
+        for (int i = 0; i < consumers; i++) {
+            batches[i] = new BatchDispatcher(batchListeners);
+            queues[i] = new RingBuffer<InotifyEvent>(queueCapacity,
+                    waitStrategy);
+            backlogs[i] = new Backlog(queueCapacity);
+        }
     }
 
     /*
      * Create threads deferring to factory.
      */
     private void threadInit(final ThreadFactory f) {
-        consumer = f.newThread(new QueueConsumer());
+        consumers = new Thread[queues.length];
+        for (int i = 0; i < consumers.length; i++)
+            consumers[i] = f.newThread(new QueueConsumer(i));
         producer = f.newThread(new QueueProducer());
     }
 
@@ -257,9 +529,16 @@ public final class MonitorService extends NativeInotify {
      * Create default threads.
      */
     private void threadInit() {
-        consumer = new Thread(new QueueConsumer());
-        consumer.setName("MonitorService(" + getFileDescriptor()
-                + ") queue consumer");
+        consumers = new Thread[queues.length];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(new QueueConsumer(i));
+            if (consumers.length == 1)
+                consumers[i].setName("MonitorService(" + getFileDescriptor()
+                        + ") queue consumer");
+            else
+                consumers[i].setName("MonitorService(" + getFileDescriptor()
+                        + ") queue consumer " + i);
+        }
         producer = new Thread(new QueueProducer());
         producer.setName("MonitorService(" + getFileDescriptor()
                 + ") queue producer");
@@ -269,7 +548,8 @@ public final class MonitorService extends NativeInotify {
      * Setup uncaught handlers.
      */
     private void initHandler(UncaughtExceptionHandler h) {
-        consumer.setUncaughtExceptionHandler(h);
+        for (Thread consumer : consumers)
+            consumer.setUncaughtExceptionHandler(h);
         producer.setUncaughtExceptionHandler(h);
     }
 
@@ -286,17 +566,33 @@ public final class MonitorService extends NativeInotify {
      * Initialize the service.
      */
     private void serviceInit() {
-        consumer.start();
+        for (Thread consumer : consumers)
+            consumer.start();
         producer.start();
     }
 
     /**
-     * Returns the blocking queue backing the service.
+     * Returns a read-only view of the queue backing the service. The view
+     * reports the queued events; operations that would insert or remove
+     * events throw {@link UnsupportedOperationException}.
      * 
-     * @return Blocking queue containing inotify events
+     * @return Blocking queue view containing inotify events
      */
     public BlockingQueue<InotifyEvent> getQueue() {
-        return queue;
+        return RingBuffer.asQueue(queues);
+    }
+
+    /**
+     * Returns the number of events queued for the listener thread.
+     * 
+     * @return queue size
+     * @since Version 2.2
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (RingBuffer<InotifyEvent> queue : queues)
+            size += queue.size();
+        return size;
     }
 
     /**
@@ -309,12 +605,228 @@ public final class MonitorService extends NativeInotify {
     }
 
     /**
-     * Returns the largest size of the service's backing queue.
+     * Returns the wait strategy of the listener thread.
+     * 
+     * @return wait strategy
+     * @since Version 2.2
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Returns what is done with events when a queue is full.
+     * 
+     * @return overflow policy
+     * @since Version 2.2
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets what is done with events when a queue is full. Events already held
+     * in a backlog are still delivered.
+     * 
+     * @param policy Overflow policy, non-null
+     * @since Version 2.2
+     */
+    public void setOverflowPolicy(final OverflowPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("null overflow policy");
+        overflowPolicy = policy;
+    }
+
+    /**
+     * Returns the directory in which the {@link OverflowPolicy#SPILL} policy
+     * creates segment files.
+     * 
+     * @return Spill directory
+     * @since Version 2.2
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Sets the directory in which the {@link OverflowPolicy#SPILL} policy
+     * creates segment files, defaulting to {@code java.io.tmpdir}. Segment
+     * files are unlinked once mapped, so none remain in the directory.
+     * 
+     * @param directory Spill directory, non-null
+     * @since Version 2.2
+     */
+    public void setSpillDirectory(final File directory) {
+        if (directory == null)
+            throw new IllegalArgumentException("null spill directory");
+        spillDirectory = directory;
+    }
+
+    /**
+     * Returns the minimum time between overflow notices for one watch.
+     * 
+     * @param unit Unit of the returned time
+     * @return Notice interval
+     * @since Version 2.2
+     */
+    public long getOverflowNoticeInterval(final TimeUnit unit) {
+        return unit.convert(overflowNoticeInterval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the minimum time between overflow notices for one watch, defaulting
+     * to {@value #DEFAULT_OVERFLOW_NOTICE_INTERVAL} milliseconds.
+     * 
+     * @param interval Notice interval, not negative
+     * @param unit Unit of the interval
+     * @since Version 2.2
+     */
+    public void setOverflowNoticeInterval(final long interval,
+            final TimeUnit unit) {
+        if (interval < 0)
+            throw new IllegalArgumentException("interval < 0");
+        overflowNoticeInterval = unit.toNanos(interval);
+    }
+
+    /**
+     * Returns the number of threads delivering events to listeners.
+     * 
+     * @return number of consumer threads
+     * @since Version 2.2
+     */
+    public int getConsumerCount() {
+        return queues.length;
+    }
+
+    /**
+     * Returns how events are assigned to consumer threads.
+     * 
+     * @return partitioning
+     * @since Version 2.2
+     */
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    /**
+     * Adds a listener receiving the events of every watch in batches.
+     * 
+     * @param listener Batch listener
+     * @since Version 2.2
+     */
+    public void addBatchListener(final BatchInotifyEventListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener may not be null");
+        batchListeners.add(listener);
+    }
+
+    /**
+     * Removes a batch listener.
+     * 
+     * @param listener Batch listener
+     * @return {@code true} if the listener was removed
+     * @since Version 2.2
+     */
+    public boolean removeBatchListener(
+            final BatchInotifyEventListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener may not be null");
+        return batchListeners.remove(listener);
+    }
+
+    /**
+     * Returns the maximum number of events in a batch.
+     * 
+     * @return Maximum batch size
+     * @since Version 2.2
+     */
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of events in a batch, defaulting to
+     * {@value BatchDispatcher#DEFAULT_MAX_BATCH_SIZE}. Events of one drain
+     * exceeding it are delivered in several batches.
+     * 
+     * @param size Maximum batch size, greater than zero
+     * @since Version 2.2
+     */
+    public synchronized void setMaxBatchSize(final int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size <= 0");
+        maxBatchSize = size;
+        for (BatchDispatcher b : batches)
+            b.configure(maxBatchSize, maxBatchLinger);
+    }
+
+    /**
+     * Returns the maximum time events are held to gather a larger batch.
+     * 
+     * @param unit Unit of the returned time
+     * @return Maximum linger
+     * @since Version 2.2
+     */
+    public synchronized long getMaxBatchLinger(final TimeUnit unit) {
+        return unit.convert(maxBatchLinger, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the maximum time events are held to gather a larger batch,
+     * defaulting to zero: each drain is delivered as it completes. A
+     * lingering batch is delivered by a timer thread if no further drain
+     * completes it.
+     * 
+     * @param linger Maximum linger, not negative
+     * @param unit Unit of the linger
+     * @since Version 2.2
+     */
+    public synchronized void setMaxBatchLinger(final long linger,
+            final TimeUnit unit) {
+        if (linger < 0)
+            throw new IllegalArgumentException("linger < 0");
+        maxBatchLinger = unit.toNanos(linger);
+        for (BatchDispatcher b : batches)
+            b.configure(maxBatchSize, maxBatchLinger);
+    }
+
+    /**
+     * Returns the executor notifying listeners.
+     * 
+     * @return Listener executor, or {@code null} if listeners are notified by
+     * the consumer threads
+     * @since Version 2.2
+     */
+    public SequentialExecutor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Sets the executor notifying listeners, keyed by watch descriptor.
+     * Listeners of one watch are then notified in order, by at most one
+     * thread at a time, whichever the {@link Partitioning partitioning}. The
+     * service times recorded include only the time taken by listeners, not
+     * the time spent waiting for the executor.
+     * 
+     * @param executor Listener executor, or {@code null} to notify listeners
+     * on the consumer threads
+     * @since Version 2.2
+     */
+    public void setListenerExecutor(final SequentialExecutor executor) {
+        listenerExecutor = executor;
+    }
+
+    /**
+     * Returns the largest size of the service's backing queues, as found by
+     * the listener threads each time they finished waiting for events.
      * 
      * @return Largest size of the queue
      */
     public int getLargestQueueSize() {
-        return largestQueueSize;
+        int largest = 0;
+        for (RingBuffer<InotifyEvent> queue : queues)
+            largest = Math.max(largest, queue.getLargestSize());
+        return largest;
     }
 
     /**
@@ -323,7 +835,109 @@ public final class MonitorService extends NativeInotify {
      * @return Count of delivered events from the native queue
      */
     public long getServicedCount() {
-        return serviced;
+        return serviced.get();
+    }
+
+    /**
+     * Returns the count of events that found the backing queue full, and were
+     * handled by the {@link #getOverflowPolicy() overflow policy}.
+     * 
+     * @return Count of overflowing events
+     * @since Version 2.2
+     */
+    public long getOverflowCount() {
+        return overflowed.get();
+    }
+
+    /**
+     * Returns the count of events dropped by the
+     * {@link OverflowPolicy#DROP_NEWEST}, {@link OverflowPolicy#DROP_OLDEST},
+     * and {@link OverflowPolicy#COALESCE} policies.
+     * 
+     * @return Count of dropped events
+     * @since Version 2.2
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the count of held events replaced by a newer event for the same
+     * name under the {@link OverflowPolicy#COALESCE} policy.
+     * 
+     * @return Count of coalesced events
+     * @since Version 2.2
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the count of events spilled to disk under the
+     * {@link OverflowPolicy#SPILL} policy.
+     * 
+     * @return Count of spilled events
+     * @since Version 2.2
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    /**
+     * Returns the number of events spilled to disk and not yet delivered.
+     * 
+     * @return Number of events on disk
+     * @since Version 2.2
+     */
+    public long getSpillSize() {
+        long size = 0;
+        for (Backlog backlog : backlogs)
+            size += backlog.spilled();
+        return size;
+    }
+
+    /**
+     * Returns the count of times the reading thread blocked for room under the
+     * {@link OverflowPolicy#BLOCK} policy.
+     * 
+     * @return Count of blocked events
+     * @since Version 2.2
+     */
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    /**
+     * Returns the times, in nanoseconds, between incoming events to the
+     * service.
+     * 
+     * @return Interarrival time histogram
+     * @since Version 2.2
+     */
+    public LatencyHistogram getInterarrivalTimes() {
+        return interarrivalTimes;
+    }
+
+    /**
+     * Returns the times, in nanoseconds, events spent queued before their
+     * listeners were notified.
+     * 
+     * @return Queue wait time histogram
+     * @since Version 2.2
+     */
+    public LatencyHistogram getQueueWaitTimes() {
+        return queueWaitTimes;
+    }
+
+    /**
+     * Returns the times, in nanoseconds, taken by each listener notified of an
+     * event.
+     * 
+     * @return Service time histogram
+     * @since Version 2.2
+     */
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes;
     }
 
     /**
@@ -333,7 +947,7 @@ public final class MonitorService extends NativeInotify {
      * @return Maximum interarrival time of the backing queue
      */
     public double getMaxInterarrivalTime() {
-        return maxInterarrivalTime;
+        return interarrivalTimes.getMax() / 1e6;
     }
 
     /**
@@ -383,7 +997,7 @@ public final class MonitorService extends NativeInotify {
      * @return Minimum interarrival time of the backing queue
      */
     public double getMinInterarrivalTime() {
-        return minInterarrivalTime;
+        return interarrivalTimes.getMin() / 1e6;
     }
 
     /**
@@ -393,7 +1007,7 @@ public final class MonitorService extends NativeInotify {
      * @return Maximum service time associated to service
      */
     public double getMaxServiceTime() {
-        return maxServiceTime;
+        return serviceTimes.getMax() / 1e6;
     }
 
     /**
@@ -403,7 +1017,7 @@ public final class MonitorService extends NativeInotify {
      * @return Minimum service time associated to service
      */
     public double getMinServiceTime() {
-        return minServiceTime;
+        return serviceTimes.getMin() / 1e6;
     }
 
     /**
@@ -415,42 +1029,273 @@ public final class MonitorService extends NativeInotify {
     @Override
     void eventHandler(InotifyEvent e) {
 
-        long now = currentTimeMillis();
-        if (lastArrivalTime == 0d) {
-            lastArrivalTime = now;
+        long now = nanoTime();
+        if (lastArrivalTime != 0L)
+            interarrivalTimes.record(now - lastArrivalNanos);
+        lastArrivalNanos = now;
+        lastArrivalTime = baseMillis + (now - baseNanos) / 1000000L;
+        e.queuedNanos = now;
+        e.generation = generation(e.getSource());
+
+        int lane = lane(e);
+        if (e.isIgnored()) {
+            lastOverflowNotice.remove(e.getSource());
+            if (broadcastIgnored)
+                broadcast(e);
+            else
+                put(lane, e);
+            serviced.lazySet(serviced.get() + 1);
+            return;
+        }
+        if (!backlogs[lane].holdsEvents() && queues[lane].offer(e)) {
+            serviced.lazySet(serviced.get() + 1);
+            return;
+        }
+        if (overflow(lane, e, now))
+            serviced.lazySet(serviced.get() + 1);
+    }
+
+    /**
+     * Handles an event for a consumer that is behind, either because its
+     * queue is full or because it holds a backlog.
+     * 
+     * @param lane Index of the consumer thread
+     * @param e InotifyEvent
+     * @param now {@link System#nanoTime()} of the event's arrival
+     * @return {@code true} if the event will be delivered
+     */
+    private boolean overflow(int lane, InotifyEvent e, long now) {
+        RingBuffer<InotifyEvent> queue = queues[lane];
+        Backlog backlog = backlogs[lane];
+        OverflowPolicy policy = overflowPolicy;
+        if (backlog.holdsEvents()) {
+            // keep order behind the events already held
+            if (policy == OverflowPolicy.BLOCK
+                    || policy == OverflowPolicy.DROP_NEWEST)
+                policy = OverflowPolicy.DROP_OLDEST;
         } else {
-            long delta = now - lastArrivalTime;
-            if (minInterarrivalTime == 0d || delta < minInterarrivalTime)
-                minInterarrivalTime = delta;
-            if (delta > maxInterarrivalTime) maxInterarrivalTime = delta;
-            lastArrivalTime = now;
+            overflowed.lazySet(overflowed.get() + 1);
         }
 
-        if (queue.offer(e)) {
-            serviced++;
-            int size = queue.size();
-            if (size > largestQueueSize) largestQueueSize = size;
-            return;
+        switch (policy) {
+        case BLOCK:
+            blocked.lazySet(blocked.get() + 1);
+            return offer(queue, e);
+        case DROP_OLDEST:
+            InotifyEvent oldest = backlog.add(e, false);
+            queue.wake();
+            if (oldest != null) drop(lane, oldest, now);
+            return oldest != e;
+        case COALESCE:
+            int ret = backlog.coalesce(e);
+            queue.wake();
+            if (ret == Backlog.COALESCED) {
+                coalesced.lazySet(coalesced.get() + 1);
+                notice(lane, e, now);
+            } else if (ret == Backlog.REJECTED) {
+                drop(lane, e, now);
+                return false;
+            }
+            return true;
+        case SPILL:
+            if (!backlog.spill(e, spillDirectory)) {
+                drop(lane, e, now);
+                return false;
+            }
+            spilled.lazySet(spilled.get() + 1);
+            queue.wake();
+            return true;
+        default:
+            drop(lane, e, now);
+            return false;
         }
+    }
+
+    /**
+     * Counts a dropped event, and adds an overflow notice for its watch unless
+     * one was added within the notice interval.
+     * 
+     * @param lane Index of the consumer thread
+     * @param e Dropped event
+     * @param now Current {@link System#nanoTime()}
+     */
+    private void drop(int lane, InotifyEvent e, long now) {
+        dropped.lazySet(dropped.get() + 1);
+        notice(lane, e, now);
+    }
 
-        InotifyEvent ev = new InotifyEvent(e.getSource(),
+    /**
+     * Adds an overflow notice for the watch of an event that was dropped or
+     * coalesced, unless one was added within the notice interval.
+     * 
+     * @param lane Index of the consumer thread
+     * @param e Dropped or coalesced event
+     * @param now Current {@link System#nanoTime()}
+     */
+    private void notice(int lane, InotifyEvent e, long now) {
+        Integer wd = Integer.valueOf(e.getSource());
+        Long last = lastOverflowNotice.get(wd);
+        if (last != null && now - last.longValue() < overflowNoticeInterval)
+            return;
+        lastOverflowNotice.put(wd, Long.valueOf(now));
+
+        InotifyEvent notice = new InotifyEvent(wd.intValue(),
                 EventModifier.Event_Queue_Overflow.value());
+        notice.queuedNanos = now;
+        notice.generation = e.generation;
+        backlogs[lane].notice(notice);
+        queues[lane].wake();
+    }
+
+    /**
+     * Queues an event that must not be dropped to a consumer, behind any
+     * events already held for it.
+     * 
+     * @param lane Index of the consumer thread
+     * @param e InotifyEvent
+     */
+    private void put(int lane, InotifyEvent e) {
+        Backlog backlog = backlogs[lane];
+        if (backlog.holdsEvents()) {
+            backlog.add(e, true);
+            queues[lane].wake();
+        } else {
+            offer(queues[lane], e);
+        }
+    }
+
+    /**
+     * Offers an event to a queue until it is accepted or the service is
+     * destroyed.
+     * 
+     * @param queue Queue
+     * @param e InotifyEvent
+     * @return {@code true} if the event was accepted
+     */
+    private boolean offer(RingBuffer<InotifyEvent> queue, InotifyEvent e) {
+        int tries = 0;
+        while (!queue.offer(e)) {
+            if (getState() == State.CLOSED) return false;
+            if (++tries < OFFER_YIELDS)
+                Thread.yield();
+            else
+                LockSupport.parkNanos(OFFER_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Notifies listeners of an event, recording their service times.
+     * 
+     * @param listeners Listeners
+     * @param e InotifyEvent
+     * @param t1 Current {@link System#nanoTime()}
+     */
+    private void notifyListeners(Set<InotifyEventListener> listeners,
+            InotifyEvent e, long t1) {
+        for (InotifyEventListener l : listeners) {
+            l.filesystemEventOccurred(e);
+            long t2 = nanoTime();
+            serviceTimes.record(t2 - t1);
+            t1 = t2;
+        }
+    }
+
+    /**
+     * Returns the consumer thread an event is assigned to. When partitioning
+     * by path, the hash is of the watch's path at the time the event was read.
+     * 
+     * @param e InotifyEvent
+     * @return Index of the consumer thread
+     */
+    private int lane(InotifyEvent e) {
+        int n = queues.length;
+        if (n == 1) return 0;
+
         int wd = e.getSource();
-        Set<InotifyEventListener> queue = watchListenerMap.get(wd);
-        if (queue != null) {
-            for (InotifyEventListener l : queue) {
-                long t1 = currentTimeMillis();
-                l.filesystemEventOccurred(ev);
-                long t2 = currentTimeMillis();
-                long delta = (t2 - t1);
-                if (minServiceTime == 0d || delta < minServiceTime)
-                    minServiceTime = delta;
-                if (maxServiceTime == 0d || delta > maxServiceTime)
-                    maxServiceTime = delta;
+        int h;
+        if (partitioning == Partitioning.PATH) {
+            String path = watchPathMap.get(wd);
+            if (path != null) {
+                h = path.hashCode();
+                if (e.getName() != null)
+                    h = 31 * h + e.getName().hashCode();
+            } else {
+                h = wd;
             }
+            h ^= (h >>> 16);
+        } else {
+            h = wd;
+        }
+        return (h & 0x7fffffff) % n;
+    }
+
+    /**
+     * Queues an {@code IN_IGNORED} event to every consumer thread. Whichever
+     * thread reaches the event last notifies listeners and removes the watch
+     * from the maps, after every event queued before it has been delivered.
+     * 
+     * @param e IN_IGNORED event
+     */
+    private void broadcast(InotifyEvent e) {
+        ignoredBarriers.put(e.getSource(), new IgnoredBarrier(queues.length));
+        for (int i = 0; i < queues.length; i++)
+            put(i, e);
+    }
+
+    /**
+     * Destroys the underlying native instance and stops the listener threads.
+     * 
+     * @see NativeInotify#destroy()
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        for (RingBuffer<InotifyEvent> queue : queues)
+            queue.halt();
+        for (Backlog backlog : backlogs)
+            backlog.clear();
+        for (BatchDispatcher b : batches)
+            b.clear();
+        CountDownLatch latch = drained;
+        if (latch != null) {
+            while (latch.getCount() != 0)
+                latch.countDown();
         }
     }
 
+    /**
+     * Waits for the consumer threads to deliver every queued event. A marker
+     * is queued behind the events of each lane; reading has stopped, so the
+     * closing thread is the only producer.
+     * 
+     * @param deadline {@link System#nanoTime()} by which to give up
+     * @return {@code true} if every queued event was delivered
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    @Override
+    boolean drain(long deadline) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(queues.length);
+        drained = latch;
+        for (int i = 0; i < queues.length; i++) {
+            InotifyEvent marker = new InotifyEvent(-1, 0);
+            Backlog backlog = backlogs[i];
+            if (backlog.holdsEvents() || !queues[i].offer(marker))
+                backlog.add(marker, true);
+            queues[i].wake();
+        }
+        return latch.await(deadline - nanoTime(), TimeUnit.NANOSECONDS)
+                && getState() != State.CLOSED;
+    }
+
+    /*
+     * Returns whether an event is a marker queued by drain(long); the kernel
+     * never reports an empty mask.
+     */
+    private static boolean isDrainMarker(InotifyEvent e) {
+        return e.getMask() == 0 && e.getSource() == -1;
+    }
+
     /**
      * Returns the path being watched for the provided watch descriptor.
      * 
@@ -600,6 +1445,91 @@ public final class MonitorService extends NativeInotify {
         return add_watch(path, watchModifiersMask, eventMask);
     }
 
+    /**
+     * Adds watches for the specified paths for the provided events, using a
+     * single call into the native interface. Element {@code i} of the result
+     * holds the watch descriptor for {@code paths[i]}, or the negated errno
+     * value (e.g., {@code -}{@link NativeInotify#ENOENT}) if that path could
+     * not be watched.
+     * 
+     * @param paths Paths to be watched
+     * @param events Events to watch for
+     * @return Watch descriptors or negated errno values, one per path
+     * @since Version 2.2
+     */
+    @ThreadSafe
+    public int[] addWatches(final String[] paths, final Event... events) {
+        return addWatches(paths, 0, Event.eventsToMask(events));
+    }
+
+    /**
+     * Adds watches for the specified paths using the provided watch modifier
+     * and event masks, using a single call into the native interface for new
+     * paths. Paths already watched have their masks extended, as by
+     * {@link #addWatch(String, Event...)}.
+     * 
+     * @param paths Paths to be watched
+     * @param watchModifiersMask Watch modifier mask to augment addition of
+     * watches
+     * @param eventMask Events to watch for
+     * @return Watch descriptors or negated errno values, one per path
+     * @since Version 2.2
+     */
+    @ThreadSafe
+    public int[] addWatches(final String[] paths, final int watchModifiersMask,
+            final int eventMask) {
+        if (paths == null)
+            throw new NullPointerException("paths may not be null");
+
+        boolean[] isExtended = new boolean[paths.length];
+        int watched = 0;
+        for (int i = 0; i < paths.length; i++) {
+            isExtended[i] = paths[i] != null
+                    && pathWatchMap.containsKey(paths[i]);
+            if (isExtended[i])
+                watched++;
+        }
+        if (watched == 0)
+            return add_watches(paths, watchModifiersMask | eventMask);
+
+        String[] added = new String[paths.length - watched];
+        String[] extended = new String[watched];
+        for (int i = 0, a = 0, x = 0; i < paths.length; i++) {
+            if (isExtended[i])
+                extended[x++] = paths[i];
+            else
+                added[a++] = paths[i];
+        }
+        int[] addedWds = add_watches(added, watchModifiersMask | eventMask);
+        int[] extendedWds = add_watches(extended, watchModifiersMask
+                | WatchModifier.Add.value() | eventMask);
+
+        int[] wds = new int[paths.length];
+        for (int i = 0, a = 0, x = 0; i < paths.length; i++) {
+            if (isExtended[i])
+                wds[i] = extendedWds[x++];
+            else
+                wds[i] = addedWds[a++];
+        }
+        return wds;
+    }
+
+    /**
+     * Private delegate method for adding watches in bulk.
+     * 
+     * @param paths Paths to watch
+     * @param mask Watch modifier and event mask
+     * @return watch descriptors or negated errno values
+     */
+    private int[] add_watches(final String[] paths, final int mask) {
+        int[] wds = super.addWatches(paths, mask);
+        for (int i = 0; i < paths.length; i++) {
+            if (wds[i] < 0) continue;
+            watched(paths[i], wds[i]);
+        }
+        return wds;
+    }
+
     /**
      * Private delegate method for adding watches.
      * 
@@ -613,11 +1543,54 @@ public final class MonitorService extends NativeInotify {
     private int add_watch(final String path, final int wm_mask,
             final int ev_mask) throws InotifyException {
         int wd = super.addWatch(path, wm_mask | ev_mask);
-        pathWatchMap.put(path, wd);
-        watchPathMap.put(wd, path);
+        watched(path, wd);
         return wd;
     }
 
+    /**
+     * Records a path the kernel has watched. A descriptor the kernel reused
+     * for a new watch takes a new generation.
+     * 
+     * @param path Watched path
+     * @param wd Watch descriptor
+     */
+    private void watched(final String path, final int wd) {
+        synchronized (watches) {
+            watches.add(wd, path);
+            pathWatchMap.put(path, wd);
+            watchPathMap.put(wd, path);
+        }
+    }
+
+    /**
+     * Returns the generation of the watch with the provided descriptor.
+     * 
+     * @param wd Watch descriptor
+     * @return Generation, or {@code 0} if the watch is not known
+     */
+    private int generation(final int wd) {
+        synchronized (watches) {
+            WatchRecord r = watches.get(wd);
+            return r == null ? 0 : r.generation;
+        }
+    }
+
+    /**
+     * Returns {@code false} if the watch an event was queued for has since
+     * been removed, or its descriptor reused by a new watch. Events queued
+     * before their watch was known are not checked.
+     * 
+     * @param e InotifyEvent
+     * @return {@code true} if the event is of the current watch of its
+     * descriptor
+     */
+    private boolean current(final InotifyEvent e) {
+        if (e.generation == 0) return true;
+        synchronized (watches) {
+            return watches.get(e.getSource(), e.generation) != null;
+        }
+    }
+
     /**
      * Removes the watch associated with the provided watch descriptor.
      * 
@@ -642,10 +1615,12 @@ public final class MonitorService extends NativeInotify {
      */
     private boolean remove_watch(final int wd)
             throws InvalidWatchDescriptorException {
-        String path = watchPathMap.get(wd);
-        watchPathMap.remove(wd);
-        pathWatchMap.remove(path);
-        watchListenerMap.remove(wd);
+        synchronized (watches) {
+            watches.remove(wd);
+            String path = watchPathMap.remove(wd);
+            if (path != null) pathWatchMap.remove(path);
+            watchListenerMap.remove(wd);
+        }
         return super.removeWatch(wd);
     }
 
@@ -695,13 +1670,26 @@ public final class MonitorService extends NativeInotify {
     }
 
     /**
-     * Reads inotify events from the internal service queue, notifying
-     * listeners.
+     * Reads inotify events from one of the internal service queues, notifying
+     * listeners. Each wait is followed by a drain of every event published
+     * since.
      * 
      * @author Nick Bargnesi
      */
     final class QueueConsumer implements Runnable {
 
+        /** Index of the queue serviced. */
+        private final int lane;
+
+        /**
+         * Creates a consumer of the specified queue.
+         * 
+         * @param lane Index of the queue serviced
+         */
+        QueueConsumer(int lane) {
+            this.lane = lane;
+        }
+
         /**
          * Service the monitor service's queue.
          * 
@@ -709,44 +1697,122 @@ public final class MonitorService extends NativeInotify {
          */
         @Override
         public void run() {
-            while (isActive()) {
-                try {
-                    InotifyEvent e = queue.take();
-                    String path = null;
-                    if (e.getName() != null) {
-                        path = watchPathMap.get(e.getSource());
-                        if (path != null) {
-                            if (path.charAt(path.length() - 1) == '/')
-                                e.setContextualName(path.concat(e.getName()));
-                            else
-                                e.setContextualName(path.concat("/").concat(e.getName()));
-                        }
-                    }
+            RingBuffer<InotifyEvent> queue = queues[lane];
+            Backlog backlog = backlogs[lane];
+            BatchDispatcher batch = batches[lane];
+            List<InotifyEvent> held = new ArrayList<InotifyEvent>();
+            long next = 0;
+            while (getState() != State.CLOSED) {
+                // only wait while nothing is held for this consumer
+                long available = backlog.size() == 0 ? queue.waitFor(next)
+                        : queue.published();
+                while (next < available) {
+                    InotifyEvent e = queue.get(next);
+                    queue.release(++next);
+                    dispatch(e);
+                }
+                if (backlog.size() != 0) {
+                    backlog.drainTo(held, queue, next);
+                    for (int i = 0; i < held.size(); i++)
+                        dispatch(held.get(i));
+                    held.clear();
+                }
+                batch.endOfBatch();
+            }
+        }
 
-                    int wd = e.getSource();
-                    Set<InotifyEventListener> queue = watchListenerMap.get(wd);
-                    if (queue != null) {
-                        for (InotifyEventListener l : queue) {
-                            long t1 = currentTimeMillis();
-                            l.filesystemEventOccurred(e);
-                            long t2 = currentTimeMillis();
-                            long delta = (t2 - t1);
-                            if (minServiceTime == 0d || delta < minServiceTime)
-                                minServiceTime = delta;
-                            if (maxServiceTime == 0d || delta > maxServiceTime)
-                                maxServiceTime = delta;
-                        }
-                    }
+        /**
+         * Handles an event taken from the queue or backlog.
+         * 
+         * @param e InotifyEvent
+         */
+        private void dispatch(InotifyEvent e) {
+            if (isDrainMarker(e)) {
+                batches[lane].drain();
+                drained.countDown();
+            } else if (broadcastIgnored && e.isIgnored()) {
+                consumeIgnored(e);
+            } else {
+                consume(e);
+            }
+        }
+
+        /**
+         * Handles a broadcast {@code IN_IGNORED} event.
+         * 
+         * @param e IN_IGNORED event
+         */
+        private void consumeIgnored(InotifyEvent e) {
+            IgnoredBarrier barrier = ignoredBarriers.get(e.getSource());
+            if (barrier == null || !barrier.arrive()) return;
+            ignoredBarriers.remove(e.getSource());
+            consume(e);
+        }
 
-                    if (e.isIgnored()) {
-                        if (path == null) path = watchPathMap.get(wd);
-                        watchPathMap.remove(wd);
-                        pathWatchMap.remove(path);
-                        watchListenerMap.remove(wd);
+        /**
+         * Notifies listeners of an event and performs any necessary cleanup
+         * in the maps maintained by the service.
+         * 
+         * @param e InotifyEvent
+         */
+        private void consume(InotifyEvent e) {
+            deliver(e, current(e));
+            if (e.isIgnored()) remove(e);
+        }
+
+        /**
+         * Notifies listeners of an event. Listeners of its watch, and its
+         * directory, are only looked up if the event is of the current watch
+         * of its descriptor.
+         * 
+         * @param e InotifyEvent
+         * @param current {@code true} if the event's watch is current
+         */
+        private void deliver(final InotifyEvent e, boolean current) {
+            if (current && e.getName() != null) {
+                String path = watchPathMap.get(e.getSource());
+                if (path != null) e.setDirectory(path);
+            }
+
+            long t1 = nanoTime();
+            queueWaitTimes.record(t1 - e.queuedNanos);
+
+            batches[lane].add(e);
+            if (!current) return;
+
+            int wd = e.getSource();
+            final Set<InotifyEventListener> queue = watchListenerMap.get(wd);
+            if (queue == null) return;
+
+            SequentialExecutor executor = listenerExecutor;
+            if (executor == null) {
+                notifyListeners(queue, e, t1);
+            } else {
+                executor.execute(wd, new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyListeners(queue, e, nanoTime());
                     }
-                } catch (InterruptedException e) {
-                    // Keep going.
-                }
+                });
+            }
+        }
+
+        /**
+         * Removes the watch of an {@code IN_IGNORED} event from the maps
+         * maintained by the service, unless a new watch has taken its
+         * descriptor meanwhile.
+         * 
+         * @param e IN_IGNORED event
+         */
+        private void remove(InotifyEvent e) {
+            int wd = e.getSource();
+            synchronized (watches) {
+                if (e.generation != 0 && watches.get(wd, e.generation) == null)
+                    return;
+                watches.remove(wd);
+                String path = watchPathMap.remove(wd);
+                if (path != null) pathWatchMap.remove(path);
+                watchListenerMap.remove(wd);
             }
         }
     }
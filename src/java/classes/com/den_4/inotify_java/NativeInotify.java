@@ -21,7 +21,19 @@
  */
 package com.den_4.inotify_java;
 
-import java.util.concurrent.Semaphore;
+import java.lang.ref.PhantomReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.den_4.inotify_java.exceptions.InotifyException;
@@ -34,32 +46,145 @@ import com.den_4.inotify_java.exceptions.UserWatchLimitException;
 /**
  * This class serves as the base class for all Inotify types, providing a bridge
  * to the native implementation and interface.
+ * <p>
+ * An instance is {@link State#ACTIVE active} from construction until it is
+ * closed, either at once with {@link #close()} or {@link #destroy()}, or
+ * after delivering the events already read with
+ * {@link #close(long, TimeUnit)}. Instances that become unreachable without
+ * being closed release their native resources once garbage collected.
+ * </p>
  * 
  * @since Version 2
  * @author Nick Bargnesi
  */
-public abstract class NativeInotify {
+public abstract class NativeInotify implements AutoCloseable {
+
+    /**
+     * Lifecycle of an instance.
+     * 
+     * @since Version 2.2
+     */
+    public enum State {
+
+        /** Reading events; watches may be added and removed. */
+        ACTIVE,
+
+        /**
+         * No longer reading events; events already read are being delivered.
+         */
+        CLOSING,
+
+        /** Closed; no further events are delivered. */
+        CLOSED;
+
+    }
+
+    /**
+     * Size in bytes of the fixed portion of a native {@code inotify_event}:
+     * {@code wd}, {@code mask}, {@code cookie}, and {@code len}.
+     */
+    static final int EVENT_HEADER_SIZE = 16;
+
+    /**
+     * Smallest read buffer able to hold any single event: the event header
+     * plus a {@code NAME_MAX} name and its terminating null.
+     */
+    public static final int MIN_READ_BUFFER_SIZE = EVENT_HEADER_SIZE + 256;
+
+    /** Default initial size in bytes of the native read buffer. */
+    public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+
+    /*
+     * Linux errno values, negated in the results of addWatches for paths
+     * that could not be watched.
+     */
+
+    /** No such file or directory. */
+    public static final int ENOENT = 2;
+
+    /** Permission denied. */
+    public static final int EACCES = 13;
+
+    /** Not a directory; the path was watched with {@code IN_ONLYDIR}. */
+    public static final int ENOTDIR = 20;
+
+    /** Invalid argument, such as a {@code null} path or an empty mask. */
+    public static final int EINVAL = 22;
+
+    /** The user limit on the total number of watches was reached. */
+    public static final int ENOSPC = 28;
+
+    /** The path is too long. */
+    public static final int ENAMETOOLONG = 36;
+
+    /**
+     * System property naming the {@link InotifyBackend backend} used by
+     * default: {@code jni} for the JNI library, {@code ffm} for the foreign
+     * function backend (built separately, requiring Java 22), or the name of
+     * a class implementing {@link InotifyBackend}.
+     */
+    public static final String BACKEND_PROPERTY = "com.den_4.inotify_java.backend"; //$NON-NLS-1$
+
+    /* Name and class of the foreign function backend. */
+    private static final String FFM_BACKEND = "ffm"; //$NON-NLS-1$
+    private static final String FFM_BACKEND_CLASS = "com.den_4.inotify_java.FfmBackend"; //$NON-NLS-1$
+
+    /** Charset used to decode event names. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Initial read buffer size used by newly constructed instances. */
+    private static volatile int defaultReadBufferSize = DEFAULT_READ_BUFFER_SIZE;
 
     /** Watch descriptor associated with this inotify instance. */
     protected int fileDescriptor;
 
-    /** Flag used to indicate an active file descriptor. */
-    private boolean fdActive = false;
+    /** Lifecycle state and native resources of this instance. */
+    private final Resources resources;
 
-    /** Provides thread-safety for {@link #fdActive} */
-    private Semaphore activeSem;
+    /** Releases the resources if this instance is never closed. */
+    private final Reclaimer reclaimer;
 
     /* Flag indicating whether the native library is loaded. */
     private static boolean nativeLibLoaded;
     /* Guarantee library loading is thread-safe. */
     private static ReentrantLock lock = new ReentrantLock();
 
+    /* Backend used by newly constructed instances; guarded by lock. */
+    private static InotifyBackend defaultBackend;
+
+    /* Instances become phantom reachable here once unreachable. */
+    private static final ReferenceQueue<NativeInotify> unreachable = new ReferenceQueue<NativeInotify>();
+
+    /* Keeps the reclaimers of unclosed instances reachable. */
+    private static final Set<Reclaimer> reclaimers = Collections.newSetFromMap(new ConcurrentHashMap<Reclaimer, Boolean>());
+
+    /* Thread releasing unreachable instances; guarded by lock. */
+    private static Thread reclaimerThread;
+
     /**
      * Contains the file descriptors for the read/write ends of a pipe, used for
      * IPC purposes.
      */
     private int[] pipes;
 
+    /** Scratch space for decoding event names on the reading thread. */
+    private byte[] nameBuffer = new byte[256];
+
+    /** Event view repositioned over each record on the reading thread. */
+    private final InotifyEventView view = new InotifyEventView();
+
+    /** Initial size in bytes of the native read buffer. */
+    private final int readBufferSize = defaultReadBufferSize;
+
+    /**
+     * Reactor servicing this instance, or {@code null} if the queue is
+     * serviced by {@link #read()}.
+     */
+    private final InotifyReactor reactor;
+
+    /** Backend performing this instance's system calls. */
+    private final InotifyBackend backend;
+
     /**
      * Constructs a new Inotify instance.
      * 
@@ -67,10 +192,29 @@ public abstract class NativeInotify {
      * constructed. The cause of the exception will be provided.
      */
     public NativeInotify() throws InotifyException {
+        this(null);
+    }
+
+    /**
+     * Constructs a new Inotify instance whose queue will be serviced by the
+     * provided {@link InotifyReactor reactor}. A {@code null} reactor yields
+     * an instance serviced by {@link #read()}, as with
+     * {@link #NativeInotify()}. The instance is not attached to the reactor by
+     * this constructor.
+     * 
+     * @param reactor Reactor servicing the queue, or {@code null}
+     * @throws InotifyException Thrown if the native inotify object could not be
+     * constructed. The cause of the exception will be provided.
+     * @since Version 2.2
+     */
+    protected NativeInotify(InotifyReactor reactor) throws InotifyException {
+        this.reactor = reactor;
         try {
-            if (!isLibraryLoaded())
-                loadLibrary(null);
-            fileDescriptor = init();
+            backend = (reactor == null) ? getDefaultBackend() : reactor
+                    .getBackend();
+            if (reactor == null)
+                pipes = new int[2];
+            fileDescriptor = backend.init(pipes);
         } catch (UnsatisfiedLinkError e) {
             InotifyException ie = new InotifyException("unsatisfied link", e);
             throw ie;
@@ -86,8 +230,9 @@ public abstract class NativeInotify {
             InotifyException ie = new InotifyException("user limit reached", e);
             throw ie;
         }
-        fdActive = true;
-        activeSem = new Semaphore(1, true);
+        resources = new Resources(backend, reactor, fileDescriptor, pipes);
+        reclaimer = new Reclaimer(this, resources);
+        startReclaimer();
     }
 
     /**
@@ -139,54 +284,193 @@ public abstract class NativeInotify {
     }
 
     /**
-     * Invokes {@link #destroy()}.
+     * Returns the {@link InotifyBackend backend} used by newly constructed
+     * instances and reactors. Unless {@link #setDefaultBackend(InotifyBackend)}
+     * has been invoked, the backend is chosen by the
+     * {@value #BACKEND_PROPERTY} system property, defaulting to the JNI
+     * library.
+     * <p>
+     * This method is {@link com.den_4.inotify_java.ThreadSafe thread-safe}.
+     * </p>
+     * 
+     * @return Default backend
+     * @throws InotifyException Thrown if the backend named by the system
+     * property could not be created; a cause will be provided to the thrown
+     * object.
+     * @exception UnsatisfiedLinkError Thrown if the JNI library does not exist
+     * @since Version 2.2
      */
-    @Override
-    protected void finalize() throws Throwable {
-        destroy();
-        super.finalize();
+    @ThreadSafe
+    public static InotifyBackend getDefaultBackend() throws InotifyException {
+        lock.lock();
+        try {
+            if (defaultBackend == null)
+                defaultBackend = createBackend(System.getProperty(
+                        BACKEND_PROPERTY, JniBackend.NAME));
+            return defaultBackend;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the {@link InotifyBackend backend} used by instances and reactors
+     * constructed after this call.
+     * <p>
+     * This method is {@link com.den_4.inotify_java.ThreadSafe thread-safe}.
+     * </p>
+     * 
+     * @param backend Backend to use
+     * @since Version 2.2
+     */
+    @ThreadSafe
+    public static void setDefaultBackend(InotifyBackend backend) {
+        if (backend == null)
+            throw new IllegalArgumentException("backend cannot be null");
+        lock.lock();
+        try {
+            defaultBackend = backend;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates the backend with the specified name.
+     * 
+     * @param name {@code jni}, {@code ffm}, or the name of a class
+     * implementing {@link InotifyBackend}
+     * @return New backend
+     * @throws InotifyException Thrown if the backend could not be created
+     */
+    private static InotifyBackend createBackend(String name)
+            throws InotifyException {
+        if (JniBackend.NAME.equals(name))
+            return new JniBackend();
+        if (FFM_BACKEND.equals(name))
+            name = FFM_BACKEND_CLASS;
+        try {
+            Class<?> c = Class.forName(name);
+            return c.asSubclass(InotifyBackend.class).getDeclaredConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new InotifyException("backend not found: " + name, e);
+        } catch (ClassCastException e) {
+            throw new InotifyException("not a backend: " + name, e);
+        } catch (InstantiationException e) {
+            throw new InotifyException("backend not created: " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new InotifyException("backend not created: " + name, e);
+        } catch (NoSuchMethodException e) {
+            throw new InotifyException("backend not created: " + name, e);
+        } catch (InvocationTargetException e) {
+            throw new InotifyException("backend not created: " + name,
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Returns the {@link InotifyBackend backend} performing this instance's
+     * system calls.
+     * 
+     * @return Backend
+     * @since Version 2.2
+     */
+    public final InotifyBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets the initial size, in bytes, of the native read buffer used by
+     * instances constructed after this call. The native reader rounds the size
+     * up to a multiple of the page size and doubles the buffer whenever a read
+     * fills it, so this value only needs to cover the expected steady-state
+     * burst.
+     * <p>
+     * This method is {@link com.den_4.inotify_java.ThreadSafe thread-safe}.
+     * </p>
+     * 
+     * @param size Buffer size in bytes, at least
+     * {@value #MIN_READ_BUFFER_SIZE}
+     * @throws IllegalArgumentException Thrown if {@code size} is less than
+     * {@value #MIN_READ_BUFFER_SIZE}
+     */
+    @ThreadSafe
+    public static void setDefaultReadBufferSize(int size) {
+        if (size < MIN_READ_BUFFER_SIZE)
+            throw new IllegalArgumentException("read buffer size < "
+                    + MIN_READ_BUFFER_SIZE);
+        defaultReadBufferSize = size;
+    }
+
+    /**
+     * Returns the initial size, in bytes, of the native read buffer used by
+     * newly constructed instances.
+     * 
+     * @return Default read buffer size
+     * @see #setDefaultReadBufferSize(int)
+     */
+    @ThreadSafe
+    public static int getDefaultReadBufferSize() {
+        return defaultReadBufferSize;
+    }
+
+    /**
+     * Returns the initial size, in bytes, of this instance's native read
+     * buffer.
+     * 
+     * @return Read buffer size
+     */
+    public final int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Returns the lifecycle state of this instance.
+     * <p>
+     * This method is thread-safe and does not block.
+     * </p>
+     * 
+     * @return State
+     * @since Version 2.2
+     */
+    @ThreadSafe
+    public final State getState() {
+        return resources.state.get();
     }
 
     /**
      * Returns {@code true} if this Inotify instance is active, {@code false} if
-     * it has been destroyed.
+     * it is closing or has been destroyed.
      * <p>
-     * This method is thread-safe and guarantees the returned value is accurate
-     * at the time of invocation.
+     * This method is thread-safe and does not block.
      * </p>
      * 
      * @return {@code true} if this Inotify instance is active, {@code false} if
-     * it has been destroyed
+     * it is closing or has been destroyed
      * @see #isInactive()
      * @see #destroy()
      */
     @ThreadSafe
     public final boolean isActive() {
-        activeSem.acquireUninterruptibly();
-        boolean active = fdActive;
-        activeSem.release();
-        return active;
+        return resources.state.get() == State.ACTIVE;
     }
 
     /**
-     * Returns {@code true} if this Inotify instance has been destroyed, {@code
-     * false} if it is active.
+     * Returns {@code true} if this Inotify instance is closing or has been
+     * destroyed, {@code false} if it is active.
      * <p>
-     * This method is thread-safe and guarantees the returned value is accurate
-     * at the time of invocation.
+     * This method is thread-safe and does not block.
      * </p>
      * 
-     * @return {@code true} if this Inotify instance has been destroyed, {@code
-     * false} if it is active
+     * @return {@code true} if this Inotify instance is closing or has been
+     * destroyed, {@code false} if it is active
      * @see #isActive()
      * @see #destroy()
      */
     @ThreadSafe
     public final boolean isInactive() {
-        activeSem.acquireUninterruptibly();
-        boolean inactive = !fdActive;
-        activeSem.release();
-        return inactive;
+        return resources.state.get() != State.ACTIVE;
     }
 
     /**
@@ -200,25 +484,87 @@ public abstract class NativeInotify {
 
     /**
      * Destroys the underlying native instance, thus freeing allocated native
-     * resources. This method is a no-op if the
-     * {@link com.den_4.inotify_java.NativeInotify NativeInotify} object is not
-     * active.
+     * resources. Events already read but not yet delivered are discarded; an
+     * instance {@link State#CLOSING closing} stops delivering them. This
+     * method is a no-op if the
+     * {@link com.den_4.inotify_java.NativeInotify NativeInotify} object has
+     * been destroyed.
      * 
      * @see #isActive()
      * @see #isInactive()
+     * @see #close(long, TimeUnit)
      */
     public void destroy() {
-        activeSem.acquireUninterruptibly();
-        try {
-            if (fdActive) {
-                close(fileDescriptor);
-                fdActive = false;
+        AtomicReference<State> state = resources.state;
+        State s;
+        while ((s = state.get()) != State.CLOSED) {
+            if (state.compareAndSet(s, State.CLOSED)) {
+                if (s == State.ACTIVE) resources.release();
+                reclaimer.unregister();
+                return;
             }
+        }
+    }
+
+    /**
+     * Closes this instance at once, as with {@link #destroy()}.
+     * 
+     * @since Version 2.2
+     */
+    @Override
+    public final void close() {
+        destroy();
+    }
+
+    /**
+     * Closes this instance after delivering the events already read. Reading
+     * stops at once; the events read so far, including any queued or
+     * collected into batches, are then delivered before the instance is
+     * destroyed. If they are not delivered within the timeout, or the calling
+     * thread is interrupted, the rest are discarded.
+     * <p>
+     * Listeners notified through a listener executor may still be running
+     * when this method returns.
+     * </p>
+     * 
+     * @param timeout Maximum time to wait for delivery
+     * @param unit Unit of {@code timeout}
+     * @return {@code true} if every event read was delivered, {@code false} if
+     * the timeout elapsed or this instance was not active
+     * @throws InterruptedException Thrown if the calling thread is
+     * interrupted while waiting; the instance is destroyed
+     * @since Version 2.2
+     */
+    public final boolean close(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (unit == null)
+            throw new IllegalArgumentException("unit cannot be null");
+        if (!resources.state.compareAndSet(State.ACTIVE, State.CLOSING))
+            return false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            resources.release();
+            return resources.stopped.await(timeout, unit) && drain(deadline);
         } finally {
-            activeSem.release();
+            destroy();
         }
     }
 
+    /**
+     * Delivers the events read before this instance began
+     * {@link State#CLOSING closing}. Invoked once reading has stopped, by the
+     * thread closing the instance.
+     * 
+     * @param deadline {@link System#nanoTime()} by which to give up
+     * @return {@code true} if every event was delivered
+     * @throws InterruptedException Thrown if interrupted while waiting
+     * @see #close(long, TimeUnit)
+     * @since Version 2.2
+     */
+    boolean drain(long deadline) throws InterruptedException {
+        return true;
+    }
+
     /**
      * Adds a new watch, or modifies an existing watch for the file or directory
      * whose location is specified by the {@code path} argument. The events to
@@ -240,7 +586,7 @@ public abstract class NativeInotify {
             throw new IllegalArgumentException("path cannot be null");
 
         try {
-            int wd = add_watch(fileDescriptor, path, constantMask);
+            int wd = backend.addWatch(fileDescriptor, path, constantMask);
             return wd;
         } catch (UserWatchLimitException e) {
             InotifyException ie = new InotifyException("user limit reached", e);
@@ -248,6 +594,73 @@ public abstract class NativeInotify {
         }
     }
 
+    /**
+     * Adds new watches, or modifies existing watches, for each of the files or
+     * directories whose locations are specified by the {@code paths} argument,
+     * using a single call into the native interface. The events to be
+     * monitored are specified by the bit-mask, {@code constantMask}.
+     * <p>
+     * Failures are reported per path: element {@code i} of the result holds
+     * the watch descriptor for {@code paths[i]}, or the negated errno value
+     * (e.g., {@code -}{@link #ENOENT}) if that path could not be watched. Once
+     * the user watch limit is reached the remaining paths are not attempted
+     * and report {@code -}{@link #ENOSPC}.
+     * </p>
+     * 
+     * @param paths Paths to watch
+     * @param constantMask Mask of events
+     * @return int[] Watch descriptors or negated errno values, one per path
+     * @see #addWatch(String, int)
+     * @since Version 2.2
+     */
+    int[] addWatches(String[] paths, int constantMask) {
+        if (isInactive())
+            throw new UnsupportedOperationException("not active");
+        if (paths == null)
+            throw new IllegalArgumentException("paths cannot be null");
+
+        return backend.addWatches(fileDescriptor, paths, constantMask);
+    }
+
+    /**
+     * Watches every subdirectory below {@code root}, using a single call into
+     * the native interface. The tree is walked natively with
+     * {@code getdents64}, identifying subdirectories from the entry type
+     * rather than a {@code stat} per entry. Symbolic links are not followed and
+     * {@code root} itself is not watched.
+     * <p>
+     * Subdirectories matching one of the {@code excludes} patterns are not
+     * watched or descended. Patterns use shell wildcards (see
+     * {@code fnmatch(3)}); patterns containing a {@code '/'} are matched
+     * against the full path, others against the directory name.
+     * </p>
+     * <p>
+     * Subdirectories removed during the walk are skipped. Other failures are
+     * reported in the returned table with the negated errno value in place of
+     * the watch descriptor; once the user watch limit is reached the walk
+     * stops and the last row reports {@code -}{@link #ENOSPC}.
+     * </p>
+     * 
+     * @param root Directory to walk
+     * @param constantMask Mask of events
+     * @param excludes Exclude patterns, or {@code null}
+     * @return Subdirectories found, with their watch descriptors
+     * @throws InotifyException Thrown if the walk could not be performed
+     * @see #addWatches(String[], int)
+     * @since Version 2.2
+     */
+    DirectoryTable walkWatches(String root, int constantMask,
+            String[] excludes) throws InotifyException {
+        if (isInactive())
+            throw new UnsupportedOperationException("not active");
+        if (root == null)
+            throw new IllegalArgumentException("root cannot be null");
+
+        byte[] records = backend.walkWatches(fileDescriptor, root,
+                constantMask, excludes);
+        return new DirectoryTable(records);
+    }
+
     /**
      * Removes an item from the watch list by the specified watch descriptor
      * {@code wd}.
@@ -263,20 +676,107 @@ public abstract class NativeInotify {
         if (isInactive())
             throw new UnsupportedOperationException("not active");
 
-        if (rm_watch(fileDescriptor, wd) == 0)
+        if (backend.removeWatch(fileDescriptor, wd) == 0)
             return true;
         return false;
     }
 
     /**
      * Services the native event queue until this this object is destroyed.
+     * Instances serviced by an {@link InotifyReactor} return immediately.
      * 
      * @see #destroy()
      */
     void read() {
-        if (isInactive())
+        if (reactor != null || !resources.startReading())
             return;
-        read(fileDescriptor);
+        try {
+            backend.read(fileDescriptor, getPipeRead(), readBufferSize,
+                    new InotifyBackend.EventSink() {
+
+                        @Override
+                        public void events(ByteBuffer buffer, int length) {
+                            batchHandler(buffer, length);
+                        }
+
+                    });
+        } finally {
+            resources.stopped.countDown();
+        }
+    }
+
+    /**
+     * Receives a batch of events from the native interface. The buffer wraps
+     * native memory holding {@code length} bytes of consecutive
+     * {@code struct inotify_event} records and is only valid for the duration
+     * of this call. Each record is first offered to
+     * {@link #viewHandler(InotifyEventView)}; records it does not consume are
+     * decoded and passed to {@link #eventHandler(InotifyEvent)}.
+     * 
+     * @param buffer Direct buffer over the native read buffer
+     * @param length Number of valid bytes in {@code buffer}
+     */
+    void batchHandler(ByteBuffer buffer, int length) {
+        buffer.order(ByteOrder.nativeOrder());
+        int offset = 0;
+        while (offset + EVENT_HEADER_SIZE <= length) {
+            int wd = buffer.getInt(offset);
+            int mask = buffer.getInt(offset + 4);
+            int cookie = buffer.getInt(offset + 8);
+            int len = buffer.getInt(offset + 12);
+            offset += EVENT_HEADER_SIZE;
+
+            view.set(buffer, wd, mask, cookie, offset, len);
+            if (viewHandler(view)) {
+                offset += len;
+                continue;
+            }
+
+            InotifyEvent e;
+            if (len != 0) {
+                e = new InotifyEvent(wd, mask, cookie,
+                        decodeName(buffer, offset, len));
+            } else {
+                e = new InotifyEvent(wd, mask, cookie);
+            }
+            offset += len;
+
+            eventHandler(e);
+        }
+    }
+
+    /**
+     * Decodes the null-padded name field of an event record.
+     * 
+     * @param buffer Buffer containing the record
+     * @param offset Offset of the name field
+     * @param len Length of the name field, including padding
+     * @return Decoded name
+     */
+    private String decodeName(ByteBuffer buffer, int offset, int len) {
+        if (nameBuffer.length < len)
+            nameBuffer = new byte[len];
+        int n = 0;
+        for (; n < len; n++) {
+            byte b = buffer.get(offset + n);
+            if (b == 0) break;
+            nameBuffer[n] = b;
+        }
+        return new String(nameBuffer, 0, n, UTF_8);
+    }
+
+    /**
+     * Receives a view of an event from the native interface, before any
+     * {@link InotifyEvent} is allocated for it. The view is only valid for the
+     * duration of this call.
+     * 
+     * @param v View of the event
+     * @return {@code true} if the event was fully handled and need not be
+     * passed to {@link #eventHandler(InotifyEvent)}
+     * @since Version 2.2
+     */
+    boolean viewHandler(InotifyEventView v) {
+        return false;
     }
 
     /**
@@ -290,6 +790,8 @@ public abstract class NativeInotify {
      * Invokes the inotify_init native routine, which in turn initializes a
      * native instance.
      * 
+     * @param pipe Receives the read and write ends of the IPC pipe used to stop
+     * {@link #read()}, or {@code null} if no pipe is needed
      * @return int File descriptor associated with a new inotify event queue.
      * @throws InsufficientKernelMemoryException Checked exception thrown to
      * indicate an insufficient amount of kernel memory is available for a new
@@ -299,13 +801,26 @@ public abstract class NativeInotify {
      * @throws UserInstanceLimitException Checked exception thrown to indicate
      * the maximum number of inotify instances has been reached.
      */
-    private native int init() throws InsufficientKernelMemoryException,
+    static native int init(int[] pipe)
+            throws InsufficientKernelMemoryException,
             SystemLimitException, UserInstanceLimitException;
 
     /**
-     * Destroys the underlying inotify instance by closing the file descriptor.
+     * Destroys the underlying inotify instance by closing the write end of the
+     * IPC pipe, stopping {@link #read(int, int, int, InotifyBackend.EventSink)}.
+     * 
+     * @param pipeWrite Write end of the IPC pipe
+     */
+    static native void close(int pipeWrite);
+
+    /**
+     * Closes the inotify file descriptor and the read end of the IPC pipe of
+     * an instance whose queue was never read.
+     * 
+     * @param fd Inotify file descriptor
+     * @param pipeRead Read end of the IPC pipe
      */
-    private native void close(int fd);
+    static native void close_descriptors(int fd, int pipeRead);
 
     /**
      * Invokes the inotify_add_watch native routine, adding to or modifying an
@@ -323,56 +838,243 @@ public abstract class NativeInotify {
      * @throws UserWatchLimitException Checked exception thrown to indicate the
      * maximum number of inotify watches has been reached.
      */
-    private native int add_watch(int fd, String path, int mask)
+    static native int add_watch(int fd, String path, int mask)
             throws UserWatchLimitException;
 
+    /**
+     * Invokes the inotify_add_watch native routine for each path, adding to or
+     * modifying existing watches.
+     * 
+     * @param fd The fd argument is a file descriptor referring to the inotify
+     * instance whose watch list is to be modified.
+     * @param paths Paths to be watched.
+     * @param mask Bit-mask argument
+     * @return int[] Returns, for each path, the watch descriptor or the
+     * negated errno value if the path could not be watched.
+     */
+    static native int[] add_watches(int fd, String[] paths, int mask);
+
+    /**
+     * Walks the directory tree below {@code root}, invoking the
+     * inotify_add_watch native routine for each subdirectory.
+     * 
+     * @param fd The fd argument is a file descriptor referring to the inotify
+     * instance whose watch list is to be modified.
+     * @param root Directory to walk.
+     * @param mask Bit-mask argument
+     * @param excludes Exclude patterns, or {@code null}
+     * @return byte[] Returns the walk records, in native byte order: parent
+     * index (int), watch descriptor or negated errno (int), name length
+     * (unsigned short), and name bytes.
+     * @throws InotifyException Thrown if the walk could not be performed.
+     */
+    static native byte[] walk_watches(int fd, String root, int mask,
+            String[] excludes) throws InotifyException;
+
     /**
      * @param fd The fd argument is a file descriptor referring to the Inotify
      * instance whose watch list is to be modified.
      * @param wd The wd argument is the watch descriptor to be removed.
      * @return int Returns zero on success or -1 if an error occurred.
      */
-    private native int rm_watch(int fd, int wd);
+    static native int rm_watch(int fd, int wd);
 
     /**
      * Reads the available events from the inotify event queue.
      * 
      * @param fd File descriptor referring to the inotify instance whose queue
      * is to be read.
+     * @param pipeRead Read end of the IPC pipe signalling {@link #close(int)}
+     * @param bufferSize Initial size of the native read buffer
+     * @param sink Receives each read
      */
-    private native void read(int fd);
+    static native void read(int fd, int pipeRead, int bufferSize,
+            InotifyBackend.EventSink sink);
 
     /**
-     * Sets the read and write file descriptors of the IPC pipe associated with
-     * this {@link com.den_4.inotify_java.NativeInotify NativeInotify} object.
+     * Creates the epoll set and wakeup pipe of an {@link InotifyReactor}.
      * 
-     * @param readEnd File descriptor of pipe read end
-     * @param writeEnd File descriptor of pipe write end
+     * @param fds Receives the epoll file descriptor, the pipe read end, and the
+     * pipe write end, in that order
+     * @throws InotifyException Thrown if the descriptors could not be created
      */
-    @SuppressWarnings("unused")
-    private void setPipes(int readEnd, int writeEnd) {
-        pipes = new int[2];
-        pipes[0] = readEnd;
-        pipes[1] = writeEnd;
-    }
+    static native void reactor_init(int[] fds) throws InotifyException;
+
+    /**
+     * Adds an inotify file descriptor to a reactor's epoll set.
+     * 
+     * @param epfd Reactor epoll file descriptor
+     * @param fd Inotify file descriptor
+     * @throws InotifyException Thrown if the descriptor could not be added
+     */
+    static native void reactor_add(int epfd, int fd) throws InotifyException;
+
+    /**
+     * Removes an inotify file descriptor from a reactor's epoll set and closes
+     * it. Only the reactor thread may invoke this method while the reactor is
+     * running.
+     * 
+     * @param epfd Reactor epoll file descriptor
+     * @param fd Inotify file descriptor
+     */
+    static native void reactor_remove(int epfd, int fd);
+
+    /**
+     * Wakes a reactor thread blocked waiting for events.
+     * 
+     * @param pipeWrite Write end of the reactor wakeup pipe
+     * @throws InotifyException Thrown if the pipe could not be written
+     */
+    static native void reactor_wakeup(int pipeWrite) throws InotifyException;
+
+    /**
+     * Services every inotify file descriptor in a reactor's epoll set until
+     * {@link InotifyBackend.ReactorSink#wakeup()} returns {@code false}.
+     * 
+     * @param sink Sink receiving read and wakeup up-calls
+     * @param epfd Reactor epoll file descriptor
+     * @param pipeRead Read end of the reactor wakeup pipe
+     * @param maxEvents Maximum number of ready descriptors per wait
+     * @param bufferSize Initial size of the shared read buffer
+     */
+    static native void reactor_run(InotifyBackend.ReactorSink sink, int epfd,
+            int pipeRead, int maxEvents, int bufferSize);
+
+    /**
+     * Closes a reactor's epoll set and wakeup pipe.
+     * 
+     * @param epfd Reactor epoll file descriptor
+     * @param pipeRead Read end of the reactor wakeup pipe
+     * @param pipeWrite Write end of the reactor wakeup pipe
+     */
+    static native void reactor_close(int epfd, int pipeRead, int pipeWrite);
 
     /**
      * Gets the file descriptor of the read end of the IPC pipe.
      * 
      * @return IPC pipe read end file descriptor
      */
-    @SuppressWarnings("unused")
     private int getPipeRead() {
         return pipes[0];
     }
 
+    /*
+     * Starts the thread releasing unreachable instances, once.
+     */
+    private static void startReclaimer() {
+        lock.lock();
+        try {
+            if (reclaimerThread != null) return;
+            Thread t = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (;;) {
+                        try {
+                            ((Reclaimer) unreachable.remove()).reclaim();
+                        } catch (InterruptedException e) {
+                            // keep reclaiming
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+
+            }, "NativeInotify reclaimer"); //$NON-NLS-1$
+            t.setDaemon(true);
+            t.start();
+            reclaimerThread = t;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
-     * Gets the file descriptor of the write end of the IPC pipe.
-     * 
-     * @return IPC pipe write end file descriptor
+     * Lifecycle state and native resources of an instance, held apart from
+     * the instance so they can be released after it becomes unreachable.
      */
-    @SuppressWarnings("unused")
-    private int getPipeWrite() {
-        return pipes[1];
+    private static final class Resources {
+
+        /** Lifecycle state. */
+        final AtomicReference<State> state = new AtomicReference<State>(
+                State.ACTIVE);
+
+        /** Counted down once the queue is no longer read. */
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        /** Set by the first of the reader starting and the release. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        final InotifyBackend backend;
+        final InotifyReactor reactor;
+        final int fd;
+        final int[] pipes;
+
+        Resources(InotifyBackend backend, InotifyReactor reactor, int fd,
+                int[] pipes) {
+            this.backend = backend;
+            this.reactor = reactor;
+            this.fd = fd;
+            this.pipes = pipes;
+        }
+
+        /**
+         * Claims the queue for the reader.
+         *
+         * @return {@code false} if the resources were already released
+         */
+        boolean startReading() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Stops reading the queue; the reader closes the file descriptor.
+         * Invoked once, by whoever moves the state from active.
+         */
+        void release() {
+            if (reactor != null) {
+                reactor.detach(fd, stopped);
+                return;
+            }
+            backend.close(pipes[1]);
+            if (claimed.compareAndSet(false, true)) {
+                // never read: no reader will close the descriptors
+                backend.closeDescriptors(fd, pipes[0]);
+                stopped.countDown();
+            }
+        }
+    }
+
+    /**
+     * Releases the resources of an instance that became unreachable without
+     * being closed, replacing finalization.
+     */
+    private static final class Reclaimer extends
+            PhantomReference<NativeInotify> {
+
+        private final Resources resources;
+
+        Reclaimer(NativeInotify referent, Resources resources) {
+            super(referent, unreachable);
+            this.resources = resources;
+            reclaimers.add(this);
+        }
+
+        /**
+         * Stops tracking a closed instance.
+         */
+        void unregister() {
+            reclaimers.remove(this);
+            clear();
+        }
+
+        /**
+         * Releases the resources of an unreachable instance.
+         */
+        void reclaim() {
+            reclaimers.remove(this);
+            if (resources.state.getAndSet(State.CLOSED) == State.ACTIVE)
+                resources.release();
+        }
     }
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: OverflowPolicy.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+/**
+ * What a {@link MonitorService} does with an event when the queue of its
+ * consumer is full.
+ * <p>
+ * Whatever the policy, {@code IN_IGNORED} events are never dropped, and
+ * listeners of a watch losing events are notified with an
+ * {@link com.den_4.inotify_java.enums.EventModifier#Event_Queue_Overflow
+ * overflow} event, delivered by the consumer thread at most once per
+ * {@link MonitorService#setOverflowNoticeInterval(long, java.util.concurrent.TimeUnit)
+ * notice interval}.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Blocks the reading thread until the consumer makes room. No events are
+     * lost by the service, but the kernel queue fills in the meantime.
+     */
+    BLOCK,
+
+    /**
+     * Drops the incoming event.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Holds incoming events in a backlog as large as the queue, dropping the
+     * oldest backlogged event when the backlog is full.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Holds incoming events in a backlog as large as the queue, keeping only
+     * the latest event for each watch descriptor and name. A newer event
+     * replaces the held one in its place. Create, delete and move events are
+     * never coalesced, and events following them are held after them. When
+     * the backlog is full, the incoming event is dropped.
+     */
+    COALESCE,
+
+    /**
+     * Appends incoming events to memory-mapped segment files in the
+     * {@link MonitorService#setSpillDirectory(java.io.File) spill directory},
+     * read back in order once the consumer catches up. Events are only
+     * dropped if a segment cannot be written.
+     */
+    SPILL;
+
+}
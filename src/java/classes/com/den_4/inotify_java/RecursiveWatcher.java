@@ -11,20 +11,25 @@ import com.den_4.inotify_java.enums.WatchModifier;
 import com.den_4.inotify_java.exceptions.InotifyException;
 import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Recursively watches directories for events.
@@ -47,43 +52,87 @@ public class RecursiveWatcher extends Inotify {
 	      Event.Moved_From.value() | Event.Moved_To.value()
 	    | Event.Moved_From_To.value() | Event.Create.value() | Event.Delete.value();
 
-    protected final Map<Integer, Set<InotifyEventListener>> listeners;
-
     /**
      * Internal listener
      */
     protected InotifyEventListener listener;
-    
+
+    /**
+     * Patterns of folders that are neither watched nor descended, see
+     * setExcludes(String...).
+     */
+    protected String[] excludes;
+
+    /**
+     * Exclude patterns translated to regular expressions, for folders
+     * created after the initial walk.
+     */
+    protected List<Pattern> excludePatterns;
+
+    /**
+     * Watched folders: the roots of the recursive watches and every folder
+     * below them. Only the roots have a watch record.
+     */
+    protected final WatchTree tree = new WatchTree();
+
+    /**
+     * Threads adding the watches below new recursive roots, see
+     * setBootstrapParallelism(int).
+     */
+    protected int bootstrapParallelism;
+
+    /**
+     * Listener receiving the progress of bootstraps, or null.
+     */
+    protected BootstrapListener bootstrapListener;
+
+    /**
+     * Number of bootstrap addWatches calls that have not returned yet.
+     */
+    private int adding;
+
+    /**
+     * Watch descriptors a bootstrap added but has not yet passed to
+     * bootstrapped(); their events wait until the folders are in the tree.
+     */
+    private final Set<Integer> inFlight = new HashSet<Integer>();
+
     /**
-     * Maps a watch descriptor to an event array. Needed for adding new
-     * sub-directories with the same event mask to the parent watch descriptor.
+     * Watch descriptors in flight whose watch the kernel already removed;
+     * bootstrapped() leaves them out of the tree.
      */
-    protected Map<Integer, Event[]> watchEventMap;
+    private final Set<Integer> inFlightIgnored = new HashSet<Integer>();
 
     /**
-     * Maps a sub WD to the root parent WD.
+     * Time a scanned folder's synthetic create events are matched against
+     * the real events that may still follow them.
      */
-    protected Map<Integer, Integer> watchRootMap;
+    protected static final long scanExpiry = TimeUnit.SECONDS.toNanos(1);
 
     /**
-     * Maps root parent WD to its children.
+     * Scans of newly created folders by watch descriptor, from their
+     * creation until they expire.
      */
-    protected Map<Integer, List<Integer>> rootWatchMap;
+    private final Map<Integer, Scan> scans = new HashMap<Integer, Scan>();
 
     /**
-     * (parentWD, list of childWDs)
+     * Scans waiting to run, parents first.
      */
-    protected Map<Integer, List<Integer>> parentChildrenWatchMap;
+    private final ArrayDeque<Scan> pendingScans = new ArrayDeque<Scan>();
+
+    /**
+     * Scans that ran, oldest first.
+     */
+    private final ArrayDeque<Scan> expiringScans = new ArrayDeque<Scan>();
+
+    /**
+     * Reader thread while it handles the events of a read, or null.
+     */
+    private volatile Thread reader;
 
     public RecursiveWatcher() throws InotifyException {
 	super();
 
-	this.watchEventMap = new TreeMap<Integer, Event[]>();
-	this.watchRootMap = new TreeMap<Integer, Integer>();
-	this.rootWatchMap = new TreeMap<Integer, List<Integer>>();
-	this.parentChildrenWatchMap = new TreeMap<Integer, List<Integer>>();
-
-	this.listeners = new TreeMap<Integer, Set<InotifyEventListener>>();
 	this.listener = new InotifyEventListener() {
 	    @Override
 	    public void filesystemEventOccurred(InotifyEvent e) {
@@ -95,28 +144,30 @@ public class RecursiveWatcher extends Inotify {
 	};
     }
 
-    public void addRecursiveListener(int watchDescriptor, InotifyEventListener listener) {
-	synchronized (listeners) {
-	    Set<InotifyEventListener> wdListeners = listeners.get(watchDescriptor);
+    /**
+     * Adds a listener for the events below the given root watch descriptor.
+     * Listeners are kept in the root's watch record, in a copy-on-write set
+     * so that the reader thread can notify them without locking.
+     */
+    public synchronized void addRecursiveListener(int watchDescriptor, InotifyEventListener listener) {
+	WatchRecord r = watches.get(watchDescriptor);
 
-	    if (wdListeners == null)
-		wdListeners = new HashSet<InotifyEventListener>();
+	if (r == null)
+	    throw new IllegalArgumentException("invalid watch descriptor");
 
-	    wdListeners.add(listener);
-	    listeners.put(watchDescriptor, wdListeners);
-	}
+	if (r.recursiveListeners == null)
+	    r.recursiveListeners = new CopyOnWriteArraySet<InotifyEventListener>();
+
+	r.recursiveListeners.add(listener);
     }
 
-    public void removeRecursiveListener(int watchDescriptor, InotifyEventListener listener) {
-	synchronized (listeners) {
-	    Set<InotifyEventListener> wdListeners = listeners.get(watchDescriptor);
+    public synchronized void removeRecursiveListener(int watchDescriptor, InotifyEventListener listener) {
+	WatchRecord r = watches.get(watchDescriptor);
 
-	    if (wdListeners == null)
-		return;
+	if (r == null || r.recursiveListeners == null)
+	    return;
 
-	    wdListeners.remove(listener);
-	    listeners.put(watchDescriptor, wdListeners);
-	}
+	r.recursiveListeners.remove(listener);
     }
 
     /**
@@ -126,82 +177,478 @@ public class RecursiveWatcher extends Inotify {
      * the management effort for the recursive watcher. Also: inotify has an upper limit
      * for watches, so adding /home/yourname/ won't work in most cases.
      */
-    public synchronized int addRecursiveWatch(String path, Event... events) throws InotifyException {
-	if (DEBUG) System.err.println("["+new Date()+"] Adding watch: "+path);
+    public int addRecursiveWatch(String path, Event... events) throws InotifyException {
+	return addRecursiveWatch(path, null, events);
+    }
 
-	// The actually watched events must include CREATE, MOVED_FROM, MOVED_TO and DELETE
-	Event[] watcherEvents = Event.maskToEvents(Event.eventsToMask(events) | watcherEventMask);
+    /**
+     * Adds a recursive watch with a listener added before any sub-folder is
+     * watched, so that it receives the events delivered while a parallel
+     * bootstrap is still adding the rest of the tree.
+     */
+    public int addRecursiveWatch(String path, InotifyEventListener recursiveListener, Event... events) throws InotifyException {
+	// Merging the folders of a parallel bootstrap needs the lock
+	boolean locked = Thread.holdsLock(this);
+	int parallelism;
+	int wdParent;
+	Bootstrap bootstrap;
 
-	int wdParent = addFolderToWatch(null, path, watcherEvents);
+	synchronized (this) {
+	    if (DEBUG) System.err.println("["+new Date()+"] Adding watch: "+path);
 
-	watchEventMap.put(wdParent, events);
-	rootWatchMap.put(wdParent, new LinkedList<Integer>());	
+	    // The actually watched events must include CREATE, MOVED_FROM, MOVED_TO and DELETE
+	    Event[] watcherEvents = Event.maskToEvents(Event.eventsToMask(events) | watcherEventMask);
+
+	    wdParent = addFolderToWatch(null, path, watcherEvents);
+
+	    WatchRecord root = watches.get(wdParent);
+	    root.events = events;
+
+	    if (recursiveListener != null)
+		addRecursiveListener(wdParent, recursiveListener);
+
+	    parallelism = bootstrapParallelism;
+
+	    // Add sub-folders, and sub-sub folders, ...	
+	    if (parallelism == 0 || locked) {
+		addSubFoldersToWatch(wdParent, path, watcherEvents);
+		return wdParent;
+	    }
+
+	    int watcherMask = watchMask(watcherEvents)
+		| WatchModifier.Only_Directories.value() | WatchModifier.No_Dereference_Symlinks.value();
+
+	    bootstrap = new Bootstrap(this, wdParent, tree.getPath(wdParent), watcherMask, bootstrapListener);
+	    root.bootstrap = bootstrap;
+	}
+
+	// Folders deliver their events as they are added
+	bootstrap.run(parallelism);
 
-	// Add sub-folders, and sub-sub folders, ...	
-	addSubFoldersToWatch(wdParent, path, watcherEvents);
-	
 	return wdParent;
     }
 
-    protected synchronized void addSubFoldersToWatch(int wdRoot, String path, Event... watcherEvents) throws InotifyException {
-	// Add sub-folders, and sub-sub folders, ...
-	FileFilter onlyDirectories = new FileFilter() {
-	    @Override public boolean accept(File file) { return file.isDirectory(); } };
+    /**
+     * Sets the number of threads adding the watches below new recursive
+     * roots. With 0, the default, addRecursiveWatch() adds them with one
+     * native walk while holding the watcher's lock, so no events are
+     * delivered until it returns. Otherwise each folder is listed and
+     * watched by a ForkJoinPool of that parallelism, and delivers its events
+     * as soon as it is added.
+     */
+    public synchronized void setBootstrapParallelism(int parallelism) {
+	if (parallelism < 0)
+	    throw new IllegalArgumentException("parallelism may not be negative");
 
-	List<File> subFolders = new LinkedList<File>(Arrays.asList(new File(path).listFiles(onlyDirectories)));
+	this.bootstrapParallelism = parallelism;
+    }
 
-	while (subFolders.size() > 0) {
-	    File subFolder = subFolders.remove(0);
-	    if (DEBUG) System.err.println("["+new Date()+"] - Adding sub-folder watch: "+subFolder.getAbsolutePath());
+    public synchronized int getBootstrapParallelism() {
+	return bootstrapParallelism;
+    }
 
-	    addFolderToWatch(wdRoot, subFolder.getAbsolutePath(), watcherEvents);
+    /**
+     * Sets the listener receiving the progress of parallel bootstraps, or
+     * null for none.
+     */
+    public synchronized void setBootstrapListener(BootstrapListener listener) {
+	this.bootstrapListener = listener;
+    }
+
+    public synchronized BootstrapListener getBootstrapListener() {
+	return bootstrapListener;
+    }
 
-	    // Get the subfolders of the current subfolder
-	    subFolders.addAll(Arrays.asList(subFolder.listFiles(onlyDirectories)));
+    /**
+     * Returns the progress of the parallel bootstrap of the given recursive
+     * root, or null if its sub-folders were added by a native walk.
+     */
+    public synchronized BootstrapProgress getBootstrapProgress(int watchDescriptor) {
+	WatchRecord r = watches.get(watchDescriptor);
+
+	return (r == null || r.bootstrap == null) ? null : r.bootstrap.getProgress();
+    }
+
+    /**
+     * Adds the watches of a bootstrap with one native call. Until the
+     * folders are passed to bootstrapped(), the watch descriptors returned
+     * are in flight: the reader waits for them rather than dropping their
+     * events.
+     */
+    int[] bootstrapWatches(String[] paths, int mask) {
+	int[] wds = null;
+
+	synchronized (this) {
+	    adding++;
+	}
+
+	try {
+	    wds = super.addWatches(paths, mask);
+	    return wds;
+	}
+	finally {
+	    synchronized (this) {
+		adding--;
+
+		if (wds != null) {
+		    for (int wd : wds) {
+			if (wd >= 0 && !tree.contains(wd))
+			    inFlight.add(wd);
+		    }
+		}
+
+		notifyAll();
+	    }
 	}
     }
 
-    protected synchronized int addFolderToWatch(Integer wdRoot, String path, Event... watcherEvents) throws InotifyException {
-	int wd = super.addWatch(path, watcherEvents);
-	super.addListener(wd, listener);
+    /**
+     * Adds the sub-folders a bootstrap watched below their parent, and
+     * clears the watch descriptors of those already in the tree so that they
+     * are not descended twice. Returns false, adding nothing, if the parent
+     * moved since it was listed, or left the tree; in the latter case the
+     * watches are removed again.
+     */
+    synchronized boolean bootstrapped(int parent, String parentPath, String[] names, int[] wds) {
+	// Wake the reader waiting for these folders
+	for (int i = 0; i < wds.length; i++) {
+	    inFlight.remove(wds[i]);
 
-	// Add references to root
-	if (wdRoot != null) {
-	    watchRootMap.put(wd, wdRoot);
+	    if (inFlightIgnored.remove(wds[i]))
+		wds[i] = -1;
+	}
 
-	    List<Integer> childWDs = rootWatchMap.get(wdRoot);
+	notifyAll();
 
-	    if (childWDs == null)
-		throw new InotifyException("Parent watch descriptor "+wdRoot+" not known.");
+	if (!tree.contains(parent)) {
+	    for (int wd : wds) {
+		if (wd >= 0 && !tree.contains(wd) && watches.get(wd) == null)
+		    removeFolder(wd, true);
+	    }
 
-	    childWDs.add(wd);
+	    return false;
 	}
 
-	// Add references to parent
-	if (wdRoot != null) {
-	    File parentFolder = new File(path).getParentFile();
-	    Integer parentWD = pathWatchMap.get(parentFolder.getAbsolutePath());
+	if (!parentPath.equals(tree.getPath(parent)))
+	    return false;
 
-	    if (parentWD == null)
-		throw new InotifyException("Parent watch descriptor "+parentWD+" for path "+parentFolder+" not known.");
+	for (int i = 0; i < wds.length; i++) {
+	    if (wds[i] >= 0 && !tree.add(wds[i], parent, names[i]))
+		wds[i] = -1;
+	}
 
-	    List<Integer> childWDs = parentChildrenWatchMap.get(parentWD);
+	return true;
+    }
 
-	    if (childWDs == null) {
-		childWDs = new ArrayList<Integer>();
-		parentChildrenWatchMap.put(parentWD, childWDs);
+    /**
+     * Adds the sub-folders of the given path with a single native walk.
+     * Folders that disappear during the walk are skipped; folders matching
+     * one of the exclude patterns are neither watched nor descended.
+     */
+    protected synchronized void addSubFoldersToWatch(int wdRoot, String path, Event... watcherEvents) throws InotifyException {
+	int watcherMask = watchMask(watcherEvents)
+	    | WatchModifier.Only_Directories.value() | WatchModifier.No_Dereference_Symlinks.value();
+
+	if (!tree.contains(wdRoot))
+	    throw new InotifyException("Parent watch descriptor "+wdRoot+" not known.");
+
+	DirectoryTable table = super.walkWatches(path, watcherMask, excludes);
+	int top = find(path);
+	int[] folders = new int[table.size];
+	int error = 0;
+	String errorFolder = null;
+
+	if (!tree.contains(top))
+	    throw new InotifyException("Parent watch for path "+path+" not known.");
+
+	// Parents precede their sub-folders; add each row below its parent's
+	// node, copying the name straight from the walk records
+	for (int i = 0; i < table.size; i++) {
+	    int wd = table.wds[i];
+	    int parent = (table.parents[i] < 0) ? top : folders[table.parents[i]];
+	    folders[i] = -1;
+
+	    if (wd < 0) {
+		if (error == 0) {
+		    error = -wd;
+		    errorFolder = ((parent < 0) ? path : tree.getPath(parent))+"/"+table.name(i);
+		}
+		continue;
 	    }
-		//throw new InotifyException("No children for parent watch descriptor "+parentWD+" (path "+parentFolder+") known. This should not happen!");
 
-	    childWDs.add(wd);
+	    if (parent < 0)
+		continue;
+
+	    if (DEBUG) System.err.println("["+new Date()+"] - Adding sub-folder watch: "+tree.getPath(parent)+"/"+table.name(i));
+
+	    // Already in the tree if reached twice, e.g. through a bind mount
+	    tree.add(wd, parent, table.records, table.nameOffsets[i], table.nameLengths[i]);
+	    folders[i] = wd;
 	}
 
-	// Add myself to the parent-child WD map
-//	parentChildrenWatchMap.put(wd, new ArrayList<Integer>());
+	if (error == ENOSPC)
+	    throw new InotifyException("user limit reached");
+	else if (error != 0)
+	    throw new InotifyException("Cannot watch sub-folder "+errorFolder+" (errno "+error+")");
+    }
+
+    /**
+     * Sets the patterns of folders that are neither watched nor descended.
+     * Patterns use shell wildcards (see fnmatch(3)); patterns containing a
+     * '/' are matched against the full path, others against the folder name.
+     */
+    public synchronized void setExcludes(String... patterns) {
+	this.excludes = (patterns == null) ? null : patterns.clone();
+	this.excludePatterns = new ArrayList<Pattern>();
+
+	if (patterns == null)
+	    return;
+
+	for (String pattern : patterns) {
+	    if (pattern != null)
+		excludePatterns.add(Pattern.compile(globToRegex(pattern)));
+	}
+    }
+
+    public synchronized String[] getExcludes() {
+	return (excludes == null) ? null : excludes.clone();
+    }
+
+    /**
+     * Returns true if the given folder matches one of the exclude patterns.
+     */
+    protected boolean isExcluded(String path) {
+	if (excludes == null)
+	    return false;
+
+	String name = new File(path).getName();
+
+	for (int i = 0, p = 0; i < excludes.length; i++) {
+	    if (excludes[i] == null)
+		continue;
+
+	    String subject = (excludes[i].indexOf('/') >= 0) ? path : name;
+
+	    if (excludePatterns.get(p++).matcher(subject).matches())
+		return true;
+	}
+
+	return false;
+    }
+
+    /**
+     * Translates a shell wildcard pattern into a regular expression.
+     */
+    private static String globToRegex(String glob) {
+	StringBuilder regex = new StringBuilder();
+	boolean inClass = false;
+
+	for (int i = 0; i < glob.length(); i++) {
+	    char c = glob.charAt(i);
+
+	    if (inClass) {
+		if (c == ']') inClass = false;
+		if (c == '\\' || c == '[' || c == '&') regex.append('\\');
+		regex.append(c == '!' && glob.charAt(i - 1) == '[' ? '^' : c);
+	    }
+	    else if (c == '*')
+		regex.append("[^/]*");
+	    else if (c == '?')
+		regex.append("[^/]");
+	    else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+		inClass = true;
+		regex.append(c);
+	    }
+	    else if (c == '\\' && i + 1 < glob.length())
+		regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+	    else
+		regex.append(Pattern.quote(String.valueOf(c)));
+	}
+
+	return regex.toString();
+    }
+
+    /**
+     * Returns the kernel mask of the given events, leaving out the combined
+     * move event, which is only known to the buffered watcher.
+     */
+    private static int watchMask(Event... events) {
+	return Event.eventsToMask(events) & ~Event.Moved_From_To.value();
+    }
+
+    /**
+     * Adds a watch to the given folder. Roots get a watch record like any
+     * other watch; sub-folders are only added to the tree.
+     */
+    protected synchronized int addFolderToWatch(Integer wdRoot, String path, Event... watcherEvents) throws InotifyException {
+	int mask = watchMask(watcherEvents);
+	int wd = (wdRoot == null) ? super.addWatch(path, Event.maskToEvents(mask)) : super.addWatch(path, mask);
+	registerFolder(wdRoot, path, wd);
 
 	return wd;
     }
 
+    protected synchronized void registerFolder(Integer wdRoot, String path, int wd) throws InotifyException {
+	if (wdRoot == null) {
+	    tree.addRoot(wd, path);
+	    return;
+	}
+
+	if (!tree.contains(wdRoot))
+	    throw new InotifyException("Parent watch descriptor "+wdRoot+" not known.");
+
+	File folder = new File(path);
+	int parent = find(folder.getParentFile().getAbsolutePath());
+
+	if (!tree.contains(parent))
+	    throw new InotifyException("Parent watch for path "+path+" not known.");
+
+	tree.add(wd, parent, folder.getName());
+    }
+
+    /**
+     * Finds the watch descriptor of a watched path, resolving folders in the
+     * tree name by name from the nearest folder in pathWatchMap.
+     */
+    @Override
+    synchronized int find(String path) {
+	int wd = super.find(path);
+
+	if (wd >= 0 || path.length() < 2)
+	    return wd;
+
+	int slash = path.lastIndexOf('/');
+
+	if (slash < 0 || slash == path.length() - 1)
+	    return -1;
+
+	int parent = find((slash == 0) ? "/" : path.substring(0, slash));
+
+	return (parent < 0) ? -1 : tree.getChild(parent, path.substring(slash + 1));
+    }
+
+    /**
+     * Folders in the tree take their path from the tree, which follows
+     * moves.
+     */
+    @Override
+    synchronized String path(int wd) {
+	String path = tree.getPath(wd);
+
+	return (path == null) ? super.path(wd) : path;
+    }
+
+    /**
+     * Returns the record of the recursive watch responsible for the given
+     * folder: the nearest root at or above it.
+     */
+    private synchronized WatchRecord rootOf(int wd) {
+	for (int n = wd; n >= 0; n = tree.getParent(n)) {
+	    WatchRecord r = watches.get(n);
+
+	    if (r != null && r.events != null)
+		return r;
+	}
+
+	return null;
+    }
+
+    /**
+     * Returns true if the given watch descriptor is a folder in the tree.
+     * Waits for the watch descriptors a bootstrap has in flight, or may
+     * still return from an addWatches call, to be added rather than
+     * dropping their events. Overflows (wd -1) and the removal of folders
+     * that already left the tree never wait.
+     */
+    private synchronized boolean isFolder(int wd, boolean ignored) {
+	if (ignored && inFlight.remove(wd))
+	    inFlightIgnored.add(wd);
+
+	while (wd >= 0 && !ignored && !tree.contains(wd) && watches.get(wd) == null
+	       && (adding > 0 || inFlight.contains(wd))) {
+	    try {
+		wait();
+	    }
+	    catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		break;
+	    }
+	}
+
+	return tree.contains(wd);
+    }
+
+    /**
+     * Events of the folders in the tree always reach eventHandler(), which
+     * passes them to the internal listener.
+     */
+    @Override
+    boolean viewHandler(InotifyEventView v) {
+	return super.viewHandler(v) && !isFolder(v.wd(), v.isIgnored());
+    }
+
+    /**
+     * Passes the events of the folders in the tree to the internal listener,
+     * before any listeners of their watch records. Folders leave the tree as
+     * the kernel removes their watches.
+     */
+    @Override
+    void eventHandler(final InotifyEvent e) {
+	final int wd = e.getSource();
+	final boolean folder = isFolder(wd, e.isIgnored());
+
+	if (folder) {
+	    final InotifyEventListener l = listener;
+	    SequentialExecutor executor = getListenerExecutor();
+
+	    // The tree derives the path only if the contextual name is requested
+	    if (e.getName() != null)
+		e.setDirectoryResolver(this);
+
+	    if (executor == null)
+		l.filesystemEventOccurred(e);
+	    else
+		executor.execute(wd, new Runnable() {
+		    @Override
+		    public void run() {
+			l.filesystemEventOccurred(e); }
+		});
+	}
+
+	super.eventHandler(e);
+
+	if (folder && e.isIgnored())
+	    folderRemoved(wd);
+    }
+
+    /**
+     * Drops a folder whose watch the kernel removed (the folder or its file
+     * system is gone) from the tree, along with any folders still below it.
+     */
+    private synchronized void folderRemoved(int wd) {
+	int[] subtree = tree.getSubtree(wd);
+
+	for (int i = subtree.length - 1; i > 0; i--)
+	    removeFolder(subtree[i], true);
+
+	tree.remove(wd);
+    }
+
+    /**
+     * Returns an estimate of the heap, in bytes, used to track the watched
+     * folders: the nodes of the tree and the slots of the watch table.
+     */
+    public synchronized long getMemoryUsage() {
+	return tree.getMemoryUsage() + watches.getMemoryUsage();
+    }
+
+    /**
+     * Returns getMemoryUsage() per watched folder, roots included.
+     */
+    public synchronized double getBytesPerWatch() {
+	return (tree.size() == 0) ? 0 : (double) getMemoryUsage() / tree.size();
+    }
+
     public synchronized void removeRecursiveWatch(String path) throws InvalidWatchDescriptorException {
 	int wdRoot = super.getWatchDescriptor(path);
 	
@@ -217,212 +664,419 @@ public class RecursiveWatcher extends Inotify {
 	if (DEBUG) printMaps();
     }
 
+    /**
+     * Removes the watches of the given folder and everything below it. Only
+     * the removed subtree is visited, following the parent/child links from
+     * the folder's own record; the recursive root itself stays watched.
+     */
     protected synchronized void removeSubFoldersFromWatch(int wdRoot, String path) throws InvalidWatchDescriptorException {
-	List<Integer> childWDs = rootWatchMap.get(wdRoot);
-	List<String> subFolders = new ArrayList<String>();
+	removeSubtree(wdRoot, path, true);
+    }
 
-	if (childWDs == null)
+    /**
+     * Removes the watches of the given folder and everything below it. The
+     * kernel drops the watches of deleted folders itself, so only folders
+     * that still exist (e.g. moved out of the tree) need inotify_rm_watch.
+     */
+    private void removeSubtree(int wdRoot, String path, boolean removeWatches) throws InvalidWatchDescriptorException {
+	removeSubtree(wdRoot, find(path), removeWatches);
+    }
+
+    private void removeSubtree(int wdRoot, int top, boolean removeWatches) throws InvalidWatchDescriptorException {
+	if (!tree.contains(wdRoot))
 	    throw new InvalidWatchDescriptorException("Unknown watch descriptor "+wdRoot);
 
-	for (Integer wdSubFolder : childWDs) {
-	    String subFolder = super.getPath(wdSubFolder);
+	if (!isBelow(top, wdRoot))
+	    return;
 
-	    if (subFolder.length() < path.length() || !path.equals(subFolder.substring(0, path.length())))
+	int[] subtree = tree.getSubtree(top);
+
+	// Children first, so that every folder leaves the tree as a leaf
+	for (int i = subtree.length - 1; i >= 0; i--) {
+	    if (subtree[i] == wdRoot)
 		continue;
-	    
-	    subFolders.add(subFolder);
-	}
 
-	for (String subFolder : subFolders) {
-	    if (DEBUG) System.err.println("["+new Date()+"] - Removing watch: "+subFolder);
-	    removeFolderFromWatch(wdRoot, subFolder);
+	    if (DEBUG) System.err.println("["+new Date()+"] - Removing watch: "+tree.getPath(subtree[i]));
+	    removeFolder(subtree[i], removeWatches);
 	}
     }
 
-    protected synchronized void removeFolderFromWatch(int wdRoot, String path) throws InvalidWatchDescriptorException {
-	Integer wd = super.getWatchDescriptor(path);
-
-	rootWatchMap.get(wdRoot).remove(wd);
-
-	//if (rootWatchMap.get(wdRoot).size() == 0)
-	//    rootWatchMap.remove(wdRoot);
+    /**
+     * Returns true if the given folder is the given ancestor or lies below
+     * it in the tree.
+     */
+    private boolean isBelow(int wd, int ancestor) {
+	for (int n = wd; n >= 0; n = tree.getParent(n)) {
+	    if (n == ancestor)
+		return tree.contains(wd);
+	}
 
-	watchRootMap.remove(wd);
+	return false;
+    }
 
-	// Remove from parent map (from child-list)
-	String parentPath = new File(path).getParentFile().getAbsolutePath();
-	Integer wdParent = pathWatchMap.get(parentPath);
+    /**
+     * Removes the watch of the given folder, along with those of the folders
+     * below it, which could no longer be reached in the tree.
+     */
+    protected synchronized void removeFolderFromWatch(int wdRoot, String path) throws InvalidWatchDescriptorException {
+	int[] subtree = tree.getSubtree(find(path));
 
-	if (wdParent != null) {
-	    List<Integer> parentsChildWDs = parentChildrenWatchMap.get(wdParent);
+	for (int i = subtree.length - 1; i >= 0; i--)
+	    removeFolder(subtree[i], true);
+    }
 
-	    if (parentsChildWDs != null) {
-		parentsChildWDs.remove(wd);
-		
-		if (parentsChildWDs.isEmpty())
-		    parentChildrenWatchMap.remove(wdParent);
+    /**
+     * Removes a folder from the tree, removing its watch from the kernel if
+     * asked to.
+     */
+    private void removeFolder(int wd, boolean removeWatch) {
+	if (removeWatch) {
+	    try {
+		super.removeWatch(wd);
+	    } catch (InotifyException e) {
+		// already removed by the kernel
 	    }
 	}
-	
-	// Remove from parent map (as parent)
-	parentChildrenWatchMap.remove(wd);
 
-
-	//super.removeListener(wd, listener);
-	//System.err.println("["+new Date()+"] wd = "+wd);
-	try {
-	    super.removeWatch(wd);
-	} catch (InotifyException e) {
-	    //System.err.println("["+new Date()+"] err "+e);
-	}
-	
-	super.pathWatchMap.remove(path);
-	super.watchPathMap.remove(wd);
+	tree.remove(wd);
     }
 
     public void printMaps() {
 	for (Map.Entry<String, Integer> m : super.pathWatchMap.entrySet())
 	    System.err.println("["+new Date()+"] pathWatchMap: "+m.getKey()+ " = "+m.getValue());
 
-	for (Map.Entry<Integer, String> m : super.watchPathMap.entrySet())
-	    System.err.println("["+new Date()+"] watchPathMap: "+m.getKey()+ " = "+m.getValue());
-
-	for (Map.Entry<Integer, Integer> m : watchRootMap.entrySet())
-	    System.err.println("["+new Date()+"] watchRootMap: "+m.getKey()+ " = "+m.getValue());
-
-	for (Map.Entry<Integer, List<Integer>> m : rootWatchMap.entrySet())
-	    System.err.println("["+new Date()+"] rootWatchMap: "+m.getKey()+ " = "+m.getValue());
-
-	for (Map.Entry<Integer, List<Integer>> m : parentChildrenWatchMap.entrySet())
-	    System.err.println("["+new Date()+"] parentChildrenWatchMap: "+m.getKey()+ " = "+m.getValue());
+	for (int wd = watches.next(-1); wd >= 0; wd = watches.next(wd))
+	    System.err.println("["+new Date()+"] watches: "+watches.get(wd));
 
+	System.err.println("["+new Date()+"] tree: "+tree);
 	System.err.println("["+new Date()+"] ---");
     }
 
     protected void listenerFilesystemEventOccurred(InotifyEvent e) {
+	processEvent(e, false);
+
+	// On the reader thread, new folders are scanned once the read is handled
+	if (Thread.currentThread() != reader)
+	    scanFolders();
+    }
+
+    private void processEvent(InotifyEvent e, boolean synthetic) {
 	if (DEBUG) System.err.println("["+new Date()+"] RAW: "+e);
 	
 	// Figure out the root/parent folder
-	Integer wdParent = e.getSource();
-	Integer wdRoot = watchRootMap.get(wdParent);
-
-	if (wdRoot == null) // If no parent exists, use source directly
-	    wdRoot = wdParent;
+	int wdParent = e.getSource();
+	WatchRecord root = rootOf(wdParent);
 
-	Event[] events = watchEventMap.get(wdRoot);
+	int wdRoot = (root == null) ? wdParent : root.wd;
+	Event[] events = (root == null) ? null : root.events;
 	int userEventMask = Event.eventsToMask(events);
 
 	// Add / remove folders (--> recursive watch!)
 	try {
-	    if (wdRoot == null || events == null)
+	    if (events == null) {
+		if (e.isIgnored())
+		    return; // the folder already left the tree
+
 		throw new InotifyException("No responsible parent-watch found for path: "+e.getContextualName());
+	    }
 
-	    // If this is a 'create'-like event, add new sub-folder(s)
-	    if (e.aboutDirectory() && (e.isCreate() || e.isMovedTo())) {
-		if (DEBUG) System.err.println("["+new Date()+"] \n\nNew folder (or moved folder): "+e.getContextualName());
+	    // Already reported by the scan of its new folder
+	    if (!synthetic && duplicate(e))
+		return;
 
-		addFolderToWatch(wdRoot, e.getContextualName(), events);
-		addSubFoldersToWatch(wdRoot, e.getContextualName(), events);
-		
-		if (DEBUG) printMaps();
+	    updateFolders(e, wdRoot, events);
+	}
+	catch (InotifyException ex) {
+	    // TODO --> error via logger
+	    System.err.println("["+new Date()+"] ERROR: "+ex);
+	    ex.printStackTrace(System.err);
+	    
+	    return;
+	}
+
+	// Notify listeners
+	// user:    10001
+	// watcher: 11101  --> event AND user == user
+	// event:   11001
+	if (DEBUG) System.err.println("["+new Date()+"] user event mask: "+userEventMask+ ", event: "+e.getMask());
+
+	if ((e.getMask() & userEventMask) > 0) {
+	    if (DEBUG) System.err.println("["+new Date()+"] Event matches given user mask. Notifying listeners.");
+	    
+	    Set<InotifyEventListener> wdListeners = root.recursiveListeners;
+
+	    if (wdListeners != null) {
+		for (InotifyEventListener l : wdListeners)
+		    l.filesystemEventOccurred(e);
 	    }
 
-	    else if (e.aboutDirectory() && e instanceof MoveInotifyEvent) {
-		MoveInotifyEvent me = (MoveInotifyEvent) e;
+	    batches.add(e);
+
+	    Bootstrap bootstrap = root.bootstrap;
+
+	    if (bootstrap != null)
+		bootstrap.eventDelivered();
+	}
+    }
 
-		String fromPath = me.getFromEvent().getContextualName();
-		String fromParentPath = new File(fromPath).getParentFile().getAbsolutePath();
-		String toPath = me.getToEvent().getContextualName();
-		String toParentPath = new File(toPath).getParentFile().getAbsolutePath();
+    /**
+     * Adds, moves and removes folders in the tree as the given event
+     * requires.
+     */
+    private synchronized void updateFolders(InotifyEvent e, int wdRoot, Event[] events) throws InotifyException {
+	// If this is a 'create'-like event, add new sub-folder(s)
+	if (e.aboutDirectory() && (e.isCreate() || e.isMovedTo()) && !isExcluded(e.getContextualName())) {
+	    if (DEBUG) System.err.println("["+new Date()+"] \n\nNew folder (or moved folder): "+e.getContextualName());
 
-		if (DEBUG) System.err.println("["+new Date()+"] \n\n Moved folder from "+fromPath + " to "+toPath);
+	    // Already watched if the walk of a new parent found it
+	    if (e.isCreate() && tree.getChild(e.getSource(), e.getName()) >= 0)
+		return;
 
-		// Change maps to new path (or add if non-existant)
-		Integer wd = pathWatchMap.remove(fromPath);
+	    int wd = addFolderToWatch(wdRoot, e.getContextualName(), events);
+	    addSubFoldersToWatch(wdRoot, e.getContextualName(), events);
 
-		if (wd == null) {
-		    wd = addFolderToWatch(wdRoot, toPath, events);
-		    addSubFoldersToWatch(wdRoot, toPath, events);
-		}
+	    // Entries created before the watches were added have no events
+	    if (e.isCreate()) {
+		for (int folder : tree.getSubtree(wd))
+		    scanLater(folder);
+	    }
 
-		pathWatchMap.put(toPath, wd);
-		watchPathMap.put(wd, toPath);
+	    if (DEBUG) printMaps();
+	}
 
-		// Change parent mapping
-		if (!fromParentPath.equals(toParentPath)) {
-		    // Remove from old
-		    List<Integer> oldParentsChildWDs = parentChildrenWatchMap.get(wdParent);
-		    oldParentsChildWDs.remove(wd);
+	else if (e.aboutDirectory() && e instanceof MoveInotifyEvent) {
+	    MoveInotifyEvent me = (MoveInotifyEvent) e;
+	    InotifyEvent from = me.getFromEvent();
+	    InotifyEvent to = me.getToEvent();
 
-		    if (oldParentsChildWDs.isEmpty())
-			parentChildrenWatchMap.remove(new Integer(wdParent));
+	    // Resolve both ends by watch descriptor and name: buffered events
+	    // may carry paths from before an earlier move was applied
+	    int fromParent = from.getSource();
+	    int toParent = to.getSource();
+	    String fromPath = tree.contains(fromParent) ? tree.getPath(fromParent)+"/"+from.getName() : from.getContextualName();
+	    String toPath = tree.contains(toParent) ? tree.getPath(toParent)+"/"+to.getName() : to.getContextualName();
 
-		    // Add to new
-		    int wdToParent = pathWatchMap.get(toParentPath);
-		    List<Integer> newParentsChildWDs = parentChildrenWatchMap.get(wdToParent);
+	    if (DEBUG) System.err.println("["+new Date()+"] \n\n Moved folder from "+fromPath + " to "+toPath);
 
-		    if (newParentsChildWDs == null) {
-			newParentsChildWDs = new ArrayList<Integer>();
-			parentChildrenWatchMap.put(wdToParent, newParentsChildWDs);
-		    }
+	    // Move the folder's node (or add if non-existant); the paths
+	    // below it are derived from the tree, so nothing else changes
+	    int moved = tree.getChild(fromParent, from.getName());
 
-		    newParentsChildWDs.add(wd);
-		}
+	    if (moved < 0)
+		moved = find(fromPath);
 
-		// Change paths to children
-		List<Integer> allChildWDs = getChildWatchDescriptors(wd);
+	    if (moved < 0) {
+		addFolderToWatch(wdRoot, toPath, events);
+		addSubFoldersToWatch(wdRoot, toPath, events);
+	    }
+	    else if (tree.getParent(moved) < 0) {
+		// A root, or a watch outside the tree: only its own path changes
+		WatchRecord r = watches.get(moved);
 
-		for (Integer childWD : allChildWDs) {
-		    String oldChildPath = watchPathMap.get(childWD);
-		    String newChildPath = toPath + oldChildPath.substring(fromPath.length());
+		if (tree.contains(moved))
+		    tree.rename(moved, toPath);
 
-		    pathWatchMap.remove(oldChildPath);
-		    pathWatchMap.put(newChildPath, childWD);
-		    watchPathMap.put(childWD, newChildPath);
+		if (r != null) {
+		    forget(r);
+		    r.path = toPath;
+		    pathWatchMap.put(toPath, moved);
 		}
+	    }
+	    else {
+		if (!tree.contains(toParent))
+		    throw new InotifyException("Parent watch for path "+toPath+" not known.");
 
-		if (DEBUG) printMaps();
+		tree.move(moved, toParent, to.getName());
 	    }
 
-	    else if (e.aboutDirectory() && (e.isMovedFrom() || e.isDelete())) {
-		if (DEBUG) System.err.println("["+new Date()+"] \n\nFolder deleted or moved: "+e.getContextualName());
+	    if (DEBUG) printMaps();
+	}
+
+	else if (e.aboutDirectory() && (e.isMovedFrom() || e.isDelete())) {
+	    if (DEBUG) System.err.println("["+new Date()+"] \n\nFolder deleted or moved: "+e.getContextualName());
+
+	    int folder = tree.getChild(e.getSource(), e.getName());
+
+	    removeSubtree(wdRoot, (folder < 0) ? find(e.getContextualName()) : folder, !e.isDelete());
+
+	    if (DEBUG) printMaps();
+	}
+    }
 
-		removeSubFoldersFromWatch(wdRoot, e.getContextualName());
+    /**
+     * Queues a newly created folder for a scan.
+     */
+    private void scanLater(int wd) {
+	Scan scan = new Scan(wd);
+	scans.put(wd, scan);
+	pendingScans.add(scan);
+    }
 
-		if (DEBUG) printMaps();
+    /**
+     * Lists the new folders waiting for a scan, in one batch and parents
+     * first, and reports the entries no real event reported as synthetic
+     * create events. Sub-folders found this way are watched and scanned in
+     * turn.
+     */
+    protected void scanFolders() {
+	for (Scan scan = nextScan(); scan != null; scan = nextScan()) {
+	    String path = path(scan.wd);
+
+	    if (path == null)
+		continue;
+
+	    List<InotifyEvent> found = new ArrayList<InotifyEvent>();
+
+	    try (DirectoryStream<Path> entries = Files.newDirectoryStream(Paths.get(path))) {
+		for (Path entry : entries) {
+		    int mask = Event.Create.value();
+
+		    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+			mask |= EventModifier.Is_Directory.value();
+
+		    found.add(new InotifyEvent(scan.wd, mask, 0, entry.getFileName().toString()));
+		}
+	    }
+	    catch (IOException | DirectoryIteratorException ex) {
+		// gone already; its deletion is reported
 	    }
+
+	    for (InotifyEvent e : scanned(scan, found))
+		processEvent(e, true);
 	}
-	catch (InotifyException ex) {
-	    // TODO --> error via logger
-	    System.err.println("["+new Date()+"] ERROR: "+ex);
-	    ex.printStackTrace(System.err);
-	    
-	    return;
+    }
+
+    private synchronized Scan nextScan() {
+	return pendingScans.poll();
+    }
+
+    /**
+     * Returns the entries of a scan not yet reported by real events, and
+     * remembers them to drop the real create events still to follow.
+     */
+    private synchronized List<InotifyEvent> scanned(Scan scan, List<InotifyEvent> found) {
+	List<InotifyEvent> synthetic = new ArrayList<InotifyEvent>(found.size());
+	String path = path(scan.wd);
+
+	if (scans.get(scan.wd) != scan)
+	    return synthetic;
+
+	if (path == null) {
+	    scans.remove(scan.wd);
+	    return synthetic;
 	}
 
-	// Notify listeners
-	// user:    10001
-	// watcher: 11101  --> event AND user == user
-	// event:   11001
-	if (DEBUG) System.err.println("["+new Date()+"] user event mask: "+userEventMask+ ", event: "+e.getMask());
+	Set<String> names = new HashSet<String>();
 
-	if ((e.getMask() & userEventMask) > 0) {
-	    if (DEBUG) System.err.println("["+new Date()+"] Event matches given user mask. Notifying listeners.");
-	    
-	    Set<InotifyEventListener> wdListeners = listeners.get(wdRoot);
+	for (InotifyEvent e : found) {
+	    if (scan.names.contains(e.getName()))
+		continue;
 
-	    if (wdListeners != null) {
-		for (InotifyEventListener l : wdListeners)
-		    l.filesystemEventOccurred(e);
-	    }
+	    e.setDirectory(path);
+	    names.add(e.getName());
+	    synthetic.add(e);
+	}
+
+	scan.names = names;
+	scan.expires = System.nanoTime() + scanExpiry;
+	expiringScans.add(scan);
+
+	return synthetic;
+    }
+
+    /**
+     * Returns true if the given event duplicates a synthetic create event
+     * of a scan. Until its folder is scanned, records the entries reported
+     * by real events instead, so that the scan skips them.
+     */
+    private synchronized boolean duplicate(InotifyEvent e) {
+	long now = System.nanoTime();
+
+	for (Scan s = expiringScans.peek(); s != null && now - s.expires >= 0; s = expiringScans.peek()) {
+	    expiringScans.poll();
+
+	    if (scans.get(s.wd) == s)
+		scans.remove(s.wd);
+	}
+
+	Scan scan = (e.getName() == null) ? null : scans.get(e.getSource());
+
+	if (scan == null)
+	    return false;
+
+	if (e.isDelete() || e.isMovedFrom()) {
+	    scan.names.remove(e.getName());
+	    return false;
+	}
+
+	if (scan.expires < 0) {
+	    if (e.isCreate() || e.isMovedTo())
+		scan.names.add(e.getName());
+
+	    return false;
+	}
+
+	return e.isCreate() && scan.names.remove(e.getName());
+    }
+
+    /**
+     * Marks the reader thread while it handles a read, so that new folders
+     * are scanned once for all the events of the read.
+     */
+    @Override
+    void batchHandler(ByteBuffer buffer, int length) {
+	reader = Thread.currentThread();
+
+	try {
+	    super.batchHandler(buffer, length);
+	}
+	finally {
+	    reader = null;
+	}
+    }
+
+    /**
+     * Scans the folders created during the read, unless events are handled
+     * by the listener executor, whose threads scan their own folders.
+     */
+    @Override
+    void endOfRead() {
+	if (getListenerExecutor() == null)
+	    scanFolders();
+    }
+
+    /**
+     * A newly created folder, scanned for the entries created before its
+     * watch. Until the scan, names holds the entries reported by real
+     * events, which the scan skips; after it, the entries reported by
+     * synthetic events, whose real create events are dropped.
+     */
+    private static final class Scan {
+	final int wd;
+	Set<String> names = new HashSet<String>();
+	long expires = -1;
+
+	Scan(int wd) {
+	    this.wd = wd;
 	}
     }
 
+    /**
+     * Batch listeners only receive the events matching the mask requested
+     * for their recursive root, added as the internal listener notifies
+     * recursive listeners.
+     */
+    @Override
+    void batchView(InotifyEventView v) {
+	// added by listenerFilesystemEventOccurred
+    }
+
     protected void listenerQueueFull(EventQueueFull e) {
 	// TODO
 	System.err.println("ERROR: Queue full: "+e);
 
-	Set<InotifyEventListener> wdListeners = listeners.get((Integer) e.getSource());
+	WatchRecord r = watches.get((Integer) e.getSource());
+	Set<InotifyEventListener> wdListeners = (r == null) ? null : r.recursiveListeners;
 
 	if (wdListeners != null) {
 	    for (InotifyEventListener l : wdListeners)
@@ -439,15 +1093,10 @@ public class RecursiveWatcher extends Inotify {
      */
     public synchronized List<Integer> getChildWatchDescriptors(int wd) {
 	List<Integer> childWDs = new ArrayList<Integer>();
-	List<Integer> recursiveChildWDs = new ArrayList<Integer>();
-
-	if (parentChildrenWatchMap.containsKey(wd))
-	    childWDs.addAll(parentChildrenWatchMap.get(wd));
-
-	for(Integer childWD : childWDs)
-	    recursiveChildWDs.addAll(getChildWatchDescriptors(childWD));
+	int[] subtree = tree.getSubtree(wd);
 
-	childWDs.addAll(recursiveChildWDs);
+	for (int i = 1; i < subtree.length; i++)
+	    childWDs.add(subtree[i]);
 	
 	return childWDs;
     }
@@ -0,0 +1,495 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: RingBuffer.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded single-producer, single-consumer ring buffer.
+ * <p>
+ * The producer publishes into a pre-sized array of slots and advances a tail
+ * sequence; the consumer waits on the tail using a {@link WaitStrategy}, drains
+ * every slot published since its last wait, and advances a head sequence. Each
+ * sequence occupies its own cache line and the producer only rereads the head
+ * when the buffer appears full, so a handoff takes no locks and allocates
+ * nothing. The {@link WaitStrategy#BLOCKING blocking} strategy only takes a
+ * lock when the consumer is parked.
+ * </p>
+ * <p>
+ * {@link #offer(Object)} may only be called by one thread at a time, and
+ * {@link #waitFor(long)}, {@link #get(long)}, and {@link #release(long)} by
+ * one other thread at a time.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ * @param <E> Element type
+ */
+final class RingBuffer<E> {
+
+    /** Busy-spins before a {@link WaitStrategy#YIELDING} consumer yields. */
+    private static final int SPIN_TRIES = 100;
+
+    /** Slots, a power of two in length. */
+    private final Object[] slots;
+
+    /** Mask mapping sequences to slots. */
+    private final int mask;
+
+    /** Maximum number of elements. */
+    private final int capacity;
+
+    /** How the consumer waits. */
+    private final WaitStrategy waitStrategy;
+
+    /** Sequence of the next element to publish. */
+    private final Sequence tail = new Sequence();
+
+    /** Sequence of the next element to consume. */
+    private final Sequence head = new Sequence();
+
+    /* Producer state: next tail and last observed head. */
+    private long nextTail;
+    private long cachedHead;
+
+    /** Largest number of elements drained by the consumer at once. */
+    private int largestSize;
+
+    /** Set when the consumer should stop waiting. */
+    private volatile boolean halted;
+
+    /** Set when the consumer should stop its current wait. */
+    private volatile boolean woken;
+
+    /** Set while a blocking consumer is parked. */
+    private volatile boolean consumerWaiting;
+
+    /* Parks and signals a blocking consumer. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity Maximum number of elements, greater than zero
+     * @param waitStrategy How the consumer waits
+     */
+    RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity <= 0");
+        if (waitStrategy == null)
+            throw new IllegalArgumentException("null wait strategy");
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity > 2^30");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Publishes an element if there is room. Producer only.
+     *
+     * @param e Element
+     * @return {@code true} if the element was published, {@code false} if the
+     * buffer is full
+     */
+    boolean offer(E e) {
+        long t = nextTail;
+        if (t - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if (t - cachedHead >= capacity) return false;
+        }
+
+        slots[(int) t & mask] = e;
+        nextTail = ++t;
+        if (waitStrategy == WaitStrategy.BLOCKING) {
+            tail.set(t);
+            if (consumerWaiting) signal();
+        } else {
+            tail.setOrdered(t);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until an element with the provided sequence is published, the
+     * consumer is {@link #wake() woken}, or the buffer is {@link #halt()
+     * halted}. Consumer only.
+     *
+     * @param sequence Sequence of the next element to consume
+     * @return Sequence after the last published element, greater than
+     * {@code sequence} unless the consumer was woken or the buffer halted
+     */
+    long waitFor(long sequence) {
+        long available = await(sequence);
+        if (woken) woken = false;
+        if (available - sequence > largestSize)
+            largestSize = (int) (available - sequence);
+        return available;
+    }
+
+    /*
+     * Waits according to the wait strategy.
+     */
+    private long await(long sequence) {
+        long available = tail.get();
+        if (available > sequence || halted || woken) return available;
+
+        switch (waitStrategy) {
+        case BUSY_SPIN:
+            while ((available = tail.get()) <= sequence && !halted && !woken) {
+                // spin
+            }
+            return available;
+        case YIELDING:
+            int spins = SPIN_TRIES;
+            while ((available = tail.get()) <= sequence && !halted && !woken) {
+                if (spins > 0)
+                    spins--;
+                else
+                    Thread.yield();
+            }
+            return available;
+        default:
+            lock.lock();
+            try {
+                consumerWaiting = true;
+                while ((available = tail.get()) <= sequence && !halted && !woken) {
+                    notEmpty.awaitUninterruptibly();
+                }
+            } finally {
+                consumerWaiting = false;
+                lock.unlock();
+            }
+            return available;
+        }
+    }
+
+    /**
+     * Takes the published element with the provided sequence. Consumer only.
+     *
+     * @param sequence Sequence of the element
+     * @return Element
+     */
+    @SuppressWarnings("unchecked")
+    E get(long sequence) {
+        int i = (int) sequence & mask;
+        E e = (E) slots[i];
+        slots[i] = null;
+        return e;
+    }
+
+    /**
+     * Frees the slots of every element before the provided sequence.
+     * Consumer only.
+     *
+     * @param sequence Sequence of the next element to consume
+     */
+    void release(long sequence) {
+        head.setOrdered(sequence);
+    }
+
+    /**
+     * Stops the current or next wait by the consumer, so it can attend to
+     * work outside the buffer.
+     */
+    void wake() {
+        woken = true;
+        if (waitStrategy == WaitStrategy.BLOCKING && consumerWaiting)
+            signal();
+    }
+
+    /**
+     * Stops any wait by the consumer, now and in the future.
+     */
+    void halt() {
+        halted = true;
+        signal();
+    }
+
+    /*
+     * Wakes a parked consumer.
+     */
+    private void signal() {
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the sequence after the last published element.
+     *
+     * @return Published sequence
+     */
+    long published() {
+        return tail.get();
+    }
+
+    /**
+     * Returns the number of published elements not yet released.
+     *
+     * @return Number of elements
+     */
+    int size() {
+        long h = head.get();
+        long size = tail.get() - h;
+        if (size < 0) return 0;
+        if (size > capacity) return capacity;
+        return (int) size;
+    }
+
+    /**
+     * Returns the maximum number of elements.
+     *
+     * @return Capacity
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the largest number of elements found by the consumer when it
+     * finished waiting.
+     *
+     * @return Largest size
+     */
+    int getLargestSize() {
+        return largestSize;
+    }
+
+    /**
+     * Returns the wait strategy of the consumer.
+     *
+     * @return Wait strategy
+     */
+    WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Returns a read-only {@link BlockingQueue} view of the provided buffers
+     * as one queue. The view reports the combined size, capacity, and a
+     * snapshot of the elements; operations that would insert or remove
+     * elements throw {@link UnsupportedOperationException}.
+     *
+     * @param <E> Element type
+     * @param rings Buffers to view
+     * @return Read-only view
+     */
+    static <E> BlockingQueue<E> asQueue(RingBuffer<E>[] rings) {
+        return new QueueView<E>(rings);
+    }
+
+    /**
+     * Returns a string representation of the buffer.
+     *
+     * @return a string representation of the buffer
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [head=" + head + ", tail="
+                + tail + ", capacity=" + capacity + ", waitStrategy="
+                + waitStrategy + "]";
+    }
+
+    /**
+     * Left padding of a {@link Sequence}.
+     */
+    static class LhsPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * Value of a {@link Sequence}.
+     */
+    static class Value extends LhsPadding {
+        protected volatile long value;
+    }
+
+    /**
+     * Right padding of a {@link Sequence}.
+     */
+    static class RhsPadding extends Value {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    /**
+     * A {@code long} counter padded to occupy its own cache line, so that the
+     * producer and consumer updating their own sequences do not contend for
+     * the same line. The padding is split across superclasses because the
+     * virtual machine lays out superclass fields first.
+     */
+    static final class Sequence extends RhsPadding {
+
+        /** Updater providing ordered writes of the value. */
+        private static final AtomicLongFieldUpdater<Value> UPDATER = AtomicLongFieldUpdater
+                .newUpdater(Value.class, "value");
+
+        /**
+         * Returns the value, with volatile read semantics.
+         *
+         * @return Value
+         */
+        long get() {
+            return value;
+        }
+
+        /**
+         * Sets the value, with volatile write semantics.
+         *
+         * @param v Value
+         */
+        void set(long v) {
+            value = v;
+        }
+
+        /**
+         * Sets the value with an ordered write, which cannot be reordered
+         * with prior writes but may become visible to other threads later.
+         *
+         * @param v Value
+         */
+        void setOrdered(long v) {
+            UPDATER.lazySet(this, v);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(value);
+        }
+    }
+
+    /**
+     * Read-only queue view of one or more buffers.
+     */
+    static final class QueueView<E> extends AbstractQueue<E> implements
+            BlockingQueue<E> {
+
+        /** Buffers viewed. */
+        private final RingBuffer<E>[] rings;
+
+        /**
+         * Creates a view of the provided buffers.
+         *
+         * @param rings Buffers to view
+         */
+        QueueView(RingBuffer<E>[] rings) {
+            this.rings = rings;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            List<E> snapshot = new ArrayList<E>();
+            for (RingBuffer<E> r : rings) {
+                long t = r.tail.get();
+                for (long s = r.head.get(); s < t; s++) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) r.slots[(int) s & r.mask];
+                    if (e != null) snapshot.add(e);
+                }
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (RingBuffer<E> r : rings)
+                size += r.size();
+            return size;
+        }
+
+        @Override
+        public int remainingCapacity() {
+            int remaining = 0;
+            for (RingBuffer<E> r : rings)
+                remaining += r.capacity - r.size();
+            return remaining;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E peek() {
+            for (RingBuffer<E> r : rings) {
+                E e = (E) r.slots[(int) r.head.get() & r.mask];
+                if (e != null) return e;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean offer(E e) {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public boolean offer(E e, long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public void put(E e) {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public E poll() {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public E poll(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public E take() {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public int drainTo(Collection<? super E> c) {
+            throw new UnsupportedOperationException("read-only view");
+        }
+
+        @Override
+        public int drainTo(Collection<? super E> c, int maxElements) {
+            throw new UnsupportedOperationException("read-only view");
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: SequentialExecutor.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on an underlying {@link Executor}, one at a time and in
+ * submission order for each key, with at most a fixed number of keys running
+ * at once.
+ * <p>
+ * Listener dispatch uses watch descriptors as keys, so the events of one
+ * watch are delivered in order while blocking listeners of other watches run
+ * concurrently. The underlying executor may be a thread pool or, where the
+ * virtual machine provides them, an executor starting a virtual thread per
+ * task. Each run of a key takes at most {@value #BATCH_SIZE} of its tasks
+ * before yielding to other waiting keys.
+ * </p>
+ * <p>
+ * A task throwing an exception is reported to the running thread's uncaught
+ * exception handler; later tasks of its key still run. A task throwing an
+ * error ends its run, rethrowing the error to the underlying executor; later
+ * tasks of its key wait for a new run behind the other waiting keys.
+ * </p>
+ * <p>
+ * A run the underlying executor rejects keeps its tasks and frees its slot;
+ * its key waits ahead of the other waiting keys and is started again when
+ * the next task is submitted. The rejection is thrown to the submitter, or
+ * reported to the uncaught exception handler of the run that tried to hand
+ * its slot on.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class SequentialExecutor {
+
+    /** Tasks of a key run before yielding to other keys. */
+    static final int BATCH_SIZE = 16;
+
+    /** Executor running the tasks. */
+    private final Executor executor;
+
+    /** Maximum number of keys running at once. */
+    private final int maxConcurrency;
+
+    /** Pending tasks by key, for keys with tasks pending or running. */
+    private final Map<Integer, ArrayDeque<Runnable>> pending = new HashMap<Integer, ArrayDeque<Runnable>>();
+
+    /** Keys with pending tasks waiting for a run. */
+    private final ArrayDeque<Integer> ready = new ArrayDeque<Integer>();
+
+    /** Number of keys running. */
+    private int running;
+
+    /**
+     * Creates a sequential executor.
+     *
+     * @param executor Executor running the tasks, non-null
+     * @param maxConcurrency Maximum number of keys running at once, greater
+     * than zero
+     */
+    public SequentialExecutor(final Executor executor,
+            final int maxConcurrency) {
+        if (executor == null)
+            throw new IllegalArgumentException("null executor");
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency <= 0");
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Submits a task, to run after every task previously submitted with the
+     * same key.
+     *
+     * @param key Key
+     * @param task Task, non-null
+     */
+    public void execute(final int key, final Runnable task) {
+        if (task == null) throw new NullPointerException("null task");
+        Integer k = Integer.valueOf(key);
+        Integer nextKey;
+        synchronized (this) {
+            ArrayDeque<Runnable> tasks = pending.get(k);
+            if (tasks != null) {
+                // the key is waiting or running and will take the task
+                tasks.addLast(task);
+            } else {
+                tasks = new ArrayDeque<Runnable>();
+                tasks.addLast(task);
+                pending.put(k, tasks);
+                ready.addLast(k);
+            }
+            // keys left waiting by a rejected run go first
+            if (running >= maxConcurrency || ready.isEmpty())
+                return;
+            running++;
+            nextKey = ready.pollFirst();
+        }
+        start(nextKey);
+    }
+
+    /**
+     * Returns the maximum number of keys running at once.
+     *
+     * @return Maximum concurrency
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the number of keys running.
+     *
+     * @return Running keys
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * Returns the number of tasks not yet started.
+     *
+     * @return Pending tasks
+     */
+    public synchronized int getPendingCount() {
+        int n = 0;
+        for (ArrayDeque<Runnable> tasks : pending.values())
+            n += tasks.size();
+        return n;
+    }
+
+    /*
+     * Hands a run of a key to the executor. If the executor rejects it, the
+     * key keeps its tasks and waits ahead of the other keys, and its slot is
+     * freed.
+     */
+    private void start(Integer key) {
+        try {
+            executor.execute(new Run(key));
+        } catch (RuntimeException ex) {
+            synchronized (this) {
+                ready.addFirst(key);
+                running--;
+            }
+            throw ex;
+        }
+    }
+
+    /*
+     * Hands the slot of an ending run to the next key, reporting a rejection
+     * to the running thread's uncaught exception handler.
+     */
+    private void handOn(Integer nextKey) {
+        try {
+            start(nextKey);
+        } catch (RuntimeException ex) {
+            Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, ex);
+        }
+    }
+
+    /*
+     * Takes the next task of a run, or ends the run. Returns null once the
+     * run has ended, having started the run of any next key.
+     */
+    private Runnable next(Integer key, int taken) {
+        Integer nextKey;
+        synchronized (this) {
+            ArrayDeque<Runnable> tasks = pending.get(key);
+            if (tasks.isEmpty()) {
+                pending.remove(key);
+            } else if (taken < BATCH_SIZE || ready.isEmpty()) {
+                return tasks.pollFirst();
+            } else {
+                ready.addLast(key);
+            }
+            nextKey = ready.pollFirst();
+            if (nextKey == null) {
+                running--;
+                return null;
+            }
+        }
+        handOn(nextKey);
+        return null;
+    }
+
+    /*
+     * Ends a run aborted by an error, queueing the key behind the other
+     * waiting keys if tasks remain and starting the run of any next key.
+     */
+    private void abort(Integer key) {
+        Integer nextKey;
+        synchronized (this) {
+            ArrayDeque<Runnable> tasks = pending.get(key);
+            if (tasks.isEmpty()) {
+                pending.remove(key);
+            } else {
+                ready.addLast(key);
+            }
+            nextKey = ready.pollFirst();
+            if (nextKey == null) {
+                running--;
+                return;
+            }
+        }
+        handOn(nextKey);
+    }
+
+    /**
+     * Returns a string representation of the executor.
+     *
+     * @return a string representation of the executor
+     */
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + " [running=" + running
+                + ", waiting=" + ready.size() + ", maxConcurrency="
+                + maxConcurrency + "]";
+    }
+
+    /**
+     * A run of one key's tasks.
+     */
+    private final class Run implements Runnable {
+
+        private final Integer key;
+
+        Run(Integer key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            int taken = 0;
+            Runnable task;
+            while ((task = next(key, taken)) != null) {
+                taken++;
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, ex);
+                } catch (Error err) {
+                    abort(key);
+                    throw err;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: SpillQueue.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Unbounded FIFO queue of inotify events, held in memory-mapped segment files.
+ * <p>
+ * Events are appended to the last segment in a compact binary encoding and
+ * read back from the first, in order. A segment is unlinked as soon as it is
+ * mapped, so its space is returned to the file system when the mapping is
+ * garbage collected, even if the virtual machine exits abnormally. Consumed
+ * segments are kept for reuse, up to {@value #MAX_FREE_SEGMENTS}.
+ * </p>
+ * <p>
+ * Each event is encoded as its length, watch descriptor, mask, cookie, queue
+ * time, watch generation, and name length (or {@code -1} for no name),
+ * followed by the name in UTF-8. A length of zero marks the end of a
+ * segment's events.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@NonThreadSafe
+final class SpillQueue {
+
+    /** Default size in bytes of a segment. */
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /** Consumed segments kept for reuse. */
+    private static final int MAX_FREE_SEGMENTS = 2;
+
+    /** Encoded size of an event without its name, including its length. */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 4 + 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Directory segment files are created in. */
+    private final File directory;
+
+    /** Size in bytes of a segment. */
+    private final int segmentSize;
+
+    /** Segments holding events, oldest first. */
+    private final ArrayDeque<MappedByteBuffer> segments = new ArrayDeque<MappedByteBuffer>();
+
+    /** Consumed segments. */
+    private final ArrayDeque<MappedByteBuffer> free = new ArrayDeque<MappedByteBuffer>();
+
+    /** Read position in the oldest segment. */
+    private int readPosition;
+
+    /** Number of events held. */
+    private long size;
+
+    /**
+     * Creates a spill queue.
+     *
+     * @param directory Directory to create segment files in
+     * @param segmentSize Size in bytes of a segment
+     */
+    SpillQueue(File directory, int segmentSize) {
+        if (segmentSize < HEADER_SIZE + 4 + 1024)
+            throw new IllegalArgumentException("segment size too small");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Returns the number of events held.
+     *
+     * @return Size
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns whether no events are held.
+     *
+     * @return {@code true} if empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Appends an event.
+     *
+     * @param e Event
+     * @throws IOException Thrown if a segment could not be created
+     */
+    void append(InotifyEvent e) throws IOException {
+        byte[] name = e.getName() == null ? null : e.getName().getBytes(UTF8);
+        int length = HEADER_SIZE + (name == null ? 0 : name.length);
+        if (length > segmentSize - 4)
+            throw new IOException("event too large: " + length);
+
+        MappedByteBuffer tail = segments.peekLast();
+        if (tail == null || tail.remaining() < length + 4) {
+            if (tail != null) tail.putInt(0);
+            tail = newSegment();
+            segments.addLast(tail);
+        }
+        tail.putInt(length);
+        tail.putInt(e.getSource());
+        tail.putInt(e.getMask());
+        tail.putInt(e.getCookie());
+        tail.putLong(e.queuedNanos);
+        tail.putInt(e.generation);
+        if (name == null) {
+            tail.putInt(-1);
+        } else {
+            tail.putInt(name.length);
+            tail.put(name);
+        }
+        size++;
+    }
+
+    /**
+     * Moves up to the provided number of the oldest events to a list.
+     *
+     * @param out List receiving events
+     * @param max Maximum number of events moved
+     * @return Number of events moved
+     */
+    int drainTo(List<InotifyEvent> out, int max) {
+        int n = 0;
+        while (n < max && size != 0) {
+            MappedByteBuffer head = segments.peekFirst();
+            int length = readPosition < head.position() ? head
+                    .getInt(readPosition) : 0;
+            if (length == 0) {
+                // end of segment; the queue is non-empty, so a next exists
+                recycle(segments.pollFirst());
+                readPosition = 0;
+                continue;
+            }
+            int p = readPosition + 4;
+            int wd = head.getInt(p);
+            int mask = head.getInt(p + 4);
+            int cookie = head.getInt(p + 8);
+            long queued = head.getLong(p + 12);
+            int generation = head.getInt(p + 20);
+            int nameLength = head.getInt(p + 24);
+            String name = null;
+            if (nameLength >= 0) {
+                byte[] b = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++)
+                    b[i] = head.get(p + 28 + i);
+                name = new String(b, UTF8);
+            }
+            readPosition += length;
+
+            InotifyEvent e = new InotifyEvent(wd, mask, cookie, name);
+            e.queuedNanos = queued;
+            e.generation = generation;
+            out.add(e);
+            size--;
+            n++;
+        }
+        if (size == 0) {
+            // everything is consumed; keep only the last segment, rewound
+            while (segments.size() > 1)
+                recycle(segments.pollFirst());
+            MappedByteBuffer last = segments.peekFirst();
+            if (last != null) last.clear();
+            readPosition = 0;
+        }
+        return n;
+    }
+
+    /**
+     * Releases every segment.
+     */
+    void clear() {
+        segments.clear();
+        free.clear();
+        readPosition = 0;
+        size = 0;
+    }
+
+    /*
+     * Returns a free segment, mapping a new one if there is none.
+     */
+    private MappedByteBuffer newSegment() throws IOException {
+        MappedByteBuffer segment = free.pollFirst();
+        if (segment != null) return segment;
+
+        File f = File.createTempFile("inotify-spill-", ".seg", directory);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(segmentSize);
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    segmentSize);
+        } finally {
+            raf.close();
+            f.delete();
+        }
+        return segment;
+    }
+
+    /*
+     * Keeps a consumed segment for reuse, or drops it.
+     */
+    private void recycle(MappedByteBuffer segment) {
+        if (free.size() < MAX_FREE_SEGMENTS) {
+            segment.clear();
+            free.addLast(segment);
+        }
+    }
+
+    /**
+     * Returns a string representation of the queue.
+     *
+     * @return a string representation of the queue
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [size=" + size + ", segments="
+                + segments.size() + ", free=" + free.size() + "]";
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: WaitStrategy.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+/**
+ * How a {@link MonitorService} consumer waits for events when its queue is
+ * empty.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public enum WaitStrategy {
+
+    /**
+     * Parks the consumer until the producer signals it. Uses no processor
+     * while idle, at the cost of a lock acquisition by the producer whenever
+     * the consumer is parked.
+     */
+    BLOCKING,
+
+    /**
+     * Spins briefly, then yields the processor between checks. Trades idle
+     * processor time for lower wakeup latency.
+     */
+    YIELDING,
+
+    /**
+     * Spins without yielding. Lowest latency; dedicates a processor to the
+     * consumer.
+     */
+    BUSY_SPIN;
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: WatchRecord.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.Set;
+
+import com.den_4.inotify_java.enums.Event;
+
+/**
+ * Everything known about one watch: its path, its listeners, and, for the
+ * root of a {@link RecursiveWatcher recursive watch}, the events and listeners
+ * requested for the tree. Records are held by a {@link WatchTable}; the
+ * folders below a recursive root are nodes of a {@link WatchTree} instead.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@NonThreadSafe
+public final class WatchRecord {
+
+    /** Watch descriptor. */
+    final int wd;
+
+    /** Generation of the table slot when this record was created. */
+    final int generation;
+
+    /** Watched path. */
+    String path;
+
+    /** Event listeners, or {@code null} if there are none. */
+    Set<InotifyEventListener> listeners;
+
+    /** Event view listeners, or {@code null} if there are none. */
+    Set<InotifyEventViewListener> viewListeners;
+
+    /** Events requested for a recursive root, or {@code null}. */
+    Event[] events;
+
+    /** Listeners of a recursive root, or {@code null}. */
+    Set<InotifyEventListener> recursiveListeners;
+
+    /** Parallel bootstrap of a recursive root, or {@code null}. */
+    Bootstrap bootstrap;
+
+    /**
+     * Creates a record.
+     *
+     * @param wd Watch descriptor
+     * @param generation Generation of the table slot
+     * @param path Watched path
+     */
+    WatchRecord(int wd, int generation, String path) {
+        this.wd = wd;
+        this.generation = generation;
+        this.path = path;
+    }
+
+    /**
+     * Returns the watch descriptor.
+     *
+     * @return Watch descriptor
+     */
+    public int getWatchDescriptor() {
+        return wd;
+    }
+
+    /**
+     * Returns the generation of the watch descriptor's table slot when this
+     * record was created.
+     *
+     * @return Generation
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the watched path.
+     *
+     * @return Path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns a string representation of the record.
+     *
+     * @return a string representation of the record
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(getClass().getSimpleName());
+        s.append(" [wd=");
+        s.append(wd);
+        s.append(", generation=");
+        s.append(generation);
+        s.append(", path=");
+        s.append(path);
+        s.append("]");
+        return s.toString();
+    }
+}
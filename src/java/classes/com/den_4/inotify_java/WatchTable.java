@@ -0,0 +1,214 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: WatchTable.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.util.Arrays;
+
+/**
+ * Dense table of {@link WatchRecord watch records} indexed by watch
+ * descriptor.
+ * <p>
+ * The kernel allocates watch descriptors as small, mostly increasing integers,
+ * so records are kept in an array indexed directly by descriptor: a lookup is
+ * a bounds check and an array load, with no boxing. The array doubles as
+ * larger descriptors are added.
+ * </p>
+ * <p>
+ * Each slot carries a generation counter, incremented whenever a new record
+ * takes the slot. A descriptor paired with its generation therefore names one
+ * watch even if the kernel later reuses the descriptor.
+ * </p>
+ * <p>
+ * This class is {@link com.den_4.inotify_java.NonThreadSafe not thread-safe};
+ * its owner provides any required synchronization.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@NonThreadSafe
+public final class WatchTable {
+
+    /** Initial number of slots. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Records, by watch descriptor. */
+    private WatchRecord[] records;
+
+    /** Generation of each slot. */
+    private int[] generations;
+
+    /** Number of records. */
+    private int size;
+
+    /**
+     * Creates an empty table.
+     */
+    public WatchTable() {
+        records = new WatchRecord[INITIAL_CAPACITY];
+        generations = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the record for the provided watch descriptor.
+     *
+     * @param wd Watch descriptor
+     * @return Record, or {@code null} if the descriptor is not in the table
+     */
+    public WatchRecord get(int wd) {
+        WatchRecord[] r = records;
+        if (wd < 0 || wd >= r.length) return null;
+        return r[wd];
+    }
+
+    /**
+     * Returns the record for the provided watch descriptor if it is of the
+     * provided generation.
+     *
+     * @param wd Watch descriptor
+     * @param generation Generation of the record
+     * @return Record, or {@code null} if the descriptor is not in the table or
+     * now names a different watch
+     */
+    public WatchRecord get(int wd, int generation) {
+        WatchRecord r = get(wd);
+        if (r == null || r.generation != generation) return null;
+        return r;
+    }
+
+    /**
+     * Returns {@code true} if the provided watch descriptor is in the table.
+     *
+     * @param wd Watch descriptor
+     * @return {@code true} if the descriptor is in the table
+     */
+    public boolean contains(int wd) {
+        return get(wd) != null;
+    }
+
+    /**
+     * Returns the number of records in the table.
+     *
+     * @return Number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the heap held by the table's slot arrays,
+     * assuming compressed references. The records themselves are not
+     * counted.
+     *
+     * @return Bytes
+     */
+    public long getMemoryUsage() {
+        return 2 * 16L + 8L * records.length;
+    }
+
+    /**
+     * Returns the smallest watch descriptor in the table greater than the
+     * provided descriptor. Iterate the table with
+     * {@code for (int wd = t.next(-1); wd >= 0; wd = t.next(wd))}.
+     *
+     * @param wd Watch descriptor, or {@code -1} to start
+     * @return Next watch descriptor, or {@code -1} if there is none
+     */
+    public int next(int wd) {
+        WatchRecord[] r = records;
+        for (int i = wd + 1; i < r.length; i++) {
+            if (r[i] != null) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a record for the provided watch descriptor and path, or updates
+     * the path of the existing record. The kernel returns the existing
+     * descriptor when an already watched inode is watched again.
+     *
+     * @param wd Watch descriptor
+     * @param path Watched path
+     * @return Record for the descriptor
+     */
+    WatchRecord add(int wd, String path) {
+        if (wd < 0)
+            throw new IllegalArgumentException("invalid watch descriptor");
+        if (wd >= records.length) grow(wd);
+
+        WatchRecord r = records[wd];
+        if (r == null) {
+            r = new WatchRecord(wd, ++generations[wd], path);
+            records[wd] = r;
+            size++;
+        } else {
+            r.path = path;
+        }
+        return r;
+    }
+
+    /**
+     * Removes the record for the provided watch descriptor.
+     *
+     * @param wd Watch descriptor
+     * @return Removed record, or {@code null} if the descriptor was not in the
+     * table
+     */
+    WatchRecord remove(int wd) {
+        WatchRecord r = get(wd);
+        if (r == null) return null;
+        records[wd] = null;
+        size--;
+        return r;
+    }
+
+    /*
+     * Grows the table to hold the provided watch descriptor.
+     */
+    private void grow(int wd) {
+        int capacity = records.length;
+        while (capacity <= wd) {
+            capacity <<= 1;
+        }
+        generations = Arrays.copyOf(generations, capacity);
+        records = Arrays.copyOf(records, capacity);
+    }
+
+    /**
+     * Returns a string representation of the table.
+     *
+     * @return a string representation of the table
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append('{');
+        for (int wd = next(-1); wd >= 0; wd = next(wd)) {
+            if (s.length() > 1) s.append(", ");
+            s.append(wd);
+            s.append('=');
+            s.append(records[wd].path);
+        }
+        s.append('}');
+        return s.toString();
+    }
+}
@@ -0,0 +1,681 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: WatchTree.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact store of recursively watched folders, indexed by watch descriptor.
+ * <p>
+ * A folder is a node holding no objects: its parent, first child, next and
+ * previous siblings and the offset and length of its name are kept in
+ * {@code int} arrays indexed directly by watch descriptor, and the names
+ * themselves in one byte arena, encoded as UTF-8. The top node of each tree
+ * is a root, whose name is its full path; every other path is derived from
+ * the names of the node's ancestors when requested. Moving or renaming a
+ * folder therefore updates one node, however many folders lie below it.
+ * </p>
+ * <p>
+ * Folders are found by parent and name through an open-addressing hash index
+ * of watch descriptors, so a lookup neither allocates nor walks the
+ * siblings. {@link #getMemoryUsage()} reports the heap held by the store.
+ * </p>
+ * <p>
+ * This class is {@link com.den_4.inotify_java.NonThreadSafe not thread-safe};
+ * its owner provides any required synchronization.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@NonThreadSafe
+public final class WatchTree {
+
+    /** No node. */
+    static final int NONE = -1;
+
+    /** Initial number of slots. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Initial size of the name arena. */
+    private static final int INITIAL_ARENA = 1024;
+
+    /** Bytes of an array header. */
+    private static final int ARRAY_HEADER = 16;
+
+    /** Charset of the names in the arena. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Parent of each node, or {@link #NONE} for a root. */
+    private int[] parents;
+
+    /** First child of each node, or {@link #NONE}. */
+    private int[] firstChildren;
+
+    /** Next sibling of each node, or {@link #NONE}. */
+    private int[] nextSiblings;
+
+    /** Previous sibling of each node, or {@link #NONE}. */
+    private int[] previousSiblings;
+
+    /** Offset of each node's name in the arena. */
+    private int[] nameOffsets;
+
+    /** Length of each node's name, or {@code 0} if the slot is empty. */
+    private int[] nameLengths;
+
+    /** Names of the nodes. */
+    private byte[] arena;
+
+    /** Bytes of the arena in use. */
+    private int arenaLength;
+
+    /** Bytes of the arena no longer referenced by a node. */
+    private int garbage;
+
+    /** Child nodes plus one, by hash of parent and name; {@code 0} if empty. */
+    private int[] index;
+
+    /** Number of nodes in the index. */
+    private int indexed;
+
+    /** Number of nodes. */
+    private int size;
+
+    /** Node whose path was derived last, or {@link #NONE}. */
+    private int cachedNode = NONE;
+
+    /** Path derived last. */
+    private String cachedPath;
+
+    /**
+     * Creates an empty tree.
+     */
+    public WatchTree() {
+        parents = newLinks(INITIAL_CAPACITY);
+        firstChildren = newLinks(INITIAL_CAPACITY);
+        nextSiblings = newLinks(INITIAL_CAPACITY);
+        previousSiblings = newLinks(INITIAL_CAPACITY);
+        nameOffsets = new int[INITIAL_CAPACITY];
+        nameLengths = new int[INITIAL_CAPACITY];
+        arena = new byte[INITIAL_ARENA];
+        index = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns {@code true} if the provided watch descriptor is a node of the
+     * tree.
+     *
+     * @param wd Watch descriptor
+     * @return {@code true} if the descriptor is a node
+     */
+    public boolean contains(int wd) {
+        return wd >= 0 && wd < nameLengths.length && nameLengths[wd] != 0;
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return Number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the parent of a node.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Watch descriptor of the parent, or {@code -1} if the node is a
+     * root or not in the tree
+     */
+    public int getParent(int wd) {
+        return contains(wd) ? parents[wd] : NONE;
+    }
+
+    /**
+     * Returns the root of the tree holding a node.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Watch descriptor of the root, or {@code -1} if the node is not
+     * in the tree
+     */
+    public int getRoot(int wd) {
+        if (!contains(wd)) return NONE;
+        while (parents[wd] != NONE) {
+            wd = parents[wd];
+        }
+        return wd;
+    }
+
+    /**
+     * Returns the first child of a node. Iterate the children with
+     * {@code for (int c = t.getFirstChild(wd); c >= 0; c = t.getNextSibling(c))}.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Watch descriptor of the first child, or {@code -1} if there is
+     * none
+     */
+    public int getFirstChild(int wd) {
+        return contains(wd) ? firstChildren[wd] : NONE;
+    }
+
+    /**
+     * Returns the next sibling of a node.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Watch descriptor of the next sibling, or {@code -1} if there is
+     * none
+     */
+    public int getNextSibling(int wd) {
+        return contains(wd) ? nextSiblings[wd] : NONE;
+    }
+
+    /**
+     * Returns the name of a node: the folder name, or for a root its path.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Name, or {@code null} if the node is not in the tree
+     */
+    public String getName(int wd) {
+        if (!contains(wd)) return null;
+        return new String(arena, nameOffsets[wd], nameLengths[wd], UTF_8);
+    }
+
+    /**
+     * Returns the path of a node, derived from the names of its ancestors.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Path, or {@code null} if the node is not in the tree
+     */
+    public String getPath(int wd) {
+        if (!contains(wd)) return null;
+        if (wd == cachedNode) return cachedPath;
+
+        int length = nameLengths[wd];
+        for (int n = wd; parents[n] != NONE; n = parents[n]) {
+            int p = parents[n];
+            length += nameLengths[p];
+            if (!endsWithSlash(p)) length++;
+        }
+
+        byte[] path = new byte[length];
+        int end = length;
+        for (int n = wd;; n = parents[n]) {
+            end -= nameLengths[n];
+            System.arraycopy(arena, nameOffsets[n], path, end, nameLengths[n]);
+            if (parents[n] == NONE) break;
+            if (!endsWithSlash(parents[n])) path[--end] = '/';
+        }
+
+        cachedPath = new String(path, UTF_8);
+        cachedNode = wd;
+        return cachedPath;
+    }
+
+    /**
+     * Returns the child of a node with the provided name.
+     *
+     * @param parent Watch descriptor of the parent
+     * @param name Name of the child
+     * @return Watch descriptor of the child, or {@code -1} if there is none
+     */
+    public int getChild(int parent, String name) {
+        if (name == null)
+            throw new NullPointerException("name may not be null");
+        byte[] bytes = name.getBytes(UTF_8);
+        return getChild(parent, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the child of a node with the provided name.
+     *
+     * @param parent Watch descriptor of the parent
+     * @param name Array holding the UTF-8 encoded name
+     * @param offset Offset of the name in {@code name}
+     * @param length Length of the name
+     * @return Watch descriptor of the child, or {@code -1} if there is none
+     */
+    int getChild(int parent, byte[] name, int offset, int length) {
+        if (!contains(parent)) return NONE;
+        int mask = index.length - 1;
+        int i = hash(parent, name, offset, length) & mask;
+        for (;; i = (i + 1) & mask) {
+            int wd = index[i] - 1;
+            if (wd == NONE) return NONE;
+            if (parents[wd] == parent && nameEquals(wd, name, offset, length))
+                return wd;
+        }
+    }
+
+    /**
+     * Returns a node and all nodes below it, parents before their children.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Watch descriptors of the subtree, empty if the node is not in
+     * the tree
+     */
+    public int[] getSubtree(int wd) {
+        if (!contains(wd)) return new int[0];
+        int[] subtree = new int[16];
+        subtree[0] = wd;
+        int n = 1;
+        for (int i = 0; i < n; i++) {
+            for (int c = firstChildren[subtree[i]]; c != NONE;
+                    c = nextSiblings[c]) {
+                if (n == subtree.length)
+                    subtree = Arrays.copyOf(subtree, n << 1);
+                subtree[n++] = c;
+            }
+        }
+        return Arrays.copyOf(subtree, n);
+    }
+
+    /**
+     * Returns an estimate of the heap held by the tree: its arrays, index and
+     * name arena, including unused capacity.
+     *
+     * @return Bytes
+     */
+    public long getMemoryUsage() {
+        long links = 6L * (ARRAY_HEADER + 4L * nameLengths.length);
+        return links + ARRAY_HEADER + 4L * index.length + ARRAY_HEADER
+                + arena.length;
+    }
+
+    /**
+     * Adds a root node.
+     *
+     * @param wd Watch descriptor of the root
+     * @param path Path of the root
+     * @return {@code true} if the root was added, {@code false} if the
+     * descriptor is already in the tree
+     */
+    boolean addRoot(int wd, String path) {
+        if (wd < 0)
+            throw new IllegalArgumentException("invalid watch descriptor");
+        if (path == null || path.length() == 0)
+            throw new IllegalArgumentException("invalid path");
+        if (contains(wd)) return false;
+        if (wd >= nameLengths.length) grow(wd);
+
+        byte[] bytes = path.getBytes(UTF_8);
+        setName(wd, bytes, 0, bytes.length);
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds a node below a parent. A node added under a name already taken
+     * replaces the other node and its subtree, as when a folder is renamed
+     * over an empty one.
+     *
+     * @param wd Watch descriptor of the node
+     * @param parent Watch descriptor of the parent
+     * @param name Name of the node
+     * @return {@code true} if the node was added, {@code false} if the
+     * descriptor is already in the tree
+     */
+    boolean add(int wd, int parent, String name) {
+        if (name == null)
+            throw new NullPointerException("name may not be null");
+        byte[] bytes = name.getBytes(UTF_8);
+        return add(wd, parent, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Adds a node below a parent.
+     *
+     * @param wd Watch descriptor of the node
+     * @param parent Watch descriptor of the parent
+     * @param name Array holding the UTF-8 encoded name
+     * @param offset Offset of the name in {@code name}
+     * @param length Length of the name
+     * @return {@code true} if the node was added, {@code false} if the
+     * descriptor is already in the tree
+     * @see #add(int, int, String)
+     */
+    boolean add(int wd, int parent, byte[] name, int offset, int length) {
+        if (wd < 0)
+            throw new IllegalArgumentException("invalid watch descriptor");
+        if (!contains(parent))
+            throw new IllegalArgumentException("parent not in tree");
+        if (length == 0)
+            throw new IllegalArgumentException("empty name");
+        if (contains(wd)) return false;
+        if (wd >= nameLengths.length) grow(wd);
+
+        int other = getChild(parent, name, offset, length);
+        if (other != NONE) remove(other);
+
+        // the name must be in place before the node is hashed
+        setName(wd, name, offset, length);
+        link(wd, parent);
+        size++;
+        return true;
+    }
+
+    /**
+     * Moves a node below a new parent under a new name. The names and paths
+     * of the nodes below it follow.
+     *
+     * @param wd Watch descriptor of the node
+     * @param parent Watch descriptor of the new parent
+     * @param name New name of the node
+     * @see #add(int, int, String)
+     */
+    void move(int wd, int parent, String name) {
+        if (name == null)
+            throw new NullPointerException("name may not be null");
+        if (!contains(wd) || parents[wd] == NONE)
+            throw new IllegalArgumentException("not a folder in the tree");
+        if (!contains(parent))
+            throw new IllegalArgumentException("parent not in tree");
+        for (int n = parent; n != NONE; n = parents[n]) {
+            if (n == wd)
+                throw new IllegalArgumentException("cannot move below itself");
+        }
+
+        byte[] bytes = name.getBytes(UTF_8);
+        int other = getChild(parent, bytes, 0, bytes.length);
+        if (other == wd) return;
+        if (other != NONE) remove(other);
+
+        unlink(wd);
+        if (!nameEquals(wd, bytes, 0, bytes.length)) {
+            int old = nameLengths[wd];
+            setName(wd, bytes, 0, bytes.length);
+            garbage += old;
+        }
+        link(wd, parent);
+        cachedNode = NONE;
+    }
+
+    /**
+     * Changes the path of a root node.
+     *
+     * @param wd Watch descriptor of the root
+     * @param path New path
+     */
+    void rename(int wd, String path) {
+        if (!contains(wd) || parents[wd] != NONE)
+            throw new IllegalArgumentException("not a root of the tree");
+        if (path == null || path.length() == 0)
+            throw new IllegalArgumentException("invalid path");
+
+        byte[] bytes = path.getBytes(UTF_8);
+        int old = nameLengths[wd];
+        setName(wd, bytes, 0, bytes.length);
+        garbage += old;
+        cachedNode = NONE;
+    }
+
+    /**
+     * Removes a node and all nodes below it.
+     *
+     * @param wd Watch descriptor of the node
+     * @return Number of nodes removed
+     */
+    int remove(int wd) {
+        if (!contains(wd)) return 0;
+        cachedNode = NONE;
+        if (firstChildren[wd] == NONE) {
+            unlink(wd);
+            clear(wd);
+            return 1;
+        }
+
+        int[] subtree = getSubtree(wd);
+        for (int i = subtree.length - 1; i >= 0; i--) {
+            unlink(subtree[i]);
+            clear(subtree[i]);
+        }
+        return subtree.length;
+    }
+
+    /*
+     * Empties the slot of an unlinked node without children.
+     */
+    private void clear(int wd) {
+        garbage += nameLengths[wd];
+        nameLengths[wd] = 0;
+        size--;
+    }
+
+    /*
+     * Links a named node as the first child of a parent.
+     */
+    private void link(int wd, int parent) {
+        parents[wd] = parent;
+        previousSiblings[wd] = NONE;
+        int next = firstChildren[parent];
+        nextSiblings[wd] = next;
+        if (next != NONE) previousSiblings[next] = wd;
+        firstChildren[parent] = wd;
+        insert(wd);
+    }
+
+    /*
+     * Unlinks a node from its parent and siblings.
+     */
+    private void unlink(int wd) {
+        int parent = parents[wd];
+        if (parent == NONE) return;
+        delete(wd);
+        int previous = previousSiblings[wd];
+        int next = nextSiblings[wd];
+        if (previous == NONE)
+            firstChildren[parent] = next;
+        else
+            nextSiblings[previous] = next;
+        if (next != NONE) previousSiblings[next] = previous;
+        parents[wd] = NONE;
+        previousSiblings[wd] = NONE;
+        nextSiblings[wd] = NONE;
+    }
+
+    /*
+     * Inserts a linked node into the index.
+     */
+    private void insert(int wd) {
+        if ((indexed + 1) << 1 > index.length) rehash(index.length << 1);
+        int mask = index.length - 1;
+        int i = hash(wd) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = wd + 1;
+        indexed++;
+    }
+
+    /*
+     * Deletes a linked node from the index, shifting back the entries that
+     * probed past it.
+     */
+    private void delete(int wd) {
+        int mask = index.length - 1;
+        int i = hash(wd) & mask;
+        while (index[i] != wd + 1) {
+            i = (i + 1) & mask;
+        }
+        for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int home = hash(index[j] - 1) & mask;
+            // move the entry unless its home lies cyclically in (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                index[i] = index[j];
+                i = j;
+            }
+        }
+        index[i] = 0;
+        indexed--;
+    }
+
+    /*
+     * Rebuilds the index with the provided capacity.
+     */
+    private void rehash(int capacity) {
+        int[] old = index;
+        index = new int[capacity];
+        int mask = capacity - 1;
+        for (int e : old) {
+            if (e == 0) continue;
+            int i = hash(e - 1) & mask;
+            while (index[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            index[i] = e;
+        }
+    }
+
+    /*
+     * Returns the hash of a linked node.
+     */
+    private int hash(int wd) {
+        return hash(parents[wd], arena, nameOffsets[wd], nameLengths[wd]);
+    }
+
+    /*
+     * Returns the hash of a parent and name.
+     */
+    private static int hash(int parent, byte[] name, int offset, int length) {
+        int h = parent * 0x9e3779b9;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + name[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * Returns true if a node has the provided name.
+     */
+    private boolean nameEquals(int wd, byte[] name, int offset, int length) {
+        if (nameLengths[wd] != length) return false;
+        int start = nameOffsets[wd];
+        for (int i = 0; i < length; i++) {
+            if (arena[start + i] != name[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Returns true if the name of a node ends with a slash, as the root "/".
+     */
+    private boolean endsWithSlash(int wd) {
+        return arena[nameOffsets[wd] + nameLengths[wd] - 1] == '/';
+    }
+
+    /*
+     * Copies a name into the arena for a node, compacting the arena first if
+     * most of it is garbage.
+     */
+    private void setName(int wd, byte[] name, int offset, int length) {
+        if (arenaLength + length > arena.length) {
+            if (garbage > arenaLength >>> 1) compact();
+            if (arenaLength + length > arena.length) {
+                int capacity = arena.length;
+                while (capacity < arenaLength + length) {
+                    capacity <<= 1;
+                }
+                arena = Arrays.copyOf(arena, capacity);
+            }
+        }
+        System.arraycopy(name, offset, arena, arenaLength, length);
+        nameOffsets[wd] = arenaLength;
+        nameLengths[wd] = length;
+        arenaLength += length;
+    }
+
+    /*
+     * Moves the names of the nodes to the start of the arena, dropping the
+     * garbage between them.
+     */
+    private void compact() {
+        byte[] compacted = new byte[arena.length];
+        int length = 0;
+        for (int wd = 0; wd < nameLengths.length; wd++) {
+            int n = nameLengths[wd];
+            if (n == 0) continue;
+            System.arraycopy(arena, nameOffsets[wd], compacted, length, n);
+            nameOffsets[wd] = length;
+            length += n;
+        }
+        arena = compacted;
+        arenaLength = length;
+        garbage = 0;
+    }
+
+    /*
+     * Grows the tree to hold the provided watch descriptor.
+     */
+    private void grow(int wd) {
+        int capacity = nameLengths.length;
+        while (capacity <= wd) {
+            capacity <<= 1;
+        }
+        parents = growLinks(parents, capacity);
+        firstChildren = growLinks(firstChildren, capacity);
+        nextSiblings = growLinks(nextSiblings, capacity);
+        previousSiblings = growLinks(previousSiblings, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+    }
+
+    /*
+     * Returns an array of links to no node.
+     */
+    private static int[] newLinks(int capacity) {
+        int[] links = new int[capacity];
+        Arrays.fill(links, NONE);
+        return links;
+    }
+
+    /*
+     * Returns a copy of an array of links, the new slots linking no node.
+     */
+    private static int[] growLinks(int[] links, int capacity) {
+        int length = links.length;
+        links = Arrays.copyOf(links, capacity);
+        Arrays.fill(links, length, capacity, NONE);
+        return links;
+    }
+
+    /**
+     * Returns a string representation of the tree.
+     *
+     * @return a string representation of the tree
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append('{');
+        for (int wd = 0; wd < nameLengths.length; wd++) {
+            if (nameLengths[wd] == 0) continue;
+            if (s.length() > 1) s.append(", ");
+            s.append(wd);
+            s.append('=');
+            s.append(getPath(wd));
+        }
+        s.append('}');
+        return s.toString();
+    }
+}
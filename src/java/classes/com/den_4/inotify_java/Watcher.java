@@ -155,6 +155,30 @@ public class Watcher extends ConcurrentReader {
         init(path, ev);
     }
 
+    /**
+     * Creates a watcher for the supplied path <em>p</em>, event type
+     * <em>ev</em>, and listener <em>l</em>, serviced by the provided
+     * {@link InotifyReactor reactor}.
+     * 
+     * @param path Path to watch
+     * @param ev Event to watch for
+     * @param l InotifyEventListener to receive events
+     * @param reactor Reactor servicing the watcher, or {@code null}
+     * @throws InotifyException Thrown when the watcher could not be created; a
+     * cause will be provided to the thrown object.
+     * @see com.den_4.inotify_java.enums.Event
+     * @since Version 2.2
+     */
+    public Watcher(String path, Event ev, InotifyEventListener l,
+            InotifyReactor reactor) throws InotifyException {
+        super(reactor);
+        if (path == null || "".equals(path))
+            throw new IllegalArgumentException("invalid path");
+        mode = Mode.LISTENER;
+        addListener(l);
+        init(path, ev);
+    }
+
     /**
      * Creates a watcher for the supplied path <em>p</em> and event type
      * <em>ev</em>. The provided {@link java.lang.Runnable runnable} will be
@@ -324,12 +348,7 @@ public class Watcher extends ConcurrentReader {
      */
     @Override
     void eventHandler(InotifyEvent e) {
-        if (e.getName() != null) {
-            if (pathName.charAt(pathName.length() - 1) == '/')
-                e.setContextualName(pathName + e.getName());
-            else
-                e.setContextualName(pathName + '/' + e.getName());
-        }
+        if (e.getName() != null) e.setDirectory(pathName);
 
         switch (mode) {
         case LISTENER:
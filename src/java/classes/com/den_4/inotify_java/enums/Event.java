@@ -23,6 +23,9 @@
 package com.den_4.inotify_java.enums;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -137,9 +140,28 @@ public enum Event {
 
     private final static Map<String, Event> STRINGTOENUM = new HashMap<String, Event>();
 
+    /** Bits of a mask that can decode to events. */
+    private final static int DECODE_BITS = 0x00001fff;
+
+    /** Single-bit events, by bit index. */
+    private final static Event[] BIT_TO_ENUM = new Event[Integer.SIZE];
+
+    /** Events of more than one bit. */
+    private final static Event[] COMPOSITES;
+
+    /** Decoded events, by mask bits; filled on demand. */
+    private final static List<?>[] DECODED = new List<?>[DECODE_BITS + 1];
+
     static {
-        for (Event e : values())
+        List<Event> composites = new ArrayList<Event>();
+        for (Event e : values()) {
             STRINGTOENUM.put(e.toString(), e);
+            if (Integer.bitCount(e.value) == 1)
+                BIT_TO_ENUM[Integer.numberOfTrailingZeros(e.value)] = e;
+            else
+                composites.add(e);
+        }
+        COMPOSITES = composites.toArray(new Event[composites.size()]);
     }
 
     /**
@@ -210,9 +232,15 @@ public enum Event {
      * @return Event
      */
     public static Event fromValue(int value) {
-        for (Event e : values())
-            if (e.value == value)
+        if (Integer.bitCount(value) == 1) {
+            Event e = BIT_TO_ENUM[Integer.numberOfTrailingZeros(value)];
+            if (e != null)
                 return e;
+        } else {
+            for (Event e : COMPOSITES)
+                if (e.value == value)
+                    return e;
+        }
         throw new IllegalArgumentException("bad event value: " + value);
     }
 
@@ -228,19 +256,9 @@ public enum Event {
      * otherwise
      */
     public static boolean isSet(Event e, int mask) {
-        if (e.value == (e.value & mask))
-            return true;
-        if (e.value == Close.value)
-            if (Close_No_Write.value == (Close_No_Write.value & mask))
-                return true;
-            else if (Close_Write.value == (Close_Write.value & mask))
-                return true;
-        if (e.value == Moved.value)
-            if (Moved_From.value == (Moved_From.value & mask))
-                return true;
-            else if (Moved_To.value == (Moved_To.value & mask))
-                return true;
-        return false;
+        if (e == Close || e == Moved)
+            return (e.value & mask) != 0;
+        return e.value == (e.value & mask);
     }
 
     /**
@@ -248,15 +266,51 @@ public enum Event {
      * 
      * @param mask Mask to convert
      * @return Event[]
+     * @see #maskToEventList(int)
      */
     public static Event[] maskToEvents(int mask) {
-        List<Event> evs = new ArrayList<Event>();
+        List<Event> evs = maskToEventList(mask);
+        return evs.toArray(new Event[evs.size()]);
+    }
 
-        for (Event e : values())
-            if (e.value == (e.value & mask))
-                evs.add(e);
+    /**
+     * Returns an unmodifiable list of the Event enums set in the specified
+     * {@code mask}, in declaration order. Lists are cached per distinct mask,
+     * so repeated calls do not allocate.
+     * 
+     * @param mask Mask to convert
+     * @return Events set in {@code mask}
+     * @since Version 2.2
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Event> maskToEventList(int mask) {
+        int bits = mask & DECODE_BITS;
+        List<Event> evs = (List<Event>) DECODED[bits];
+        if (evs == null) {
+            List<Event> l = new ArrayList<Event>();
+            for (Event e : values())
+                if (e.value == (e.value & bits))
+                    l.add(e);
+            evs = Collections.unmodifiableList(Arrays.asList(l
+                    .toArray(new Event[l.size()])));
+            DECODED[bits] = evs;
+        }
+        return evs;
+    }
 
-        return evs.toArray(new Event[0]);
+    /**
+     * Returns the set of Event enums set in the specified {@code mask}. The
+     * set is built from the cached {@link #maskToEventList(int) list} of the
+     * mask and may be modified by the caller.
+     * 
+     * @param mask Mask to convert
+     * @return Events set in {@code mask}
+     * @since Version 2.2
+     */
+    public static EnumSet<Event> maskToEventSet(int mask) {
+        EnumSet<Event> evs = EnumSet.noneOf(Event.class);
+        evs.addAll(maskToEventList(mask));
+        return evs;
     }
 
     /**
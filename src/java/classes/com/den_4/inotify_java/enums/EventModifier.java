@@ -23,6 +23,9 @@
 package com.den_4.inotify_java.enums;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,9 +57,33 @@ public enum EventModifier {
 
     private final static Map<String, EventModifier> STRINGTOENUM = new HashMap<String, EventModifier>();
 
+    /** Event modifiers, by bit index. */
+    private final static EventModifier[] BIT_TO_ENUM = new EventModifier[Integer.SIZE];
+
+    /**
+     * Decoded event modifiers, indexed by the modifier bits of a mask packed
+     * in declaration order.
+     */
+    private final static List<EventModifier>[] DECODED;
+
     static {
-        for (EventModifier e : values())
+        for (EventModifier e : values()) {
             STRINGTOENUM.put(e.toString(), e);
+            BIT_TO_ENUM[Integer.numberOfTrailingZeros(e.value)] = e;
+        }
+
+        EventModifier[] mods = values();
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        List<EventModifier>[] decoded = new List[1 << mods.length];
+        for (int i = 0; i < decoded.length; i++) {
+            List<EventModifier> l = new ArrayList<EventModifier>();
+            for (int j = 0; j < mods.length; j++)
+                if ((i & (1 << j)) != 0)
+                    l.add(mods[j]);
+            decoded[i] = Collections.unmodifiableList(Arrays.asList(l
+                    .toArray(new EventModifier[l.size()])));
+        }
+        DECODED = decoded;
     }
 
     /**
@@ -96,9 +123,11 @@ public enum EventModifier {
      * @return event modifier
      */
     public static EventModifier fromValue(int value) {
-        for (EventModifier e : values())
-            if (e.value == value)
+        if (Integer.bitCount(value) == 1) {
+            EventModifier e = BIT_TO_ENUM[Integer.numberOfTrailingZeros(value)];
+            if (e != null)
                 return e;
+        }
         throw new IllegalArgumentException("bad event modifier value: " + value);
     }
 
@@ -114,9 +143,7 @@ public enum EventModifier {
      * otherwise
      */
     public static boolean isSet(EventModifier m, int mask) {
-        if (m.value == (m.value & mask))
-            return true;
-        return false;
+        return (m.value & mask) != 0;
     }
 
     /**
@@ -125,15 +152,39 @@ public enum EventModifier {
      * 
      * @param mask Mask to convert
      * @return EventModifier[]
+     * @see #maskToEventModifierList(int)
      */
     public static EventModifier[] maskToEventModifiers(int mask) {
-        List<EventModifier> mods = new ArrayList<EventModifier>();
+        List<EventModifier> mods = maskToEventModifierList(mask);
+        return mods.toArray(new EventModifier[mods.size()]);
+    }
 
-        for (EventModifier m : values())
-            if (m.value == (m.value & mask))
-                mods.add(m);
+    /**
+     * Returns an unmodifiable list of the EventModifier enums set in the
+     * specified {@code mask}, in declaration order. The lists are precomputed,
+     * so calls do not allocate.
+     * 
+     * @param mask Mask to convert
+     * @return Event modifiers set in {@code mask}
+     * @since Version 2.2
+     */
+    public static List<EventModifier> maskToEventModifierList(int mask) {
+        return DECODED[(((mask >>> 15) & 1) | ((mask >>> 29) & 2)
+                | ((mask >>> 12) & 4) | ((mask >>> 10) & 8))];
+    }
 
-        return mods.toArray(new EventModifier[0]);
+    /**
+     * Returns the set of EventModifier enums set in the specified
+     * {@code mask}.
+     * 
+     * @param mask Mask to convert
+     * @return Event modifiers set in {@code mask}
+     * @since Version 2.2
+     */
+    public static EnumSet<EventModifier> maskToEventModifierSet(int mask) {
+        EnumSet<EventModifier> mods = EnumSet.noneOf(EventModifier.class);
+        mods.addAll(maskToEventModifierList(mask));
+        return mods;
     }
 
     /**
@@ -0,0 +1,266 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BackendBenchmark.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.den_4.inotify_java.enums.Event;
+import com.den_4.inotify_java.exceptions.InotifyException;
+
+/**
+ * Compares the {@link JniBackend JNI} and {@link FfmBackend FFM} backends on
+ * the paths that differ between them: single calls, batched watch
+ * registration, the recursive walk and the delivery of queued events.
+ * <p>
+ * Usage: {@code BackendBenchmark [rounds]}. The JNI backend is skipped if its
+ * library cannot be loaded from {@code java.library.path}. Each figure is the
+ * median of the timed rounds, after as many warm-up rounds and at least
+ * {@value #WARMUP_MILLIS} milliseconds of them: a read loop is set up once
+ * per round, and its downcalls are only compiled after a few hundred. The
+ * backends take turns round by round.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public final class BackendBenchmark {
+
+    /** Calls timed per round of the single call benchmark. */
+    private static final int CALLS = 100000;
+
+    /** Minimum warm-up time of each benchmark, in milliseconds. */
+    private static final long WARMUP_MILLIS = 10000;
+
+    /** Sub-folders registered per round of the batched benchmark. */
+    private static final int FOLDERS = 2000;
+
+    /** Files created and deleted per round, two events each. */
+    private static final int FILES = 4000;
+
+    /** Mask of the benchmark watches. */
+    private static final int MASK = Event.Create.value()
+            | Event.Delete.value();
+
+    private BackendBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Number of timed rounds, 10 by default
+     * @throws Exception Thrown if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+
+        List<InotifyBackend> backends = new ArrayList<InotifyBackend>();
+        try {
+            backends.add(new JniBackend());
+        } catch (UnsatisfiedLinkError e) {
+            System.out.println("jni: skipped (" + e.getMessage() + ")");
+        }
+        backends.add(new FfmBackend());
+
+        Path dir = Files.createTempDirectory("inotify-benchmark");
+        try {
+            String[] folders = new String[FOLDERS];
+            for (int i = 0; i < FOLDERS; i++)
+                folders[i] = Files.createDirectories(
+                        dir.resolve("d" + i / 50).resolve("s" + i)).toString();
+
+            System.out.printf("%-4s %14s %14s %14s %14s%n", "", "addWatch",
+                    "addWatches", "walkWatches", "read");
+            System.out.printf("%-4s %14s %14s %14s %14s%n", "", "ns/call",
+                    "ns/folder", "ns/folder", "ns/event");
+            double[] call = medians(backends, rounds, b -> addWatch(b, dir));
+            double[] batch = medians(backends, rounds,
+                    b -> addWatches(b, folders));
+            double[] walk = medians(backends, rounds,
+                    b -> walkWatches(b, dir));
+            double[] read = medians(backends, rounds, b -> read(b, dir));
+            for (int i = 0; i < backends.size(); i++)
+                System.out.printf("%-4s %14.1f %14.1f %14.1f %14.1f%n",
+                        backends.get(i).getName(), call[i], batch[i], walk[i],
+                        read[i]);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path p : (Iterable<Path>) paths
+                        .sorted(Comparator.reverseOrder())::iterator)
+                    Files.delete(p);
+            }
+        }
+    }
+
+    /**
+     * A timed round.
+     */
+    private interface Round {
+
+        /**
+         * Runs the round.
+         *
+         * @param b Backend
+         * @return Nanoseconds per operation
+         * @throws Exception Thrown if the round fails
+         */
+        double run(InotifyBackend b) throws Exception;
+    }
+
+    /*
+     * Runs warm-up and timed rounds, returning the median of the latter for
+     * each backend. The backends take turns, so that a drift of the machine
+     * or of the file system weighs on all of them alike.
+     */
+    private static double[] medians(List<InotifyBackend> backends, int rounds,
+            Round r) throws Exception {
+        long warm = System.nanoTime() + WARMUP_MILLIS * 1000000L;
+        for (int i = 0; i < rounds || System.nanoTime() < warm; i++)
+            for (InotifyBackend b : backends)
+                r.run(b);
+        double[][] times = new double[backends.size()][rounds];
+        for (int i = 0; i < rounds; i++)
+            for (int j = 0; j < times.length; j++)
+                times[j][i] = r.run(backends.get(j));
+
+        double[] medians = new double[times.length];
+        for (int j = 0; j < times.length; j++) {
+            Arrays.sort(times[j]);
+            medians[j] = times[j][rounds / 2];
+        }
+        return medians;
+    }
+
+    /*
+     * Re-adds the same watch, measuring the cost of one call and its path
+     * conversion.
+     */
+    private static double addWatch(InotifyBackend b, Path dir)
+            throws InotifyException {
+        int fd = b.init(null);
+        try {
+            String path = dir.toString();
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++)
+                b.addWatch(fd, path, MASK);
+            return (double) (System.nanoTime() - start) / CALLS;
+        } finally {
+            // no pipe: closing -1 fails harmlessly
+            b.closeDescriptors(fd, -1);
+        }
+    }
+
+    /*
+     * Registers every sub-folder with one batched call.
+     */
+    private static double addWatches(InotifyBackend b, String[] folders)
+            throws InotifyException {
+        int fd = b.init(null);
+        try {
+            long start = System.nanoTime();
+            int[] wds = b.addWatches(fd, folders, MASK);
+            long time = System.nanoTime() - start;
+            for (int wd : wds) {
+                if (wd < 0)
+                    throw new InotifyException("errno " + -wd);
+            }
+            return (double) time / folders.length;
+        } finally {
+            // no pipe: closing -1 fails harmlessly
+            b.closeDescriptors(fd, -1);
+        }
+    }
+
+    /*
+     * Walks and watches the tree below the benchmark folder.
+     */
+    private static double walkWatches(InotifyBackend b, Path dir)
+            throws InotifyException {
+        int fd = b.init(null);
+        try {
+            long start = System.nanoTime();
+            DirectoryTable table = new DirectoryTable(
+                    b.walkWatches(fd, dir.toString(), MASK, null));
+            long time = System.nanoTime() - start;
+            return (double) time / table.size;
+        } finally {
+            // no pipe: closing -1 fails harmlessly
+            b.closeDescriptors(fd, -1);
+        }
+    }
+
+    /*
+     * Queues the events of creating and deleting files, then times the read
+     * loop delivering them all. The clock stops at the last event: closing
+     * the inotify descriptor afterwards costs the kernel far more than the
+     * reads, and as much with either backend.
+     */
+    private static double read(final InotifyBackend b, Path dir)
+            throws InotifyException, IOException {
+        int[] pipe = new int[2];
+        int fd = b.init(pipe);
+        final int pipeWrite = pipe[1];
+        b.addWatch(fd, dir.toString(), MASK);
+
+        for (int i = 0; i < FILES; i++) {
+            Path file = dir.resolve("file" + i);
+            Files.createFile(file);
+            Files.delete(file);
+        }
+
+        final int expected = 2 * FILES;
+        final long[] end = new long[1];
+        InotifyBackend.EventSink sink = new InotifyBackend.EventSink() {
+
+            private int events;
+
+            @Override
+            public void events(ByteBuffer buffer, int length) {
+                buffer.order(ByteOrder.nativeOrder());
+                int offset = 0;
+                while (offset + NativeInotify.EVENT_HEADER_SIZE <= length) {
+                    offset += NativeInotify.EVENT_HEADER_SIZE
+                            + buffer.getInt(offset + 12);
+                    events++;
+                }
+                if (events >= expected) {
+                    end[0] = System.nanoTime();
+                    b.close(pipeWrite);
+                }
+            }
+
+        };
+
+        long start = System.nanoTime();
+        // returns once the sink closed the pipe, closing fd and pipe[0]
+        b.read(fd, pipe[0], NativeInotify.getDefaultReadBufferSize(), sink);
+        return (double) (end[0] - start) / expected;
+    }
+}
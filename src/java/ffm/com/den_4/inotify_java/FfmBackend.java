@@ -0,0 +1,1055 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: FfmBackend.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT_UNALIGNED;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.den_4.inotify_java.exceptions.InotifyException;
+import com.den_4.inotify_java.exceptions.InsufficientKernelMemoryException;
+import com.den_4.inotify_java.exceptions.InvalidWatchDescriptorException;
+import com.den_4.inotify_java.exceptions.SystemLimitException;
+import com.den_4.inotify_java.exceptions.UserInstanceLimitException;
+import com.den_4.inotify_java.exceptions.UserWatchLimitException;
+
+/**
+ * {@link InotifyBackend Backend} calling the C library directly through the
+ * foreign function and memory API, so that no JNI library needs to be built
+ * or loaded.
+ * <p>
+ * Each system call is a downcall capturing {@code errno}; reads go to a
+ * page-aligned direct buffer handed to the sinks as is, as the JNI backend
+ * does. The recursive walk lists directories with {@code getdents64} and
+ * takes the entry type from {@code d_type}, so it only examines a file when
+ * its file system reports {@code DT_UNKNOWN}.
+ * </p>
+ * <p>
+ * This class is built apart from the rest of the library, which targets Java
+ * 7: it needs Java 22, or Java 21 with {@code --enable-preview} (see the
+ * {@code ffm} target of {@code build.xml}), and the virtual machine should be
+ * started with {@code --enable-native-access=ALL-UNNAMED}. It is selected by
+ * setting the {@value NativeInotify#BACKEND_PROPERTY} system property to
+ * {@value #NAME}. Flags and structure layouts are those of Linux on x86_64
+ * and aarch64; other architectures are rejected.
+ * </p>
+ * <p>
+ * Failures of {@link #read(int, int, int, EventSink)} and
+ * {@link #reactorRun(ReactorSink, int, int, int, int)} themselves, as opposed
+ * to those of the sinks, are printed and end the loop, since neither method
+ * declares an exception.
+ * </p>
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+@ThreadSafe
+public final class FfmBackend implements InotifyBackend {
+
+    /** Name of this backend. */
+    public static final String NAME = "ffm"; //$NON-NLS-1$
+
+    /* Architecture dependent flags and layouts. */
+    private static final boolean X86_64;
+    private static final int O_DIRECTORY;
+    private static final int O_NOFOLLOW;
+    private static final int EPOLL_EVENT_SIZE;
+    private static final int EPOLL_DATA_OFFSET;
+
+    static {
+        String arch = System.getProperty("os.arch"); //$NON-NLS-1$
+        X86_64 = "amd64".equals(arch) || "x86_64".equals(arch);
+        if (!X86_64 && !"aarch64".equals(arch))
+            throw new UnsupportedOperationException("unsupported architecture: "
+                    + arch);
+        O_DIRECTORY = X86_64 ? 0x10000 : 0x4000;
+        O_NOFOLLOW = X86_64 ? 0x20000 : 0x8000;
+        // struct epoll_event is packed on x86_64 only
+        EPOLL_EVENT_SIZE = X86_64 ? 12 : 16;
+        EPOLL_DATA_OFFSET = X86_64 ? 4 : 8;
+    }
+
+    /* Flags shared by the supported architectures. */
+    private static final int O_RDONLY = 0;
+    private static final int O_NONBLOCK = 0x800;
+    private static final int O_CLOEXEC = 0x80000;
+    private static final int EPOLLIN = 0x001;
+    private static final int EPOLL_CTL_ADD = 1;
+    private static final int EPOLL_CTL_DEL = 2;
+    private static final int FNM_PATHNAME = 1;
+    private static final int SC_PAGESIZE = 30;
+    private static final byte DT_UNKNOWN = 0;
+    private static final byte DT_DIR = 4;
+
+    /* Error numbers. */
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+    private static final int ENFILE = 23;
+    private static final int EMFILE = 24;
+
+    /** Maximum length of a path, including its terminating null. */
+    private static final int PATH_MAX = 4096;
+
+    /** Size of the buffer receiving directory entries. */
+    private static final int DENTS_BUFFER = 64 * 1024;
+
+    /** Size the read buffer is not grown beyond. */
+    private static final long MAX_READ_BUFFER = 4L * 1024 * 1024;
+
+    /* Downcalls. */
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final SymbolLookup LIBC = LINKER.defaultLookup();
+    private static final StructLayout CALL_STATE =
+            Linker.Option.captureStateLayout();
+    private static final long ERRNO = CALL_STATE.byteOffset(
+            PathElement.groupElement("errno")); //$NON-NLS-1$
+
+    private static final MethodHandle INOTIFY_INIT1 = downcall(
+            "inotify_init1", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle INOTIFY_ADD_WATCH = downcall(
+            "inotify_add_watch",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle INOTIFY_RM_WATCH = downcall(
+            "inotify_rm_watch",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+    private static final MethodHandle PIPE2 = downcall("pipe2",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle READ = downcall("read",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle WRITE = downcall("write",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle EPOLL_CREATE1 = downcall(
+            "epoll_create1", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle EPOLL_CTL = downcall("epoll_ctl",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT,
+                    ADDRESS));
+    private static final MethodHandle EPOLL_WAIT = downcall("epoll_wait",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT,
+                    JAVA_INT));
+    private static final MethodHandle OPEN = downcall("open",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+            Linker.Option.firstVariadicArg(2));
+    private static final MethodHandle GETDENTS64 = downcall("getdents64",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+
+    /* Downcalls whose errno is not needed. */
+    private static final MethodHandle CLOSE = LINKER.downcallHandle(
+            symbol("close"), FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle STRERROR = LINKER.downcallHandle(
+            symbol("strerror"), FunctionDescriptor.of(ADDRESS, JAVA_INT));
+    private static final MethodHandle FNMATCH = LINKER.downcallHandle(
+            symbol("fnmatch"),
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+    private static final MethodHandle SYSCONF = LINKER.downcallHandle(
+            symbol("sysconf"), FunctionDescriptor.of(JAVA_LONG, JAVA_INT));
+
+    /** Page size, the alignment and granularity of read buffers. */
+    private static final long PAGE_SIZE = sysconf(SC_PAGESIZE);
+
+    /** Memory reused by the single calls of each thread. */
+    private static final ThreadLocal<Scratch> SCRATCH =
+            ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Creates the FFM backend.
+     */
+    public FfmBackend() {
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int init(int[] pipe) throws InsufficientKernelMemoryException,
+            SystemLimitException, UserInstanceLimitException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment state = arena.allocate(CALL_STATE);
+            int fd = inotifyInit1(state, O_NONBLOCK | O_CLOEXEC);
+            if (fd < 0) {
+                int errno = errno(state);
+                switch (errno) {
+                case EMFILE:
+                    throw new UserInstanceLimitException(strerror(errno));
+                case ENFILE:
+                    throw new SystemLimitException(strerror(errno));
+                default:
+                    throw new InsufficientKernelMemoryException(
+                            strerror(errno));
+                }
+            }
+            if (pipe == null)
+                return fd;
+
+            MemorySegment fds = arena.allocate(8, 4);
+            if (pipe2(state, fds, O_CLOEXEC) < 0) {
+                int errno = errno(state);
+                closeFd(fd);
+                if (errno == EMFILE || errno == ENFILE)
+                    throw new SystemLimitException(strerror(errno));
+                throw new InsufficientKernelMemoryException(strerror(errno));
+            }
+            pipe[0] = fds.getAtIndex(JAVA_INT, 0);
+            pipe[1] = fds.getAtIndex(JAVA_INT, 1);
+            return fd;
+        }
+    }
+
+    @Override
+    public void close(int pipeWrite) {
+        closeFd(pipeWrite);
+    }
+
+    @Override
+    public void closeDescriptors(int fd, int pipeRead) {
+        closeFd(pipeRead);
+        closeFd(fd);
+    }
+
+    @Override
+    public int addWatch(int fd, String path, int mask)
+            throws InotifyException {
+        Scratch scratch = SCRATCH.get();
+        if (!scratch.setPath(path))
+            throw new InotifyException(strerror(NativeInotify.ENAMETOOLONG));
+        int wd = inotifyAddWatch(scratch.state, fd, scratch.path, mask);
+        if (wd < 0) {
+            int errno = errno(scratch.state);
+            if (errno == NativeInotify.ENOSPC)
+                throw new UserWatchLimitException(strerror(errno));
+            throw new InotifyException(strerror(errno));
+        }
+        return wd;
+    }
+
+    @Override
+    public int[] addWatches(int fd, String[] paths, int mask) {
+        int[] wds = new int[paths.length];
+        Scratch scratch = SCRATCH.get();
+        int i = 0;
+        for (; i < paths.length; i++) {
+            if (paths[i] == null) {
+                wds[i] = -NativeInotify.EINVAL;
+                continue;
+            }
+            if (!scratch.setPath(paths[i])) {
+                wds[i] = -NativeInotify.ENAMETOOLONG;
+                continue;
+            }
+
+            int wd = inotifyAddWatch(scratch.state, fd, scratch.path, mask);
+            wds[i] = (wd >= 0) ? wd : -errno(scratch.state);
+            if (wds[i] == -NativeInotify.ENOSPC)
+                break;
+        }
+        for (i++; i < paths.length; i++)
+            wds[i] = -NativeInotify.ENOSPC;
+        return wds;
+    }
+
+    @Override
+    public byte[] walkWatches(int fd, String root, int mask, String[] excludes)
+            throws InotifyException {
+        byte[] rootBytes = root.getBytes(StandardCharsets.UTF_8);
+        if (rootBytes.length >= PATH_MAX)
+            throw new InotifyException(strerror(NativeInotify.ENAMETOOLONG));
+
+        try (Arena arena = Arena.ofConfined()) {
+            Walker w = new Walker(arena, fd, mask, excludes);
+            MemorySegment.copy(rootBytes, 0, w.path, JAVA_BYTE, 0,
+                    rootBytes.length);
+
+            // each directory is listed and closed before it is descended
+            ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+            Frame top = new Frame(-1, rootBytes.length);
+            frames.push(top);
+            int status = w.walkDir(top);
+
+            while (status == 0 && !frames.isEmpty()) {
+                top = frames.peek();
+                if (top.next >= top.children.size()) {
+                    frames.pop();
+                    continue;
+                }
+                Frame child = top.children.get(top.next++);
+                int base = w.separate(top.pathLength);
+                MemorySegment.copy(child.name, 0, w.path, JAVA_BYTE, base,
+                        child.name.length);
+                child.pathLength = base + child.name.length;
+                frames.push(child);
+                status = w.walkDir(child);
+            }
+
+            return w.records();
+        }
+    }
+
+    @Override
+    public int removeWatch(int fd, int wd)
+            throws InvalidWatchDescriptorException {
+        MemorySegment state = SCRATCH.get().state;
+        if (inotifyRmWatch(state, fd, wd) < 0)
+            throw new InvalidWatchDescriptorException(strerror(errno(state)));
+        return 0;
+    }
+
+    @Override
+    public void read(int fd, int pipeRead, int bufferSize, EventSink sink) {
+        int epfd = -1;
+        try (Arena arena = Arena.ofConfined()) {
+            ReadBuffer rb = new ReadBuffer(bufferSize);
+            MemorySegment state = arena.allocate(CALL_STATE);
+            MemorySegment event = arena.allocate(EPOLL_EVENT_SIZE, 8);
+
+            epfd = epollCreate1(state, O_CLOEXEC);
+            if (epfd == -1)
+                throw failure(state);
+            epollAdd(state, epfd, fd, event);
+            epollAdd(state, epfd, pipeRead, event);
+
+            for (;;) {
+                // Wait indefinitely for an event
+                if (epollWait(state, epfd, event, 1, -1) == -1) {
+                    if (errno(state) == EINTR)
+                        continue;
+                    throw failure(state);
+                }
+                if (eventFd(event, 0) == pipeRead)
+                    return;
+                if (drain(state, fd, rb, sink, null) != 0)
+                    throw failure(state);
+            }
+        } catch (Throwable t) {
+            // reported as the JNI backend reports failures of its reader
+            t.printStackTrace();
+        } finally {
+            if (epfd != -1)
+                closeFd(epfd);
+            closeFd(pipeRead);
+            closeFd(fd);
+        }
+    }
+
+    @Override
+    public void reactorInit(int[] fds) throws InotifyException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment state = arena.allocate(CALL_STATE);
+            int epfd = epollCreate1(state, O_CLOEXEC);
+            if (epfd == -1)
+                throw failure(state);
+
+            MemorySegment pipe = arena.allocate(8, 4);
+            if (pipe2(state, pipe, O_CLOEXEC | O_NONBLOCK) < 0) {
+                InotifyException e = failure(state);
+                closeFd(epfd);
+                throw e;
+            }
+            int pipeRead = pipe.getAtIndex(JAVA_INT, 0);
+            int pipeWrite = pipe.getAtIndex(JAVA_INT, 1);
+
+            try {
+                epollAdd(state, epfd, pipeRead,
+                        arena.allocate(EPOLL_EVENT_SIZE, 8));
+            } catch (InotifyException e) {
+                closeFd(pipeRead);
+                closeFd(pipeWrite);
+                closeFd(epfd);
+                throw e;
+            }
+
+            fds[0] = epfd;
+            fds[1] = pipeRead;
+            fds[2] = pipeWrite;
+        }
+    }
+
+    @Override
+    public void reactorAdd(int epfd, int fd) throws InotifyException {
+        Scratch scratch = SCRATCH.get();
+        epollAdd(scratch.state, epfd, fd, scratch.event);
+    }
+
+    @Override
+    public void reactorRemove(int epfd, int fd) {
+        epollCtl(SCRATCH.get().state, epfd, EPOLL_CTL_DEL, fd,
+                MemorySegment.NULL);
+        closeFd(fd);
+    }
+
+    @Override
+    public void reactorWakeup(int pipeWrite) throws InotifyException {
+        Scratch scratch = SCRATCH.get();
+        if (write(scratch.state, pipeWrite, scratch.path, 1) < 0
+                && errno(scratch.state) != EAGAIN)
+            throw failure(scratch.state);
+    }
+
+    @Override
+    public void reactorRun(ReactorSink sink, int epfd, int pipeRead,
+            int maxEvents, int bufferSize) {
+        try (Arena arena = Arena.ofConfined()) {
+            ReadBuffer rb = new ReadBuffer(bufferSize);
+            MemorySegment state = arena.allocate(CALL_STATE);
+            MemorySegment events = arena.allocate(
+                    (long) EPOLL_EVENT_SIZE * maxEvents, 8);
+            MemorySegment scratch = arena.allocate(64, 1);
+            boolean running = true;
+
+            while (running) {
+                int nfds = epollWait(state, epfd, events, maxEvents, -1);
+                if (nfds == -1) {
+                    if (errno(state) == EINTR)
+                        continue;
+                    failure(state).printStackTrace();
+                    return;
+                }
+
+                boolean wakeup = false;
+                for (int i = 0; i < nfds; i++) {
+                    int fd = eventFd(events, i);
+                    if (fd == pipeRead) {
+                        while (read(state, pipeRead, scratch, 64) == 64)
+                            ;
+                        wakeup = true;
+                        continue;
+                    }
+
+                    int errno = drain(state, fd, rb, null, sink);
+                    if (errno != 0) {
+                        // the fd leaves the set; its owner closes it
+                        epollCtl(state, epfd, EPOLL_CTL_DEL, fd,
+                                MemorySegment.NULL);
+                        sink.error(fd, errno);
+                    }
+                }
+
+                // Detach and close requests are handled between rounds
+                if (wakeup)
+                    running = sink.wakeup();
+            }
+        }
+    }
+
+    @Override
+    public void reactorClose(int epfd, int pipeRead, int pipeWrite) {
+        closeFd(pipeWrite);
+        closeFd(pipeRead);
+        closeFd(epfd);
+    }
+
+    /**
+     * Returns a string representation of the backend.
+     *
+     * @return a string representation of the backend
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [name=" + NAME + "]";
+    }
+
+    /*
+     * Reads the queue of fd into the read buffer, handing each read to the
+     * sink. Only a read that leaves no room for another maximum-sized event
+     * warrants another read; it also doubles the buffer, up to
+     * MAX_READ_BUFFER. Returns 0, or the errno of a failed read.
+     */
+    private static int drain(MemorySegment state, int fd, ReadBuffer rb,
+            EventSink sink, ReactorSink reactorSink) {
+        boolean full;
+        do {
+            long n = read(state, fd, rb.segment, rb.segment.byteSize());
+            if (n < 0) {
+                int errno = errno(state);
+                if (errno == EAGAIN || errno == EINTR)
+                    break;
+                return errno;
+            }
+
+            full = rb.segment.byteSize() - n
+                    < NativeInotify.MIN_READ_BUFFER_SIZE;
+
+            rb.buffer.clear();
+            if (reactorSink != null)
+                reactorSink.events(fd, rb.buffer, (int) n);
+            else
+                sink.events(rb.buffer, (int) n);
+
+            if (full && rb.segment.byteSize() < MAX_READ_BUFFER)
+                rb.allocate(rb.segment.byteSize() * 2);
+        } while (full);
+        return 0;
+    }
+
+    /*
+     * Adds fd to the epoll set for reading.
+     */
+    private static void epollAdd(MemorySegment state, int epfd, int fd,
+            MemorySegment event) throws InotifyException {
+        event.set(JAVA_INT, 0, EPOLLIN);
+        event.set(JAVA_LONG_UNALIGNED, EPOLL_DATA_OFFSET, fd & 0xffffffffL);
+        if (epollCtl(state, epfd, EPOLL_CTL_ADD, fd, event) == -1)
+            throw failure(state);
+    }
+
+    /*
+     * Returns the file descriptor of the i-th epoll event.
+     */
+    private static int eventFd(MemorySegment events, int i) {
+        return events.get(JAVA_INT,
+                (long) i * EPOLL_EVENT_SIZE + EPOLL_DATA_OFFSET);
+    }
+
+    /*
+     * Returns the errno captured by the last downcall.
+     */
+    private static int errno(MemorySegment state) {
+        return state.get(JAVA_INT, ERRNO);
+    }
+
+    /*
+     * Returns an exception describing the errno captured by the last
+     * downcall.
+     */
+    private static InotifyException failure(MemorySegment state) {
+        return new InotifyException(strerror(errno(state)));
+    }
+
+    /*
+     * Returns a null-terminated copy of a string.
+     */
+    private static MemorySegment cString(Arena arena, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        MemorySegment segment = arena.allocate(bytes.length + 1L, 1);
+        MemorySegment.copy(bytes, 0, segment, JAVA_BYTE, 0, bytes.length);
+        segment.set(JAVA_BYTE, bytes.length, (byte) 0);
+        return segment;
+    }
+
+    /*
+     * Returns the null-terminated string at an address, decoded as UTF-8.
+     */
+    private static String string(MemorySegment address, long offset) {
+        MemorySegment s = address.reinterpret(Long.MAX_VALUE);
+        long end = offset;
+        while (s.get(JAVA_BYTE, end) != 0)
+            end++;
+        byte[] bytes = new byte[(int) (end - offset)];
+        MemorySegment.copy(s, JAVA_BYTE, offset, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Downcall wrappers. */
+
+    private static MemorySegment symbol(String name) {
+        return LIBC.find(name).orElseThrow(() -> new UnsatisfiedLinkError(
+                "symbol not found: " + name));
+    }
+
+    private static MethodHandle downcall(String name,
+            FunctionDescriptor function, Linker.Option... options) {
+        Linker.Option[] all = new Linker.Option[options.length + 1];
+        System.arraycopy(options, 0, all, 0, options.length);
+        all[options.length] = Linker.Option.captureCallState("errno"); //$NON-NLS-1$
+        return LINKER.downcallHandle(symbol(name), function, all);
+    }
+
+    /*
+     * Rethrows what a downcall threw; downcalls throw no checked exceptions.
+     */
+    private static RuntimeException unexpected(Throwable t) {
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new IllegalStateException(t);
+    }
+
+    private static int inotifyInit1(MemorySegment state, int flags) {
+        try {
+            return (int) INOTIFY_INIT1.invokeExact(state, flags);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int inotifyAddWatch(MemorySegment state, int fd,
+            MemorySegment path, int mask) {
+        try {
+            return (int) INOTIFY_ADD_WATCH.invokeExact(state, fd, path, mask);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int inotifyRmWatch(MemorySegment state, int fd, int wd) {
+        try {
+            return (int) INOTIFY_RM_WATCH.invokeExact(state, fd, wd);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int pipe2(MemorySegment state, MemorySegment fds,
+            int flags) {
+        try {
+            return (int) PIPE2.invokeExact(state, fds, flags);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static long read(MemorySegment state, int fd, MemorySegment buf,
+            long count) {
+        try {
+            return (long) READ.invokeExact(state, fd, buf, count);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static long write(MemorySegment state, int fd, MemorySegment buf,
+            long count) {
+        try {
+            return (long) WRITE.invokeExact(state, fd, buf, count);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int epollCreate1(MemorySegment state, int flags) {
+        try {
+            return (int) EPOLL_CREATE1.invokeExact(state, flags);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int epollCtl(MemorySegment state, int epfd, int op, int fd,
+            MemorySegment event) {
+        try {
+            return (int) EPOLL_CTL.invokeExact(state, epfd, op, fd, event);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int epollWait(MemorySegment state, int epfd,
+            MemorySegment events, int maxEvents, int timeout) {
+        try {
+            return (int) EPOLL_WAIT.invokeExact(state, epfd, events, maxEvents,
+                    timeout);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int open(MemorySegment state, MemorySegment path,
+            int flags) {
+        try {
+            return (int) OPEN.invokeExact(state, path, flags, 0);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static long getdents64(MemorySegment state, int fd,
+            MemorySegment dirp, long count) {
+        try {
+            return (long) GETDENTS64.invokeExact(state, fd, dirp, count);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    /*
+     * Closes fd, ignoring failures as the JNI backend does.
+     */
+    private static void closeFd(int fd) {
+        try {
+            int ret = (int) CLOSE.invokeExact(fd);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static String strerror(int errno) {
+        try {
+            return string((MemorySegment) STRERROR.invokeExact(errno), 0);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static int fnmatch(MemorySegment pattern, MemorySegment string,
+            int flags) {
+        try {
+            return (int) FNMATCH.invokeExact(pattern, string, flags);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static long sysconf(int name) {
+        try {
+            return (long) SYSCONF.invokeExact(name);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    /**
+     * Memory of the single calls made by one thread, so that they allocate
+     * nothing but the bytes of their paths.
+     */
+    private static final class Scratch {
+
+        /** Captured errno. */
+        final MemorySegment state;
+
+        /** Null-terminated path, or the byte written to a wakeup pipe. */
+        final MemorySegment path;
+
+        /** Epoll event. */
+        final MemorySegment event;
+
+        Scratch() {
+            Arena arena = Arena.ofAuto();
+            state = arena.allocate(CALL_STATE);
+            path = arena.allocate(PATH_MAX, 1);
+            event = arena.allocate(EPOLL_EVENT_SIZE, 8);
+        }
+
+        /**
+         * Copies a path into {@link #path}.
+         *
+         * @param s Path
+         * @return {@code false} if the path is too long
+         */
+        boolean setPath(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length >= PATH_MAX)
+                return false;
+            MemorySegment.copy(bytes, 0, path, JAVA_BYTE, 0, bytes.length);
+            path.set(JAVA_BYTE, bytes.length, (byte) 0);
+            return true;
+        }
+    }
+
+    /**
+     * Page-aligned read buffer, replaced as it grows. It is a plain direct
+     * buffer, as the JNI backend hands its sinks, and the segment read into
+     * is taken from it: a view of an arena's segment would instead check the
+     * segment's scope on every access the sinks make while decoding.
+     */
+    private static final class ReadBuffer {
+
+        /** Current buffer, handed to the sinks. */
+        ByteBuffer buffer;
+
+        /** Segment over {@link #buffer}, read into. */
+        MemorySegment segment;
+
+        /**
+         * Allocates a buffer of at least the minimum read size, rounded up
+         * to a multiple of the page size.
+         *
+         * @param size Requested size
+         */
+        ReadBuffer(int size) {
+            long rounded = Math.max(size, NativeInotify.MIN_READ_BUFFER_SIZE);
+            allocate((rounded + PAGE_SIZE - 1) & ~(PAGE_SIZE - 1));
+        }
+
+        /**
+         * Replaces the buffer with one of the given size. The old buffer is
+         * freed by the garbage collector.
+         *
+         * @param size Size, a multiple of the page size
+         */
+        void allocate(long size) {
+            buffer = ByteBuffer.allocateDirect((int) (size + PAGE_SIZE))
+                    .alignedSlice((int) PAGE_SIZE)
+                    .order(ByteOrder.nativeOrder());
+            segment = MemorySegment.ofBuffer(buffer);
+        }
+    }
+
+    /**
+     * A directory of a walk: its record, its path and its watched
+     * subdirectories.
+     */
+    private static final class Frame {
+
+        /** Record index, -1 for the root. */
+        final int index;
+
+        /** Name bytes, {@code null} for the root. */
+        final byte[] name;
+
+        /** Length of the path in the walker's path buffer. */
+        int pathLength;
+
+        /** Watched subdirectories, descended in order. */
+        final List<Frame> children = new ArrayList<Frame>();
+
+        /** Next subdirectory to descend. */
+        int next;
+
+        Frame(int index, int pathLength) {
+            this.index = index;
+            this.name = null;
+            this.pathLength = pathLength;
+        }
+
+        Frame(int index, byte[] name) {
+            this.index = index;
+            this.name = name;
+        }
+    }
+
+    /**
+     * State of a walk: the path buffer, the directory entry buffer, the
+     * exclude patterns and the records written so far.
+     */
+    private static final class Walker {
+
+        private final int fd;
+        private final int mask;
+        private final MemorySegment state;
+        private final MemorySegment dents;
+        private final MemorySegment[] excludes;
+        private final boolean[] fullPath;
+
+        /** Null-terminated path of the current entry. */
+        final MemorySegment path;
+
+        /** Walk records, in native byte order. */
+        private ByteBuffer records =
+                ByteBuffer.allocate(4096).order(ByteOrder.nativeOrder());
+
+        /** Number of records. */
+        private int count;
+
+        Walker(Arena arena, int fd, int mask, String[] patterns) {
+            this.fd = fd;
+            this.mask = mask;
+            this.state = arena.allocate(CALL_STATE);
+            this.dents = arena.allocate(DENTS_BUFFER, 8);
+            this.path = arena.allocate(PATH_MAX + 1, 1);
+
+            List<MemorySegment> list = new ArrayList<MemorySegment>();
+            List<Boolean> full = new ArrayList<Boolean>();
+            if (patterns != null) {
+                for (String pattern : patterns) {
+                    if (pattern == null)
+                        continue;
+                    list.add(cString(arena, pattern));
+                    full.add(pattern.indexOf('/') >= 0);
+                }
+            }
+            this.excludes = list.toArray(new MemorySegment[list.size()]);
+            this.fullPath = new boolean[full.size()];
+            for (int i = 0; i < fullPath.length; i++)
+                fullPath[i] = full.get(i);
+        }
+
+        /**
+         * Appends a separator to the path of the given length unless it
+         * already ends with one.
+         *
+         * @param length Path length
+         * @return Offset of the name following the separator
+         */
+        int separate(int length) {
+            if (length == 0 || path.get(JAVA_BYTE, length - 1) != '/')
+                path.set(JAVA_BYTE, length++, (byte) '/');
+            return length;
+        }
+
+        /**
+         * Lists the directory of a frame, adding a watch and a record for
+         * each subdirectory. Subdirectories that vanish before they are
+         * watched are skipped; other failures are recorded with the negated
+         * errno in place of the watch descriptor.
+         *
+         * @param f Frame of the directory, receives its watched
+         * subdirectories
+         * @return 0, or the negated errno if the walk must stop
+         */
+        int walkDir(Frame f) {
+            path.set(JAVA_BYTE, f.pathLength, (byte) 0);
+            int dfd = open(state, path,
+                    O_RDONLY | O_DIRECTORY | O_NOFOLLOW | O_CLOEXEC);
+            if (dfd < 0)
+                return 0;
+
+            int base = separate(f.pathLength);
+            try {
+                for (;;) {
+                    long n = getdents64(state, dfd, dents, DENTS_BUFFER);
+                    if (n < 0 && errno(state) == EINTR)
+                        continue;
+                    if (n <= 0)
+                        return 0;
+
+                    for (long off = 0; off < n;) {
+                        // struct linux_dirent64
+                        int reclen = dents.get(JAVA_SHORT_UNALIGNED, off + 16)
+                                & 0xffff;
+                        byte type = dents.get(JAVA_BYTE, off + 18);
+                        long nameOffset = off + 19;
+                        off += reclen;
+                        if (type != DT_DIR && type != DT_UNKNOWN)
+                            continue;
+
+                        long end = nameOffset;
+                        while (dents.get(JAVA_BYTE, end) != 0)
+                            end++;
+                        int length = (int) (end - nameOffset);
+                        if (dents.get(JAVA_BYTE, nameOffset) == '.'
+                                && (length == 1 || (length == 2 && dents.get(
+                                        JAVA_BYTE, nameOffset + 1) == '.')))
+                            continue;
+
+                        byte[] name = new byte[length];
+                        MemorySegment.copy(dents, JAVA_BYTE, nameOffset, name,
+                                0, length);
+                        if (type == DT_UNKNOWN && !isDirectory(base, name))
+                            continue;
+
+                        int wd;
+                        if (base + name.length >= PATH_MAX) {
+                            wd = -NativeInotify.ENAMETOOLONG;
+                        } else {
+                            MemorySegment.copy(name, 0, path, JAVA_BYTE, base,
+                                    name.length);
+                            path.set(JAVA_BYTE, base + name.length, (byte) 0);
+                            if (excluded(base))
+                                continue;
+
+                            wd = inotifyAddWatch(state, fd, path, mask);
+                            if (wd < 0) {
+                                int errno = errno(state);
+                                if (errno == NativeInotify.ENOENT
+                                        || errno == NativeInotify.ENOTDIR)
+                                    continue;
+                                wd = -errno;
+                            }
+                        }
+
+                        int index = count++;
+                        record(f.index, wd, name);
+                        if (wd == -NativeInotify.ENOSPC)
+                            return wd;
+                        if (wd >= 0)
+                            f.children.add(new Frame(index, name));
+                    }
+                }
+            } finally {
+                closeFd(dfd);
+            }
+        }
+
+        /**
+         * Tests the entry in the path buffer against the exclude patterns.
+         * Patterns containing a slash are matched against the full path,
+         * others against the name alone.
+         *
+         * @param base Offset of the name
+         * @return {@code true} if the entry is excluded
+         */
+        private boolean excluded(int base) {
+            for (int i = 0; i < excludes.length; i++) {
+                if (fullPath[i]) {
+                    if (fnmatch(excludes[i], path, FNM_PATHNAME) == 0)
+                        return true;
+                } else if (fnmatch(excludes[i], path.asSlice(base), 0) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tests whether an entry of a file system that does not report
+         * entry types is a directory, without following symbolic links.
+         */
+        private boolean isDirectory(int base, byte[] name) {
+            byte[] parent = new byte[base];
+            MemorySegment.copy(path, JAVA_BYTE, 0, parent, 0, base);
+            return Files.isDirectory(Paths.get(
+                    new String(parent, StandardCharsets.UTF_8),
+                    new String(name, StandardCharsets.UTF_8)),
+                    LinkOption.NOFOLLOW_LINKS);
+        }
+
+        /**
+         * Appends a walk record.
+         */
+        private void record(int parent, int wd, byte[] name) {
+            int size = 4 + 4 + 2 + name.length;
+            if (records.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(records.capacity() * 2,
+                                records.position() + size))
+                        .order(ByteOrder.nativeOrder());
+                records.flip();
+                grown.put(records);
+                records = grown;
+            }
+            records.putInt(parent).putInt(wd).putShort((short) name.length)
+                    .put(name);
+        }
+
+        /**
+         * Returns the walk records.
+         */
+        byte[] records() {
+            byte[] bytes = new byte[records.position()];
+            records.flip();
+            records.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BacklogTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.den_4.inotify_java.enums.Event;
+import com.den_4.inotify_java.enums.EventModifier;
+
+/**
+ * Backlog unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class BacklogTest {
+
+    File directory;
+    RingBuffer<InotifyEvent> queue;
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("backlog-test", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        queue = new RingBuffer<InotifyEvent>(4, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        // segment files are unlinked as soon as they are mapped
+        assertEquals(0, directory.list().length);
+        assertTrue(directory.delete());
+    }
+
+    private static InotifyEvent event(int wd, Event e, String name) {
+        return new InotifyEvent(wd, e.value(), 0, name);
+    }
+
+    private static InotifyEvent ignored(int wd) {
+        return new InotifyEvent(wd, EventModifier.Ignored.value(), 0);
+    }
+
+    private List<InotifyEvent> drain(Backlog b) {
+        List<InotifyEvent> out = new ArrayList<InotifyEvent>();
+        b.drainTo(out, queue, queue.published());
+        return out;
+    }
+
+    /**
+     * Test method for {@link Backlog#add(InotifyEvent, boolean)}.
+     */
+    @Test
+    public void testAddDropsOldest() {
+        Backlog b = new Backlog(3);
+        InotifyEvent e1 = event(1, Event.Create, "a");
+        InotifyEvent e2 = event(1, Event.Create, "b");
+        InotifyEvent e3 = event(1, Event.Create, "c");
+        InotifyEvent e4 = event(1, Event.Create, "d");
+        assertNull(b.add(e1, false));
+        assertNull(b.add(e2, false));
+        assertNull(b.add(e3, false));
+        assertTrue(b.holdsEvents());
+        assertSame(e1, b.add(e4, false));
+        assertEquals(3, b.size());
+
+        List<InotifyEvent> out = drain(b);
+        assertEquals(3, out.size());
+        assertSame(e2, out.get(0));
+        assertSame(e3, out.get(1));
+        assertSame(e4, out.get(2));
+        assertFalse(b.holdsEvents());
+        assertEquals(0, b.size());
+    }
+
+    /**
+     * Test method for {@link Backlog#add(InotifyEvent, boolean)}: forced
+     * events exceed the capacity, and the end of a watch is never dropped.
+     */
+    @Test
+    public void testAddKeepsForcedAndIgnored() {
+        Backlog b = new Backlog(2);
+        InotifyEvent end = ignored(1);
+        InotifyEvent e1 = event(2, Event.Create, "a");
+        InotifyEvent e2 = event(2, Event.Create, "b");
+        InotifyEvent e3 = event(2, Event.Create, "c");
+        assertNull(b.add(end, true));
+        assertNull(b.add(e1, true));
+        assertNull(b.add(e2, true));
+        assertEquals(3, b.size());
+        // the oldest event that is not the end of a watch goes
+        assertSame(e1, b.add(e3, false));
+
+        List<InotifyEvent> out = drain(b);
+        assertEquals(3, out.size());
+        assertSame(end, out.get(0));
+        assertSame(e2, out.get(1));
+        assertSame(e3, out.get(2));
+    }
+
+    /**
+     * Test method for {@link Backlog#coalesce(InotifyEvent)}.
+     */
+    @Test
+    public void testCoalesce() {
+        Backlog b = new Backlog(3);
+        InotifyEvent m1 = event(1, Event.Modify, "a");
+        InotifyEvent other = event(1, Event.Modify, "b");
+        InotifyEvent m2 = event(1, Event.Modify, "a");
+        InotifyEvent attrib = event(1, Event.Metadata, "a");
+        assertEquals(Backlog.ADDED, b.coalesce(m1));
+        assertEquals(Backlog.ADDED, b.coalesce(other));
+        assertEquals(Backlog.COALESCED, b.coalesce(m2));
+        assertEquals(Backlog.COALESCED, b.coalesce(attrib));
+        assertEquals(2, b.size());
+
+        // the last event takes the place of the first
+        List<InotifyEvent> out = drain(b);
+        assertEquals(2, out.size());
+        assertSame(attrib, out.get(0));
+        assertSame(other, out.get(1));
+    }
+
+    /**
+     * Test method for {@link Backlog#coalesce(InotifyEvent)}: events that
+     * create, remove or move a file are held in order and end coalescing for
+     * their name.
+     */
+    @Test
+    public void testCoalesceStopsAtCreate() {
+        Backlog b = new Backlog(4);
+        InotifyEvent m1 = event(1, Event.Modify, "a");
+        InotifyEvent delete = event(1, Event.Delete, "a");
+        InotifyEvent create = event(1, Event.Create, "a");
+        InotifyEvent m2 = event(1, Event.Modify, "a");
+        assertEquals(Backlog.ADDED, b.coalesce(m1));
+        assertEquals(Backlog.ADDED, b.coalesce(delete));
+        assertEquals(Backlog.ADDED, b.coalesce(create));
+        assertEquals(Backlog.ADDED, b.coalesce(m2));
+
+        List<InotifyEvent> out = drain(b);
+        assertEquals(4, out.size());
+        assertSame(m1, out.get(0));
+        assertSame(delete, out.get(1));
+        assertSame(create, out.get(2));
+        assertSame(m2, out.get(3));
+    }
+
+    /**
+     * Test method for {@link Backlog#coalesce(InotifyEvent)}: a full backlog
+     * rejects new events but still coalesces.
+     */
+    @Test
+    public void testCoalesceFull() {
+        Backlog b = new Backlog(1);
+        InotifyEvent m1 = event(1, Event.Modify, "a");
+        InotifyEvent m2 = event(1, Event.Modify, "a");
+        assertEquals(Backlog.ADDED, b.coalesce(m1));
+        assertEquals(Backlog.REJECTED, b.coalesce(event(1, Event.Modify, "b")));
+        assertEquals(Backlog.COALESCED, b.coalesce(m2));
+        assertEquals(1, b.size());
+    }
+
+    /**
+     * Test method for {@link Backlog#notice(InotifyEvent)}.
+     */
+    @Test
+    public void testNotices() {
+        Backlog b = new Backlog(4);
+        InotifyEvent e = event(1, Event.Create, "a");
+        InotifyEvent n1 = new InotifyEvent(1,
+                EventModifier.Event_Queue_Overflow.value(), 0);
+        InotifyEvent n2 = new InotifyEvent(2,
+                EventModifier.Event_Queue_Overflow.value(), 0);
+        b.add(e, false);
+        b.notice(n1);
+        b.notice(new InotifyEvent(1,
+                EventModifier.Event_Queue_Overflow.value(), 0));
+        b.notice(n2);
+        assertEquals(3, b.size());
+
+        // notices go first, followed by the held events
+        List<InotifyEvent> out = drain(b);
+        assertEquals(3, out.size());
+        assertSame(n1, out.get(0));
+        assertSame(n2, out.get(1));
+        assertSame(e, out.get(2));
+    }
+
+    /**
+     * Test method for
+     * {@link Backlog#drainTo(List, RingBuffer, long)}: held events wait for
+     * the consumer to drain its queue, notices do not.
+     */
+    @Test
+    public void testDrainWaitsForQueue() {
+        Backlog b = new Backlog(4);
+        InotifyEvent e = event(1, Event.Create, "a");
+        InotifyEvent n = new InotifyEvent(1,
+                EventModifier.Event_Queue_Overflow.value(), 0);
+        b.add(e, false);
+        b.notice(n);
+        assertTrue(queue.offer(event(1, Event.Create, "queued")));
+
+        List<InotifyEvent> out = new ArrayList<InotifyEvent>();
+        b.drainTo(out, queue, 0);
+        assertEquals(1, out.size());
+        assertSame(n, out.get(0));
+        assertTrue(b.holdsEvents());
+
+        out.clear();
+        b.drainTo(out, queue, 1);
+        assertEquals(1, out.size());
+        assertSame(e, out.get(0));
+        assertFalse(b.holdsEvents());
+    }
+
+    /**
+     * Test method for {@link Backlog#spill(InotifyEvent, File)}: held events
+     * are followed by spilled events, and events added while spilling are
+     * spilled behind them; spilled events are read back up to the capacity
+     * at a time.
+     */
+    @Test
+    public void testSpill() throws IOException {
+        Backlog b = new Backlog(2);
+        InotifyEvent held = event(1, Event.Create, "held");
+        assertNull(b.add(held, false));
+        for (int i = 0; i < 3; i++)
+            assertTrue(b.spill(event(1, Event.Create, "spilled" + i), directory));
+        assertNull(b.add(event(1, Event.Create, "spilled3"), false));
+        assertEquals(Backlog.ADDED, b.coalesce(event(1, Event.Modify, "spilled4")));
+        assertEquals(5, b.spilled());
+        assertEquals(6, b.size());
+
+        List<InotifyEvent> out = drain(b);
+        assertEquals(1, out.size());
+        assertSame(held, out.get(0));
+
+        List<String> names = new ArrayList<String>();
+        while (b.holdsEvents()) {
+            out = drain(b);
+            assertTrue(out.size() <= 2);
+            for (InotifyEvent e : out)
+                names.add(e.getName());
+        }
+        assertEquals(5, names.size());
+        for (int i = 0; i < 5; i++)
+            assertEquals("spilled" + i, names.get(i));
+        assertEquals(0, b.spilled());
+        assertEquals(0, b.size());
+
+        // held in memory again once the spilled events are taken
+        b.add(event(1, Event.Create, "again"), false);
+        assertEquals(0, b.spilled());
+    }
+
+    /**
+     * Test method for {@link Backlog#clear()}.
+     */
+    @Test
+    public void testClear() {
+        Backlog b = new Backlog(2);
+        b.add(event(1, Event.Create, "a"), false);
+        b.notice(new InotifyEvent(1,
+                EventModifier.Event_Queue_Overflow.value(), 0));
+        assertTrue(b.spill(event(1, Event.Create, "b"), directory));
+        b.clear();
+        assertEquals(0, b.size());
+        assertEquals(0, b.spilled());
+        assertFalse(b.holdsEvents());
+        assertTrue(drain(b).isEmpty());
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: BatchDispatcherTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Batch dispatcher unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class BatchDispatcherTest {
+
+    /** Mask of a create event. */
+    private static final int CREATE = 0x00000100;
+
+    /** Milliseconds a test waits for the timer. */
+    private static final long TIMEOUT = 30000;
+
+    /** Linger, in milliseconds, of batches delivered by the timer. */
+    private static final long LINGER = 50;
+
+    BatchDispatcher dispatcher;
+    Recorder recorder;
+
+    /*
+     * Records the names of the batches delivered, their times and threads.
+     */
+    private static final class Recorder implements BatchInotifyEventListener {
+
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        final List<Long> times = new ArrayList<Long>();
+        final List<Boolean> onTimer = new ArrayList<Boolean>();
+
+        @Override
+        public synchronized void filesystemEventsOccurred(EventBatch batch) {
+            List<String> names = new ArrayList<String>();
+            EventBatch.Cursor c = batch.cursor();
+            while (c.next())
+                names.add(c.name());
+            batches.add(names);
+            times.add(System.nanoTime());
+            onTimer.add(BatchDispatcher.isTimerThread());
+            notifyAll();
+        }
+
+        synchronized int count() {
+            return batches.size();
+        }
+
+        synchronized List<String> get(int i) {
+            return batches.get(i);
+        }
+
+        synchronized boolean await(int count) throws InterruptedException {
+            long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+            while (batches.size() < count) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        recorder = new Recorder();
+        Set<BatchInotifyEventListener> listeners = new CopyOnWriteArraySet<BatchInotifyEventListener>();
+        listeners.add(recorder);
+        dispatcher = new BatchDispatcher(listeners);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        dispatcher.clear();
+    }
+
+    /*
+     * Adds events named after the provided names.
+     */
+    private void add(String... names) {
+        for (String name : names)
+            dispatcher.add(new InotifyEvent(1, CREATE, 0, name));
+    }
+
+    /*
+     * Returns the timer thread once it is blocked on a monitor.
+     */
+    private static Thread blockedTimer() throws InterruptedException {
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        while (System.nanoTime() < deadline) {
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                if ("BatchDispatcher timer".equals(t.getName())
+                        && t.getState() == Thread.State.BLOCKED) return t;
+            }
+            Thread.sleep(1);
+        }
+        return null;
+    }
+
+    /**
+     * Test method for {@link BatchDispatcher#add(InotifyEvent)}: a batch is
+     * delivered as soon as it reaches the maximum batch size.
+     */
+    @Test
+    public void testMaxBatchSize() {
+        dispatcher.configure(3, TimeUnit.SECONDS.toNanos(60));
+        add("a", "b", "c", "d", "e", "f", "g");
+
+        assertEquals(2, recorder.count());
+        assertEquals(Arrays.asList("a", "b", "c"), recorder.get(0));
+        assertEquals(Arrays.asList("d", "e", "f"), recorder.get(1));
+        assertFalse(recorder.onTimer.get(0));
+
+        // the remainder waits for its linger
+        dispatcher.endOfBatch();
+        assertEquals(2, recorder.count());
+        dispatcher.drain();
+        assertEquals(3, recorder.count());
+        assertEquals(Arrays.asList("g"), recorder.get(2));
+    }
+
+    /**
+     * Test method for {@link BatchDispatcher#configure(int, long)}: lowering
+     * the maximum batch size delivers a batch already that large.
+     */
+    @Test
+    public void testConfigureFlushes() {
+        dispatcher.configure(10, TimeUnit.SECONDS.toNanos(60));
+        add("a", "b", "c");
+        assertEquals(0, recorder.count());
+        dispatcher.configure(2, TimeUnit.SECONDS.toNanos(60));
+        assertEquals(1, recorder.count());
+        assertEquals(3, recorder.get(0).size());
+    }
+
+    /**
+     * Test method for {@link BatchDispatcher#endOfBatch()}: a batch that has
+     * lingered long enough is delivered by the reading thread.
+     */
+    @Test
+    public void testEndOfBatchLingered() {
+        dispatcher.configure(100, 0);
+        add("a", "b");
+        assertEquals(0, recorder.count());
+        dispatcher.endOfBatch();
+        assertEquals(1, recorder.count());
+        assertFalse(recorder.onTimer.get(0));
+
+        // an empty batch is not delivered
+        dispatcher.endOfBatch();
+        assertEquals(1, recorder.count());
+    }
+
+    /**
+     * Test method for {@link BatchDispatcher#endOfBatch()}: a batch still
+     * lingering is delivered by the shared timer once its time is up.
+     *
+     * @throws InterruptedException Thrown if interrupted
+     */
+    @Test
+    public void testLinger() throws InterruptedException {
+        dispatcher.configure(100, TimeUnit.MILLISECONDS.toNanos(LINGER));
+        long start = System.nanoTime();
+        add("a", "b");
+        dispatcher.endOfBatch();
+        add("c");
+        dispatcher.endOfBatch();
+
+        assertTrue(recorder.await(1));
+        long waited = System.nanoTime() - start;
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(LINGER));
+        assertEquals(Arrays.asList("a", "b", "c"), recorder.get(0));
+        assertTrue(recorder.onTimer.get(0));
+
+        // a single timed delivery was scheduled
+        Thread.sleep(2 * LINGER);
+        assertEquals(1, recorder.count());
+    }
+
+    /**
+     * Test method for {@link BatchDispatcher#clear()}: collected events and
+     * their timed delivery are dropped.
+     *
+     * @throws InterruptedException Thrown if interrupted
+     */
+    @Test
+    public void testClear() throws InterruptedException {
+        dispatcher.configure(100, TimeUnit.MILLISECONDS.toNanos(LINGER));
+        add("a", "b");
+        dispatcher.endOfBatch();
+        dispatcher.clear();
+
+        Thread.sleep(4 * LINGER);
+        assertEquals(0, recorder.count());
+
+        add("c");
+        dispatcher.drain();
+        assertEquals(1, recorder.count());
+        assertEquals(Arrays.asList("c"), recorder.get(0));
+    }
+
+    /**
+     * Test method for {@link BatchDispatcher#endOfBatch()}: a timed delivery
+     * that fires while the batch is delivered by another thread does not
+     * deliver, nor forget, the delivery scheduled for the next batch.
+     *
+     * @throws InterruptedException Thrown if interrupted
+     */
+    @Test
+    public void testStaleTimedDelivery() throws InterruptedException {
+        long added;
+        dispatcher.configure(100, TimeUnit.MILLISECONDS.toNanos(1));
+        synchronized (dispatcher) {
+            add("a");
+            dispatcher.endOfBatch();
+            // the timer fires and waits for the dispatcher
+            assertTrue(blockedTimer() != null);
+
+            dispatcher.drain();
+            dispatcher.configure(100, TimeUnit.MILLISECONDS.toNanos(LINGER));
+            added = System.nanoTime();
+            add("b");
+            dispatcher.endOfBatch();
+        }
+        assertEquals(1, recorder.count());
+        assertFalse(recorder.onTimer.get(0));
+
+        // "b" lingers for its own time, then is delivered once
+        assertTrue(recorder.await(2));
+        assertEquals(Arrays.asList("b"), recorder.get(1));
+        assertTrue(recorder.times.get(1) - added >= TimeUnit.MILLISECONDS
+                .toNanos(LINGER));
+        assertTrue(recorder.onTimer.get(1));
+        Thread.sleep(2 * LINGER);
+        assertEquals(2, recorder.count());
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: DirectoryTableTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Directory table unit tests, decoding records laid out as the native walk
+ * writes them.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class DirectoryTableTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * Encodes walk records: each row is a parent row, a watch descriptor and
+     * a name.
+     */
+    private static byte[] records(Object... rows) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096).order(
+                ByteOrder.nativeOrder());
+        for (int i = 0; i < rows.length; i += 3) {
+            byte[] name = ((String) rows[i + 2]).getBytes(UTF_8);
+            buffer.putInt((Integer) rows[i]);
+            buffer.putInt((Integer) rows[i + 1]);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        }
+        byte[] records = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(records);
+        return records;
+    }
+
+    /**
+     * Test method for {@link DirectoryTable#DirectoryTable(byte[])}.
+     */
+    @Test
+    public void testDecode() {
+        DirectoryTable t = new DirectoryTable(records(
+                -1, 10, "a",
+                -1, -13, "locked",
+                0, 11, "ünïcode",
+                2, 12, "c"));
+        assertEquals(4, t.size);
+        assertArrayEquals(new int[] { -1, -1, 0, 2 }, t.parents);
+        // a directory that could not be watched holds its negated errno
+        assertArrayEquals(new int[] { 10, -13, 11, 12 }, t.wds);
+        assertEquals("a", t.name(0));
+        assertEquals("locked", t.name(1));
+        assertEquals("ünïcode", t.name(2));
+        assertEquals("ünïcode".getBytes(UTF_8).length, t.nameLengths[2]);
+        assertEquals("c", t.name(3));
+    }
+
+    /**
+     * Test method for {@link DirectoryTable#DirectoryTable(byte[])}.
+     */
+    @Test
+    public void testEmpty() {
+        DirectoryTable t = new DirectoryTable(new byte[0]);
+        assertEquals(0, t.size);
+        assertEquals(0, t.paths("/data").length);
+    }
+
+    /**
+     * Test method for {@link DirectoryTable#DirectoryTable(byte[])}: a name
+     * of more than 32767 bytes has its length read unsigned.
+     */
+    @Test
+    public void testLongName() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 40000; i++)
+            name.append('x');
+        ByteBuffer buffer = ByteBuffer.allocate(2 * (4 + 4 + 2) + 40001)
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(-1).putInt(1).putShort((short) 40000);
+        buffer.put(name.toString().getBytes(UTF_8));
+        buffer.putInt(0).putInt(2).putShort((short) 1).put((byte) 'y');
+
+        DirectoryTable t = new DirectoryTable(buffer.array());
+        assertEquals(2, t.size);
+        assertEquals(40000, t.nameLengths[0]);
+        assertEquals(name.toString(), t.name(0));
+        assertEquals("y", t.name(1));
+        assertEquals(0, t.parents[1]);
+    }
+
+    /**
+     * Test method for {@link DirectoryTable#paths(String)}.
+     */
+    @Test
+    public void testPaths() {
+        DirectoryTable t = new DirectoryTable(records(
+                -1, 1, "a",
+                -1, 2, "b",
+                0, 3, "c",
+                2, 4, "d",
+                1, 5, "e"));
+        String[] expected = { "/data/a", "/data/b", "/data/a/c",
+                "/data/a/c/d", "/data/b/e" };
+        assertArrayEquals(expected, t.paths("/data"));
+        // a trailing slash on the walk root is dropped
+        assertArrayEquals(expected, t.paths("/data/"));
+        assertArrayEquals(new String[] { "/a", "/b", "/a/c", "/a/c/d",
+                "/b/e" }, t.paths("/"));
+    }
+}
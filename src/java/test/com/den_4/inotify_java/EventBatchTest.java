@@ -0,0 +1,339 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: EventBatchTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Event batch unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class EventBatchTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Mask of a create event. */
+    private static final int CREATE = 0x00000100;
+
+    /** Mask of a delete-self event. */
+    private static final int DELETE_SELF = 0x00000400;
+
+    EventBatch batch;
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        batch = new EventBatch();
+    }
+
+    /*
+     * Returns an event in the watched directory /data.
+     */
+    private static InotifyEvent event(int wd, int mask, int cookie,
+            String name) {
+        InotifyEvent e = name == null ? new InotifyEvent(wd, mask, cookie)
+                : new InotifyEvent(wd, mask, cookie, name);
+        e.setDirectory("/data");
+        return e;
+    }
+
+    /*
+     * Returns the arena length reported by the batch's string representation.
+     */
+    private static int arena(EventBatch b) {
+        String s = b.toString();
+        return Integer.parseInt(s.substring(s.indexOf("arena=") + 6,
+                s.indexOf(']')));
+    }
+
+    /**
+     * Test method for {@link EventBatch#add(InotifyEvent)}.
+     */
+    @Test
+    public void testAdd() {
+        assertTrue(batch.isEmpty());
+        batch.add(event(3, CREATE, 7, "file"));
+        batch.add(event(3, DELETE_SELF, 0, null));
+
+        assertFalse(batch.isEmpty());
+        assertEquals(2, batch.size());
+        assertEquals(3, batch.wd(0));
+        assertEquals(CREATE, batch.mask(0));
+        assertEquals(7, batch.cookie(0));
+        assertEquals("/data", batch.directory(0));
+        assertEquals("file", batch.name(0));
+        assertEquals("/data/file", batch.contextualName(0));
+        assertEquals(DELETE_SELF, batch.mask(1));
+    }
+
+    /**
+     * Test method for {@link EventBatch#hasName(int)} and
+     * {@link EventBatch#nameLength(int)}, with and without a name.
+     */
+    @Test
+    public void testNames() {
+        batch.add(event(1, CREATE, 0, "name"));
+        batch.add(event(1, DELETE_SELF, 0, null));
+        batch.add(event(1, CREATE, 0, ""));
+
+        assertTrue(batch.hasName(0));
+        assertEquals(4, batch.nameLength(0));
+        byte[] dst = new byte[6];
+        assertEquals(4, batch.getNameBytes(0, dst, 1));
+        assertArrayEquals(new byte[] { 0, 'n', 'a', 'm', 'e', 0 }, dst);
+
+        // no name: length 0, no bytes, no contextual name
+        assertFalse(batch.hasName(1));
+        assertEquals(0, batch.nameLength(1));
+        assertEquals(0, batch.getNameBytes(1, dst, 0));
+        assertNull(batch.name(1));
+        assertNull(batch.contextualName(1));
+
+        // an empty name is still a name
+        assertTrue(batch.hasName(2));
+        assertEquals(0, batch.nameLength(2));
+        assertEquals("", batch.name(2));
+    }
+
+    /**
+     * Test method for {@link EventBatch#add(InotifyEvent)}: names with
+     * characters beyond ASCII are encoded as UTF-8.
+     */
+    @Test
+    public void testNonAsciiName() {
+        String name = "café-日本";
+        batch.add(event(1, CREATE, 0, "ascii"));
+        batch.add(event(1, CREATE, 0, name));
+        batch.add(event(1, CREATE, 0, "after"));
+
+        byte[] utf8 = name.getBytes(UTF_8);
+        assertEquals(utf8.length, batch.nameLength(1));
+        byte[] dst = new byte[utf8.length];
+        batch.getNameBytes(1, dst, 0);
+        assertArrayEquals(utf8, dst);
+        assertEquals(5 + utf8.length + 5, arena(batch));
+
+        // the names around it are intact
+        assertEquals("ascii", batch.name(0));
+        assertEquals(name, batch.name(1));
+        assertEquals("after", batch.name(2));
+        assertEquals(5, batch.nameLength(2));
+    }
+
+    /**
+     * Test method for {@link EventBatch#add(InotifyEvent)}, beyond the
+     * initial capacities of the columns and the arena.
+     */
+    @Test
+    public void testGrow() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 40; i++)
+            name.append('x');
+        int n = 1000;
+        for (int i = 0; i < n; i++)
+            batch.add(event(i, CREATE, i * 2, name.toString() + i));
+
+        assertEquals(n, batch.size());
+        int bytes = 0;
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, batch.wd(i));
+            assertEquals(CREATE, batch.mask(i));
+            assertEquals(i * 2, batch.cookie(i));
+            assertEquals(name.toString() + i, batch.name(i));
+            bytes += batch.nameLength(i);
+        }
+        assertEquals(bytes, arena(batch));
+    }
+
+    /**
+     * Test method for {@link EventBatch#clear()}: the batch is emptied and
+     * its arena reused, with nothing left of the previous events.
+     */
+    @Test
+    public void testClear() {
+        batch.add(event(1, CREATE, 0, "first"));
+        batch.add(event(2, CREATE, 0, "second"));
+        assertEquals("first", batch.name(0));
+        EventBatch.Cursor c = batch.cursor();
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertEquals(0, arena(batch));
+        assertFalse(batch.cursor().next());
+
+        // new names overwrite the arena from the start, and are decoded from
+        // it rather than from a name cached for the previous events
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put("xyz".getBytes(UTF_8));
+        InotifyEventView v = new InotifyEventView();
+        v.set(buffer, 3, CREATE, 0, 0, 16);
+        batch.add(v);
+        assertEquals(3, arena(batch));
+        assertEquals(1, batch.size());
+        assertEquals(3, batch.wd(0));
+        assertEquals("xyz", batch.name(0));
+        assertNull(batch.directory(0));
+        assertNull(batch.contextualName(0));
+        assertSame(c, batch.cursor());
+    }
+
+    /**
+     * Test method for {@link EventBatch#wd(int)} out of range.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfRange() {
+        batch.add(event(1, CREATE, 0, "a"));
+        batch.clear();
+        batch.wd(0);
+    }
+
+    /**
+     * Test method for {@link EventBatch#add(InotifyEventView)}, decoding a
+     * record of the native read buffer.
+     */
+    @Test
+    public void testAddView() {
+        byte[] name = "viéw".getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(
+                ByteOrder.nativeOrder());
+        // name field padded with nulls, as the kernel does
+        buffer.position(16);
+        buffer.put(name);
+
+        InotifyEventView v = new InotifyEventView();
+        v.set(buffer, 5, CREATE, 9, 16, 16);
+        v.setDirectory("/data/");
+        batch.add(v);
+        v.set(buffer, 5, DELETE_SELF, 0, 32, 0);
+        batch.add(v);
+
+        assertEquals(5, batch.wd(0));
+        assertEquals(9, batch.cookie(0));
+        assertEquals(name.length, batch.nameLength(0));
+        assertEquals("viéw", batch.name(0));
+        assertEquals("/data/viéw", batch.contextualName(0));
+        assertFalse(batch.hasName(1));
+        assertNull(batch.name(1));
+    }
+
+    /**
+     * Test method for {@link EventBatch#materialize(int)}.
+     */
+    @Test
+    public void testMaterialize() {
+        batch.add(event(4, CREATE, 11, "made"));
+        batch.add(event(4, DELETE_SELF, 0, null));
+
+        InotifyEvent e = batch.materialize(0);
+        InotifyEvent self = batch.materialize(1);
+        batch.clear();
+        batch.add(event(9, CREATE, 0, "else"));
+
+        // materialized events outlive the batch
+        assertEquals(4, e.getSource().intValue());
+        assertEquals(CREATE, e.getMask());
+        assertEquals(11, e.getCookie());
+        assertEquals("made", e.getName());
+        assertEquals("/data", e.getDirectory());
+        assertEquals("/data/made", e.getContextualName());
+        assertEquals(DELETE_SELF, self.getMask());
+        assertNull(self.getName());
+    }
+
+    /**
+     * Test method for {@link EventBatch#cursor()}.
+     */
+    @Test
+    public void testCursor() {
+        for (int i = 0; i < 3; i++)
+            batch.add(event(i + 1, i == 1 ? DELETE_SELF : CREATE, i, i == 1
+                    ? null : "n" + i));
+
+        EventBatch.Cursor c = batch.cursor();
+        assertEquals(-1, c.position());
+        assertTrue(c.next());
+        assertEquals(0, c.position());
+        assertEquals(1, c.wd());
+        assertEquals(CREATE, c.mask());
+        assertEquals("n0", c.name());
+        assertEquals("/data/n0", c.contextualName());
+        assertTrue(c.next());
+        assertEquals(DELETE_SELF, c.mask());
+        assertNull(c.name());
+        assertNull(c.contextualName());
+        assertTrue(c.next());
+        assertEquals(2, c.cookie());
+        assertEquals("n2", c.materialize().getName());
+        assertFalse(c.next());
+        assertFalse(c.next());
+
+        // the cursor is reused, from the start
+        assertSame(c, batch.cursor());
+        assertEquals(-1, c.position());
+        assertTrue(c.next());
+        assertEquals(0, c.position());
+    }
+
+    /**
+     * Test method for {@link EventBatch#copy()}.
+     */
+    @Test
+    public void testCopy() {
+        batch.add(event(1, CREATE, 0, "kept"));
+        batch.add(event(2, DELETE_SELF, 0, null));
+        EventBatch copy = batch.copy();
+        batch.clear();
+        batch.add(event(3, CREATE, 0, "gone"));
+
+        assertNotSame(batch, copy);
+        assertEquals(2, copy.size());
+        assertEquals("kept", copy.name(0));
+        assertEquals("/data/kept", copy.contextualName(0));
+        assertEquals(2, copy.wd(1));
+        assertFalse(copy.hasName(1));
+
+        // a copy of an empty batch can still grow
+        batch.clear();
+        EventBatch empty = batch.copy();
+        assertTrue(empty.isEmpty());
+        empty.add(event(1, CREATE, 0, "a"));
+        empty.add(event(2, CREATE, 0, "b"));
+        assertEquals("b", empty.name(1));
+    }
+}
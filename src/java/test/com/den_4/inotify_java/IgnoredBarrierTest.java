@@ -0,0 +1,275 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: IgnoredBarrierTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * Ignored barrier unit tests, driving consumer lanes as a
+ * {@link MonitorService} partitioned by path does: the events of one watch
+ * spread across the lanes, and its {@code IN_IGNORED} event broadcast to all
+ * of them.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class IgnoredBarrierTest {
+
+    /** Mask of an {@code IN_IGNORED} event. */
+    private static final int IGNORED = 0x00008000;
+
+    /** Mask of the other events. */
+    private static final int MODIFY = 0x00000002;
+
+    /** Milliseconds a test waits for its lanes. */
+    private static final long TIMEOUT = 30000;
+
+    /** Barriers by watch descriptor, as the service keeps them. */
+    final Map<Integer, IgnoredBarrier> barriers = new ConcurrentHashMap<Integer, IgnoredBarrier>();
+
+    /*
+     * Handles the events of one lane.
+     */
+    private interface Handler {
+
+        void handle(int lane, InotifyEvent e) throws InterruptedException;
+    }
+
+    /*
+     * Consumer thread of one lane, handling a known number of events.
+     */
+    private static final class Lane extends Thread {
+
+        final RingBuffer<InotifyEvent> queue = new RingBuffer<InotifyEvent>(
+                64, WaitStrategy.BLOCKING);
+        private final int lane;
+        private final Handler handler;
+        volatile int expected;
+        volatile Throwable failure;
+
+        Lane(int lane, Handler handler) {
+            super("lane-" + lane);
+            this.lane = lane;
+            this.handler = handler;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            try {
+                while (next < expected) {
+                    long available = queue.waitFor(next);
+                    while (next < available) {
+                        InotifyEvent e = queue.get(next);
+                        queue.release(++next);
+                        handler.handle(lane, e);
+                    }
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        void put(InotifyEvent e) {
+            while (!queue.offer(e))
+                Thread.yield();
+        }
+    }
+
+    /*
+     * Queues an IN_IGNORED event to every lane, as MonitorService#broadcast
+     * does.
+     */
+    private void broadcast(Lane[] lanes, int wd) {
+        barriers.put(wd, new IgnoredBarrier(lanes.length));
+        InotifyEvent e = new InotifyEvent(wd, IGNORED, 0);
+        for (Lane l : lanes)
+            l.put(e);
+    }
+
+    /*
+     * Returns true if the lane handling an IN_IGNORED event is the last to
+     * reach it, as QueueConsumer#consumeIgnored does.
+     */
+    private boolean arrive(InotifyEvent e) {
+        IgnoredBarrier barrier = barriers.get(e.getSource());
+        if (barrier == null || !barrier.arrive()) return false;
+        barriers.remove(e.getSource());
+        return true;
+    }
+
+    /*
+     * Waits for the lanes to handle their events.
+     */
+    private static void run(Lane[] lanes) throws Throwable {
+        for (Lane l : lanes)
+            l.join(TIMEOUT);
+        for (Lane l : lanes) {
+            assertFalse(l.getName() + " finished", l.isAlive());
+            if (l.failure != null) throw l.failure;
+        }
+    }
+
+    /**
+     * Test method for {@link IgnoredBarrier#arrive()}.
+     */
+    @Test
+    public void testArrive() {
+        IgnoredBarrier b = new IgnoredBarrier(3);
+        assertFalse(b.arrive());
+        assertFalse(b.arrive());
+        assertTrue(b.arrive());
+
+        assertTrue(new IgnoredBarrier(1).arrive());
+    }
+
+    /**
+     * Spreads the events of several watches across lanes, one of them slow,
+     * and checks each {@code IN_IGNORED} event is delivered once, after every
+     * other event of its watch.
+     *
+     * @throws Throwable Thrown if a lane fails
+     */
+    @Test
+    public void testDeliveredAfterEveryLane() throws Throwable {
+        final int watches = 8;
+        final int events = 200;
+        final AtomicIntegerArray delivered = new AtomicIntegerArray(watches);
+        final AtomicIntegerArray ignored = new AtomicIntegerArray(watches);
+        final AtomicIntegerArray deliveredBeforeIgnored = new AtomicIntegerArray(
+                watches);
+        final AtomicInteger slow = new AtomicInteger();
+
+        Handler h = new Handler() {
+            @Override
+            public void handle(int lane, InotifyEvent e)
+                    throws InterruptedException {
+                int w = e.getSource() - 1;
+                if (e.isIgnored()) {
+                    if (arrive(e)) {
+                        deliveredBeforeIgnored.set(w, delivered.get(w));
+                        ignored.incrementAndGet(w);
+                    }
+                    return;
+                }
+                // the first lane lags behind the others
+                if (lane == 0 && slow.incrementAndGet() % 20 == 0)
+                    Thread.sleep(1);
+                delivered.incrementAndGet(w);
+            }
+        };
+
+        Lane[] lanes = new Lane[4];
+        int[] expected = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++)
+            lanes[i] = new Lane(i, h);
+        for (int w = 0; w < watches; w++) {
+            for (int j = 0; j < events; j++)
+                expected[(w * 31 + j) % lanes.length]++;
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].expected = expected[i] + watches;
+            lanes[i].start();
+        }
+
+        for (int w = 0; w < watches; w++) {
+            int wd = w + 1;
+            for (int j = 0; j < events; j++) {
+                lanes[(w * 31 + j) % lanes.length].put(new InotifyEvent(wd,
+                        MODIFY, 0, "f" + j));
+            }
+            broadcast(lanes, wd);
+        }
+        run(lanes);
+
+        for (int w = 0; w < watches; w++) {
+            assertEquals("wd " + (w + 1), 1, ignored.get(w));
+            assertEquals("wd " + (w + 1), events,
+                    deliveredBeforeIgnored.get(w));
+        }
+        assertTrue(barriers.isEmpty());
+    }
+
+    /**
+     * Holds one lane on an earlier event of the watch while the others reach
+     * the {@code IN_IGNORED} event, which must wait for it.
+     *
+     * @throws Throwable Thrown if a lane fails
+     */
+    @Test
+    public void testBlockedLaneHoldsDelivery() throws Throwable {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger arrived = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger deliveredBeforeIgnored = new AtomicInteger(-1);
+
+        Handler h = new Handler() {
+            @Override
+            public void handle(int lane, InotifyEvent e)
+                    throws InterruptedException {
+                if (e.isIgnored()) {
+                    boolean last = arrive(e);
+                    arrived.incrementAndGet();
+                    if (last) deliveredBeforeIgnored.set(delivered.get());
+                    return;
+                }
+                if (lane == 0) release.await();
+                delivered.incrementAndGet();
+            }
+        };
+
+        Lane[] lanes = new Lane[3];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i, h);
+            lanes[i].expected = 2;
+            lanes[i].start();
+        }
+        for (Lane l : lanes)
+            l.put(new InotifyEvent(1, MODIFY, 0, l.getName()));
+        broadcast(lanes, 1);
+
+        // the other lanes reach the event, the blocked one cannot
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        while (arrived.get() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertEquals(2, arrived.get());
+        assertEquals(-1, deliveredBeforeIgnored.get());
+
+        release.countDown();
+        run(lanes);
+        assertEquals(3, arrived.get());
+        assertEquals(3, deliveredBeforeIgnored.get());
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: LatencyHistogramTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Latency histogram unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Test method for {@link LatencyHistogram#LatencyHistogram()}.
+     */
+    @Test
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0d, h.getMean(), 0d);
+        assertEquals(0, h.getValueAtPercentile(50));
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#getValueAtPercentile(double)}:
+     * values below 64 are counted exactly.
+     */
+    @Test
+    public void testExactValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 0; v < 64; v++)
+            h.record(v);
+        assertEquals(64, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(63, h.getMax());
+        assertEquals(31.5d, h.getMean(), 0d);
+        for (int rank = 1; rank <= 64; rank++)
+            assertEquals(rank - 1,
+                    h.getValueAtPercentile((rank - 0.5d) * 100d / 64));
+        assertEquals(0, h.getValueAtPercentile(0));
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#getValueAtPercentile(double)}:
+     * 64 opens the first bucket of two values, so 64 and 65 are reported
+     * alike while 63 and 66 are not.
+     */
+    @Test
+    public void testBucketBoundaries() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(63);
+        h.record(1000);
+        assertEquals(63, h.getValueAtPercentile(50));
+
+        h = new LatencyHistogram();
+        h.record(64);
+        h.record(1000);
+        assertEquals(65, h.getValueAtPercentile(50));
+
+        h = new LatencyHistogram();
+        h.record(65);
+        h.record(1000);
+        assertEquals(65, h.getValueAtPercentile(50));
+
+        h = new LatencyHistogram();
+        h.record(66);
+        h.record(1000);
+        assertEquals(67, h.getValueAtPercentile(50));
+
+        // the highest percentile never exceeds the largest value
+        h = new LatencyHistogram();
+        h.record(64);
+        assertEquals(64, h.getValueAtPercentile(100));
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#getValueAtPercentile(double)}:
+     * any value is reported within the precision of its power of two.
+     */
+    @Test
+    public void testPrecision() {
+        for (long v = 64; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+            LatencyHistogram h = new LatencyHistogram();
+            h.record(v);
+            h.record(Long.MAX_VALUE);
+            long reported = h.getValueAtPercentile(50);
+            assertTrue(v + " reported as " + reported, reported >= v);
+            assertTrue(v + " reported as " + reported,
+                    reported - v <= v / 32);
+        }
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#record(long)}.
+     */
+    @Test
+    public void testRecordExtremes() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(2, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(Long.MAX_VALUE, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#getValueAtPercentile(double)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRange() {
+        new LatencyHistogram().getValueAtPercentile(100.5);
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#snapshot()} and
+     * {@link LatencyHistogram#add(LatencyHistogram)}.
+     */
+    @Test
+    public void testSnapshotAndAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        a.record(10);
+        a.record(20);
+        LatencyHistogram snapshot = a.snapshot();
+        a.record(30);
+        assertEquals(2, snapshot.getCount());
+        assertEquals(20, snapshot.getMax());
+        assertEquals(3, a.getCount());
+
+        LatencyHistogram b = new LatencyHistogram();
+        b.record(5);
+        b.add(a);
+        assertEquals(4, b.getCount());
+        assertEquals(5, b.getMin());
+        assertEquals(30, b.getMax());
+        assertEquals(16.25d, b.getMean(), 0d);
+        assertEquals(3, a.getCount());
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#intervalSnapshot()}.
+     */
+    @Test
+    public void testIntervalSnapshot() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(1);
+        h.record(2);
+        LatencyHistogram interval = h.intervalSnapshot();
+        assertEquals(2, interval.getCount());
+        assertEquals(0, h.getCount());
+        h.record(3);
+        interval = h.intervalSnapshot();
+        assertEquals(1, interval.getCount());
+        assertEquals(3, interval.getMin());
+    }
+
+    /**
+     * Test method for {@link LatencyHistogram#intervalSnapshot()} while
+     * other threads record: each value is counted in exactly one interval.
+     */
+    @Test
+    public void testIntervalSnapshotConcurrentRecord()
+            throws InterruptedException {
+        final LatencyHistogram h = new LatencyHistogram();
+        final int threads = 4;
+        final int records = 200000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread[] recorders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            recorders[i] = new Thread("recorder-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < records; j++)
+                            h.record(j & 1023);
+                    } catch (InterruptedException e) {
+                        failed.set(true);
+                    }
+                }
+            };
+            recorders[i].start();
+        }
+
+        long count = 0;
+        long sum = 0;
+        start.countDown();
+        boolean recording = true;
+        while (recording) {
+            recording = false;
+            for (Thread t : recorders)
+                recording |= t.isAlive();
+            LatencyHistogram interval = h.intervalSnapshot();
+            count += interval.getCount();
+            sum += Math.round(interval.getMean() * interval.getCount());
+        }
+        for (Thread t : recorders)
+            t.join();
+        LatencyHistogram last = h.intervalSnapshot();
+        count += last.getCount();
+        sum += Math.round(last.getMean() * last.getCount());
+
+        long perThread = 0;
+        for (int j = 0; j < records; j++)
+            perThread += j & 1023;
+        assertFalse(failed.get());
+        assertEquals((long) threads * records, count);
+        assertEquals(threads * perThread, sum);
+    }
+}
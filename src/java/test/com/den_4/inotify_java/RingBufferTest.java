@@ -0,0 +1,247 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: RingBufferTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Ring buffer unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class RingBufferTest {
+
+    /** Handoffs to a parked consumer. */
+    private static final int BLOCKING_HANDOFFS = 100000;
+
+    /** Handoffs to a spinning consumer, which may share the producer's CPU. */
+    private static final int SPINNING_HANDOFFS = 5000;
+
+    /** Milliseconds a consumer thread is given to finish. */
+    private static final long TIMEOUT = 30000;
+
+    /**
+     * Test method for {@link RingBuffer#RingBuffer(int, WaitStrategy)}.
+     */
+    @Test
+    public void testCapacity() {
+        RingBuffer<Integer> rb = new RingBuffer<Integer>(3,
+                WaitStrategy.BLOCKING);
+        assertEquals(3, rb.capacity());
+        // the slots are rounded up to a power of two, the capacity is not
+        assertTrue(rb.offer(0));
+        assertTrue(rb.offer(1));
+        assertTrue(rb.offer(2));
+        assertFalse(rb.offer(3));
+        assertEquals(3, rb.size());
+    }
+
+    /**
+     * Test method for {@link RingBuffer#RingBuffer(int, WaitStrategy)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new RingBuffer<Integer>(0, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * Test method for {@link RingBuffer#offer(Object)} and
+     * {@link RingBuffer#get(long)}, wrapping around the slots several times.
+     */
+    @Test
+    public void testWrapAround() {
+        RingBuffer<Integer> rb = new RingBuffer<Integer>(4,
+                WaitStrategy.BUSY_SPIN);
+        long next = 0;
+        int value = 0;
+        for (int round = 0; round < 10; round++) {
+            // fill it, leaving the producer a stale view of the head
+            int offered = 0;
+            while (rb.offer(value + offered))
+                offered++;
+            assertEquals(4, offered);
+            assertEquals(4, rb.size());
+
+            long available = rb.waitFor(next);
+            assertEquals(next + 4, available);
+            // take part of it, then refill the freed slots
+            for (int i = 0; i < 3; i++)
+                assertEquals(Integer.valueOf(value++), rb.get(next++));
+            rb.release(next);
+            assertEquals(1, rb.size());
+            for (int i = 0; i < 3; i++)
+                assertTrue(rb.offer(value + i + 1));
+            assertFalse(rb.offer(-1));
+
+            available = rb.waitFor(next);
+            while (next < available) {
+                assertEquals(Integer.valueOf(value++), rb.get(next++));
+            }
+            rb.release(next);
+            assertEquals(0, rb.size());
+        }
+        assertEquals(next, rb.published());
+        assertEquals(4, rb.getLargestSize());
+    }
+
+    /**
+     * Test method for {@link RingBuffer#get(long)}, which clears its slot.
+     */
+    @Test
+    public void testGetClearsSlot() {
+        RingBuffer<Integer> rb = new RingBuffer<Integer>(2,
+                WaitStrategy.BLOCKING);
+        assertTrue(rb.offer(7));
+        assertEquals(Integer.valueOf(7), rb.get(0));
+        assertNull(rb.get(0));
+    }
+
+    /**
+     * Hands many elements to a parked consumer one at a time; a lost wakeup
+     * leaves the consumer parked with an element published and fails the
+     * test by timing out.
+     */
+    @Test
+    public void testBlockingHandoff() throws InterruptedException {
+        handOff(WaitStrategy.BLOCKING, 1, BLOCKING_HANDOFFS);
+        handOff(WaitStrategy.BLOCKING, 64, BLOCKING_HANDOFFS);
+    }
+
+    /**
+     * Hands many elements to a spinning consumer.
+     */
+    @Test
+    public void testSpinningHandoff() throws InterruptedException {
+        handOff(WaitStrategy.YIELDING, 16, SPINNING_HANDOFFS);
+        handOff(WaitStrategy.BUSY_SPIN, 16, SPINNING_HANDOFFS);
+    }
+
+    /*
+     * Hands elements from this thread to a consumer thread, checking their
+     * order.
+     */
+    private static void handOff(WaitStrategy ws, int capacity,
+            final int handoffs) throws InterruptedException {
+        final RingBuffer<Long> rb = new RingBuffer<Long>(capacity, ws);
+        final AtomicLong consumed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        Thread consumer = new Thread("consumer") {
+            @Override
+            public void run() {
+                long next = 0;
+                while (next < handoffs) {
+                    long available = rb.waitFor(next);
+                    while (next < available) {
+                        if (rb.get(next).longValue() != next)
+                            errors.incrementAndGet();
+                        next++;
+                    }
+                    rb.release(next);
+                    consumed.set(next);
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+
+        for (long i = 0; i < handoffs; i++) {
+            while (!rb.offer(i)) {
+                Thread.yield();
+            }
+        }
+        consumer.join(TIMEOUT);
+        if (consumer.isAlive()) rb.halt();
+        assertEquals(ws + ": consumed", handoffs, consumed.get());
+        assertEquals(ws + ": out of order", 0, errors.get());
+    }
+
+    /**
+     * Test method for {@link RingBuffer#wake()}, for every wait strategy.
+     */
+    @Test
+    public void testWake() throws InterruptedException {
+        for (WaitStrategy ws : WaitStrategy.values()) {
+            final RingBuffer<Integer> rb = new RingBuffer<Integer>(4, ws);
+            // a wake before the wait ends the next wait, once
+            rb.wake();
+            assertEquals(0, rb.waitFor(0));
+
+            final AtomicLong returned = new AtomicLong(-1);
+            Thread consumer = new Thread("consumer") {
+                @Override
+                public void run() {
+                    returned.set(rb.waitFor(0));
+                }
+            };
+            consumer.setDaemon(true);
+            consumer.start();
+            consumer.join(100);
+            assertTrue(ws + ": waiting", consumer.isAlive());
+
+            rb.wake();
+            consumer.join(TIMEOUT);
+            assertFalse(ws + ": woken", consumer.isAlive());
+            assertEquals(ws + ": nothing published", 0, returned.get());
+
+            // the wake was consumed; an element ends the next wait
+            assertTrue(rb.offer(1));
+            assertEquals(1, rb.waitFor(0));
+        }
+    }
+
+    /**
+     * Test method for {@link RingBuffer#halt()}, for every wait strategy.
+     */
+    @Test
+    public void testHalt() throws InterruptedException {
+        for (WaitStrategy ws : WaitStrategy.values()) {
+            final RingBuffer<Integer> rb = new RingBuffer<Integer>(4, ws);
+            final AtomicLong returned = new AtomicLong(-1);
+            Thread consumer = new Thread("consumer") {
+                @Override
+                public void run() {
+                    returned.set(rb.waitFor(0));
+                }
+            };
+            consumer.setDaemon(true);
+            consumer.start();
+            consumer.join(100);
+            assertTrue(ws + ": waiting", consumer.isAlive());
+
+            rb.halt();
+            consumer.join(TIMEOUT);
+            assertFalse(ws + ": halted", consumer.isAlive());
+            assertEquals(0, returned.get());
+            // every later wait returns at once
+            assertEquals(0, rb.waitFor(0));
+            assertEquals(0, rb.waitFor(0));
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: SequentialExecutorTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sequential executor unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class SequentialExecutorTest {
+
+    /** Seconds a test waits for its tasks. */
+    private static final long TIMEOUT = 30;
+
+    ExecutorService pool;
+    final List<Throwable> uncaught = Collections
+            .synchronizedList(new ArrayList<Throwable>());
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newFixedThreadPool(8, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setUncaughtExceptionHandler(
+                        new Thread.UncaughtExceptionHandler() {
+                            @Override
+                            public void uncaughtException(Thread t,
+                                    Throwable e) {
+                                uncaught.add(e);
+                            }
+                        });
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @throws Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+        pool = null;
+    }
+
+    /**
+     * Executor running tasks on the submitting thread, rejecting them while
+     * {@link #reject} is set.
+     */
+    static final class RejectingExecutor implements Executor {
+
+        volatile boolean reject;
+
+        @Override
+        public void execute(Runnable command) {
+            if (reject) throw new RejectedExecutionException("rejected");
+            command.run();
+        }
+    }
+
+    /*
+     * Returns a task adding a value to a list.
+     */
+    private static Runnable add(final List<String> list, final String value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                list.add(value);
+            }
+        };
+    }
+
+    /*
+     * Waits for an executor to end its runs.
+     */
+    private static void awaitIdle(SequentialExecutor se)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (se.getRunningCount() != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, se.getRunningCount());
+        assertEquals(0, se.getPendingCount());
+    }
+
+    /**
+     * Test method for
+     * {@link SequentialExecutor#SequentialExecutor(Executor, int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroConcurrency() {
+        new SequentialExecutor(pool, 0);
+    }
+
+    /**
+     * Test method for {@link SequentialExecutor#execute(int, Runnable)}: the
+     * tasks of each key run in submission order.
+     */
+    @Test
+    public void testPerKeyOrder() throws InterruptedException {
+        SequentialExecutor se = new SequentialExecutor(pool, 4);
+        int keys = 16;
+        final int tasks = 2000;
+        final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+        final CountDownLatch done = new CountDownLatch(keys * tasks);
+        for (int k = 0; k < keys; k++)
+            runs.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < tasks; i++) {
+            for (int k = 0; k < keys; k++) {
+                final List<Integer> run = runs.get(k);
+                final int value = i;
+                se.execute(k, new Runnable() {
+                    @Override
+                    public void run() {
+                        // runs of one key never overlap
+                        run.add(value);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        awaitIdle(se);
+        for (int k = 0; k < keys; k++) {
+            List<Integer> run = runs.get(k);
+            assertEquals(tasks, run.size());
+            for (int i = 0; i < tasks; i++)
+                assertEquals(Integer.valueOf(i), run.get(i));
+        }
+        assertTrue(uncaught.isEmpty());
+    }
+
+    /**
+     * Test method for {@link SequentialExecutor#execute(int, Runnable)}: no
+     * more keys than the maximum concurrency run at once, and a key runs on
+     * one thread at a time.
+     */
+    @Test
+    public void testConcurrencyCap() throws InterruptedException {
+        final SequentialExecutor se = new SequentialExecutor(pool, 2);
+        final int keys = 8;
+        int tasks = 40;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicIntegerArray perKey = new AtomicIntegerArray(keys);
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(keys * tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                se.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (perKey.incrementAndGet(key) > 1)
+                            overlaps.incrementAndGet();
+                        int n = active.incrementAndGet();
+                        int max;
+                        while (n > (max = maxActive.get())
+                                && !maxActive.compareAndSet(max, n)) {
+                            // retry
+                        }
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        active.decrementAndGet();
+                        perKey.decrementAndGet(key);
+                        done.countDown();
+                    }
+                });
+                assertTrue(se.getRunningCount() <= 2);
+            }
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        awaitIdle(se);
+        assertEquals(2, maxActive.get());
+        assertEquals(0, overlaps.get());
+    }
+
+    /**
+     * Test method for {@link SequentialExecutor#execute(int, Runnable)}: an
+     * exception is reported and the later tasks of its key still run.
+     */
+    @Test
+    public void testException() throws InterruptedException {
+        SequentialExecutor se = new SequentialExecutor(pool, 1);
+        List<String> run = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        se.execute(1, add(run, "a"));
+        se.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("task failed");
+            }
+        });
+        se.execute(1, add(run, "b"));
+        se.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        awaitIdle(se);
+        assertEquals(2, run.size());
+        assertEquals("a", run.get(0));
+        assertEquals("b", run.get(1));
+        assertEquals(1, uncaught.size());
+        assertTrue(uncaught.get(0) instanceof IllegalStateException);
+    }
+
+    /**
+     * Test method for {@link SequentialExecutor#execute(int, Runnable)}: an
+     * error ends its run, is rethrown to the underlying executor, and the
+     * later tasks of its key run in a new run, in order.
+     */
+    @Test
+    public void testError() throws InterruptedException {
+        SequentialExecutor se = new SequentialExecutor(pool, 1);
+        List<String> run = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // hold the only slot until every task is submitted
+        se.execute(0, new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT, TimeUnit.SECONDS));
+        se.execute(1, add(run, "a"));
+        se.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("task error");
+            }
+        });
+        se.execute(1, add(run, "b"));
+        se.execute(2, add(run, "c"));
+        se.execute(1, add(run, "d"));
+        release.countDown();
+
+        awaitIdle(se);
+        // key 1 gives way to key 2 when its run aborts
+        assertEquals(4, run.size());
+        assertEquals("a", run.get(0));
+        assertEquals("c", run.get(1));
+        assertEquals("b", run.get(2));
+        assertEquals("d", run.get(3));
+        // reported as the pool thread the error ended terminates
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (uncaught.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, uncaught.size());
+        assertTrue(uncaught.get(0) instanceof AssertionError);
+    }
+
+    /**
+     * Test method for {@link SequentialExecutor#execute(int, Runnable)}: a
+     * run the executor rejects keeps its tasks, frees its slot, and goes
+     * first once the next task is submitted.
+     */
+    @Test
+    public void testRejectedSubmit() {
+        RejectingExecutor executor = new RejectingExecutor();
+        SequentialExecutor se = new SequentialExecutor(executor, 1);
+        List<String> run = new ArrayList<String>();
+
+        executor.reject = true;
+        try {
+            se.execute(1, add(run, "a"));
+            fail("rejection not thrown to the submitter");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(0, se.getRunningCount());
+        assertEquals(1, se.getPendingCount());
+        try {
+            se.execute(1, add(run, "b"));
+            fail("rejection not thrown to the submitter");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(2, se.getPendingCount());
+
+        executor.reject = false;
+        se.execute(2, add(run, "c"));
+        assertEquals(3, run.size());
+        assertEquals("a", run.get(0));
+        assertEquals("b", run.get(1));
+        assertEquals("c", run.get(2));
+        assertEquals(0, se.getRunningCount());
+        assertEquals(0, se.getPendingCount());
+    }
+
+    /**
+     * Test method for {@link SequentialExecutor#execute(int, Runnable)}: a
+     * run rejected as an ending run hands its slot on is reported to the
+     * running thread, and its key keeps its tasks.
+     */
+    @Test
+    public void testRejectedHandOn() {
+        final RejectingExecutor executor = new RejectingExecutor();
+        final SequentialExecutor se = new SequentialExecutor(executor, 1);
+        final List<String> run = new ArrayList<String>();
+
+        Thread t = Thread.currentThread();
+        Thread.UncaughtExceptionHandler previous = t
+                .getUncaughtExceptionHandler();
+        t.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                uncaught.add(e);
+            }
+        });
+        try {
+            se.execute(1, new Runnable() {
+                @Override
+                public void run() {
+                    // waits for the slot, which is then rejected
+                    se.execute(2, add(run, "b"));
+                    executor.reject = true;
+                    run.add("a");
+                }
+            });
+        } finally {
+            t.setUncaughtExceptionHandler(previous);
+        }
+        assertEquals(1, uncaught.size());
+        assertTrue(uncaught.get(0) instanceof RejectedExecutionException);
+        assertEquals(0, se.getRunningCount());
+        assertEquals(1, se.getPendingCount());
+
+        executor.reject = false;
+        se.execute(3, add(run, "c"));
+        assertEquals(3, run.size());
+        assertEquals("a", run.get(0));
+        assertEquals("b", run.get(1));
+        assertEquals("c", run.get(2));
+        assertEquals(0, se.getPendingCount());
+    }
+}
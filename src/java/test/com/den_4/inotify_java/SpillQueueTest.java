@@ -0,0 +1,247 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: SpillQueueTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Spill queue unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class SpillQueueTest {
+
+    /** Smallest segment the queue accepts. */
+    private static final int SEGMENT_SIZE = 2048;
+
+    File directory;
+    SpillQueue sq;
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("spill-test", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        sq = new SpillQueue(directory, SEGMENT_SIZE);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        sq.clear();
+        // segment files are unlinked as soon as they are mapped
+        assertEquals(0, directory.list().length);
+        assertTrue(directory.delete());
+    }
+
+    /*
+     * Returns the i-th test event: every third has no name, the others a name
+     * of growing length, some of it not ASCII.
+     */
+    private static InotifyEvent event(int i) {
+        InotifyEvent e;
+        if (i % 3 == 0) {
+            e = new InotifyEvent(i, i + 1, i + 2);
+        } else {
+            StringBuilder name = new StringBuilder("fé-").append(i);
+            for (int j = 0; j < i % 40; j++)
+                name.append('x');
+            e = new InotifyEvent(i, i + 1, i + 2, name.toString());
+        }
+        e.queuedNanos = 1000L * i;
+        e.generation = i % 7;
+        return e;
+    }
+
+    private static void assertEvent(int i, InotifyEvent e) {
+        InotifyEvent expected = event(i);
+        assertEquals(expected.getSource(), e.getSource());
+        assertEquals(expected.getMask(), e.getMask());
+        assertEquals(expected.getCookie(), e.getCookie());
+        assertEquals(expected.getName(), e.getName());
+        assertEquals(expected.queuedNanos, e.queuedNanos);
+        assertEquals(expected.generation, e.generation);
+    }
+
+    /**
+     * Test method for {@link SpillQueue#SpillQueue(File, int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSegmentTooSmall() {
+        new SpillQueue(directory, 1024);
+    }
+
+    /**
+     * Test method for {@link SpillQueue#append(InotifyEvent)} and
+     * {@link SpillQueue#drainTo(List, int)}, over many segments.
+     */
+    @Test
+    public void testReadBackOrder() throws IOException {
+        assertTrue(sq.isEmpty());
+        int n = 1000;
+        for (int i = 0; i < n; i++)
+            sq.append(event(i));
+        assertEquals(n, sq.size());
+        assertTrue(segments() > 10);
+
+        List<InotifyEvent> out = new ArrayList<InotifyEvent>();
+        int drained = 0;
+        while (!sq.isEmpty()) {
+            out.clear();
+            int moved = sq.drainTo(out, 7);
+            assertEquals(out.size(), moved);
+            assertTrue(moved > 0 && moved <= 7);
+            for (InotifyEvent e : out)
+                assertEvent(drained++, e);
+        }
+        assertEquals(n, drained);
+        assertEquals(0, sq.drainTo(out, 7));
+        // drained: one segment is kept, rewound, along with the free ones
+        assertEquals(1, segments());
+        assertEquals(2, free());
+    }
+
+    /**
+     * Test method for {@link SpillQueue#drainTo(List, int)}, interleaved
+     * with appends so the queue rolls over into recycled segments.
+     */
+    @Test
+    public void testRecycle() throws IOException {
+        List<InotifyEvent> out = new ArrayList<InotifyEvent>();
+        int appended = 0;
+        int drained = 0;
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 60; i++)
+                sq.append(event(appended++));
+            out.clear();
+            sq.drainTo(out, 50);
+            for (InotifyEvent e : out)
+                assertEvent(drained++, e);
+            assertEquals(appended - drained, sq.size());
+            assertTrue(free() <= 2);
+        }
+        while (!sq.isEmpty()) {
+            out.clear();
+            sq.drainTo(out, 50);
+            for (InotifyEvent e : out)
+                assertEvent(drained++, e);
+        }
+        assertEquals(appended, drained);
+    }
+
+    /**
+     * Test method for {@link SpillQueue#drainTo(List, int)}: events
+     * appended after the queue was drained empty start at the front of the
+     * rewound segment.
+     */
+    @Test
+    public void testRewind() throws IOException {
+        List<InotifyEvent> out = new ArrayList<InotifyEvent>();
+        for (int round = 0; round < 100; round++) {
+            sq.append(event(1));
+            sq.append(event(2));
+            out.clear();
+            assertEquals(2, sq.drainTo(out, 10));
+            assertEvent(1, out.get(0));
+            assertEvent(2, out.get(1));
+            assertEquals(1, segments());
+        }
+    }
+
+    /**
+     * Test method for {@link SpillQueue#append(InotifyEvent)}: an event that
+     * cannot fit in a segment is refused.
+     */
+    @Test
+    public void testEventTooLarge() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < SEGMENT_SIZE; i++)
+            name.append('x');
+        try {
+            sq.append(new InotifyEvent(1, 2, 3, name.toString()));
+            fail("appended an event larger than a segment");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(sq.isEmpty());
+        sq.append(event(1));
+        assertEquals(1, sq.size());
+    }
+
+    /**
+     * Test method for {@link SpillQueue#clear()}.
+     */
+    @Test
+    public void testClear() throws IOException {
+        for (int i = 0; i < 100; i++)
+            sq.append(event(i));
+        sq.clear();
+        assertTrue(sq.isEmpty());
+        assertEquals(0, segments());
+        List<InotifyEvent> out = new ArrayList<InotifyEvent>();
+        assertEquals(0, sq.drainTo(out, 10));
+
+        sq.append(event(4));
+        assertEquals(1, sq.drainTo(out, 10));
+        assertEvent(4, out.get(0));
+    }
+
+    /*
+     * Number of segments holding events, as reported by toString().
+     */
+    private int segments() {
+        return count("segments=");
+    }
+
+    /*
+     * Number of free segments, as reported by toString().
+     */
+    private int free() {
+        return count("free=");
+    }
+
+    private int count(String field) {
+        String s = sq.toString();
+        int start = s.indexOf(field) + field.length();
+        int end = start;
+        while (Character.isDigit(s.charAt(end)))
+            end++;
+        return Integer.parseInt(s.substring(start, end));
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright © 2009 Nick Bargnesi <nick@den-4.com>.  All rights reserved.
+ *
+ * inotify-java is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * inotify-java is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with inotify-java.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * File: WatchTreeTest.java
+ * Project: inotify-java
+ * Package: com.den_4.inotify_java
+ * Author: Nick Bargnesi
+ */
+package com.den_4.inotify_java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Watch tree unit tests.
+ *
+ * @author Nick Bargnesi
+ * @since Version 2.2
+ */
+public class WatchTreeTest {
+
+    WatchTree tree;
+    final Random rnd = new Random(42);
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        tree = new WatchTree();
+        // 1 /data
+        //   2 a
+        //     4 c
+        //       5 d
+        //   3 b
+        assertTrue(tree.addRoot(1, "/data"));
+        assertTrue(tree.add(2, 1, "a"));
+        assertTrue(tree.add(3, 1, "b"));
+        assertTrue(tree.add(4, 2, "c"));
+        assertTrue(tree.add(5, 4, "d"));
+    }
+
+    /**
+     * Test method for {@link WatchTree#add(int, int, String)}.
+     */
+    @Test
+    public void testAdd() {
+        assertEquals(5, tree.size());
+        assertTrue(tree.contains(5));
+        assertFalse(tree.contains(6));
+        assertFalse(tree.contains(-1));
+        assertEquals("/data", tree.getPath(1));
+        assertEquals("/data/a/c/d", tree.getPath(5));
+        assertEquals("/data", tree.getName(1));
+        assertEquals("d", tree.getName(5));
+        assertEquals(4, tree.getParent(5));
+        assertEquals(-1, tree.getParent(1));
+        assertEquals(1, tree.getRoot(5));
+        assertEquals(5, tree.getChild(4, "d"));
+        assertEquals(-1, tree.getChild(4, "e"));
+        assertEquals(-1, tree.getChild(2, "d"));
+
+        // the newest child comes first
+        assertEquals(3, tree.getFirstChild(1));
+        assertEquals(2, tree.getNextSibling(3));
+        assertEquals(-1, tree.getNextSibling(2));
+
+        // a descriptor is added once
+        assertFalse(tree.add(5, 1, "e"));
+        assertFalse(tree.addRoot(1, "/other"));
+        assertEquals(5, tree.size());
+    }
+
+    /**
+     * Test method for {@link WatchTree#add(int, int, String)}: a name taken
+     * by another node replaces it and its subtree.
+     */
+    @Test
+    public void testAddReplaces() {
+        assertTrue(tree.add(9, 1, "a"));
+        assertEquals(9, tree.getChild(1, "a"));
+        assertFalse(tree.contains(2));
+        assertFalse(tree.contains(4));
+        assertFalse(tree.contains(5));
+        assertEquals(3, tree.size());
+        assertEquals("/data/a", tree.getPath(9));
+    }
+
+    /**
+     * Test method for {@link WatchTree#add(int, int, String)}: the root of
+     * the file system is not followed by another slash.
+     */
+    @Test
+    public void testSlashRoot() {
+        WatchTree t = new WatchTree();
+        t.addRoot(0, "/");
+        t.add(1, 0, "etc");
+        t.add(2, 1, "ünïcode");
+        assertEquals("/etc", t.getPath(1));
+        assertEquals("/etc/ünïcode", t.getPath(2));
+        assertEquals(2, t.getChild(1, "ünïcode"));
+    }
+
+    /**
+     * Test method for {@link WatchTree#add(int, int, String)}.
+     */
+    @Test
+    public void testAddInvalid() {
+        try {
+            tree.add(6, 7, "x");
+            fail("added below a parent not in the tree");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            tree.add(-1, 1, "x");
+            fail("added an invalid descriptor");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            tree.add(6, 1, "");
+            fail("added an empty name");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(5, tree.size());
+    }
+
+    /**
+     * Test method for {@link WatchTree#move(int, int, String)}.
+     */
+    @Test
+    public void testMove() {
+        tree.move(4, 3, "c2");
+        assertEquals(3, tree.getParent(4));
+        assertEquals("/data/b/c2", tree.getPath(4));
+        assertEquals("/data/b/c2/d", tree.getPath(5));
+        assertEquals(4, tree.getChild(3, "c2"));
+        assertEquals(-1, tree.getChild(2, "c"));
+        assertEquals(-1, tree.getFirstChild(2));
+        assertEquals(5, tree.size());
+
+        // renamed in place
+        tree.move(4, 3, "c3");
+        assertEquals("/data/b/c3/d", tree.getPath(5));
+        assertEquals(-1, tree.getChild(3, "c2"));
+
+        // moved over another node, which goes with its subtree
+        tree.add(6, 1, "e");
+        tree.add(7, 6, "f");
+        tree.move(4, 1, "e");
+        assertFalse(tree.contains(6));
+        assertFalse(tree.contains(7));
+        assertEquals("/data/e/d", tree.getPath(5));
+        assertEquals(5, tree.size());
+    }
+
+    /**
+     * Test method for {@link WatchTree#move(int, int, String)}.
+     */
+    @Test
+    public void testMoveInvalid() {
+        try {
+            tree.move(2, 5, "a");
+            fail("moved below itself");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            tree.move(1, 2, "x");
+            fail("moved a root");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("/data/a/c/d", tree.getPath(5));
+    }
+
+    /**
+     * Test method for {@link WatchTree#rename(int, String)}.
+     */
+    @Test
+    public void testRename() {
+        tree.rename(1, "/moved/data");
+        assertEquals("/moved/data/a/c/d", tree.getPath(5));
+        assertEquals(2, tree.getChild(1, "a"));
+        try {
+            tree.rename(2, "/a");
+            fail("renamed a folder that is not a root");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test method for {@link WatchTree#remove(int)} and
+     * {@link WatchTree#getSubtree(int)}.
+     */
+    @Test
+    public void testRemove() {
+        assertArrayEquals(new int[] { 2, 4, 5 }, tree.getSubtree(2));
+        assertEquals(3, tree.remove(2));
+        assertEquals(2, tree.size());
+        assertFalse(tree.contains(2));
+        assertFalse(tree.contains(5));
+        assertEquals(-1, tree.getChild(1, "a"));
+        assertEquals(3, tree.getFirstChild(1));
+        assertEquals(-1, tree.getNextSibling(3));
+        assertEquals(0, tree.getSubtree(2).length);
+        assertEquals(0, tree.remove(2));
+
+        // the descriptors may be reused
+        assertTrue(tree.add(2, 3, "a"));
+        assertEquals("/data/b/a", tree.getPath(2));
+
+        assertEquals(3, tree.remove(1));
+        assertEquals(0, tree.size());
+    }
+
+    /**
+     * Test method for {@link WatchTree#getChild(int, String)} after removals:
+     * each deletion from the open-addressing index shifts back the entries
+     * that probed past it, so every remaining node is still found.
+     */
+    @Test
+    public void testIndexDelete() {
+        WatchTree t = new WatchTree();
+        t.addRoot(0, "/r");
+        int n = 2000;
+        boolean[] present = new boolean[n + 1];
+        for (int wd = 1; wd <= n; wd++) {
+            // some folders nest, so nodes of several parents share the index
+            int parent = (wd % 5 == 0) ? wd - 1 : 0;
+            assertTrue(t.add(wd, parent, "f" + wd));
+            present[wd] = true;
+        }
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < n / 4; i++) {
+                int wd = 1 + rnd.nextInt(n);
+                if (!present[wd]) continue;
+                int[] subtree = t.getSubtree(wd);
+                assertEquals(subtree.length, t.remove(wd));
+                for (int s : subtree)
+                    present[s] = false;
+            }
+            // re-add some, reusing their slots
+            for (int wd = 1; wd <= n; wd += 7) {
+                int parent = (wd % 5 == 0 && present[wd - 1]) ? wd - 1 : 0;
+                if (!present[wd] && t.add(wd, parent, "f" + wd))
+                    present[wd] = true;
+            }
+            int size = 1;
+            for (int wd = 1; wd <= n; wd++) {
+                int parent = t.getParent(wd);
+                if (present[wd]) {
+                    size++;
+                    assertEquals(wd, t.getChild(parent, "f" + wd));
+                } else {
+                    assertFalse(t.contains(wd));
+                    assertEquals(-1, t.getChild(0, "f" + wd));
+                    if (wd % 5 == 0 && present[wd - 1])
+                        assertEquals(-1, t.getChild(wd - 1, "f" + wd));
+                }
+            }
+            assertEquals(size, t.size());
+        }
+    }
+
+    /**
+     * Test method for {@link WatchTree#move(int, int, String)}: the names a
+     * move leaves behind are compacted away rather than growing the arena,
+     * and no name is lost doing so.
+     */
+    @Test
+    public void testCompactAfterMoves() {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            longName.append('n');
+        tree.add(6, 1, "x");
+        long before = tree.getMemoryUsage();
+
+        for (int i = 0; i < 10000; i++) {
+            String name = longName.toString() + i;
+            tree.move(6, (i % 2 == 0) ? 2 : 3, name);
+            assertEquals(6, tree.getChild((i % 2 == 0) ? 2 : 3, name));
+        }
+        tree.rename(1, "/renamed");
+
+        // about one million bytes of names were written in all
+        assertTrue(tree.getMemoryUsage() - before < 4096);
+        assertEquals("/renamed/b/" + longName + 9999, tree.getPath(6));
+        assertEquals("/renamed/a/c/d", tree.getPath(5));
+        assertEquals("/renamed/b", tree.getPath(3));
+        assertEquals(5, tree.getChild(4, "d"));
+        assertEquals(6, tree.size());
+    }
+
+    /**
+     * Test method for {@link WatchTree#getPath(int)}: the cached path is
+     * dropped as the tree changes.
+     */
+    @Test
+    public void testPathCache() {
+        assertEquals("/data/a/c/d", tree.getPath(5));
+        tree.rename(1, "/data2");
+        assertEquals("/data2/a/c/d", tree.getPath(5));
+
+        assertEquals("/data2/a/c/d", tree.getPath(5));
+        tree.move(4, 3, "c");
+        assertEquals("/data2/b/c/d", tree.getPath(5));
+
+        // a move of a node the cached path does not run through
+        assertEquals("/data2/b/c/d", tree.getPath(5));
+        tree.move(2, 3, "a2");
+        assertEquals("/data2/b/c/d", tree.getPath(5));
+        assertEquals("/data2/b/a2", tree.getPath(2));
+
+        assertEquals("/data2/b/c/d", tree.getPath(5));
+        tree.remove(5);
+        assertNull(tree.getPath(5));
+        tree.add(5, 2, "d2");
+        assertEquals("/data2/b/a2/d2", tree.getPath(5));
+
+        assertEquals("/data2/b/a2/d2", tree.getPath(5));
+        tree.remove(2);
+        assertTrue(tree.add(5, 1, "d3"));
+        assertEquals("/data2/d3", tree.getPath(5));
+    }
+
+    /**
+     * Test method for {@link WatchTree#getMemoryUsage()}: the tree grows to
+     * hold large watch descriptors.
+     */
+    @Test
+    public void testGrow() {
+        long before = tree.getMemoryUsage();
+        assertTrue(tree.add(100000, 5, "deep"));
+        assertEquals("/data/a/c/d/deep", tree.getPath(100000));
+        assertTrue(tree.getMemoryUsage() > before + 6 * 4 * 100000);
+        assertEquals("/data/a/c/d", tree.getPath(5));
+    }
+}